@@ -21,6 +21,8 @@ import com.google.common.base.Preconditions;
 import android.graphics.Bitmap;
 import android.opengl.GLUtils;
 
+import java.nio.ByteBuffer;
+
 import javax.microedition.khronos.opengles.GL10;
 
 /**
@@ -30,6 +32,8 @@ public class Texture {
   
   private boolean needReload;
   private Bitmap textureBitmap;
+  private ByteBuffer palettedTexture;
+  private int palettedSize;
   private int[] textureHandle;
 
   public Texture() {
@@ -39,6 +43,27 @@ public class Texture {
   public synchronized void updateTexture(Bitmap bitmap) {
     needReload = true;
     textureBitmap = bitmap;
+    palettedTexture = null;
+  }
+
+  /**
+   * Updates the texture with 8 bit palette indices. The palette lookup is done
+   * by OpenGL, so the pixels never need to be converted to colors.
+   * 
+   * @param size
+   *          width and height of the square texture
+   * @param texture
+   *          a 256 entry RGBA palette followed by size * size indices, in the
+   *          layout of {@link GL10#GL_PALETTE8_RGBA8_OES}
+   */
+  public synchronized void updateTexture(int size, ByteBuffer texture) {
+    needReload = true;
+    palettedSize = size;
+    palettedTexture = texture;
+    if (textureBitmap != null) {
+      textureBitmap.recycle();
+      textureBitmap = null;
+    }
   }
 
   public synchronized int getTextureHandle() throws TextureNotInitialized {
@@ -63,7 +88,7 @@ public class Texture {
   }
 
   private synchronized void initTexture(GL10 gl) {
-    Preconditions.checkNotNull(textureBitmap);
+    Preconditions.checkState(textureBitmap != null || palettedTexture != null);
     if (textureHandle == null) {
       textureHandle = new int[1];
       gl.glGenTextures(1, textureHandle, 0);
@@ -75,9 +100,16 @@ public class Texture {
     gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_REPEAT);
     gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_REPEAT);
 
-    GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, textureBitmap, 0);
-    textureBitmap.recycle();
-    textureBitmap = null;
+    if (palettedTexture != null) {
+      palettedTexture.position(0);
+      gl.glCompressedTexImage2D(GL10.GL_TEXTURE_2D, 0, GL10.GL_PALETTE8_RGBA8_OES, palettedSize,
+          palettedSize, 0, palettedTexture.remaining(), palettedTexture);
+      palettedTexture = null;
+    } else {
+      GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, textureBitmap, 0);
+      textureBitmap.recycle();
+      textureBitmap = null;
+    }
     needReload = false;
   }
 }
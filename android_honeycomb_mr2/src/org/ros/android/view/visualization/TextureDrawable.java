@@ -85,6 +85,22 @@ public class TextureDrawable implements OpenGlDrawable {
     texture.updateTexture(newBitmap);
   }
 
+  /**
+   * @param size
+   *          width and height of the texture in cells
+   * @param palettedTexture
+   *          a palette followed by one index per cell, see
+   *          {@link Texture#updateTexture(int, ByteBuffer)}
+   */
+  public void update(geometry_msgs.Pose newOrigin, double newResolution, int size,
+      ByteBuffer palettedTexture) {
+    origin = Transform.newFromPoseMessage(newOrigin);
+    resolution = newResolution;
+    width = size * resolution;
+    height = size * resolution;
+    texture.updateTexture(size, palettedTexture);
+  }
+
   @Override
   public void draw(GL10 gl) {
     if (vertexBuffer == null) {
@@ -16,17 +16,18 @@
 
 package org.ros.android.view.visualization.layer;
 
-import android.graphics.Bitmap;
 import android.os.Handler;
 
 import org.ros.android.view.visualization.Camera;
-import org.ros.android.view.visualization.TextureBitmapUtilities;
 import org.ros.android.view.visualization.TextureDrawable;
 import org.ros.message.MessageListener;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.rosjava_geometry.FrameTransformTree;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import javax.microedition.khronos.opengles.GL10;
 
 /**
@@ -71,18 +72,53 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
     }
   }
 
-  private static int[] occupancyGridToPixelArray(nav_msgs.OccupancyGrid occupancyGrid) {
-    int pixels[] = new int[occupancyGrid.getData().length];
-    for (int i = 0; i < pixels.length; i++) {
-      if (occupancyGrid.getData()[i] == -1) {
-        pixels[i] = COLOR_UNKNOWN;
-      } else if (occupancyGrid.getData()[i] == 0) {
-        pixels[i] = COLOR_FREE;
+  /**
+   * RGBA palette indexed by the unsigned value of each cell.
+   */
+  private static final byte[] PALETTE = createPalette();
+
+  private static byte[] createPalette() {
+    byte[] palette = new byte[256 * 4];
+    for (int i = 0; i < 256; i++) {
+      byte value = (byte) i;
+      int color;
+      if (value == -1) {
+        color = COLOR_UNKNOWN;
+      } else if (value == 0) {
+        color = COLOR_FREE;
+      } else {
+        color = COLOR_OCCUPIED;
+      }
+      palette[4 * i] = (byte) (color >> 16);
+      palette[4 * i + 1] = (byte) (color >> 8);
+      palette[4 * i + 2] = (byte) color;
+      palette[4 * i + 3] = (byte) (color >>> 24);
+    }
+    return palette;
+  }
+
+  /**
+   * Packs the occupancy grid into a square paletted texture. The cells are
+   * copied row by row and used directly as palette indices, so no per cell
+   * color conversion is done on the CPU. Cells outside the grid are unknown.
+   */
+  private static ByteBuffer occupancyGridToPalettedTexture(nav_msgs.OccupancyGrid occupancyGrid,
+      int width, int height, int size) {
+    byte[] data = occupancyGrid.getData();
+    byte[] unknown = new byte[size];
+    Arrays.fill(unknown, (byte) -1);
+    ByteBuffer texture = ByteBuffer.allocateDirect(PALETTE.length + size * size);
+    texture.put(PALETTE);
+    for (int row = 0; row < size; row++) {
+      if (row < height) {
+        texture.put(data, row * width, width);
+        texture.put(unknown, 0, size - width);
       } else {
-        pixels[i] = COLOR_OCCUPIED;
+        texture.put(unknown);
       }
     }
-    return pixels;
+    texture.position(0);
+    return texture;
   }
 
   @Override
@@ -92,13 +128,12 @@ public class OccupancyGridLayer extends SubscriberLayer<nav_msgs.OccupancyGrid>
     getSubscriber().addMessageListener(new MessageListener<nav_msgs.OccupancyGrid>() {
       @Override
       public void onNewMessage(nav_msgs.OccupancyGrid occupancyGridMessage) {
-        Bitmap occupancyGridBitmap =
-            TextureBitmapUtilities.createSquareBitmap(
-                occupancyGridToPixelArray(occupancyGridMessage), (int) occupancyGridMessage
-                    .getInfo().getWidth(), (int) occupancyGridMessage.getInfo().getHeight(),
-                COLOR_UNKNOWN);
+        int width = (int) occupancyGridMessage.getInfo().getWidth();
+        int height = (int) occupancyGridMessage.getInfo().getHeight();
+        int size = Math.max(width, height);
         occupancyGrid.update(occupancyGridMessage.getInfo().getOrigin(), occupancyGridMessage
-            .getInfo().getResolution(), occupancyGridBitmap);
+            .getInfo().getResolution(), size,
+            occupancyGridToPalettedTexture(occupancyGridMessage, width, height, size));
         frame = new GraphName(occupancyGridMessage.getHeader().getFrameId());
         ready = true;
         requestRender();
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.layer.DefaultLayer;
+import org.ros.android.renderer.layer.Layer;
+
+/**
+ * Draws frames of the real renderer on a desktop JVM: a {@link VisViewRenderer} with an {@link OrbitCamera} draws its layers into a
+ * {@link RecordingGLBackend} in place of GL. Shared by the checks which hold a frame to a GL budget or to allocating nothing.
+ * <p>
+ * The draw path reaches android.util.Log and android.os.Handler, so run with an android.jar whose methods return default values instead of throwing, like
+ * the one the Android Gradle plugin builds for unit tests, on a HotSpot JVM for the allocation counter.
+ */
+public class GLFrameHarness {
+	private final RecordingGLBackend gl = new RecordingGLBackend();
+	private final OrbitCamera camera = new OrbitCamera(null, new AvailableFrameTracker());
+	private final List<Layer> layers = new ArrayList<Layer>();
+	private final VisViewRenderer renderer;
+	private final com.sun.management.ThreadMXBean threads;
+	private final long thread = Thread.currentThread().getId();
+
+	public GLFrameHarness(int width, int height) {
+		GLES.setBackend(gl);
+		// Frames are only drawn by frame(), so the scheduler has no view to ask for more
+		renderer = new VisViewRenderer(null, camera, new RenderScheduler(null));
+		renderer.setLayers(layers);
+		renderer.onSurfaceCreated(null, null);
+		renderer.onSurfaceChanged(null, width, height);
+
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if(!threads.isThreadAllocatedMemorySupported())
+			throw new UnsupportedOperationException("This JVM can't count allocated bytes");
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	public RecordingGLBackend getGL() {
+		return gl;
+	}
+
+	public OrbitCamera getCamera() {
+		return camera;
+	}
+
+	public void addLayer(Layer layer) {
+		layers.add(layer);
+	}
+
+	/**
+	 * @return a layer which draws each of the drawables in turn
+	 */
+	public Layer layerOf(final OpenGlDrawable... drawables) {
+		return new DefaultLayer(camera) {
+			@Override
+			public void draw(GL10 glUnused) {
+				for(OpenGlDrawable d : drawables)
+					d.draw(glUnused);
+			}
+		};
+	}
+
+	/**
+	 * Draw a frame with {@link VisViewRenderer#onDrawFrame(GL10)}, leaving only its GL calls recorded
+	 */
+	public void frame() {
+		gl.reset();
+		renderer.onDrawFrame(null);
+	}
+
+	/**
+	 * @return the bytes allocated by the calling thread so far, which must be the thread that made the harness
+	 */
+	public long allocatedBytes() {
+		return threads.getThreadAllocatedBytes(thread);
+	}
+
+	/**
+	 * @return the bytes allocated by reading {@link #allocatedBytes()} itself, to subtract from a measurement
+	 */
+	public long allocationOverhead() {
+		long start = allocatedBytes();
+		return allocatedBytes() - start;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.layer.InteractiveObject;
+import org.ros.android.renderer.layer.Selectable;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.shapes.BoundingBox;
+
+/**
+ * Reports the latency of {@link PickingEngine#pick(int, int, PickingEngine.PickListener)}, from the tap to the listener being called, against the number
+ * of selectables, along with the time of the first pick after the bounds changed, which rebuilds the hierarchy, and the share of taps hitting bounds which
+ * were resolved without the selection pass. Run on a desktop JVM with the project's classes on the classpath.
+ */
+public class PickingEngineBenchmark {
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 720;
+	private static final int[] COUNTS = { 10, 100, 1000, 10000, 100000 };
+	private static final int PICKS = 2000;
+
+	private static final float[] IDENTITY = { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+
+	private static class Item implements Selectable {
+		@Override
+		public boolean isSelected() {
+			return false;
+		}
+
+		@Override
+		public void setSelected(boolean isSelected) {
+		}
+
+		@Override
+		public Map<String, String> getInfo() {
+			return null;
+		}
+
+		@Override
+		public void selectionDraw(GL10 glUnused) {
+		}
+
+		@Override
+		public InteractiveObject getInteractiveObject() {
+			return null;
+		}
+	}
+
+	private static final Object MISSED = new Object();
+	private static final Object AMBIGUOUS = new Object();
+
+	// Hands each result back to the benchmark thread, the picked selectable if it was resolved
+	private static class Result implements PickingEngine.PickListener {
+		final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(1);
+
+		@Override
+		public void onPickMissed() {
+			queue.add(MISSED);
+		}
+
+		@Override
+		public void onPickResolved(Selectable s) {
+			queue.add(s);
+		}
+
+		@Override
+		public void onPickAmbiguous() {
+			queue.add(AMBIGUOUS);
+		}
+
+		Object take() throws InterruptedException {
+			return queue.take();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		checkInvert();
+		checkRotatedBounds();
+		checkNearest();
+
+		float[] projection = frustum(WIDTH / (float) HEIGHT, 0.1f, 200f);
+		Random random = new Random(1);
+		Result result = new Result();
+		System.out.println(String.format("%-10s %10s %10s %10s %8s %9s", "count", "build (ms)", "p50 (us)", "p95 (us)", "hits", "resolved"));
+		for(int count : COUNTS) {
+			// Unit boxes scattered in front of the camera, a tenth of them rotated
+			PickingEngine engine = new PickingEngine();
+			engine.beginFrame(IDENTITY, projection, WIDTH, HEIGHT);
+			BoundingBox unit = new BoundingBox(-0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f);
+			float[] model = new float[16];
+			for(int i = 0; i < count; i++) {
+				float z = -10f - random.nextFloat() * 150f;
+				float x = (random.nextFloat() - 0.5f) * -z * 2f * WIDTH / HEIGHT;
+				float y = (random.nextFloat() - 0.5f) * -z * 2f;
+				Mat4.setTransform(model, x, y, z, 0f, 0f, i % 10 == 0 ? 0.38268343f : 0f, i % 10 == 0 ? 0.9238795f : 1f);
+				engine.recordBounds(new Item(), unit, model);
+			}
+			engine.endFrame();
+
+			long start = System.nanoTime();
+			engine.pick(WIDTH / 2, HEIGHT / 2, result);
+			result.take();
+			long build = System.nanoTime() - start;
+
+			long[] latency = new long[PICKS];
+			int hits = 0, resolved = 0;
+			for(int i = 0; i < PICKS; i++) {
+				int x = random.nextInt(WIDTH), y = random.nextInt(HEIGHT);
+				start = System.nanoTime();
+				engine.pick(x, y, result);
+				Object picked = result.take();
+				latency[i] = System.nanoTime() - start;
+				if(picked != MISSED)
+					hits++;
+				if(picked instanceof Selectable)
+					resolved++;
+			}
+			Arrays.sort(latency);
+			System.out.println(String.format("%-10d %10.2f %10.1f %10.1f %7.0f%% %8.0f%%", count, build / 1e6, latency[PICKS / 2] / 1e3,
+					latency[PICKS * 95 / 100] / 1e3, 100.0 * hits / PICKS, hits == 0 ? 0.0 : 100.0 * resolved / hits));
+			engine.shutdown();
+		}
+	}
+
+	// Symmetric perspective projection with a 60 degree vertical field of view
+	private static float[] frustum(float aspect, float near, float far) {
+		float f = (float) (1 / Math.tan(Math.toRadians(30)));
+		float[] m = new float[16];
+		m[0] = f / aspect;
+		m[5] = f;
+		m[10] = (far + near) / (near - far);
+		m[11] = -1f;
+		m[14] = 2f * far * near / (near - far);
+		return m;
+	}
+
+	private static void checkInvert() {
+		float[] view = new float[16], m = new float[16], inv = new float[16], product = new float[16];
+		Mat4.setTransform(view, 1f, -2f, 3f, 0.1f, 0.2f, 0.3f, 0.927362f);
+		Mat4.multiplyMM(m, frustum(1.5f, 0.1f, 100f), view);
+		if(!Mat4.invert(inv, m))
+			throw new AssertionError("Projection is not singular");
+		Mat4.multiplyMM(product, m, inv);
+		for(int i = 0; i < 16; i++)
+			if(Math.abs(product[i] - IDENTITY[i]) > 1e-4f)
+				throw new AssertionError("m * invert(m) is not the identity at " + i + ": " + product[i]);
+	}
+
+	// A long thin box rotated 45 degrees fills only a diagonal of its world box, so a tap in a corner of the world box must miss
+	private static void checkRotatedBounds() throws InterruptedException {
+		float[] projection = frustum(WIDTH / (float) HEIGHT, 0.1f, 200f);
+		float[] model = new float[16];
+		Mat4.setTransform(model, 0f, 0f, -10f, 0f, 0f, 0.38268343f, 0.9238795f);
+		PickingEngine engine = new PickingEngine();
+		engine.beginFrame(IDENTITY, projection, WIDTH, HEIGHT);
+		Item item = new Item();
+		engine.recordBounds(item, new BoundingBox(-4f, -0.1f, -0.1f, 4f, 0.1f, 0.1f), model);
+		engine.endFrame();
+
+		Result result = new Result();
+		engine.pick(WIDTH / 2, HEIGHT / 2, result);
+		if(result.take() != item)
+			throw new AssertionError("A tap on the box must pick it");
+		// About 2.5 units up and left of the center at 10 units away, inside the world box but off the rotated box's diagonal
+		engine.pick(WIDTH / 2 - 160, HEIGHT / 2 - 160, result);
+		if(result.take() != MISSED)
+			throw new AssertionError("A tap beside the rotated box must miss");
+		engine.shutdown();
+	}
+
+	// Of two boxes behind each other the nearer is picked, unless the ray enters the farther one before it leaves the nearer one
+	private static void checkNearest() throws InterruptedException {
+		float[] projection = frustum(WIDTH / (float) HEIGHT, 0.1f, 200f);
+		float[] model = new float[16];
+		BoundingBox unit = new BoundingBox(-0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f);
+		PickingEngine engine = new PickingEngine();
+		engine.beginFrame(IDENTITY, projection, WIDTH, HEIGHT);
+		Item near = new Item(), far = new Item(), overlapping = new Item();
+		Mat4.setTransform(model, 0f, 0f, -20f, 0f, 0f, 0f, 1f);
+		engine.recordBounds(far, unit, model);
+		Mat4.setTransform(model, 0f, 0f, -10f, 0f, 0f, 0f, 1f);
+		engine.recordBounds(near, unit, model);
+		engine.endFrame();
+
+		Result result = new Result();
+		engine.pick(WIDTH / 2, HEIGHT / 2, result);
+		if(result.take() != near)
+			throw new AssertionError("A tap on two boxes behind each other must pick the nearer one");
+
+		engine.beginFrame(IDENTITY, projection, WIDTH, HEIGHT);
+		engine.recordBounds(near, unit, model);
+		Mat4.setTransform(model, 0f, 0f, -10.5f, 0f, 0f, 0f, 1f);
+		engine.recordBounds(overlapping, unit, model);
+		engine.endFrame();
+		engine.pick(WIDTH / 2, HEIGHT / 2, result);
+		if(result.take() != AMBIGUOUS)
+			throw new AssertionError("A tap on two overlapping boxes must be left to the selection pass");
+		engine.shutdown();
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Reports the throughput of the banded RGB565 conversion of {@link OccupancyGridConverter}, which fans out over a pool sized to the number of cores,
+ * against converting the same tiles one cell at a time on a single thread, for a range of map sizes. ETC1 compression is native code only available on
+ * a device, so only the conversion is measured. Run on a desktop JVM with the project's classes on the classpath.
+ */
+public class OccupancyGridConverterBenchmark {
+	private static final int TILE_SIZE = 256;
+	private static final int[] MAP_SIZES = { 512, 1024, 2048, 4000 };
+	private static final int WARMUP_REPEATS = 5;
+	private static final int REPEATS = 10;
+
+	public static void main(String[] args) {
+		OccupancyGridConverter converter = new OccupancyGridConverter(TILE_SIZE);
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+		System.out.println(String.format("%-10s %8s %14s %14s %8s", "map", "tiles", "serial Mcell/s", "pool Mcell/s", "speedup"));
+		for(int size : MAP_SIZES) {
+			ByteBuffer data = makeMap(size, size);
+			int tiles = (size + TILE_SIZE - 1) / TILE_SIZE;
+			ByteBuffer[][] expected = allocate(tiles);
+			ByteBuffer[][] actual = allocate(tiles);
+
+			for(int i = 0; i < WARMUP_REPEATS; i++) {
+				serialConvert(data, size, size, expected);
+				converter.convert(data, size, size, actual);
+			}
+			for(int r = 0; r < tiles; r++)
+				for(int c = 0; c < tiles; c++)
+					if(!expected[r][c].equals(actual[r][c]))
+						throw new AssertionError("Tile " + r + ", " + c + " of a " + size + " cell map differs");
+
+			long start = System.nanoTime();
+			for(int i = 0; i < REPEATS; i++)
+				serialConvert(data, size, size, expected);
+			long serialNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for(int i = 0; i < REPEATS; i++)
+				converter.convert(data, size, size, actual);
+			long poolNanos = System.nanoTime() - start;
+
+			double cells = (double) tiles * tiles * TILE_SIZE * TILE_SIZE * REPEATS;
+			System.out.println(String.format("%-10s %8d %14.1f %14.1f %7.2fx", size + "x" + size, tiles * tiles, cells / serialNanos * 1000.0, cells / poolNanos
+					* 1000.0, (double) serialNanos / poolNanos));
+		}
+		converter.shutdown();
+	}
+
+	// Free space with walls and unknown regions, in the proportions of a typical SLAM map
+	private static ByteBuffer makeMap(int width, int height) {
+		ByteBuffer data = ByteBuffer.allocate(width * height);
+		Random random = new Random(1);
+		for(int i = 0; i < width * height; i++) {
+			int p = random.nextInt(10);
+			data.put(i, (byte) (p < 6 ? 0 : p < 7 ? 100 : -1));
+		}
+		return data;
+	}
+
+	private static ByteBuffer[][] allocate(int tiles) {
+		ByteBuffer[][] pixels = new ByteBuffer[tiles][tiles];
+		for(int r = 0; r < tiles; r++)
+			for(int c = 0; c < tiles; c++)
+				pixels[r][c] = ByteBuffer.allocateDirect(TILE_SIZE * TILE_SIZE * 2).order(ByteOrder.nativeOrder());
+		return pixels;
+	}
+
+	// The per cell conversion the lookup table and bands replaced, with the same tile layout: rows flipped and black outside the map
+	private static void serialConvert(ByteBuffer data, int width, int height, ByteBuffer[][] pixels) {
+		short free = OccupancyGridConverter.toRgb565(255, 255, 255);
+		short occupied = OccupancyGridConverter.toRgb565(0, 0, 0);
+		short unknown = OccupancyGridConverter.toRgb565(127, 127, 127);
+		for(int row = 0; row < pixels.length; row++) {
+			for(int col = 0; col < pixels[row].length; col++) {
+				ByteBuffer tile = pixels[row][col];
+				for(int ty = 0; ty < TILE_SIZE; ty++) {
+					int v = (row + 1) * TILE_SIZE - 1 - ty;
+					for(int tx = 0; tx < TILE_SIZE; tx++) {
+						int u = col * TILE_SIZE + tx;
+						short color = 0;
+						if(u < width && v < height) {
+							byte occupancy = data.get(v * width + u);
+							color = (occupancy == 0) ? free : (occupancy == 100) ? occupied : unknown;
+						}
+						tile.putShort((ty * TILE_SIZE + tx) * 2, color);
+					}
+				}
+			}
+		}
+	}
+}
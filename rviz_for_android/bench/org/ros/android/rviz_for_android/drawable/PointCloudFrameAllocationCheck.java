@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLFrameHarness;
+import org.ros.android.renderer.OpenGlDrawable;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.shapes.Color;
+import org.ros.android.renderer.shapes.TrianglesShape;
+import org.ros.rosjava_geometry.Quaternion;
+import org.ros.rosjava_geometry.Transform;
+import org.ros.rosjava_geometry.Vector3;
+
+import sensor_msgs.PointField;
+
+/**
+ * Checks that a steady state frame allocates nothing on the Java heap. {@link GLFrameHarness} draws frames of the real renderer with a decaying
+ * {@link PointCloud2GL}, whose older segments are drawn relative to the current pose of their frame through Camera.pushM and popM, and a
+ * {@link TrianglesShape} posed through the camera's matrix stack the way markers are, which takes it through BaseShape.calcMVP and calcNorm. A new cloud
+ * arrives every third frame; it is copied in outside the measured frames, as the subscriber thread does, but uploaded and drawn within them.
+ * <p>
+ * Frames are paced so the number of live segments, and so the size of the segment ring, settles during the warm up. Run with -Xint to check the frame
+ * the way Dalvik runs it, without escape analysis removing short lived objects. With the JIT on, the odd frame also counts what HotSpot allocates while it
+ * swaps in newly compiled code.
+ */
+public class PointCloudFrameAllocationCheck {
+	private static final int WARMUP_FRAMES = 300;
+	private static final int FRAMES = 1000;
+	private static final int POINTS = 1000;
+	private static final int POINT_STEP = 16;
+	private static final float DECAY_SECONDS = 0.05f;
+	private static final long FRAME_MILLIS = 2;
+
+	private static final PointFieldLayout LAYOUT = PointFieldLayout.compile(new String[] { "x", "y", "z", "intensity" }, new int[] { 0, 4, 8, 12 },
+			new byte[] { PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32 }, new int[] { 1, 1, 1, 1 }, POINT_STEP);
+
+	public static void main(String[] args) throws InterruptedException {
+		GLFrameHarness harness = new GLFrameHarness(1280, 720);
+		Camera cam = harness.getCamera();
+
+		PointCloud2GL cloud = new PointCloud2GL(cam, "", "", "");
+		cloud.setDecayTime(DECAY_SECONDS);
+		cloud.setChannelColorMode(3);
+		float[] reference = new float[16];
+		Mat4.setTransform(reference, 1f, 0f, 0f, 0f, 0f, 0f, 1f);
+
+		TrianglesShape shape = new TrianglesShape(cam, new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 }, new float[] { 0, 0, 1, 0, 0, 1, 0, 0, 1 }, new Color(1f, 0f,
+				0f, 1f));
+		harness.addLayer(harness.layerOf(cloud, posed(cam, shape, new Quaternion(0, 0, Math.sin(0.3), Math.cos(0.3)))));
+
+		// Clouds and their arrival poses come from the subscriber thread, so they're made up front
+		ByteBuffer data = ByteBuffer.allocateDirect(POINTS * POINT_STEP).order(ByteOrder.nativeOrder());
+		for(int i = 0; i < POINTS * 4; i++)
+			data.putFloat(i * 4, i * 0.001f);
+		ChannelBuffer payload = ChannelBuffers.wrappedBuffer(data);
+		Transform[] arrivalPoses = new Transform[16];
+		for(int i = 0; i < arrivalPoses.length; i++) {
+			double angle = i * 0.1;
+			arrivalPoses[i] = new Transform(new Vector3(i * 0.1, 0, 0), new Quaternion(0, 0, Math.sin(angle / 2), Math.cos(angle / 2)));
+		}
+
+		for(int frame = 0; frame < WARMUP_FRAMES; frame++)
+			frame(harness, cloud, reference, payload, arrivalPoses, frame);
+
+		long overhead = harness.allocationOverhead();
+		long allocated = 0;
+		int draws = 0;
+		for(int frame = WARMUP_FRAMES; frame < WARMUP_FRAMES + FRAMES; frame++) {
+			allocated += frame(harness, cloud, reference, payload, arrivalPoses, frame) - overhead;
+			draws += harness.getGL().getDrawCalls();
+		}
+
+		System.out.println(String.format("%d frames, %.1f draw calls per frame, %d bytes allocated", FRAMES, (double) draws / FRAMES, allocated));
+		if(allocated != 0)
+			throw new AssertionError("Steady state frames allocated " + allocated + " bytes");
+		System.exit(0);
+	}
+
+	// Returns the bytes allocated while drawing the frame
+	private static long frame(GLFrameHarness harness, PointCloud2GL cloud, float[] reference, ChannelBuffer payload, Transform[] arrivalPoses, int frame)
+			throws InterruptedException {
+		if(frame % 3 == 0)
+			cloud.setData(payload, LAYOUT, arrivalPoses[frame % arrivalPoses.length]);
+		Thread.sleep(FRAME_MILLIS);
+
+		long before = harness.allocatedBytes();
+		cloud.setReferencePose(reference);
+		harness.frame();
+		return harness.allocatedBytes() - before;
+	}
+
+	// Draws a shape under a pose set through the camera's matrix stack, as InteractiveMarkerControl and Marker do
+	private static OpenGlDrawable posed(final Camera cam, final TrianglesShape shape, final Quaternion orientation) {
+		return new OpenGlDrawable() {
+			@Override
+			public void draw(GL10 glUnused) {
+				cam.pushM();
+				cam.translateM(1f, 2f, 0f);
+				cam.rotateM(orientation);
+				cam.rotateM(45f, 0f, 0f, 1f);
+				cam.scaleM(0.5f, 0.5f, 0.5f);
+				shape.draw(glUnused);
+				cam.popM();
+			}
+		};
+	}
+}
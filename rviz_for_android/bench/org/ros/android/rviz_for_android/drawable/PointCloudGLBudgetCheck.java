@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.DirectBufferPool;
+import org.ros.android.renderer.GLFrameHarness;
+import org.ros.android.renderer.OpenGlDrawable;
+import org.ros.android.renderer.RecordingGLBackend;
+import org.ros.android.renderer.RecordingGLBackend.Op;
+import org.ros.android.renderer.shapes.Color;
+import org.ros.android.renderer.shapes.TrianglesShape;
+import org.ros.rosjava_geometry.Quaternion;
+import org.ros.rosjava_geometry.Transform;
+import org.ros.rosjava_geometry.Vector3;
+
+import sensor_msgs.PointField;
+
+/**
+ * Checks the GL work of every frame of the real renderer against a budget, recorded by a {@link RecordingGLBackend}. {@link GLFrameHarness} draws a
+ * decaying {@link PointCloud2GL}, the palette colored {@link MapTilePyramid} MapLayer draws and a {@link TrianglesShape}, each in a layer of its own.
+ * A new cloud arrives every third frame. Once everything has been loaded, a cloud is uploaded exactly once, frames without a new cloud upload only the
+ * client side vertex arrays of the shapes, the same amount every frame, the cloud costs at most one draw call per live segment, its segment ring
+ * creates a buffer only for a cloud it has no free buffer for, no other buffers or textures are created or deleted and no state is set, uniforms
+ * included, to the value it already has. Run on a desktop JVM with the project's classes on the classpath.
+ */
+public class PointCloudGLBudgetCheck {
+	private static final int WARMUP_FRAMES = 200;
+	private static final int FRAMES = 1000;
+	private static final int POINTS = 1000;
+	private static final int POINT_STEP = 16;
+	private static final int CLOUD_BYTES = POINTS * POINT_STEP;
+	private static final int PUSH_INTERVAL = 3;
+	private static final long FRAME_MILLIS = 2;
+
+	private static final int TILE_SIZE = 64;
+	private static final int TILE_ROWS = 4;
+	private static final float MAP_RESOLUTION = 0.05f;
+
+	private static final PointFieldLayout LAYOUT = PointFieldLayout.compile(new String[] { "x", "y", "z", "intensity" }, new int[] { 0, 4, 8, 12 },
+			new byte[] { PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32 }, new int[] { 1, 1, 1, 1 }, POINT_STEP);
+
+	public static void main(String[] args) throws InterruptedException {
+		check(0.1f);
+		check(0f);
+	}
+
+	private static void check(float decaySeconds) throws InterruptedException {
+		GLFrameHarness harness = new GLFrameHarness(1280, 720);
+		Camera cam = harness.getCamera();
+
+		PointCloud2GL cloud = new PointCloud2GL(cam, "", "", "");
+		cloud.setDecayTime(decaySeconds);
+		cloud.setChannelColorMode(3);
+		harness.addLayer(harness.layerOf(cloud));
+		final MapTilePyramid map = makeMap(cam);
+		harness.addLayer(harness.layerOf(new OpenGlDrawable() {
+			@Override
+			public void draw(GL10 glUnused) {
+				map.draw(glUnused);
+			}
+		}));
+		harness.addLayer(harness.layerOf(new TrianglesShape(cam, new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 }, new float[] { 0, 0, 1, 0, 0, 1, 0, 0, 1 },
+				new Color(1f, 0f, 0f, 1f))));
+
+		ByteBuffer data = ByteBuffer.allocateDirect(CLOUD_BYTES).order(ByteOrder.nativeOrder());
+		for(int i = 0; i < POINTS * 4; i++)
+			data.putFloat(i * 4, i * 0.001f);
+		ChannelBuffer payload = ChannelBuffers.wrappedBuffer(data);
+		Transform arrivalPose = new Transform(new Vector3(0.5, 0, 0), new Quaternion(0, 0, 0, 1));
+
+		// Segments live at once: the newest plus every earlier push within the decay time, pushes being at least three paced frames apart
+		int cloudBudget = (int) (decaySeconds * 1000 / (PUSH_INTERVAL * FRAME_MILLIS)) + 1;
+		int maxDraws = cloudBudget + map.getTiles().size() + 1;
+		// The shapes draw from client side arrays, which are copied to GL on every draw
+		long streamed = 0;
+		// The segment ring creates a buffer only when every buffer it holds is live, so never more than the live segments
+		int cloudBuffers = 0;
+		for(int frame = 0; frame < WARMUP_FRAMES; frame++) {
+			if(!frame(harness, cloud, payload, arrivalPose, frame))
+				streamed = harness.getGL().getBytesUploaded();
+			cloudBuffers += harness.getGL().getCount(Op.GEN_BUFFERS);
+		}
+
+		long draws = 0, bytes = 0;
+		for(int frame = WARMUP_FRAMES; frame < WARMUP_FRAMES + FRAMES; frame++) {
+			boolean pushed = frame(harness, cloud, payload, arrivalPose, frame);
+			RecordingGLBackend gl = harness.getGL();
+			int frameDraws = gl.getDrawCalls();
+			long expectedBytes = streamed + (pushed ? CLOUD_BYTES : 0);
+			if(frameDraws < 3 || frameDraws > maxDraws)
+				throw new AssertionError("Frame " + frame + " made " + frameDraws + " draw calls, budget is " + maxDraws);
+			if(gl.getBytesUploaded() != expectedBytes)
+				throw new AssertionError("Frame " + frame + " uploaded " + gl.getBytesUploaded() + " bytes, expected " + expectedBytes);
+			if(gl.getCount(Op.DELETE_BUFFERS) != 0 || gl.getCount(Op.GEN_TEXTURES) != 0 || gl.getCount(Op.DELETE_TEXTURES) != 0)
+				throw new AssertionError("Frame " + frame + " deleted buffers or created or deleted textures");
+			cloudBuffers += gl.getCount(Op.GEN_BUFFERS);
+			if(gl.getCount(Op.GEN_BUFFERS) > (pushed ? 1 : 0) || cloudBuffers > cloudBudget + 1)
+				throw new AssertionError("Frame " + frame + " created a buffer, " + cloudBuffers + " held for at most " + cloudBudget + " live segments");
+			if(gl.getRedundantStateChanges() != 0)
+				throw new AssertionError("Frame " + frame + " made " + gl.getRedundantStateChanges() + " redundant state changes");
+			draws += frameDraws;
+			bytes += gl.getBytesUploaded();
+		}
+		System.out.println(String.format("Decay %.1f s: %.2f draw calls per frame (budget %d), %.0f bytes uploaded per frame, %d of them client side arrays",
+				decaySeconds, (double) draws / FRAMES, maxDraws, (double) bytes / FRAMES, streamed));
+	}
+
+	// Returns true if a cloud arrived for the frame
+	private static boolean frame(GLFrameHarness harness, PointCloud2GL cloud, ChannelBuffer payload, Transform arrivalPose, int frame)
+			throws InterruptedException {
+		boolean push = (frame % PUSH_INTERVAL == 0);
+		if(push)
+			cloud.setData(payload, LAYOUT, arrivalPose);
+		Thread.sleep(FRAME_MILLIS);
+		harness.frame();
+		return push;
+	}
+
+	// Every level of a map of TILE_ROWS by TILE_ROWS tiles, built the way MapLayer builds palette colored tiles
+	private static MapTilePyramid makeMap(Camera cam) {
+		OccupancyPalette palette = new OccupancyPalette("", "");
+		MapTilePyramid map = new MapTilePyramid(cam, TILE_SIZE, MAP_RESOLUTION, TILE_ROWS, TILE_ROWS, TILE_SIZE * TILE_SIZE, Long.MAX_VALUE);
+		for(int level = 0; level < map.getLevelCount(); level++) {
+			int rows = MapTilePyramid.getRows(TILE_ROWS, level);
+			MapTile[][] tiles = new MapTile[rows][rows];
+			for(int row = 0; row < rows; row++) {
+				for(int col = 0; col < rows; col++) {
+					ByteBuffer cells = DirectBufferPool.acquire(TILE_SIZE * TILE_SIZE);
+					for(int i = 0; i < TILE_SIZE * TILE_SIZE; i++)
+						cells.put(i, (byte) ((i + row + col) % 3 == 0 ? 100 : 0));
+					tiles[row][col] = map.createTile(level, row, col, cells, palette);
+				}
+			}
+			map.addLevel(tiles);
+		}
+		return map;
+	}
+}
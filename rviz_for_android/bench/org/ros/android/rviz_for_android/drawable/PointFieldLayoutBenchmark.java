@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import sensor_msgs.PointField;
+
+/**
+ * Compares the range computation of compiled field accessors with a loop which switches on the datatype for every point, for each PointField datatype.
+ * Both paths are warmed up on every datatype before anything is timed, so later datatypes don't run against code compiled for earlier ones, and the best
+ * of several rounds is reported. The project has no JMH setup, so this is a plain main method. Run on a desktop JVM with the project's classes on the
+ * classpath.
+ */
+public class PointFieldLayoutBenchmark {
+	private static final int POINTS = 640 * 480;
+	private static final int POINT_STEP = 32;
+	private static final int FIELD_OFFSET = 16;
+	private static final int WARMUP_REPEATS = 20;
+	private static final int ROUNDS = 5;
+	private static final int REPEATS = 20;
+
+	public static void main(String[] args) {
+		byte[] datatypes = { PointField.INT8, PointField.UINT8, PointField.INT16, PointField.UINT16, PointField.INT32, PointField.UINT32, PointField.FLOAT32,
+				PointField.FLOAT64 };
+		String[] typeNames = { "INT8", "UINT8", "INT16", "UINT16", "INT32", "UINT32", "FLOAT32", "FLOAT64" };
+		ByteBuffer data = ByteBuffer.allocateDirect(POINTS * POINT_STEP).order(ByteOrder.LITTLE_ENDIAN);
+		Random random = new Random(1);
+		for(int i = 0; i < data.capacity(); i++)
+			data.put(i, (byte) random.nextInt());
+
+		PointFieldLayout.FieldAccessor[] fields = new PointFieldLayout.FieldAccessor[datatypes.length];
+		for(int t = 0; t < datatypes.length; t++) {
+			PointFieldLayout layout = PointFieldLayout.compile(new String[] { "x", "y", "z", "value" }, new int[] { 0, 4, 8, FIELD_OFFSET }, new byte[] {
+					PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32, datatypes[t] }, new int[] { 1, 1, 1, 1 }, POINT_STEP);
+			fields[t] = layout.getField(3);
+		}
+
+		// Warm up both paths on every datatype, checking they agree
+		float[] expected = new float[2], actual = new float[2];
+		for(int i = 0; i < WARMUP_REPEATS; i++) {
+			for(int t = 0; t < datatypes.length; t++) {
+				switchRange(data, datatypes[t], expected);
+				if(!fields[t].range(data, POINTS, actual) || Float.compare(expected[0], actual[0]) != 0 || Float.compare(expected[1], actual[1]) != 0)
+					throw new AssertionError("Range mismatch for " + typeNames[t]);
+			}
+		}
+		checkAllNaN();
+
+		long[] switchNanos = new long[datatypes.length], layoutNanos = new long[datatypes.length];
+		Arrays.fill(switchNanos, Long.MAX_VALUE);
+		Arrays.fill(layoutNanos, Long.MAX_VALUE);
+		for(int round = 0; round < ROUNDS; round++) {
+			for(int t = 0; t < datatypes.length; t++) {
+				long start = System.nanoTime();
+				for(int i = 0; i < REPEATS; i++)
+					switchRange(data, datatypes[t], expected);
+				switchNanos[t] = Math.min(switchNanos[t], System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for(int i = 0; i < REPEATS; i++)
+					fields[t].range(data, POINTS, actual);
+				layoutNanos[t] = Math.min(layoutNanos[t], System.nanoTime() - start);
+			}
+		}
+
+		System.out.println(String.format("%-8s %12s %12s", "type", "switch Mpt/s", "layout Mpt/s"));
+		for(int t = 0; t < datatypes.length; t++)
+			System.out.println(String.format("%-8s %12.1f %12.1f", typeNames[t], rate(switchNanos[t]), rate(layoutNanos[t])));
+	}
+
+	// A field with no numbers has no range, so the previous range must be kept
+	private static void checkAllNaN() {
+		ByteBuffer data = ByteBuffer.allocate(4 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0; i < 4; i++)
+			data.putFloat(i * 4, Float.NaN);
+		PointFieldLayout layout = PointFieldLayout.compile(new String[] { "value" }, new int[] { 0 }, new byte[] { PointField.FLOAT32 }, new int[] { 1 }, 4);
+		float[] minMax = { 0f, 1f };
+		if(layout.getField(0).range(data, 4, minMax) || minMax[0] != 0f || minMax[1] != 1f)
+			throw new AssertionError("An all NaN field must not have a range");
+	}
+
+	private static double rate(long nanos) {
+		return (double) POINTS * REPEATS / nanos * 1000.0;
+	}
+
+	// The decoding loop accessors replaced, switching on the datatype for every point
+	private static void switchRange(ByteBuffer data, byte datatype, float[] minMax) {
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for(int i = 0; i < POINTS; i++) {
+			int pos = i * POINT_STEP + FIELD_OFFSET;
+			float val;
+			switch(datatype) {
+			case PointField.INT8:
+				val = data.get(pos);
+				break;
+			case PointField.UINT8:
+				val = data.get(pos) & 0xff;
+				break;
+			case PointField.INT16:
+				val = data.getShort(pos);
+				break;
+			case PointField.UINT16:
+				val = data.getChar(pos);
+				break;
+			case PointField.INT32:
+				val = data.getInt(pos);
+				break;
+			case PointField.UINT32:
+				val = data.getInt(pos) & 0xffffffffL;
+				break;
+			case PointField.FLOAT32:
+				val = data.getFloat(pos);
+				break;
+			case PointField.FLOAT64:
+				val = (float) data.getDouble(pos);
+				break;
+			default:
+				val = 0f;
+			}
+			if(val < min)
+				min = val;
+			if(val > max)
+				max = val;
+		}
+		minMax[0] = min;
+		minMax[1] = max;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import sensor_msgs.PointField;
+
+/**
+ * Reports the throughput of {@link VoxelGridFilter} in points per second for a range of leaf sizes, on a synthetic 640x480 organized depth camera cloud.
+ * Run on a desktop JVM with the project's classes on the classpath.
+ */
+public class VoxelGridFilterBenchmark {
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+	private static final int POINTS = WIDTH * HEIGHT;
+	private static final int POINT_STEP = 16;
+	private static final float[] LEAF_SIZES = { 0.005f, 0.01f, 0.02f, 0.05f, 0.1f, 0.2f };
+	private static final int REPEATS = 20;
+
+	private static final PointFieldLayout LAYOUT = PointFieldLayout.compile(new String[] { "x", "y", "z", "rgb" }, new int[] { 0, 4, 8, 12 }, new byte[] {
+			PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32, PointField.FLOAT32 }, new int[] { 1, 1, 1, 1 }, POINT_STEP);
+
+	public static void main(String[] args) {
+		checkCentroid();
+
+		ByteBuffer src = ByteBuffer.allocateDirect(POINTS * POINT_STEP).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer dst = ByteBuffer.allocateDirect(POINTS * POINT_STEP).order(ByteOrder.LITTLE_ENDIAN);
+		fillDepthImage(src);
+		VoxelGridFilter filter = new VoxelGridFilter();
+
+		System.out.println(String.format("%-10s %10s %10s", "leaf (m)", "kept", "Mpt/s"));
+		for(float leaf : LEAF_SIZES) {
+			int kept = 0;
+			for(int i = 0; i < REPEATS; i++) {
+				dst.clear();
+				kept = filter.filter(src, LAYOUT, POINTS, leaf, dst);
+			}
+			long start = System.nanoTime();
+			for(int i = 0; i < REPEATS; i++) {
+				dst.clear();
+				filter.filter(src, LAYOUT, POINTS, leaf, dst);
+			}
+			long nanos = System.nanoTime() - start;
+			System.out.println(String.format("%-10.3f %10d %10.1f", leaf, kept, (double) POINTS * REPEATS / nanos * 1000.0));
+		}
+	}
+
+	// A wall two to four meters away, seen through a 58 by 45 degree field of view, with a few missing returns
+	private static void fillDepthImage(ByteBuffer src) {
+		Random random = new Random(1);
+		for(int v = 0; v < HEIGHT; v++) {
+			for(int u = 0; u < WIDTH; u++) {
+				int base = (v * WIDTH + u) * POINT_STEP;
+				float depth = 2f + 2f * u / WIDTH + random.nextFloat() * 0.01f;
+				boolean missing = random.nextInt(50) == 0;
+				src.putFloat(base, missing ? Float.NaN : depth);
+				src.putFloat(base + 4, depth * (u - WIDTH / 2) / WIDTH * 1.1f);
+				src.putFloat(base + 8, depth * (v - HEIGHT / 2) / HEIGHT * 0.83f);
+				src.putInt(base + 12, random.nextInt());
+			}
+		}
+	}
+
+	// Two points in one voxel and one in another must come out as the first voxel's centroid and the lone point
+	private static void checkCentroid() {
+		ByteBuffer src = ByteBuffer.allocate(3 * POINT_STEP).order(ByteOrder.LITTLE_ENDIAN);
+		float[][] points = { { 0.1f, 0.2f, 0.3f }, { 0.3f, 0.4f, 0.5f }, { 1.5f, 1.5f, 1.5f } };
+		for(int i = 0; i < points.length; i++) {
+			for(int c = 0; c < 3; c++)
+				src.putFloat(i * POINT_STEP + c * 4, points[i][c]);
+			src.putInt(i * POINT_STEP + 12, i);
+		}
+		ByteBuffer dst = ByteBuffer.allocate(3 * POINT_STEP).order(ByteOrder.LITTLE_ENDIAN);
+		int kept = new VoxelGridFilter().filter(src, LAYOUT, 3, 1f, dst);
+		float[] expected = { 0.2f, 0.3f, 0.4f, 1.5f, 1.5f, 1.5f };
+		if(kept != 2)
+			throw new AssertionError("Expected 2 points, got " + kept);
+		for(int i = 0; i < 2; i++)
+			for(int c = 0; c < 3; c++)
+				if(Math.abs(dst.getFloat(i * POINT_STEP + c * 4) - expected[i * 3 + c]) > 1e-6f)
+					throw new AssertionError("Point " + i + " is not at its voxel's centroid");
+		if(dst.getInt(12) != 0 || dst.getInt(POINT_STEP + 12) != 2)
+			throw new AssertionError("Other fields must come from the first point in each voxel");
+	}
+}
@@ -25,6 +25,11 @@ public interface Camera {
 	public abstract void setCamera(Vector3 newCameraPoint);
 
 	public abstract Vector3 getCamera();
+
+	/**
+	 * Copy the camera's location into the first three elements of out, without allocating like {@link #getCamera()}
+	 */
+	public abstract void getCameraLocation(float[] out);
 	
 	public abstract float[] getViewMatrix();
 
@@ -72,6 +77,11 @@ public interface Camera {
 	
 	public abstract void applyTransform(Transform t);
 	
+	/**
+	 * Multiply the model matrix by a column major transformation matrix, such as one from {@link TransformCache}
+	 */
+	public abstract void applyTransform(float[] matrix);
+	
 	public abstract void loadMatrixM(float[] matrix);
 	
 	public abstract SelectionManager getSelectionManager();
@@ -82,6 +92,31 @@ public interface Camera {
 	
 	public AvailableFrameTracker getFrameTracker();
 	
+	/**
+	 * @return true if the camera is still moving on its own, for instance after a fling
+	 */
+	public abstract boolean isMoving();
+	
+	/**
+	 * @return the transforms of the frame being drawn
+	 */
+	public abstract TransformCache getTransformCache();
+	
+	/**
+	 * @return the per layer counts of shapes drawn and culled
+	 */
+	public abstract RenderStats getRenderStats();
+	
+	/**
+	 * @return the queue layers use to draw many shapes sorted by GL state
+	 */
+	public abstract DrawQueue getDrawQueue();
+	
+	/**
+	 * @return the rolling frame, draw and message handling timings of each layer
+	 */
+	public abstract FrameProfiler getFrameProfiler();
+	
 	public interface FixedFrameListener {
 		public void fixedFrameChanged(GraphName newFrame);
 	}
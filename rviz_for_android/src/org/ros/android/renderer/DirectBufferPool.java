@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import android.util.Log;
+
+/**
+ * Moves message payloads into direct buffers without intermediate heap copies. Direct buffers are pooled in power of two size classes so large per-message
+ * buffers are reused rather than reallocated, and allocation counters are kept to verify the pool is doing its job.
+ */
+public final class DirectBufferPool {
+	private DirectBufferPool() {
+	}
+
+	// Buffers smaller than this aren't worth pooling
+	private static final int MIN_POOLED_BITS = 12;
+	private static final int MAX_POOLED_BITS = 30;
+	private static final int MAX_PER_CLASS = 4;
+	private static final long MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+	@SuppressWarnings("unchecked")
+	private static final ArrayDeque<ByteBuffer>[] pool = new ArrayDeque[MAX_POOLED_BITS + 1];
+	private static long retainedBytes = 0;
+
+	private static final AtomicLong allocations = new AtomicLong();
+	private static final AtomicLong allocatedBytes = new AtomicLong();
+	private static final AtomicLong reuses = new AtomicLong();
+	private static final AtomicLong ingestedBytes = new AtomicLong();
+
+	/**
+	 * Get a zero-copy view of the readable bytes of a message buffer. The view is indexed from zero, has the byte order of the message and is only valid for
+	 * as long as the message is.
+	 */
+	public static ByteBuffer view(ChannelBuffer data) {
+		return data.toByteBuffer(data.readerIndex(), data.readableBytes()).slice().order(data.order());
+	}
+
+	/**
+	 * Copy the readable bytes of a message buffer into a direct buffer in a single bulk transfer. If dst is too small it is released back to the pool and a
+	 * larger buffer is acquired.
+	 *
+	 * @param data
+	 *            message buffer
+	 * @param dst
+	 *            buffer to reuse, may be null
+	 * @return a direct buffer with position zero and limit at the end of the copied data, in the byte order of the message
+	 */
+	public static ByteBuffer ingest(ChannelBuffer data, ByteBuffer dst) {
+		int bytes = data.readableBytes();
+		if(dst == null || dst.capacity() < bytes) {
+			release(dst);
+			dst = acquire(bytes);
+		}
+		dst.clear();
+		dst.order(data.order());
+		if(data.hasArray()) {
+			dst.put(data.array(), data.arrayOffset() + data.readerIndex(), bytes);
+		} else {
+			dst.limit(bytes);
+			data.getBytes(data.readerIndex(), dst);
+		}
+		dst.flip();
+		ingestedBytes.addAndGet(bytes);
+		return dst;
+	}
+
+	/**
+	 * Get a direct buffer with at least the requested capacity, in native byte order. Position is zero and limit is the capacity.
+	 */
+	public static ByteBuffer acquire(int bytes) {
+		int bits = sizeClass(bytes);
+		if(bits <= MAX_POOLED_BITS) {
+			synchronized(pool) {
+				ArrayDeque<ByteBuffer> free = pool[bits];
+				if(free != null && !free.isEmpty()) {
+					ByteBuffer buf = free.pop();
+					retainedBytes -= buf.capacity();
+					reuses.incrementAndGet();
+					buf.clear();
+					return buf.order(ByteOrder.nativeOrder());
+				}
+			}
+		}
+		int capacity = (bits <= MAX_POOLED_BITS) ? (1 << bits) : bytes;
+		allocations.incrementAndGet();
+		allocatedBytes.addAndGet(capacity);
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Return a buffer obtained from {@link #acquire(int)} or {@link #ingest(ChannelBuffer, ByteBuffer)} to the pool. The caller must not use it afterwards.
+	 * Null and non-pooled buffers are ignored.
+	 */
+	public static void release(ByteBuffer buf) {
+		if(buf == null || !buf.isDirect())
+			return;
+		int capacity = buf.capacity();
+		int bits = sizeClass(capacity);
+		if(bits > MAX_POOLED_BITS || (1 << bits) != capacity)
+			return;
+		synchronized(pool) {
+			if(retainedBytes + capacity > MAX_RETAINED_BYTES)
+				return;
+			if(pool[bits] == null)
+				pool[bits] = new ArrayDeque<ByteBuffer>(MAX_PER_CLASS);
+			if(pool[bits].size() < MAX_PER_CLASS) {
+				pool[bits].push(buf);
+				retainedBytes += capacity;
+			}
+		}
+	}
+
+	private static int sizeClass(int bytes) {
+		if(bytes <= (1 << MIN_POOLED_BITS))
+			return MIN_POOLED_BITS;
+		return 32 - Integer.numberOfLeadingZeros(bytes - 1);
+	}
+
+	/**
+	 * @return the number of direct buffers allocated by the pool
+	 */
+	public static long getAllocationCount() {
+		return allocations.get();
+	}
+
+	/**
+	 * @return the total size of all direct buffers allocated by the pool
+	 */
+	public static long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * @return the number of requests satisfied by a pooled buffer
+	 */
+	public static long getReuseCount() {
+		return reuses.get();
+	}
+
+	/**
+	 * @return the total number of message bytes copied by {@link #ingest(ChannelBuffer, ByteBuffer)}
+	 */
+	public static long getIngestedBytes() {
+		return ingestedBytes.get();
+	}
+
+	public static void logStats(String tag) {
+		Log.d(tag, "Direct buffers: " + allocations.get() + " allocations (" + allocatedBytes.get() + " bytes), " + reuses.get() + " reuses, " + ingestedBytes.get() + " bytes ingested");
+	}
+}
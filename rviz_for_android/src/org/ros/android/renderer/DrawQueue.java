@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.Arrays;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.BaseShapeInterface;
+import org.ros.android.renderer.shapes.Color;
+import org.ros.rosjava_geometry.Transform;
+
+/**
+ * Collects shapes drawn by a layer and draws them sorted by program, then texture, then vertex buffer, so consecutive draws share as much GL state as
+ * possible and {@link GLState} can skip the redundant changes. The model matrix, color and transform of each shape are captured when it is submitted, so
+ * one shape may be submitted several times per frame. The marker and interactive marker layers draw through the queue; layers which draw a single
+ * object draw it directly. Must only be used from the GL thread.
+ */
+public class DrawQueue {
+	private static class Item {
+		final float[] model = new float[16];
+		BaseShapeInterface shape;
+		Color color;
+		Transform transform;
+	}
+
+	// Sort keys hold the program, texture and vertex buffer names above the submission index, so sorting the keys sorts the draws. Names too large for
+	// their field share a slot with smaller ones, which only costs state changes.
+	private static final int INDEX_BITS = 20, BUFFER_BITS = 18, TEXTURE_BITS = 14, PROGRAM_BITS = 11;
+	private static final int MAX_ITEMS = 1 << INDEX_BITS;
+
+	private final Camera cam;
+	private Item[] items = new Item[0];
+	private long[] keys = new long[0];
+	private int size = 0;
+	private boolean recording = false;
+
+	public DrawQueue(Camera cam) {
+		this.cam = cam;
+	}
+
+	/**
+	 * Start collecting shapes. Until {@link #flush(GL10)} is called, submitted shapes are queued instead of drawn.
+	 */
+	public void begin() {
+		recording = true;
+	}
+
+	/**
+	 * Queue a shape to be drawn with the current model matrix, or draw it immediately if the queue isn't collecting
+	 */
+	public void submit(GL10 glUnused, BaseShapeInterface shape) {
+		if(!recording) {
+			shape.draw(glUnused);
+			return;
+		}
+
+		if(size == MAX_ITEMS)
+			drawQueued(glUnused);
+		if(size == items.length) {
+			items = Arrays.copyOf(items, Math.max(16, size * 2));
+			keys = Arrays.copyOf(keys, items.length);
+			for(int i = size; i < items.length; i++)
+				items[i] = new Item();
+		}
+		Item item = items[size];
+		System.arraycopy(cam.getModelMatrix(), 0, item.model, 0, 16);
+		item.shape = shape;
+		item.color = shape.getColor();
+		item.transform = shape.getTransform();
+		long key = 0;
+		if(shape instanceof BaseShape) {
+			BaseShape bs = (BaseShape) shape;
+			key = field(bs.getProgram().getProgramID(), PROGRAM_BITS);
+			key = (key << TEXTURE_BITS) | field(bs.getTexture(), TEXTURE_BITS);
+			key = (key << BUFFER_BITS) | field(bs.getArrayBuffer(), BUFFER_BITS);
+		}
+		keys[size] = (key << INDEX_BITS) | size;
+		size++;
+	}
+
+	private static long field(int name, int bits) {
+		return name & ((1L << bits) - 1);
+	}
+
+	/**
+	 * Draw the queued shapes in state order and stop collecting
+	 */
+	public void flush(GL10 glUnused) {
+		recording = false;
+		drawQueued(glUnused);
+	}
+
+	private void drawQueued(GL10 glUnused) {
+		Arrays.sort(keys, 0, size);
+		for(int i = 0; i < size; i++) {
+			Item item = items[(int) (keys[i] & (MAX_ITEMS - 1))];
+			item.shape.setColor(item.color);
+			item.shape.setTransform(item.transform);
+			cam.pushM();
+			cam.loadMatrixM(item.model);
+			item.shape.draw(glUnused);
+			cam.popM();
+
+			item.shape = null;
+			item.color = null;
+			item.transform = null;
+		}
+		size = 0;
+	}
+}
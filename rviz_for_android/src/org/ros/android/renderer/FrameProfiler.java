@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.ros.android.renderer.layer.DefaultLayer;
+import org.ros.android.renderer.layer.Layer;
+
+/**
+ * Rolling timings of each frame, of each layer's draw call and of each layer's message handling, reported as percentiles over the most recent samples.
+ * GPU time is only measured while GPU sampling is on: every few frames the renderer calls glFinish before and after each layer, so the time includes
+ * the layer's CPU time and stalls the pipeline. Samples may be recorded and read from any thread. Reports also include the shapes each layer drew and
+ * culled in {@link RenderStats} and the state changes counted by {@link GLState} in the last frame.
+ */
+public class FrameProfiler {
+	public static enum Metric {
+		DRAW("Draw"), GPU("GPU"), MESSAGE("Message");
+
+		private final String label;
+
+		Metric(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	/**
+	 * A fixed size window of the most recent samples
+	 */
+	public static class RollingSamples {
+		private final long[] samples;
+		private int next = 0;
+		private int count = 0;
+
+		public RollingSamples(int size) {
+			samples = new long[size];
+		}
+
+		public synchronized void add(long nanos) {
+			samples[next] = nanos;
+			next = (next + 1) % samples.length;
+			if(count < samples.length)
+				count++;
+		}
+
+		public synchronized void clear() {
+			next = 0;
+			count = 0;
+		}
+
+		public synchronized int getCount() {
+			return count;
+		}
+
+		/**
+		 * @param fractions
+		 *            the percentiles to compute, between 0 and 1
+		 * @return the samples at each percentile in nanoseconds, or zeros if there are no samples
+		 */
+		public long[] getPercentiles(double... fractions) {
+			long[] sorted;
+			synchronized(this) {
+				sorted = Arrays.copyOf(samples, count);
+			}
+			long[] result = new long[fractions.length];
+			if(sorted.length == 0)
+				return result;
+			Arrays.sort(sorted);
+			// Nearest rank
+			for(int i = 0; i < fractions.length; i++) {
+				int rank = (int) Math.ceil(fractions[i] * sorted.length) - 1;
+				result[i] = sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+			}
+			return result;
+		}
+	}
+
+	public static final int WINDOW = 256;
+	private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+	private static final int GPU_SAMPLE_INTERVAL = 10;
+
+	private static final String[] GL_COUNTERS = { "Program changes", "Texture binds", "Buffer binds", "Uniform sets" };
+
+	private final RenderStats renderStats;
+	private final Map<Layer, RollingSamples[]> layers = Collections.synchronizedMap(new WeakHashMap<Layer, RollingSamples[]>());
+	private final RollingSamples frameTimes = new RollingSamples(WINDOW);
+	private final RollingSamples frameIntervals = new RollingSamples(WINDOW);
+
+	private volatile boolean gpuSampling = false;
+	private boolean gpuSampleFrame = false;
+	private int frame = 0;
+	private long frameStart = 0;
+	private long lastFrameStart = 0;
+
+	public FrameProfiler(RenderStats renderStats) {
+		this.renderStats = renderStats;
+	}
+
+	/**
+	 * Start timing a frame. Called on the GL thread.
+	 */
+	public void beginFrame() {
+		frame++;
+		gpuSampleFrame = gpuSampling && (frame % GPU_SAMPLE_INTERVAL == 0);
+		frameStart = System.nanoTime();
+		if(lastFrameStart != 0)
+			frameIntervals.add(frameStart - lastFrameStart);
+		lastFrameStart = frameStart;
+	}
+
+	/**
+	 * Finish timing a frame. Called on the GL thread.
+	 */
+	public void endFrame() {
+		frameTimes.add(System.nanoTime() - frameStart);
+	}
+
+	/**
+	 * Start timing a layer's draw call. On GPU sample frames this waits for earlier GL commands to finish. Called on the GL thread.
+	 *
+	 * @return the start time to pass to {@link #endDraw(Layer, long)}
+	 */
+	public long beginDraw() {
+		if(gpuSampleFrame)
+			GLES.glFinish();
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record the time a layer's draw call took. On GPU sample frames this also waits for the layer's GL commands to finish and records the total.
+	 */
+	public void endDraw(Layer layer, long start) {
+		record(layer, Metric.DRAW, System.nanoTime() - start);
+		if(gpuSampleFrame) {
+			GLES.glFinish();
+			record(layer, Metric.GPU, System.nanoTime() - start);
+		}
+	}
+
+	public void record(Layer layer, Metric metric, long nanos) {
+		RollingSamples[] samples;
+		synchronized(layers) {
+			samples = layers.get(layer);
+			if(samples == null) {
+				samples = new RollingSamples[Metric.values().length];
+				for(int i = 0; i < samples.length; i++)
+					samples[i] = new RollingSamples(WINDOW);
+				layers.put(layer, samples);
+			}
+		}
+		samples[metric.ordinal()].add(nanos);
+	}
+
+	public void setGpuSampling(boolean gpuSampling) {
+		this.gpuSampling = gpuSampling;
+	}
+
+	public boolean isGpuSampling() {
+		return gpuSampling;
+	}
+
+	/**
+	 * Forget all samples
+	 */
+	public void reset() {
+		layers.clear();
+		frameTimes.clear();
+		frameIntervals.clear();
+	}
+
+	/**
+	 * @return a line per layer and metric with its p50, p95 and p99 in milliseconds and a line per layer with the shapes it drew and culled, preceded by the
+	 *         frame rate, frame time and GL state changes
+	 */
+	public List<String> getReport() {
+		List<String> lines = new ArrayList<String>();
+		long[] interval = frameIntervals.getPercentiles(0.5);
+		lines.add(String.format(Locale.US, "%-24s %5.1f fps", "Frame rate", interval[0] == 0 ? 0f : 1e9f / interval[0]));
+		lines.add(format("Frame", frameTimes));
+		int[] gl = getGLCounts();
+		for(int i = 0; i < GL_COUNTERS.length; i++)
+			lines.add(String.format(Locale.US, "%-24s %6d, %d skipped", GL_COUNTERS[i], gl[i * 2], gl[i * 2 + 1]));
+		for(Map.Entry<Layer, RollingSamples[]> e : snapshot()) {
+			String name = nameOf(e.getKey());
+			RollingSamples[] samples = e.getValue();
+			for(Metric m : Metric.values())
+				if(samples[m.ordinal()].getCount() > 0)
+					lines.add(format(name + " " + m, samples[m.ordinal()]));
+			int drawn = renderStats.getDrawnCount(e.getKey());
+			int culled = renderStats.getCulledCount(e.getKey());
+			if(drawn + culled > 0)
+				lines.add(String.format(Locale.US, "%-24s %6d, %d culled", name + " Shapes", drawn, culled));
+		}
+		return lines;
+	}
+
+	/**
+	 * Write the percentiles of every layer and metric as CSV in microseconds, one row per layer and metric. Counts, the shapes drawn and culled by each layer
+	 * and the GL state changes of the last frame, follow as rows with only the count column filled in.
+	 */
+	public void writeCsv(Writer out) throws IOException {
+		out.write("name,metric,samples,p50_us,p95_us,p99_us,count\n");
+		writeRow(out, "Frame", "Interval", frameIntervals);
+		writeRow(out, "Frame", "Time", frameTimes);
+		List<Map.Entry<Layer, RollingSamples[]>> entries = snapshot();
+		for(Map.Entry<Layer, RollingSamples[]> e : entries) {
+			RollingSamples[] samples = e.getValue();
+			for(Metric m : Metric.values())
+				if(samples[m.ordinal()].getCount() > 0)
+					writeRow(out, nameOf(e.getKey()), m.toString(), samples[m.ordinal()]);
+		}
+		for(Map.Entry<Layer, RollingSamples[]> e : entries) {
+			writeCount(out, nameOf(e.getKey()), "Shapes drawn", renderStats.getDrawnCount(e.getKey()));
+			writeCount(out, nameOf(e.getKey()), "Shapes culled", renderStats.getCulledCount(e.getKey()));
+		}
+		int[] gl = getGLCounts();
+		for(int i = 0; i < GL_COUNTERS.length; i++) {
+			writeCount(out, "GL state", GL_COUNTERS[i], gl[i * 2]);
+			writeCount(out, "GL state", GL_COUNTERS[i] + " skipped", gl[i * 2 + 1]);
+		}
+		out.flush();
+	}
+
+	private List<Map.Entry<Layer, RollingSamples[]>> snapshot() {
+		synchronized(layers) {
+			return new ArrayList<Map.Entry<Layer, RollingSamples[]>>(layers.entrySet());
+		}
+	}
+
+	// Made and skipped counts, in the order of GL_COUNTERS
+	private static int[] getGLCounts() {
+		return new int[] { GLState.getProgramChanges(), GLState.getProgramChangesSkipped(), GLState.getTextureBinds(), GLState.getTextureBindsSkipped(),
+				GLState.getBufferBinds(), GLState.getBufferBindsSkipped(), GLState.getUniformSets(), GLState.getUniformSetsSkipped() };
+	}
+
+	private static String nameOf(Layer layer) {
+		if(layer instanceof DefaultLayer)
+			return ((DefaultLayer) layer).getName();
+		return layer.getClass().getSimpleName();
+	}
+
+	private static String format(String name, RollingSamples samples) {
+		long[] p = samples.getPercentiles(PERCENTILES);
+		return String.format(Locale.US, "%-24s %6.2f %6.2f %6.2f ms", name, p[0] / 1e6, p[1] / 1e6, p[2] / 1e6);
+	}
+
+	private static void writeRow(Writer out, String name, String metric, RollingSamples samples) throws IOException {
+		long[] p = samples.getPercentiles(PERCENTILES);
+		out.write(name.replace(',', ' ') + "," + metric + "," + samples.getCount() + "," + p[0] / 1000 + "," + p[1] / 1000 + "," + p[2] / 1000 + ",\n");
+	}
+
+	private static void writeCount(Writer out, String name, String metric, int count) throws IOException {
+		out.write(name.replace(',', ' ') + "," + metric + ",,,,," + count + "\n");
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES 2.0 calls the renderer makes. Drawing code calls them through {@link GLES}, so another implementation can be swapped in to run the
+ * renderer off the device, for instance {@link RecordingGLBackend}.
+ */
+public interface GLBackend {
+	void glActiveTexture(int texture);
+	void glAttachShader(int program, int shader);
+	void glBindAttribLocation(int program, int index, String name);
+	void glBindBuffer(int target, int buffer);
+	void glBindFramebuffer(int target, int framebuffer);
+	void glBindRenderbuffer(int target, int renderbuffer);
+	void glBindTexture(int target, int texture);
+	void glBlendFunc(int sfactor, int dfactor);
+	void glBufferData(int target, int size, Buffer data, int usage);
+	void glBufferSubData(int target, int offset, int size, Buffer data);
+	int glCheckFramebufferStatus(int target);
+	void glClear(int mask);
+	void glClearColor(float red, float green, float blue, float alpha);
+	void glCompileShader(int shader);
+	void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data);
+	int glCreateProgram();
+	int glCreateShader(int type);
+	void glCullFace(int mode);
+	void glDeleteBuffers(int n, int[] buffers, int offset);
+	void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+	void glDeleteProgram(int program);
+	void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset);
+	void glDeleteShader(int shader);
+	void glDeleteTextures(int n, int[] textures, int offset);
+	void glDepthFunc(int func);
+	void glDepthMask(boolean flag);
+	void glDisable(int cap);
+	void glDisableVertexAttribArray(int index);
+	void glDrawArrays(int mode, int first, int count);
+	void glDrawElements(int mode, int count, int type, Buffer indices);
+	void glDrawElements(int mode, int count, int type, int offset);
+	void glEnable(int cap);
+	void glEnableVertexAttribArray(int index);
+	void glFinish();
+	void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer);
+	void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+	void glFrontFace(int mode);
+	void glGenBuffers(int n, int[] buffers, int offset);
+	void glGenFramebuffers(int n, int[] framebuffers, int offset);
+	void glGenRenderbuffers(int n, int[] renderbuffers, int offset);
+	void glGenTextures(int n, int[] textures, int offset);
+	int glGetError();
+	void glGetProgramiv(int program, int pname, int[] params, int offset);
+	String glGetProgramInfoLog(int program);
+	void glGetShaderiv(int shader, int pname, int[] params, int offset);
+	String glGetShaderInfoLog(int shader);
+	int glGetUniformLocation(int program, String name);
+	void glLinkProgram(int program);
+	void glPixelStorei(int pname, int param);
+	void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels);
+	void glRenderbufferStorage(int target, int internalformat, int width, int height);
+	void glShaderSource(int shader, String string);
+	void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels);
+	void glTexParameterf(int target, int pname, float param);
+	void glTexParameteri(int target, int pname, int param);
+	void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels);
+	void glUniform1f(int location, float x);
+	void glUniform1i(int location, int x);
+	void glUniform3f(int location, float x, float y, float z);
+	void glUniform4f(int location, float x, float y, float z, float w);
+	void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset);
+	void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+	void glUseProgram(int program);
+	void glVertexAttrib4f(int indx, float x, float y, float z, float w);
+	void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset);
+	void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr);
+	void glViewport(int x, int y, int width, int height);
+}
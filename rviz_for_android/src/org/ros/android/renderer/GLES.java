@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.nio.Buffer;
+
+/**
+ * Static entry point for GL calls, used in place of {@link android.opengl.GLES20} so the calls can be redirected. Calls go to the device's GL unless
+ * another backend has been set. GL constants are still taken from GLES20. Must only be used from the GL thread.
+ */
+public final class GLES {
+	private GLES() {
+	}
+
+	private static GLBackend backend = new AndroidGLBackend();
+
+	/**
+	 * Send all following GL calls to a backend. Must be called before anything is drawn, as GL objects created by one backend are unknown to another.
+	 */
+	public static void setBackend(GLBackend backend) {
+		if(backend == null)
+			throw new IllegalArgumentException("The GL backend can not be null");
+		GLES.backend = backend;
+	}
+
+	public static GLBackend getBackend() {
+		return backend;
+	}
+
+	public static void glActiveTexture(int texture) {
+		backend.glActiveTexture(texture);
+	}
+
+	public static void glAttachShader(int program, int shader) {
+		backend.glAttachShader(program, shader);
+	}
+
+	public static void glBindAttribLocation(int program, int index, String name) {
+		backend.glBindAttribLocation(program, index, name);
+	}
+
+	public static void glBindBuffer(int target, int buffer) {
+		backend.glBindBuffer(target, buffer);
+	}
+
+	public static void glBindFramebuffer(int target, int framebuffer) {
+		backend.glBindFramebuffer(target, framebuffer);
+	}
+
+	public static void glBindRenderbuffer(int target, int renderbuffer) {
+		backend.glBindRenderbuffer(target, renderbuffer);
+	}
+
+	public static void glBindTexture(int target, int texture) {
+		backend.glBindTexture(target, texture);
+	}
+
+	public static void glBlendFunc(int sfactor, int dfactor) {
+		backend.glBlendFunc(sfactor, dfactor);
+	}
+
+	public static void glBufferData(int target, int size, Buffer data, int usage) {
+		backend.glBufferData(target, size, data, usage);
+	}
+
+	public static void glBufferSubData(int target, int offset, int size, Buffer data) {
+		backend.glBufferSubData(target, offset, size, data);
+	}
+
+	public static int glCheckFramebufferStatus(int target) {
+		return backend.glCheckFramebufferStatus(target);
+	}
+
+	public static void glClear(int mask) {
+		backend.glClear(mask);
+	}
+
+	public static void glClearColor(float red, float green, float blue, float alpha) {
+		backend.glClearColor(red, green, blue, alpha);
+	}
+
+	public static void glCompileShader(int shader) {
+		backend.glCompileShader(shader);
+	}
+
+	public static void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data) {
+		backend.glCompressedTexImage2D(target, level, internalformat, width, height, border, imageSize, data);
+	}
+
+	public static int glCreateProgram() {
+		return backend.glCreateProgram();
+	}
+
+	public static int glCreateShader(int type) {
+		return backend.glCreateShader(type);
+	}
+
+	public static void glCullFace(int mode) {
+		backend.glCullFace(mode);
+	}
+
+	public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+		backend.glDeleteBuffers(n, buffers, offset);
+	}
+
+	public static void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+		backend.glDeleteFramebuffers(n, framebuffers, offset);
+	}
+
+	public static void glDeleteProgram(int program) {
+		backend.glDeleteProgram(program);
+	}
+
+	public static void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+		backend.glDeleteRenderbuffers(n, renderbuffers, offset);
+	}
+
+	public static void glDeleteShader(int shader) {
+		backend.glDeleteShader(shader);
+	}
+
+	public static void glDeleteTextures(int n, int[] textures, int offset) {
+		backend.glDeleteTextures(n, textures, offset);
+	}
+
+	public static void glDepthFunc(int func) {
+		backend.glDepthFunc(func);
+	}
+
+	public static void glDepthMask(boolean flag) {
+		backend.glDepthMask(flag);
+	}
+
+	public static void glDisable(int cap) {
+		backend.glDisable(cap);
+	}
+
+	public static void glDisableVertexAttribArray(int index) {
+		backend.glDisableVertexAttribArray(index);
+	}
+
+	public static void glDrawArrays(int mode, int first, int count) {
+		backend.glDrawArrays(mode, first, count);
+	}
+
+	public static void glDrawElements(int mode, int count, int type, Buffer indices) {
+		backend.glDrawElements(mode, count, type, indices);
+	}
+
+	public static void glDrawElements(int mode, int count, int type, int offset) {
+		backend.glDrawElements(mode, count, type, offset);
+	}
+
+	public static void glEnable(int cap) {
+		backend.glEnable(cap);
+	}
+
+	public static void glEnableVertexAttribArray(int index) {
+		backend.glEnableVertexAttribArray(index);
+	}
+
+	public static void glFinish() {
+		backend.glFinish();
+	}
+
+	public static void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+		backend.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+	}
+
+	public static void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+		backend.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+	}
+
+	public static void glFrontFace(int mode) {
+		backend.glFrontFace(mode);
+	}
+
+	public static void glGenBuffers(int n, int[] buffers, int offset) {
+		backend.glGenBuffers(n, buffers, offset);
+	}
+
+	public static void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		backend.glGenFramebuffers(n, framebuffers, offset);
+	}
+
+	public static void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+		backend.glGenRenderbuffers(n, renderbuffers, offset);
+	}
+
+	public static void glGenTextures(int n, int[] textures, int offset) {
+		backend.glGenTextures(n, textures, offset);
+	}
+
+	public static int glGetError() {
+		return backend.glGetError();
+	}
+
+	public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+		backend.glGetProgramiv(program, pname, params, offset);
+	}
+
+	public static String glGetProgramInfoLog(int program) {
+		return backend.glGetProgramInfoLog(program);
+	}
+
+	public static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		backend.glGetShaderiv(shader, pname, params, offset);
+	}
+
+	public static String glGetShaderInfoLog(int shader) {
+		return backend.glGetShaderInfoLog(shader);
+	}
+
+	public static int glGetUniformLocation(int program, String name) {
+		return backend.glGetUniformLocation(program, name);
+	}
+
+	public static void glLinkProgram(int program) {
+		backend.glLinkProgram(program);
+	}
+
+	public static void glPixelStorei(int pname, int param) {
+		backend.glPixelStorei(pname, param);
+	}
+
+	public static void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+		backend.glReadPixels(x, y, width, height, format, type, pixels);
+	}
+
+	public static void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+		backend.glRenderbufferStorage(target, internalformat, width, height);
+	}
+
+	public static void glShaderSource(int shader, String string) {
+		backend.glShaderSource(shader, string);
+	}
+
+	public static void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+		backend.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+	}
+
+	public static void glTexParameterf(int target, int pname, float param) {
+		backend.glTexParameterf(target, pname, param);
+	}
+
+	public static void glTexParameteri(int target, int pname, int param) {
+		backend.glTexParameteri(target, pname, param);
+	}
+
+	public static void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+		backend.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+	}
+
+	public static void glUniform1f(int location, float x) {
+		backend.glUniform1f(location, x);
+	}
+
+	public static void glUniform1i(int location, int x) {
+		backend.glUniform1i(location, x);
+	}
+
+	public static void glUniform3f(int location, float x, float y, float z) {
+		backend.glUniform3f(location, x, y, z);
+	}
+
+	public static void glUniform4f(int location, float x, float y, float z, float w) {
+		backend.glUniform4f(location, x, y, z, w);
+	}
+
+	public static void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset) {
+		backend.glUniformMatrix3fv(location, count, transpose, value, offset);
+	}
+
+	public static void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+		backend.glUniformMatrix4fv(location, count, transpose, value, offset);
+	}
+
+	public static void glUseProgram(int program) {
+		backend.glUseProgram(program);
+	}
+
+	public static void glVertexAttrib4f(int indx, float x, float y, float z, float w) {
+		backend.glVertexAttrib4f(indx, x, y, z, w);
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+		backend.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+	}
+
+	public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+		backend.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+	}
+
+	public static void glViewport(int x, int y, int width, int height) {
+		backend.glViewport(x, y, width, height);
+	}
+}
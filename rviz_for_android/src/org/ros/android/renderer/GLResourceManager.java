@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Registry of the GL buffers, textures and renderbuffers in use, with their sizes and owners. When the total exceeds the memory budget, the least
+ * recently drawn resources which can be restored are evicted; their owners upload them again from a CPU copy the next time they are drawn. Resources
+ * without an {@link EvictionListener} are counted but never evicted. Must only be used from the GL thread, apart from the budget and the totals.
+ */
+public final class GLResourceManager {
+	private GLResourceManager() {
+	}
+
+	public static enum Type {
+		BUFFER, TEXTURE, RENDERBUFFER
+	};
+
+	public interface EvictionListener {
+		/**
+		 * Called after the resource's GL object has been deleted. The owner must track a new resource when it next needs the object.
+		 */
+		void onEvicted(Resource r);
+	}
+
+	public static final class Resource {
+		private final Type type;
+		private final int id;
+		private final Object owner;
+		private final EvictionListener listener;
+		private int bytes;
+		private int lastUsed;
+
+		private Resource(Type type, int id, int bytes, Object owner, EvictionListener listener) {
+			this.type = type;
+			this.id = id;
+			this.bytes = bytes;
+			this.owner = owner;
+			this.listener = listener;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public int getBytes() {
+			return bytes;
+		}
+
+		public Type getType() {
+			return type;
+		}
+	}
+
+	public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+	// Least recently used first
+	private static final LinkedHashMap<Resource, Resource> resources = new LinkedHashMap<Resource, Resource>(64, 0.75f, true);
+	private static int frame = 0;
+	private static volatile long budget = DEFAULT_BUDGET;
+	private static volatile long residentBytes = 0;
+	private static volatile int evictions = 0;
+
+	/**
+	 * Start tracking a GL object which has just been created and filled
+	 *
+	 * @param owner
+	 *            the object responsible for the resource, reported when logging usage
+	 * @param listener
+	 *            notified if the resource is evicted, or null if it can't be restored and must never be evicted
+	 */
+	public static Resource track(Type type, int id, int bytes, Object owner, EvictionListener listener) {
+		Resource r = new Resource(type, id, bytes, owner, listener);
+		r.lastUsed = frame;
+		resources.put(r, r);
+		residentBytes += bytes;
+		trim();
+		return r;
+	}
+
+	/**
+	 * Record a new size for a resource whose storage was respecified
+	 */
+	public static void resize(Resource r, int bytes) {
+		if(r == null || !resources.containsKey(r))
+			return;
+		residentBytes += bytes - r.bytes;
+		r.bytes = bytes;
+		markUsed(r);
+		trim();
+	}
+
+	/**
+	 * Record that a resource is used in the current frame. Resources used in the current frame are never evicted.
+	 */
+	public static void markUsed(Resource r) {
+		if(r != null && r.lastUsed != frame) {
+			r.lastUsed = frame;
+			resources.get(r);
+		}
+	}
+
+	/**
+	 * Delete a resource's GL object and stop tracking it. Does nothing if the resource is null or has already been deleted or evicted.
+	 */
+	public static void delete(Resource r) {
+		if(r == null || resources.remove(r) == null)
+			return;
+		residentBytes -= r.bytes;
+		deleteObject(r);
+	}
+
+	private static void deleteObject(Resource r) {
+		switch(r.type) {
+		case BUFFER:
+			GLState.deleteArrayBuffer(r.id);
+			break;
+		case TEXTURE:
+			GLState.deleteTexture(r.id);
+			break;
+		case RENDERBUFFER:
+			GLES.glDeleteRenderbuffers(1, new int[] { r.id }, 0);
+			break;
+		}
+	}
+
+	/**
+	 * Start a new frame and evict resources if the budget has been lowered
+	 */
+	public static void beginFrame() {
+		frame++;
+		trim();
+	}
+
+	/**
+	 * Called when GL reports that it ran out of memory. Lowers the budget below the current use so the least recently drawn resources are freed.
+	 */
+	public static void onOutOfMemory() {
+		logUsage();
+		budget = Math.min(budget, residentBytes * 3 / 4);
+		trim();
+	}
+
+	public static void setBudget(long bytes) {
+		budget = bytes;
+	}
+
+	public static long getBudget() {
+		return budget;
+	}
+
+	public static long getResidentBytes() {
+		return residentBytes;
+	}
+
+	public static int getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Log the memory used by each kind of owner
+	 */
+	public static void logUsage() {
+		Map<String, long[]> byOwner = new HashMap<String, long[]>();
+		for(Resource r : resources.keySet()) {
+			String name = (r.owner == null) ? "unknown" : r.owner.getClass().getSimpleName();
+			long[] total = byOwner.get(name);
+			if(total == null)
+				byOwner.put(name, total = new long[2]);
+			total[0]++;
+			total[1] += r.bytes;
+		}
+		Log.i("GLResourceManager", resources.size() + " resources using " + residentBytes / 1024 + " KB of a " + budget / 1024 + " KB budget");
+		for(Map.Entry<String, long[]> e : byOwner.entrySet())
+			Log.i("GLResourceManager", "  " + e.getKey() + ": " + e.getValue()[0] + " resources, " + e.getValue()[1] / 1024 + " KB");
+	}
+
+	// Evict least recently used resources until the budget is met or nothing else can be evicted
+	private static void trim() {
+		if(residentBytes <= budget)
+			return;
+		Iterator<Resource> it = resources.keySet().iterator();
+		while(residentBytes > budget && it.hasNext()) {
+			Resource r = it.next();
+			// Everything after this was also used in the current frame
+			if(r.lastUsed == frame)
+				break;
+			if(r.listener == null)
+				continue;
+			it.remove();
+			residentBytes -= r.bytes;
+			evictions++;
+			deleteObject(r);
+			r.listener.onEvicted(r);
+		}
+	}
+}
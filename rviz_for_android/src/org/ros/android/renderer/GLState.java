@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.Arrays;
+
+import android.opengl.GLES20;
+
+/**
+ * Cache of the GL program, texture and array buffer bindings, so redundant glUseProgram, glBindTexture and glBindBuffer calls are skipped. Counts of the
+ * state changes made and skipped in the last complete frame are kept for profiling. Must only be used from the GL thread.
+ *
+ * <p>
+ * Texture and buffer bindings are only tracked correctly if every bind and delete goes through this class. Code which binds objects directly must call
+ * {@link #invalidateBindings()} afterwards.
+ */
+public final class GLState {
+	private GLState() {
+	}
+
+	private static final int UNKNOWN = -1;
+
+	// Units beyond this are never used, every GLES 2.0 device has at least 8
+	private static final int TEXTURE_UNITS = 8;
+
+	private static int program = UNKNOWN;
+	private static int activeUnit = UNKNOWN;
+	private static final int[] textures = new int[TEXTURE_UNITS];
+	private static int arrayBuffer = UNKNOWN;
+	// Holds the name passed to glDelete*, so deleting doesn't allocate
+	private static final int[] deleteName = new int[1];
+
+	static {
+		Arrays.fill(textures, UNKNOWN);
+	}
+
+	private static final int PROGRAM = 0, PROGRAM_SKIPPED = 1, TEXTURE = 2, TEXTURE_SKIPPED = 3, BUFFER = 4, BUFFER_SKIPPED = 5, UNIFORM = 6, UNIFORM_SKIPPED = 7;
+	private static final int[] counts = new int[8];
+	// Counts of the last complete frame. Read from other threads for display, where an occasional torn read doesn't matter.
+	private static final int[] lastFrame = new int[8];
+
+	public static void useProgram(int id) {
+		if(id == program) {
+			counts[PROGRAM_SKIPPED]++;
+			return;
+		}
+		GLES.glUseProgram(id);
+		program = id;
+		counts[PROGRAM]++;
+	}
+
+	/**
+	 * Bind a texture to GL_TEXTURE_2D of texture unit 0, leaving unit 0 active
+	 */
+	public static void bindTexture(int id) {
+		bindTexture(0, id);
+	}
+
+	/**
+	 * Bind a texture to GL_TEXTURE_2D of a texture unit, leaving that unit active so the texture can be updated
+	 */
+	public static void bindTexture(int unit, int id) {
+		activeTexture(unit);
+		if(id == textures[unit]) {
+			counts[TEXTURE_SKIPPED]++;
+			return;
+		}
+		GLES.glBindTexture(GLES20.GL_TEXTURE_2D, id);
+		textures[unit] = id;
+		counts[TEXTURE]++;
+	}
+
+	private static void activeTexture(int unit) {
+		if(unit == activeUnit)
+			return;
+		GLES.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+		activeUnit = unit;
+	}
+
+	public static void bindArrayBuffer(int id) {
+		if(id == arrayBuffer) {
+			counts[BUFFER_SKIPPED]++;
+			return;
+		}
+		GLES.glBindBuffer(GLES20.GL_ARRAY_BUFFER, id);
+		arrayBuffer = id;
+		counts[BUFFER]++;
+	}
+
+	public static void deleteTexture(int id) {
+		for(int i = 0; i < TEXTURE_UNITS; i++)
+			if(id == textures[i])
+				textures[i] = UNKNOWN;
+		deleteName[0] = id;
+		GLES.glDeleteTextures(1, deleteName, 0);
+	}
+
+	public static void deleteArrayBuffer(int id) {
+		if(id == arrayBuffer)
+			arrayBuffer = UNKNOWN;
+		deleteName[0] = id;
+		GLES.glDeleteBuffers(1, deleteName, 0);
+	}
+
+	/**
+	 * Record a uniform update which was made or skipped because the program already held the value
+	 */
+	public static void countUniform(boolean skipped) {
+		if(skipped)
+			counts[UNIFORM_SKIPPED]++;
+		else
+			counts[UNIFORM]++;
+	}
+
+	/**
+	 * Forget the texture and buffer bindings, for instance after drawing code which binds objects directly
+	 */
+	public static void invalidateBindings() {
+		activeUnit = UNKNOWN;
+		Arrays.fill(textures, UNKNOWN);
+		arrayBuffer = UNKNOWN;
+	}
+
+	/**
+	 * Forget all cached state. Called when the GL context is (re)created.
+	 */
+	public static void invalidate() {
+		program = UNKNOWN;
+		invalidateBindings();
+	}
+
+	/**
+	 * Publish the counts of the frame which just finished and start counting a new frame
+	 */
+	public static void beginFrame() {
+		System.arraycopy(counts, 0, lastFrame, 0, counts.length);
+		Arrays.fill(counts, 0);
+	}
+
+	public static int getProgramChanges() {
+		return lastFrame[PROGRAM];
+	}
+
+	public static int getProgramChangesSkipped() {
+		return lastFrame[PROGRAM_SKIPPED];
+	}
+
+	public static int getTextureBinds() {
+		return lastFrame[TEXTURE];
+	}
+
+	public static int getTextureBindsSkipped() {
+		return lastFrame[TEXTURE_SKIPPED];
+	}
+
+	public static int getBufferBinds() {
+		return lastFrame[BUFFER];
+	}
+
+	public static int getBufferBindsSkipped() {
+		return lastFrame[BUFFER_SKIPPED];
+	}
+
+	public static int getUniformSets() {
+		return lastFrame[UNIFORM];
+	}
+
+	public static int getUniformSetsSkipped() {
+		return lastFrame[UNIFORM_SKIPPED];
+	}
+}
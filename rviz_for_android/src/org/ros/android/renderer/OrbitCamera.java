@@ -19,14 +19,14 @@ package org.ros.android.renderer;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.math.Vec3;
 import org.ros.namespace.GraphName;
 import org.ros.rosjava_geometry.FrameTransformTree;
 import org.ros.rosjava_geometry.Quaternion;
 import org.ros.rosjava_geometry.Transform;
 import org.ros.rosjava_geometry.Vector3;
 
-import android.opengl.Matrix;
-
 import com.google.common.base.Preconditions;
 
 /**
@@ -54,9 +54,10 @@ public class OrbitCamera implements Camera {
 
 	private float angleTheta = (float) (Math.PI / 4);
 	private float anglePhi = (float) (Math.PI / 4);
-	private Vector3 location;
-	
-	private Vector3 lookTarget;
+
+	// Camera position and the point it orbits, kept in arrays so moving the camera doesn't allocate
+	private final float[] location = new float[3];
+	private final float[] lookTarget = new float[3];
 
 	private float[] mView = new float[16];
 
@@ -82,21 +83,23 @@ public class OrbitCamera implements Camera {
 	private AvailableFrameTracker frameTracker;
 	
 	private SelectionManager sm = new SelectionManager();
+	private TransformCache transformCache;
+	private final RenderStats renderStats = new RenderStats();
+	private final DrawQueue drawQueue = new DrawQueue(this);
+	private final FrameProfiler frameProfiler = new FrameProfiler(renderStats);
 
 	public OrbitCamera(FrameTransformTree frameTransformTree, AvailableFrameTracker tracker) {
 		// Initialize the fixed frame
 		this.frameTransformTree = frameTransformTree;
+		transformCache = new TransformCache(frameTransformTree);
 		fixedFrame = DEFAULT_FIXED_FRAME;
 
 		// Initialize the location
-		location = Vector3.zero();
-		lookTarget = Vector3.zero();
 		updateLocation();
-		location = location.add(lookTarget);
 
 		// Initialize the model matrix and stack
 		loadIdentityM();
-		Matrix.setIdentityM(stackM[0], 0);
+		Mat4.setIdentity(stackM[0]);
 		
 		this.frameTracker = tracker;
 	}
@@ -106,8 +109,9 @@ public class OrbitCamera implements Camera {
 
 		synchronized(fixedFrame) {
 			if(targetFrame != null) {
-				lookTarget = Utility.newTransformIfPossible(frameTransformTree, targetFrame, fixedFrame).getTranslation().scale(0.5f);
-				
+				float[] target = transformCache.getMatrix(targetFrame, fixedFrame);
+				Vec3.set(lookTarget, target[12] * 0.5f, target[13] * 0.5f, target[14] * 0.5f);
+
 				updateLocation();
 			}
 		}
@@ -116,12 +120,14 @@ public class OrbitCamera implements Camera {
 	}
 
 	private void rotateOrbit() {
-		Matrix.setLookAtM(mView, 0, (float) location.getX(), (float) location.getY(), (float) location.getZ(), (float) lookTarget.getX(), (float) lookTarget.getY(), (float) lookTarget.getZ(), 0, 0, 1f);
-		Matrix.translateM(mView, 0, -(float) location.getX(), -(float) location.getY(), -(float) location.getZ());
+		Mat4.setLookAt(mView, location[0], location[1], location[2], lookTarget[0], lookTarget[1], lookTarget[2], 0, 0, 1f);
+		Mat4.translate(mView, -location[0], -location[1], -location[2]);
 	}
 
 	private void updateLocation() {
-		location = lookTarget.add(new Vector3(orbitRadius * Math.sin(angleTheta) * Math.cos(anglePhi), orbitRadius * Math.sin(angleTheta) * Math.sin(anglePhi), orbitRadius * Math.cos(angleTheta)));
+		location[0] = lookTarget[0] + (float) (orbitRadius * Math.sin(angleTheta) * Math.cos(anglePhi));
+		location[1] = lookTarget[1] + (float) (orbitRadius * Math.sin(angleTheta) * Math.sin(anglePhi));
+		location[2] = lookTarget[2] + (float) (orbitRadius * Math.cos(angleTheta));
 	}
 
 	private void velocityUpdate() {
@@ -137,6 +143,11 @@ public class OrbitCamera implements Camera {
 			vPhi = 0;
 	}
 
+	@Override
+	public boolean isMoving() {
+		return vTheta != 0f || vPhi != 0f;
+	}
+
 	public void flingCamera(float vX, float vY) {
 		vPhi = Utility.cap(-vX / 500, -MAX_FLING_VELOCITY, MAX_FLING_VELOCITY);
 		vTheta = Utility.cap(-vY / 500, -MAX_FLING_VELOCITY, MAX_FLING_VELOCITY);
@@ -161,19 +172,23 @@ public class OrbitCamera implements Camera {
 
 		int ySign = (angleTheta < PI_OVER_TWO) ? 1 : -1;
 		// Project the screen movement vector onto the XY plane
-		Vector3 direction = new Vector3(Math.cos(anglePhi - PI_OVER_TWO) * xDistCap - Math.sin(anglePhi + PI_OVER_TWO) * yDistCap, ySign*(Math.sin(anglePhi - PI_OVER_TWO) * xDistCap + Math.cos(anglePhi + PI_OVER_TWO) * yDistCap), 0);
-
-		lookTarget = lookTarget.subtract(direction);
+		lookTarget[0] -= (float) (Math.cos(anglePhi - PI_OVER_TWO) * xDistCap - Math.sin(anglePhi + PI_OVER_TWO) * yDistCap);
+		lookTarget[1] -= (float) (ySign * (Math.sin(anglePhi - PI_OVER_TWO) * xDistCap + Math.cos(anglePhi + PI_OVER_TWO) * yDistCap));
 		updateLocation();
 	}
 
 	public void setCamera(Vector3 newCameraPoint) {
 		resetTargetFrame();
-		lookTarget = newCameraPoint;
+		Vec3.set(lookTarget, newCameraPoint);
 	}
 
 	public Vector3 getCamera() {
-		return location;
+		return Vec3.toVector3(location);
+	}
+
+	@Override
+	public void getCameraLocation(float[] out) {
+		System.arraycopy(location, 0, out, 0, 3);
 	}
 
 	public void zoomCamera(float factor) {
@@ -222,7 +237,7 @@ public class OrbitCamera implements Camera {
 	 * Set the camera look target to the fixed frame or the origin if one isn't set
 	 */
 	public void resetLookTarget() {
-		lookTarget = Vector3.zero();
+		Vec3.set(lookTarget, 0f, 0f, 0f);
 	}
 
 	public void resetZoom() {
@@ -244,7 +259,7 @@ public class OrbitCamera implements Camera {
 		return mView;
 	}
 
-	private float[] modelM = new float[16];
+	private final float[] modelM = new float[16];
 	private float[][] stackM = new float[16][16];
 	private int stackPointer = 0;
 
@@ -262,57 +277,50 @@ public class OrbitCamera implements Camera {
 
 	@Override
 	public void translateM(float x, float y, float z) {
-		Matrix.translateM(modelM, 0, x, y, z);
+		Mat4.translate(modelM, x, y, z);
 	}
 
 	@Override
 	public void scaleM(float sx, float sy, float sz) {
-		Matrix.scaleM(modelM, 0, sx, sy, sz);
+		Mat4.scale(modelM, sx, sy, sz);
 	}
 
 	@Override
 	public void rotateM(float a, float x, float y, float z) {
-		Matrix.rotateM(modelM, 0, a, x, y, z);
+		Mat4.rotate(modelM, a, x, y, z);
 	}
 	
 	@Override
 	public void rotateM(Quaternion q) {
-		float angleDegrees = (float) Math.toDegrees(Utility.getAngle(q));
-        if(angleDegrees != 0) {
-            Vector3 axis = Utility.getAxis(q);
-            rotateM((float) angleDegrees, (float) axis.getX(), (float) axis.getY(), (float) axis.getZ());
-        }
+		Mat4.setRotation(transformM, (float) q.getX(), (float) q.getY(), (float) q.getZ(), (float) q.getW());
+		Mat4.multiply(modelM, transformM, scratch);
 	}
 
 	@Override
 	public void loadIdentityM() {
-		Matrix.setIdentityM(modelM, 0);
+		Mat4.setIdentity(modelM);
 	}
 
 	@Override
 	public void applyTransform(Transform transform) {
 		if(transform == null)
 			return;
-		Matrix.multiplyMM(modelM, 0, copyOf(modelM), 0, toFloatArr(transform.toMatrix()), 0);
+		Mat4.setTransform(transformM, transform);
+		Mat4.multiply(modelM, transformM, scratch);
 	}
-	
-	private float[] copyOf = new float[16];
-	private float[] copyOf(float[] matrix) {				
-		System.arraycopy(matrix, 0, copyOf, 0, 16);
-		return copyOf;
+
+	@Override
+	public void applyTransform(float[] matrix) {
+		Mat4.multiply(modelM, matrix, scratch);
 	}
 	
-	private float[] floatTransformMatrix = new float[16];
-	private float[] toFloatArr(double[] in) {
-		for(int i = 0; i < 16; i ++)
-			floatTransformMatrix[i] = (float) in[i];
-		return floatTransformMatrix;
-	}
+	private final float[] transformM = new float[16];
+	private final float[] scratch = new float[16];
 	
 
 	@Override
 	public String toString() {
-		return "Location: " + location.toString() + " Look target: " + lookTarget.toString();
+		return "Location: " + Vec3.toString(location) + " Look target: " + Vec3.toString(lookTarget);
 	}
 
 	@Override
@@ -325,6 +333,26 @@ public class OrbitCamera implements Camera {
 		return sm;
 	}
 
+	@Override
+	public TransformCache getTransformCache() {
+		return transformCache;
+	}
+
+	@Override
+	public RenderStats getRenderStats() {
+		return renderStats;
+	}
+
+	@Override
+	public DrawQueue getDrawQueue() {
+		return drawQueue;
+	}
+
+	@Override
+	public FrameProfiler getFrameProfiler() {
+		return frameProfiler;
+	}
+
 	private Set<FixedFrameListener> fixedFrameListeners = new HashSet<FixedFrameListener>();
 	
 	@Override
@@ -356,7 +384,7 @@ public class OrbitCamera implements Camera {
 
 	@Override
 	public void loadMatrixM(float[] matrix) {
-		modelM = matrix;
+		System.arraycopy(matrix, 0, modelM, 0, 16);
 	}
 
 	@Override
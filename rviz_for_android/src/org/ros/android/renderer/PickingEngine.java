@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.ros.android.renderer.layer.Selectable;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.shapes.BoundingBox;
+
+/**
+ * Picks selectable shapes by casting the tap ray against their bounds on a worker thread, so most taps don't need the color coded selection pass. The
+ * bounds of each selectable are recorded as it is drawn and kept in a bounding volume hierarchy of world space boxes which is rebuilt when they change. A
+ * world box hit is then checked against the shape's bounds in its own frame, which fit rotated shapes tightly. The nearest hit is picked unless the span
+ * the ray spends inside its bounds overlaps another hit's, or a drawn selectable has no bounds; only those taps are left to the selection pass.
+ */
+public class PickingEngine {
+	public interface PickListener {
+		/**
+		 * No selectable is under the tap
+		 */
+		void onPickMissed();
+
+		/**
+		 * The nearest selectable under the tap
+		 */
+		void onPickResolved(Selectable s);
+
+		/**
+		 * The bounds of several selectables overlap under the tap or a selectable has no bounds, only the selection pass can tell which shape is hit
+		 */
+		void onPickAmbiguous();
+	}
+
+	private static class Entry {
+		final Selectable owner;
+		final float[] box = new float[6];
+		// Bounds in the shape's own frame and the model matrix they were drawn with
+		final float[] local = new float[6];
+		final float[] model = new float[16];
+		boolean hasBounds;
+		int frame;
+		boolean live;
+
+		Entry(Selectable owner) {
+			this.owner = owner;
+		}
+	}
+
+	private static class Node {
+		final float[] box = new float[6];
+		Node left, right;
+		// Leaf contents, as a range of the sorted item array
+		int start, count;
+	}
+
+	private static final int LEAF_SIZE = 2;
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+	// Guarded by entries, the list holds the same entries so they can be visited every frame without an iterator
+	private final Map<Selectable, Entry> entries = new HashMap<Selectable, Entry>();
+	private final List<Entry> entryList = new ArrayList<Entry>();
+	private final float[] viewProjection = new float[16];
+	private int viewportWidth, viewportHeight;
+	private int frame = 0;
+	private int version = 0;
+
+	// Only used on the worker thread
+	private int builtVersion = -1;
+	private Node root;
+	private Selectable[] items = new Selectable[0];
+	private float[][] itemBoxes = new float[0][];
+	private float[][] itemLocal = new float[0][];
+	private float[][] itemModel = new float[0][];
+	// Inverse model matrices, null if the model matrix is singular
+	private float[][] itemInverse = new float[0][];
+	private boolean unbounded;
+	// Items whose bounds the last ray hit, with the span of the ray inside them
+	private int hitCount;
+	private int[] hitItems = new int[8];
+	private float[] hitNear = new float[8];
+	private float[] hitFar = new float[8];
+	private final float[] span = new float[2];
+
+	private final float[] tmp = new float[16];
+
+	/**
+	 * Record the view and projection of the frame being drawn. Called on the GL thread.
+	 */
+	public void beginFrame(float[] view, float[] projection, int width, int height) {
+		synchronized(entries) {
+			frame++;
+			Mat4.multiplyMM(viewProjection, projection, view);
+			viewportWidth = width;
+			viewportHeight = height;
+		}
+	}
+
+	/**
+	 * Mark selectables which weren't drawn in the frame which just finished as hidden. Called on the GL thread.
+	 */
+	public void endFrame() {
+		synchronized(entries) {
+			for(int i = 0; i < entryList.size(); i++) {
+				Entry e = entryList.get(i);
+				boolean live = (e.frame == frame);
+				if(live != e.live) {
+					e.live = live;
+					version++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Record where a selectable was drawn this frame. Called on the GL thread.
+	 *
+	 * @param bounds
+	 *            the shape's bounds in its own coordinates, or null if they are unknown
+	 * @param model
+	 *            the model matrix the shape is drawn with
+	 */
+	public void recordBounds(Selectable s, BoundingBox bounds, float[] model) {
+		synchronized(entries) {
+			Entry e = entries.get(s);
+			if(e == null) {
+				e = new Entry(s);
+				entries.put(s, e);
+				entryList.add(e);
+				version++;
+			}
+			e.frame = frame;
+			if(bounds == null) {
+				if(e.hasBounds)
+					version++;
+				e.hasBounds = false;
+				return;
+			}
+
+			// Transform the box by taking the absolute value of the rotation and scale part of the model matrix
+			float cx = (bounds.getMinX() + bounds.getMaxX()) / 2, cy = (bounds.getMinY() + bounds.getMaxY()) / 2, cz = (bounds.getMinZ() + bounds.getMaxZ()) / 2;
+			float ex = (bounds.getMaxX() - bounds.getMinX()) / 2, ey = (bounds.getMaxY() - bounds.getMinY()) / 2, ez = (bounds.getMaxZ() - bounds.getMinZ()) / 2;
+			boolean changed = !e.hasBounds;
+			changed |= setIfChanged(e.local, 0, bounds.getMinX(), bounds.getMaxX());
+			changed |= setIfChanged(e.local, 1, bounds.getMinY(), bounds.getMaxY());
+			changed |= setIfChanged(e.local, 2, bounds.getMinZ(), bounds.getMaxZ());
+			for(int i = 0; i < 16; i++) {
+				changed |= (e.model[i] != model[i]);
+				e.model[i] = model[i];
+			}
+			for(int i = 0; i < 3; i++) {
+				float c = model[i] * cx + model[4 + i] * cy + model[8 + i] * cz + model[12 + i];
+				float r = Math.abs(model[i]) * ex + Math.abs(model[4 + i]) * ey + Math.abs(model[8 + i]) * ez;
+				changed |= (e.box[i] != c - r) || (e.box[3 + i] != c + r);
+				e.box[i] = c - r;
+				e.box[3 + i] = c + r;
+			}
+			e.hasBounds = true;
+			if(changed)
+				version++;
+		}
+	}
+
+	// Set one axis of a box, true if it changed
+	private static boolean setIfChanged(float[] box, int axis, float min, float max) {
+		boolean changed = (box[axis] != min) || (box[3 + axis] != max);
+		box[axis] = min;
+		box[3 + axis] = max;
+		return changed;
+	}
+
+	public void remove(Selectable s) {
+		synchronized(entries) {
+			Entry e = entries.remove(s);
+			if(e != null) {
+				entryList.remove(e);
+				version++;
+			}
+		}
+	}
+
+	/**
+	 * Stop the worker thread. Taps picked afterwards are left to the selection pass.
+	 */
+	public void shutdown() {
+		worker.shutdown();
+	}
+
+	/**
+	 * Find the selectable under a point of the view on the worker thread. The listener is called from the worker thread.
+	 *
+	 * @param x
+	 *            view x coordinate in pixels
+	 * @param y
+	 *            view y coordinate in pixels, measured from the top
+	 */
+	public void pick(final int x, final int y, final PickListener listener) {
+		if(worker.isShutdown()) {
+			listener.onPickAmbiguous();
+			return;
+		}
+		worker.execute(new Runnable() {
+			@Override
+			public void run() {
+				float[] ray = new float[6];
+				boolean haveRay, rebuild;
+				synchronized(entries) {
+					haveRay = makeRay(x, y, ray);
+					rebuild = (version != builtVersion);
+					if(rebuild) {
+						snapshot();
+						builtVersion = version;
+					}
+				}
+				if(rebuild)
+					build();
+
+				if(!haveRay || unbounded) {
+					listener.onPickAmbiguous();
+					return;
+				}
+
+				hitCount = 0;
+				intersect(root, ray, new float[6]);
+				if(hitCount == 0) {
+					listener.onPickMissed();
+					return;
+				}
+
+				// A singular model matrix leaves the hit unknown, and a hit entered before the nearest one is left could be in front of it
+				int nearest = 0;
+				for(int h = 1; h < hitCount; h++)
+					if(hitNear[h] < hitNear[nearest])
+						nearest = h;
+				boolean ambiguous = (itemInverse[hitItems[nearest]] == null);
+				for(int h = 0; h < hitCount && !ambiguous; h++)
+					ambiguous = (h != nearest) && (hitNear[h] <= hitFar[nearest]);
+				if(ambiguous)
+					listener.onPickAmbiguous();
+				else
+					listener.onPickResolved(items[hitItems[nearest]]);
+			}
+		});
+	}
+
+	// Builds the ray's origin and direction in world coordinates. Must hold the entries lock.
+	private boolean makeRay(int x, int y, float[] ray) {
+		if(viewportWidth <= 0 || viewportHeight <= 0 || !Mat4.invert(tmp, viewProjection))
+			return false;
+		float nx = 2f * (x + 0.5f) / viewportWidth - 1f;
+		float ny = 2f * (viewportHeight - y - 0.5f) / viewportHeight - 1f;
+		float[] near = new float[4], far = new float[4];
+		Mat4.multiplyMV(near, tmp, nx, ny, -1f, 1f);
+		Mat4.multiplyMV(far, tmp, nx, ny, 1f, 1f);
+		if(near[3] == 0f || far[3] == 0f)
+			return false;
+		for(int i = 0; i < 3; i++) {
+			ray[i] = near[i] / near[3];
+			ray[3 + i] = far[i] / far[3] - ray[i];
+		}
+		return true;
+	}
+
+	// Copy the bounds of the selectables drawn in the last frame for the worker to build from. Must hold the entries lock.
+	private void snapshot() {
+		int count = 0;
+		unbounded = false;
+		for(int i = 0; i < entryList.size(); i++) {
+			Entry e = entryList.get(i);
+			if(e.live && e.hasBounds)
+				count++;
+			else if(e.live)
+				unbounded = true;
+		}
+		items = new Selectable[count];
+		itemBoxes = new float[count][];
+		itemLocal = new float[count][];
+		itemModel = new float[count][];
+		count = 0;
+		for(int i = 0; i < entryList.size(); i++) {
+			Entry e = entryList.get(i);
+			if(!e.live || !e.hasBounds)
+				continue;
+			items[count] = e.owner;
+			itemBoxes[count] = e.box.clone();
+			itemLocal[count] = e.local.clone();
+			itemModel[count] = e.model.clone();
+			count++;
+		}
+	}
+
+	// Rebuild the hierarchy from the last snapshot, without holding the entries lock
+	private void build() {
+		itemInverse = new float[items.length][];
+		for(int i = 0; i < items.length; i++) {
+			float[] inverse = new float[16];
+			itemInverse[i] = Mat4.invertAffine(inverse, itemModel[i]) ? inverse : null;
+		}
+		root = items.length == 0 ? null : buildNode(0, items.length);
+	}
+
+	private Node buildNode(int start, int count) {
+		Node node = new Node();
+		System.arraycopy(itemBoxes[start], 0, node.box, 0, 6);
+		for(int i = start + 1; i < start + count; i++) {
+			for(int d = 0; d < 3; d++) {
+				node.box[d] = Math.min(node.box[d], itemBoxes[i][d]);
+				node.box[3 + d] = Math.max(node.box[3 + d], itemBoxes[i][3 + d]);
+			}
+		}
+		if(count <= LEAF_SIZE) {
+			node.start = start;
+			node.count = count;
+			return node;
+		}
+
+		// Split at the median of the box centers along the longest axis
+		int axis = 0;
+		for(int d = 1; d < 3; d++)
+			if(node.box[3 + d] - node.box[d] > node.box[3 + axis] - node.box[axis])
+				axis = d;
+		final int a = axis;
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++)
+			order[i] = start + i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Float.compare(itemBoxes[i][a] + itemBoxes[i][3 + a], itemBoxes[j][a] + itemBoxes[j][3 + a]);
+			}
+		});
+		Selectable[] sortedItems = new Selectable[count];
+		float[][] sortedBoxes = new float[count][];
+		float[][] sortedLocal = new float[count][];
+		float[][] sortedInverse = new float[count][];
+		for(int i = 0; i < count; i++) {
+			sortedItems[i] = items[order[i]];
+			sortedBoxes[i] = itemBoxes[order[i]];
+			sortedLocal[i] = itemLocal[order[i]];
+			sortedInverse[i] = itemInverse[order[i]];
+		}
+		System.arraycopy(sortedItems, 0, items, start, count);
+		System.arraycopy(sortedBoxes, 0, itemBoxes, start, count);
+		System.arraycopy(sortedLocal, 0, itemLocal, start, count);
+		System.arraycopy(sortedInverse, 0, itemInverse, start, count);
+
+		int half = count / 2;
+		node.left = buildNode(start, half);
+		node.right = buildNode(start + half, count - half);
+		return node;
+	}
+
+	// Collect the items whose world box and box in their own frame the ray hits
+	private void intersect(Node node, float[] ray, float[] localRay) {
+		if(node == null || !intersects(node.box, ray, span))
+			return;
+		if(node.left == null) {
+			for(int i = node.start; i < node.start + node.count; i++)
+				if(intersects(itemBoxes[i], ray, span) && intersectsLocal(i, ray, localRay))
+					addHit(i);
+			return;
+		}
+		intersect(node.left, ray, localRay);
+		intersect(node.right, ray, localRay);
+	}
+
+	private void addHit(int item) {
+		if(hitCount == hitItems.length) {
+			hitItems = Arrays.copyOf(hitItems, hitCount * 2);
+			hitNear = Arrays.copyOf(hitNear, hitCount * 2);
+			hitFar = Arrays.copyOf(hitFar, hitCount * 2);
+		}
+		hitItems[hitCount] = item;
+		hitNear[hitCount] = span[0];
+		hitFar[hitCount] = span[1];
+		hitCount++;
+	}
+
+	// Transform the ray into the item's frame, where its bounds are exact rather than an axis aligned box around them. The transform is affine, so the
+	// span of the ray inside the box is measured in the same units as in world space. Keeps the world box span if the model matrix is singular.
+	private boolean intersectsLocal(int i, float[] ray, float[] localRay) {
+		float[] inv = itemInverse[i];
+		if(inv == null)
+			return true;
+		for(int r = 0; r < 3; r++) {
+			localRay[r] = inv[r] * ray[0] + inv[4 + r] * ray[1] + inv[8 + r] * ray[2] + inv[12 + r];
+			localRay[3 + r] = inv[r] * ray[3] + inv[4 + r] * ray[4] + inv[8 + r] * ray[5];
+		}
+		return intersects(itemLocal[i], localRay, span);
+	}
+
+	// Slab test of the segment from the near plane to the far plane against a box, storing the span of the segment inside it as fractions of its length
+	private static boolean intersects(float[] box, float[] ray, float[] span) {
+		float tMin = 0f, tMax = 1f;
+		for(int d = 0; d < 3; d++) {
+			float o = ray[d], dir = ray[3 + d];
+			if(dir == 0f) {
+				if(o < box[d] || o > box[3 + d])
+					return false;
+				continue;
+			}
+			float t0 = (box[d] - o) / dir;
+			float t1 = (box[3 + d] - o) / dir;
+			tMin = Math.max(tMin, Math.min(t0, t1));
+			tMax = Math.min(tMax, Math.max(t0, t1));
+			if(tMin > tMax)
+				return false;
+		}
+		span[0] = tMin;
+		span[1] = tMax;
+		return true;
+	}
+}
@@ -0,0 +1,778 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.opengl.GLES20;
+
+/**
+ * A GL backend with no GPU behind it which records every call into a compact command stream and counts draw calls, vertices, bytes uploaded and state
+ * changes, so the renderer's work per frame can be measured without a device. Object names are handed out in order, shaders and programs always
+ * compile and link, and no errors are reported.
+ *
+ * <p>
+ * Each command is an int header holding the {@link Op} ordinal in the upper bits and the number of arguments in the low 8 bits, followed by the
+ * arguments. Floats are stored as their raw bits, buffers as the number of bytes remaining in them, strings as their length and arrays as the number of
+ * elements used. Recording allocates nothing once the command array has grown to the size of a frame, so the backend can stand in for GL while
+ * allocations are measured.
+ */
+public class RecordingGLBackend implements GLBackend {
+	public static enum Op {
+		ACTIVE_TEXTURE, ATTACH_SHADER, BIND_ATTRIB_LOCATION, BIND_BUFFER, BIND_FRAMEBUFFER, BIND_RENDERBUFFER, BIND_TEXTURE, BLEND_FUNC, BUFFER_DATA,
+		BUFFER_SUB_DATA, CHECK_FRAMEBUFFER_STATUS, CLEAR, CLEAR_COLOR, COMPILE_SHADER, COMPRESSED_TEX_IMAGE_2D, CREATE_PROGRAM, CREATE_SHADER, CULL_FACE,
+		DELETE_BUFFERS, DELETE_FRAMEBUFFERS, DELETE_PROGRAM, DELETE_RENDERBUFFERS, DELETE_SHADER, DELETE_TEXTURES, DEPTH_FUNC, DEPTH_MASK, DISABLE,
+		DISABLE_VERTEX_ATTRIB_ARRAY, DRAW_ARRAYS, DRAW_ELEMENTS, ENABLE, ENABLE_VERTEX_ATTRIB_ARRAY, FINISH, FRAMEBUFFER_RENDERBUFFER,
+		FRAMEBUFFER_TEXTURE_2D, FRONT_FACE, GEN_BUFFERS, GEN_FRAMEBUFFERS, GEN_RENDERBUFFERS, GEN_TEXTURES, GET_ERROR, GET_PROGRAM_IV,
+		GET_PROGRAM_INFO_LOG, GET_SHADER_IV, GET_SHADER_INFO_LOG, GET_UNIFORM_LOCATION, LINK_PROGRAM, PIXEL_STORE_I, READ_PIXELS, RENDERBUFFER_STORAGE,
+		SHADER_SOURCE, TEX_IMAGE_2D, TEX_PARAMETER_F, TEX_PARAMETER_I, TEX_SUB_IMAGE_2D, UNIFORM_1F, UNIFORM_1I, UNIFORM_3F, UNIFORM_4F,
+		UNIFORM_MATRIX_3FV, UNIFORM_MATRIX_4FV, USE_PROGRAM, VERTEX_ATTRIB_4F, VERTEX_ATTRIB_POINTER, VIEWPORT;
+
+		private static final Op[] values = values();
+	}
+
+	private static final int MAX_TEXTURE_UNITS = 32;
+	// Words of the largest uniform value tracked, a 4x4 matrix
+	private static final int UNIFORM_WORDS = 16;
+
+	private int[] commands = new int[1024];
+	private int length = 0;
+	private final int[] opCounts = new int[Op.values.length];
+	private int drawCalls = 0;
+	private long vertices = 0;
+	private long bytesUploaded = 0;
+	private int stateChanges = 0;
+	private int redundantStateChanges = 0;
+
+	// Simulated GL state, kept across resets
+	private int nextName = 1;
+	private final Map<String, Integer> uniformLocations = new HashMap<String, Integer>();
+	// Capabilities are GLenums below 0x10000, so they index the set directly
+	private final BitSet enabledCaps = new BitSet(0x10000);
+	// Raw bits of the last value set at each uniform location, and whether one was set
+	private int[] uniformValues = new int[UNIFORM_WORDS * 16];
+	private boolean[] uniformSet = new boolean[16];
+	private final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+	private int activeTexture = GLES20.GL_TEXTURE0;
+	private int program = 0;
+	private int arrayBuffer = 0;
+	private int elementBuffer = 0;
+	private int framebuffer = 0;
+	private int renderbuffer = 0;
+	private int blendSrc = GLES20.GL_ONE, blendDst = GLES20.GL_ZERO;
+	private int depthFunc = GLES20.GL_LESS;
+	private boolean depthMask = true;
+	private int cullFace = GLES20.GL_BACK;
+	private int frontFace = GLES20.GL_CCW;
+
+	/**
+	 * Clear the recorded commands and counters, for instance at the start of a frame. The simulated GL state is kept.
+	 */
+	public void reset() {
+		length = 0;
+		Arrays.fill(opCounts, 0);
+		drawCalls = 0;
+		vertices = 0;
+		bytesUploaded = 0;
+		stateChanges = 0;
+		redundantStateChanges = 0;
+	}
+
+	/**
+	 * @return a copy of the command stream recorded since the last reset
+	 */
+	public int[] getCommands() {
+		return Arrays.copyOf(commands, length);
+	}
+
+	public static Op getOp(int header) {
+		return Op.values[header >>> 8];
+	}
+
+	public static int getArgumentCount(int header) {
+		return header & 0xff;
+	}
+
+	public int getCount(Op op) {
+		return opCounts[op.ordinal()];
+	}
+
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	public long getVerticesDrawn() {
+		return vertices;
+	}
+
+	/**
+	 * @return the bytes of buffer, texture and compressed texture data passed to GL
+	 */
+	public long getBytesUploaded() {
+		return bytesUploaded;
+	}
+
+	/**
+	 * @return the number of program, binding, capability, blend, depth, culling and uniform changes
+	 */
+	public int getStateChanges() {
+		return stateChanges;
+	}
+
+	/**
+	 * @return the number of state changes which set the state to the value it already had
+	 */
+	public int getRedundantStateChanges() {
+		return redundantStateChanges;
+	}
+
+	@Override
+	public String toString() {
+		return drawCalls + " draw calls, " + vertices + " vertices, " + bytesUploaded + " bytes uploaded, " + stateChanges + " state changes ("
+				+ redundantStateChanges + " redundant), " + length + " ints recorded";
+	}
+
+	private void header(Op op, int argc) {
+		opCounts[op.ordinal()]++;
+		if(length + argc + 1 > commands.length)
+			commands = Arrays.copyOf(commands, Math.max(commands.length * 2, length + argc + 1));
+		commands[length++] = (op.ordinal() << 8) | argc;
+	}
+
+	private void record(Op op) {
+		header(op, 0);
+	}
+
+	private void record(Op op, int a) {
+		header(op, 1);
+		commands[length++] = a;
+	}
+
+	private void record(Op op, int a, int b) {
+		header(op, 2);
+		commands[length++] = a;
+		commands[length++] = b;
+	}
+
+	private void record(Op op, int a, int b, int c) {
+		header(op, 3);
+		commands[length++] = a;
+		commands[length++] = b;
+		commands[length++] = c;
+	}
+
+	private void record(Op op, int a, int b, int c, int d) {
+		header(op, 4);
+		commands[length++] = a;
+		commands[length++] = b;
+		commands[length++] = c;
+		commands[length++] = d;
+	}
+
+	// Append an argument of a command whose header has been written, which reserved room for it
+	private void arg(int a) {
+		commands[length++] = a;
+	}
+
+	private static int bits(float f) {
+		return Float.floatToRawIntBits(f);
+	}
+
+	private static int bool(boolean b) {
+		return b ? 1 : 0;
+	}
+
+	private static int bytes(Buffer b) {
+		if(b == null)
+			return 0;
+		if(b instanceof ByteBuffer)
+			return b.remaining();
+		if(b instanceof ShortBuffer || b instanceof CharBuffer)
+			return b.remaining() * 2;
+		if(b instanceof DoubleBuffer || b instanceof LongBuffer)
+			return b.remaining() * 8;
+		return b.remaining() * 4;
+	}
+
+	private static int bytesPerPixel(int format, int type) {
+		switch(type) {
+		case GLES20.GL_UNSIGNED_SHORT_5_6_5:
+		case GLES20.GL_UNSIGNED_SHORT_4_4_4_4:
+		case GLES20.GL_UNSIGNED_SHORT_5_5_5_1:
+			return 2;
+		}
+		switch(format) {
+		case GLES20.GL_RGBA:
+			return 4;
+		case GLES20.GL_RGB:
+			return 3;
+		case GLES20.GL_LUMINANCE_ALPHA:
+			return 2;
+		default:
+			return 1;
+		}
+	}
+
+	private void stateChange(boolean redundant) {
+		stateChanges++;
+		if(redundant)
+			redundantStateChanges++;
+	}
+
+	// Count a uniform upload whose value is the last words recorded
+	private void uniformChange(int location, int words) {
+		if(location < 0)
+			return;
+		int base = location * UNIFORM_WORDS;
+		boolean redundant = uniformSet[location];
+		for(int i = 0; i < words; i++) {
+			int word = commands[length - words + i];
+			redundant &= (uniformValues[base + i] == word);
+			uniformValues[base + i] = word;
+		}
+		uniformSet[location] = true;
+		stateChange(redundant);
+	}
+
+	private void uniformMatrixChange(int location, int count, float[] value, int offset, int words) {
+		if(location < 0)
+			return;
+		if(count != 1) {
+			// Arrays of matrices aren't tracked
+			uniformSet[location] = false;
+			stateChange(false);
+			return;
+		}
+		int base = location * UNIFORM_WORDS;
+		boolean redundant = uniformSet[location];
+		for(int i = 0; i < words; i++) {
+			int word = bits(value[offset + i]);
+			redundant &= (uniformValues[base + i] == word);
+			uniformValues[base + i] = word;
+		}
+		uniformSet[location] = true;
+		stateChange(redundant);
+	}
+
+	private void generate(int n, int[] names, int offset) {
+		for(int i = 0; i < n; i++)
+			names[offset + i] = nextName++;
+	}
+
+	// Forget bindings to deleted objects, as GL does
+	private void unbindDeleted(int n, int[] names, int offset) {
+		for(int i = 0; i < n; i++) {
+			int name = names[offset + i];
+			if(arrayBuffer == name)
+				arrayBuffer = 0;
+			if(elementBuffer == name)
+				elementBuffer = 0;
+			if(framebuffer == name)
+				framebuffer = 0;
+			if(renderbuffer == name)
+				renderbuffer = 0;
+			for(int u = 0; u < boundTextures.length; u++)
+				if(boundTextures[u] == name)
+					boundTextures[u] = 0;
+		}
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		record(Op.ACTIVE_TEXTURE, texture);
+		stateChange(texture == activeTexture);
+		activeTexture = texture;
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		record(Op.ATTACH_SHADER, program, shader);
+	}
+
+	@Override
+	public void glBindAttribLocation(int program, int index, String name) {
+		record(Op.BIND_ATTRIB_LOCATION, program, index, name.length());
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		record(Op.BIND_BUFFER, target, buffer);
+		if(target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+			stateChange(buffer == elementBuffer);
+			elementBuffer = buffer;
+		} else {
+			stateChange(buffer == arrayBuffer);
+			arrayBuffer = buffer;
+		}
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		record(Op.BIND_FRAMEBUFFER, target, framebuffer);
+		stateChange(framebuffer == this.framebuffer);
+		this.framebuffer = framebuffer;
+	}
+
+	@Override
+	public void glBindRenderbuffer(int target, int renderbuffer) {
+		record(Op.BIND_RENDERBUFFER, target, renderbuffer);
+		stateChange(renderbuffer == this.renderbuffer);
+		this.renderbuffer = renderbuffer;
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record(Op.BIND_TEXTURE, target, texture);
+		int unit = (activeTexture - GLES20.GL_TEXTURE0) % MAX_TEXTURE_UNITS;
+		stateChange(texture == boundTextures[unit]);
+		boundTextures[unit] = texture;
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		record(Op.BLEND_FUNC, sfactor, dfactor);
+		stateChange(sfactor == blendSrc && dfactor == blendDst);
+		blendSrc = sfactor;
+		blendDst = dfactor;
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		record(Op.BUFFER_DATA, target, size, usage);
+		if(data != null)
+			bytesUploaded += size;
+	}
+
+	@Override
+	public void glBufferSubData(int target, int offset, int size, Buffer data) {
+		record(Op.BUFFER_SUB_DATA, target, offset, size);
+		bytesUploaded += size;
+	}
+
+	@Override
+	public int glCheckFramebufferStatus(int target) {
+		record(Op.CHECK_FRAMEBUFFER_STATUS, target);
+		return GLES20.GL_FRAMEBUFFER_COMPLETE;
+	}
+
+	@Override
+	public void glClear(int mask) {
+		record(Op.CLEAR, mask);
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		record(Op.CLEAR_COLOR, bits(red), bits(green), bits(blue), bits(alpha));
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		record(Op.COMPILE_SHADER, shader);
+	}
+
+	@Override
+	public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data) {
+		header(Op.COMPRESSED_TEX_IMAGE_2D, 7);
+		arg(target);
+		arg(level);
+		arg(internalformat);
+		arg(width);
+		arg(height);
+		arg(border);
+		arg(imageSize);
+		bytesUploaded += imageSize;
+	}
+
+	@Override
+	public int glCreateProgram() {
+		record(Op.CREATE_PROGRAM);
+		return nextName++;
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		record(Op.CREATE_SHADER, type);
+		return nextName++;
+	}
+
+	@Override
+	public void glCullFace(int mode) {
+		record(Op.CULL_FACE, mode);
+		stateChange(mode == cullFace);
+		cullFace = mode;
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		record(Op.DELETE_BUFFERS, n);
+		unbindDeleted(n, buffers, offset);
+	}
+
+	@Override
+	public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+		record(Op.DELETE_FRAMEBUFFERS, n);
+		unbindDeleted(n, framebuffers, offset);
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		record(Op.DELETE_PROGRAM, program);
+		if(this.program == program)
+			this.program = 0;
+	}
+
+	@Override
+	public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+		record(Op.DELETE_RENDERBUFFERS, n);
+		unbindDeleted(n, renderbuffers, offset);
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		record(Op.DELETE_SHADER, shader);
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		record(Op.DELETE_TEXTURES, n);
+		unbindDeleted(n, textures, offset);
+	}
+
+	@Override
+	public void glDepthFunc(int func) {
+		record(Op.DEPTH_FUNC, func);
+		stateChange(func == depthFunc);
+		depthFunc = func;
+	}
+
+	@Override
+	public void glDepthMask(boolean flag) {
+		record(Op.DEPTH_MASK, bool(flag));
+		stateChange(flag == depthMask);
+		depthMask = flag;
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		record(Op.DISABLE, cap);
+		stateChange(!enabledCaps.get(cap));
+		enabledCaps.clear(cap);
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		record(Op.DISABLE_VERTEX_ATTRIB_ARRAY, index);
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		record(Op.DRAW_ARRAYS, mode, first, count);
+		drawCalls++;
+		vertices += count;
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, Buffer indices) {
+		record(Op.DRAW_ELEMENTS, mode, count, type);
+		drawCalls++;
+		vertices += count;
+	}
+
+	@Override
+	public void glDrawElements(int mode, int count, int type, int offset) {
+		record(Op.DRAW_ELEMENTS, mode, count, type);
+		drawCalls++;
+		vertices += count;
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		record(Op.ENABLE, cap);
+		stateChange(enabledCaps.get(cap));
+		enabledCaps.set(cap);
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		record(Op.ENABLE_VERTEX_ATTRIB_ARRAY, index);
+	}
+
+	@Override
+	public void glFinish() {
+		record(Op.FINISH);
+	}
+
+	@Override
+	public void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+		record(Op.FRAMEBUFFER_RENDERBUFFER, target, attachment, renderbuffertarget, renderbuffer);
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+		header(Op.FRAMEBUFFER_TEXTURE_2D, 5);
+		arg(target);
+		arg(attachment);
+		arg(textarget);
+		arg(texture);
+		arg(level);
+	}
+
+	@Override
+	public void glFrontFace(int mode) {
+		record(Op.FRONT_FACE, mode);
+		stateChange(mode == frontFace);
+		frontFace = mode;
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		record(Op.GEN_BUFFERS, n);
+		generate(n, buffers, offset);
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		record(Op.GEN_FRAMEBUFFERS, n);
+		generate(n, framebuffers, offset);
+	}
+
+	@Override
+	public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+		record(Op.GEN_RENDERBUFFERS, n);
+		generate(n, renderbuffers, offset);
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		record(Op.GEN_TEXTURES, n);
+		generate(n, textures, offset);
+	}
+
+	@Override
+	public int glGetError() {
+		record(Op.GET_ERROR);
+		return GLES20.GL_NO_ERROR;
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+		record(Op.GET_PROGRAM_IV, program, pname);
+		params[offset] = (pname == GLES20.GL_LINK_STATUS) ? GLES20.GL_TRUE : 0;
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		record(Op.GET_PROGRAM_INFO_LOG, program);
+		return "";
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		record(Op.GET_SHADER_IV, shader, pname);
+		params[offset] = (pname == GLES20.GL_COMPILE_STATUS) ? GLES20.GL_TRUE : 0;
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		record(Op.GET_SHADER_INFO_LOG, shader);
+		return "";
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		record(Op.GET_UNIFORM_LOCATION, program, name.length());
+		String key = program + ":" + name;
+		Integer location = uniformLocations.get(key);
+		if(location == null) {
+			location = uniformLocations.size();
+			uniformLocations.put(key, location);
+			if(location >= uniformSet.length) {
+				uniformSet = Arrays.copyOf(uniformSet, uniformSet.length * 2);
+				uniformValues = Arrays.copyOf(uniformValues, uniformSet.length * UNIFORM_WORDS);
+			}
+		}
+		return location;
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		record(Op.LINK_PROGRAM, program);
+	}
+
+	@Override
+	public void glPixelStorei(int pname, int param) {
+		record(Op.PIXEL_STORE_I, pname, param);
+	}
+
+	@Override
+	public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+		header(Op.READ_PIXELS, 6);
+		arg(x);
+		arg(y);
+		arg(width);
+		arg(height);
+		arg(format);
+		arg(type);
+	}
+
+	@Override
+	public void glRenderbufferStorage(int target, int internalformat, int width, int height) {
+		record(Op.RENDERBUFFER_STORAGE, target, internalformat, width, height);
+	}
+
+	@Override
+	public void glShaderSource(int shader, String string) {
+		record(Op.SHADER_SOURCE, shader, string.length());
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+		header(Op.TEX_IMAGE_2D, 9);
+		arg(target);
+		arg(level);
+		arg(internalformat);
+		arg(width);
+		arg(height);
+		arg(border);
+		arg(format);
+		arg(type);
+		arg(bytes(pixels));
+		if(pixels != null)
+			bytesUploaded += (long) width * height * bytesPerPixel(format, type);
+	}
+
+	@Override
+	public void glTexParameterf(int target, int pname, float param) {
+		record(Op.TEX_PARAMETER_F, target, pname, bits(param));
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		record(Op.TEX_PARAMETER_I, target, pname, param);
+	}
+
+	@Override
+	public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+		header(Op.TEX_SUB_IMAGE_2D, 9);
+		arg(target);
+		arg(level);
+		arg(xoffset);
+		arg(yoffset);
+		arg(width);
+		arg(height);
+		arg(format);
+		arg(type);
+		arg(bytes(pixels));
+		bytesUploaded += (long) width * height * bytesPerPixel(format, type);
+	}
+
+	@Override
+	public void glUniform1f(int location, float x) {
+		record(Op.UNIFORM_1F, location, bits(x));
+		uniformChange(location, 1);
+	}
+
+	@Override
+	public void glUniform1i(int location, int x) {
+		record(Op.UNIFORM_1I, location, x);
+		uniformChange(location, 1);
+	}
+
+	@Override
+	public void glUniform3f(int location, float x, float y, float z) {
+		record(Op.UNIFORM_3F, location, bits(x), bits(y), bits(z));
+		uniformChange(location, 3);
+	}
+
+	@Override
+	public void glUniform4f(int location, float x, float y, float z, float w) {
+		header(Op.UNIFORM_4F, 5);
+		arg(location);
+		arg(bits(x));
+		arg(bits(y));
+		arg(bits(z));
+		arg(bits(w));
+		uniformChange(location, 4);
+	}
+
+	@Override
+	public void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset) {
+		record(Op.UNIFORM_MATRIX_3FV, location, count, bool(transpose));
+		uniformMatrixChange(location, count, value, offset, 9);
+	}
+
+	@Override
+	public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+		record(Op.UNIFORM_MATRIX_4FV, location, count, bool(transpose));
+		uniformMatrixChange(location, count, value, offset, 16);
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		record(Op.USE_PROGRAM, program);
+		stateChange(program == this.program);
+		this.program = program;
+	}
+
+	@Override
+	public void glVertexAttrib4f(int indx, float x, float y, float z, float w) {
+		header(Op.VERTEX_ATTRIB_4F, 5);
+		arg(indx);
+		arg(bits(x));
+		arg(bits(y));
+		arg(bits(z));
+		arg(bits(w));
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+		header(Op.VERTEX_ATTRIB_POINTER, 6);
+		arg(indx);
+		arg(size);
+		arg(type);
+		arg(bool(normalized));
+		arg(stride);
+		arg(offset);
+	}
+
+	@Override
+	public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+		// Client side arrays are copied to GL on every draw
+		header(Op.VERTEX_ATTRIB_POINTER, 6);
+		arg(indx);
+		arg(size);
+		arg(type);
+		arg(bool(normalized));
+		arg(stride);
+		arg(bytes(ptr));
+		bytesUploaded += bytes(ptr);
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		record(Op.VIEWPORT, x, y, width, height);
+	}
+}
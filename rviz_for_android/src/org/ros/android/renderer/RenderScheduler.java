@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Decides when a {@link GLSurfaceView} rendering in {@link GLSurfaceView#RENDERMODE_WHEN_DIRTY} mode draws a frame. Frames are drawn when a layer or the
+ * view requests one, and continuously only while the camera is moving or a layer is animating. Requests are coalesced and paced so frames are never drawn
+ * faster than the maximum frame rate.
+ */
+public class RenderScheduler implements RenderRequestListener {
+	public static final int DEFAULT_MAX_FRAME_RATE = 60;
+
+	private final GLSurfaceView view;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	// Set while a frame has been requested but hasn't started yet
+	private final AtomicBoolean pending = new AtomicBoolean(false);
+	private volatile long minFrameNanos;
+	private volatile long lastFrameStart = 0;
+
+	private final Runnable render = new Runnable() {
+		@Override
+		public void run() {
+			view.requestRender();
+		}
+	};
+
+	public RenderScheduler(GLSurfaceView view) {
+		this.view = view;
+		setMaxFrameRate(DEFAULT_MAX_FRAME_RATE);
+	}
+
+	public void setMaxFrameRate(int framesPerSecond) {
+		if(framesPerSecond <= 0)
+			throw new IllegalArgumentException("Maximum frame rate must be positive");
+		minFrameNanos = 1000000000L / framesPerSecond;
+	}
+
+	public int getMaxFrameRate() {
+		return (int) (1000000000L / minFrameNanos);
+	}
+
+	@Override
+	public void onRenderRequest() {
+		requestRender();
+	}
+
+	/**
+	 * Request a frame. It is drawn immediately if the last frame started at least one frame period ago, otherwise it is delayed until then. May be called
+	 * from any thread.
+	 */
+	public void requestRender() {
+		if(!pending.compareAndSet(false, true))
+			return;
+		long wait = lastFrameStart + minFrameNanos - System.nanoTime();
+		if(wait <= 0)
+			view.requestRender();
+		else
+			handler.postDelayed(render, (wait + 999999) / 1000000);
+	}
+
+	/**
+	 * Called by the renderer on the GL thread before drawing a frame. Requests made after this point cause another frame to be drawn.
+	 */
+	public void beginFrame() {
+		lastFrameStart = System.nanoTime();
+		pending.set(false);
+	}
+
+	/**
+	 * Called by the renderer on the GL thread after drawing a frame.
+	 *
+	 * @param animating
+	 *            true if the camera is moving or a layer is animating, so another frame should follow
+	 */
+	public void endFrame(boolean animating) {
+		if(animating)
+			requestRender();
+	}
+}
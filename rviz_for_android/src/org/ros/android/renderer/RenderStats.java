@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.ros.android.renderer.layer.Layer;
+
+/**
+ * Per layer counts of the shapes drawn and culled in the most recent frame each layer was drawn in. Counts are recorded on the GL thread and may be read
+ * from any thread.
+ */
+public class RenderStats {
+	private static class Counts {
+		volatile int drawn;
+		volatile int culled;
+		int frameDrawn;
+		int frameCulled;
+	}
+
+	private final Map<Layer, Counts> counts = Collections.synchronizedMap(new WeakHashMap<Layer, Counts>());
+	private Counts current;
+
+	/**
+	 * Start counting shapes for a layer. Pass null to stop counting, for instance during the selection pass.
+	 */
+	public void beginLayer(Layer layer) {
+		if(layer == null) {
+			current = null;
+			return;
+		}
+		current = counts.get(layer);
+		if(current == null) {
+			current = new Counts();
+			counts.put(layer, current);
+		}
+		current.frameDrawn = 0;
+		current.frameCulled = 0;
+	}
+
+	/**
+	 * Publish the counts of the current layer
+	 */
+	public void endLayer() {
+		if(current != null) {
+			current.drawn = current.frameDrawn;
+			current.culled = current.frameCulled;
+			current = null;
+		}
+	}
+
+	/**
+	 * Record a shape which was drawn or culled
+	 */
+	public void countShape(boolean culled) {
+		if(current == null)
+			return;
+		if(culled)
+			current.frameCulled++;
+		else
+			current.frameDrawn++;
+	}
+
+	public int getDrawnCount(Layer layer) {
+		Counts c = counts.get(layer);
+		return (c == null) ? 0 : c.drawn;
+	}
+
+	public int getCulledCount(Layer layer) {
+		Counts c = counts.get(layer);
+		return (c == null) ? 0 : c.culled;
+	}
+}
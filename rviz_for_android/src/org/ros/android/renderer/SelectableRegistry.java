@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ros.android.renderer.layer.Selectable;
+import org.ros.android.renderer.shapes.Color;
+
+/**
+ * Assigns each selectable a small integer ID which is drawn in the selection pass as an RGB8 color. IDs are slots in an array, so a color read back
+ * from the selection buffer is looked up without hashing or allocation. Released IDs are reused before new ones are handed out.
+ *
+ * <p>
+ * Registration and removal may happen on any thread. Lookups don't lock, so the GL thread never waits on a subscriber thread.
+ */
+public class SelectableRegistry {
+	/**
+	 * The ID of the background, which no selectable is given
+	 */
+	public static final int NO_ID = 0;
+	private static final int MAX_ID = 0xFFFFFF;
+	private static final int INITIAL_CAPACITY = 256;
+
+	// Replaced with a larger copy when full. Writes hold the lock, reads don't.
+	private volatile AtomicReferenceArray<Selectable> slots = new AtomicReferenceArray<Selectable>(INITIAL_CAPACITY);
+
+	// Guarded by this
+	private final Map<Selectable, Integer> ids = new IdentityHashMap<Selectable, Integer>();
+	private int[] freeIds = new int[16];
+	private int freeCount = 0;
+	private int nextId = NO_ID + 1;
+
+	/**
+	 * @return the selectable's ID. A selectable which is already registered keeps its ID.
+	 */
+	public synchronized int register(Selectable s) {
+		Integer existing = ids.get(s);
+		if(existing != null)
+			return existing;
+
+		int id;
+		if(freeCount > 0) {
+			id = freeIds[--freeCount];
+		} else {
+			if(nextId > MAX_ID)
+				throw new RuntimeException("Selection manager is out of IDs to assign.");
+			id = nextId++;
+		}
+
+		AtomicReferenceArray<Selectable> current = slots;
+		if(id >= current.length()) {
+			AtomicReferenceArray<Selectable> grown = new AtomicReferenceArray<Selectable>(Math.min(current.length() * 2, MAX_ID + 1));
+			for(int i = 0; i < current.length(); i++)
+				grown.set(i, current.get(i));
+			current = grown;
+		}
+		current.set(id, s);
+		slots = current;
+		ids.put(s, id);
+		return id;
+	}
+
+	/**
+	 * @return the ID the selectable had, or {@link #NO_ID} if it wasn't registered
+	 */
+	public synchronized int remove(Selectable s) {
+		Integer id = ids.remove(s);
+		if(id == null)
+			return NO_ID;
+		slots.set(id, null);
+		if(freeCount == freeIds.length)
+			freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+		freeIds[freeCount++] = id;
+		return id;
+	}
+
+	/**
+	 * @return the selectable with the ID, or null if there is none
+	 */
+	public Selectable get(int id) {
+		AtomicReferenceArray<Selectable> current = slots;
+		if(id <= NO_ID || id >= current.length())
+			return null;
+		return current.get(id);
+	}
+
+	/**
+	 * @return the selectable's ID, or {@link #NO_ID} if it isn't registered
+	 */
+	public synchronized int getId(Selectable s) {
+		Integer id = ids.get(s);
+		return (id == null) ? NO_ID : id;
+	}
+
+	/**
+	 * @return the color to draw an ID with. Each channel is a multiple of 1/255, so it is stored exactly in an 8 bit color buffer.
+	 */
+	public static Color toColor(int id) {
+		return new Color((id & 0xff) / 255f, ((id >> 8) & 0xff) / 255f, ((id >> 16) & 0xff) / 255f, 1f);
+	}
+
+	/**
+	 * @return the ID drawn as the color with these 8 bit channels
+	 */
+	public static int fromRGB(int r, int g, int b) {
+		return (r & 0xff) | ((g & 0xff) << 8) | ((b & 0xff) << 16);
+	}
+}
@@ -16,8 +16,6 @@
  */
 package org.ros.android.renderer;
 
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
 import org.ros.android.renderer.layer.Selectable;
@@ -30,55 +28,124 @@ public class SelectionManager {
 	public static final Color selectedColor = new Color(1f, 0f, 1f, 1f);
 	public static final Color backgroundColor = new Color(0f, 0f, 0f, 1f);
 	
-	// Color management: create a table of colors available to draw from. When the table runs out, generate more.
-	private LinkedList<Color> colorPool = new LinkedList<Color>();
-	private static final int COLOR_CHUNK_SIZE = 256;
-	private int rGen = 1;
-	private int gGen = 1;
-	private int bGen = 1;
-	
-	// "Bidirectional" mapping between selectable and color
-	private Map<Selectable, Color> forwardMap = new HashMap<Selectable, Color>();
-	private Map<Color, Selectable> reverseMap = new HashMap<Color, Selectable>();
+	// Each selectable is drawn in the selection pass with the color of its ID
+	private final SelectableRegistry registry = new SelectableRegistry();
 	
 	// Selection tracking
-	private boolean isSelectionDraw = false;
+	private volatile boolean isSelectionDraw = false;
 	private Selectable selected = null;
 	private boolean interactiveMode = false;
 	
 	private Point selectionPoint = new Point(-1, -1); 
 	
-	public SelectionManager() {
-		generateColors(COLOR_CHUNK_SIZE);
-	}
+	// CPU picking, with the result handed to the GL thread
+	private final PickingEngine picker = new PickingEngine();
+	private volatile boolean pickMissed = false;
+	private volatile Selectable pickResolved = null;
+	private RenderRequestListener renderListener;
+	
+	private final PickingEngine.PickListener pickListener = new PickingEngine.PickListener() {
+		@Override
+		public void onPickMissed() {
+			pickMissed = true;
+			requestRender();
+		}
+
+		@Override
+		public void onPickResolved(Selectable s) {
+			pickResolved = s;
+			requestRender();
+		}
+
+		@Override
+		public void onPickAmbiguous() {
+			// Fall back to the selection pass
+			isSelectionDraw = true;
+			requestRender();
+		}
+	};
 	
+	/**
+	 * @return the color to draw the selectable with in the selection pass
+	 */
 	public Color registerSelectable(Selectable s) {
-		Color associatedColor = getNextColor();
-		forwardMap.put(s, associatedColor);
-		reverseMap.put(associatedColor, s);
-		return associatedColor;
+		return SelectableRegistry.toColor(registry.register(s));
 	}
 	
+	/**
+	 * @return the background color, for the selectable to draw with from now on
+	 */
 	public Color removeSelectable(Selectable s) {
-		Color toRemove = forwardMap.remove(s);
-		reverseMap.remove(toRemove);
-		colorPool.add(toRemove);
+		registry.remove(s);
+		picker.remove(s);
 		return backgroundColor;
 	}
 	
+	/**
+	 * Select the item at a point of the view. The bounds of the selectables are checked on a worker thread first, which decides the tap without drawing
+	 * the selection pass unless the bounds under it overlap.
+	 */
+	public void select(int selX, int selY) {
+		selectionPoint.set(selX, selY);
+		picker.pick(selX, selY, pickListener);
+	}
+	
 	public void beginSelectionDraw(int selX, int selY) {
 		isSelectionDraw = true;
 		selectionPoint.set(selX, selY);
 	}
 	
+	/**
+	 * Apply the result of the last CPU pick, if one has arrived. Called on the GL thread before drawing a frame.
+	 */
+	public void applyPickResult() {
+		if(pickMissed) {
+			pickMissed = false;
+			selectItem(null);
+		}
+		Selectable resolved = pickResolved;
+		if(resolved != null) {
+			pickResolved = null;
+			// It may have been removed since it was picked
+			if(registry.getId(resolved) != SelectableRegistry.NO_ID)
+				selectItem(resolved);
+		}
+	}
+	
+	public PickingEngine getPickingEngine() {
+		return picker;
+	}
+	
+	/**
+	 * Stop picking on the worker thread
+	 */
+	public void shutdown() {
+		picker.shutdown();
+	}
+	
+	public void setRenderRequestListener(RenderRequestListener renderListener) {
+		this.renderListener = renderListener;
+	}
+	
+	private void requestRender() {
+		if(renderListener != null)
+			renderListener.onRenderRequest();
+	}
+	
 	public Point getSelectionCoordinates() {
 		return selectionPoint;
 	}
 	
-	public boolean selectItemWithColor(Color c) {
+	/**
+	 * Select the item drawn with a color read back from the selection pass
+	 */
+	public boolean selectItemWithRGB(int r, int g, int b) {
 		isSelectionDraw = false;
-		if(reverseMap.containsKey(c)) {
-			Selectable newSelected = reverseMap.get(c);
+		return selectItem(registry.get(SelectableRegistry.fromRGB(r, g, b)));
+	}
+	
+	private boolean selectItem(Selectable newSelected) {
+		if(newSelected != null) {
 			if(selected != newSelected) {
 				deselect();
 				selected = newSelected;			
@@ -98,7 +165,8 @@ public class SelectionManager {
 	}
 	
 	public Color getColor(Selectable s) {
-		return forwardMap.get(s);
+		int id = registry.getId(s);
+		return (id == SelectableRegistry.NO_ID) ? null : SelectableRegistry.toColor(id);
 	}
 	
 	public Selectable getSelectedItem() {
@@ -116,12 +184,6 @@ public class SelectionManager {
 		return isSelectionDraw;
 	}
 	
-	private Color getNextColor() {
-		if(colorPool.isEmpty())
-			generateColors(COLOR_CHUNK_SIZE);
-		return colorPool.removeFirst();
-	}
-	
 	private void deselect() {
 		if(selected != null) {
 			selected.setSelected(false);
@@ -134,27 +196,6 @@ public class SelectionManager {
 		}
 	}
 	
-	private void generateColors(int nColors) {
-		for(int i = 0; i < nColors; i++)
-			colorPool.add(generateNextColor());
-	}
-	
-	private Color generateNextColor() {
-		rGen ++;
-		if(rGen == 256) {
-			gGen ++;
-			rGen = 0;
-		}
-		if(gGen == 256) {
-			bGen ++;
-			gGen = 0;
-		}
-		if(bGen == 256)
-			throw new RuntimeException("Selection manager is out of colors to generate.");
-		
-		return new Color(rGen/255f, gGen/255f, bGen/255f, 1f);
-	}
-
 	private boolean isSelectedInteractive() {
 		return (selected != null) && (selected.getInteractiveObject() != null);
 	}
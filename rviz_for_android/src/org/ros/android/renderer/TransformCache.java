@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.ros.android.renderer.math.Mat4;
+import org.ros.namespace.GraphName;
+import org.ros.rosjava_geometry.FrameTransform;
+import org.ros.rosjava_geometry.FrameTransformTree;
+import org.ros.rosjava_geometry.Transform;
+
+/**
+ * Per frame snapshot of transforms looked up in a {@link FrameTransformTree}. Each (source, target) pair is looked up in the tree at most once per frame, so
+ * every layer drawing in the same frame sees the same transform. Matrices are kept in reused float arrays in OpenGL's column major order, ready to be applied
+ * to the model matrix. Must only be used from the GL thread.
+ */
+public class TransformCache {
+	// Entries which haven't been used for this many frames are dropped
+	private static final int EXPIRE_FRAMES = 300;
+
+	private static class Entry {
+		final float[] matrix = new float[16];
+		Transform transform;
+		int frame = -1;
+	}
+
+	private final FrameTransformTree frameTransformTree;
+	// Keyed by target, then source
+	private final HashMap<GraphName, HashMap<GraphName, Entry>> entries = new HashMap<GraphName, HashMap<GraphName, Entry>>();
+	private int frame = 0;
+
+	public TransformCache(FrameTransformTree frameTransformTree) {
+		this.frameTransformTree = frameTransformTree;
+	}
+
+	/**
+	 * Discard the snapshot so transforms are looked up again. Called once at the start of every frame.
+	 */
+	public void invalidate() {
+		frame++;
+		if(frame % EXPIRE_FRAMES == 0 && !entries.isEmpty())
+			expire();
+	}
+
+	/**
+	 * @return the transform from source to target as a column major matrix, or the identity if it isn't known. The array is owned by the cache and must not
+	 *         be modified.
+	 */
+	public float[] getMatrix(GraphName source, GraphName target) {
+		return lookup(source, target).matrix;
+	}
+
+	/**
+	 * @return the transform from source to target, or the identity if it isn't known
+	 */
+	public Transform getTransform(GraphName source, GraphName target) {
+		return lookup(source, target).transform;
+	}
+
+	private Entry lookup(GraphName source, GraphName target) {
+		HashMap<GraphName, Entry> fromSource = entries.get(target);
+		if(fromSource == null) {
+			fromSource = new HashMap<GraphName, Entry>();
+			entries.put(target, fromSource);
+		}
+		Entry e = fromSource.get(source);
+		if(e == null) {
+			e = new Entry();
+			fromSource.put(source, e);
+		}
+
+		if(e.frame != frame) {
+			FrameTransform ft = frameTransformTree.transform(source, target);
+			e.transform = (ft == null) ? Transform.identity() : ft.getTransform();
+			Mat4.setTransform(e.matrix, e.transform);
+			e.frame = frame;
+		}
+		return e;
+	}
+
+	private void expire() {
+		Iterator<HashMap<GraphName, Entry>> targets = entries.values().iterator();
+		while(targets.hasNext()) {
+			HashMap<GraphName, Entry> fromSource = targets.next();
+			Iterator<Entry> it = fromSource.values().iterator();
+			while(it.hasNext())
+				if(frame - it.next().frame > EXPIRE_FRAMES)
+					it.remove();
+			if(fromSource.isEmpty())
+				targets.remove();
+		}
+	}
+}
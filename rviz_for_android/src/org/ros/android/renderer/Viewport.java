@@ -18,8 +18,7 @@ package org.ros.android.renderer;
 
 import javax.microedition.khronos.opengles.GL10;
 
-import android.opengl.GLES20;
-import android.opengl.Matrix;
+import org.ros.android.renderer.math.Mat4;
 
 /**
  * @author damonkohler@google.com (Damon Kohler)
@@ -37,7 +36,7 @@ public class Viewport {
   }
 
   public void apply(GL10 glUnused) {
-	GLES20.glViewport(0, 0, width, height);
+	GLES.glViewport(0, 0, width, height);
     
     float zNear = 0.1f;
     float zFar = 1000;
@@ -48,7 +47,7 @@ public class Viewport {
     fH = (float) (Math.tan(fov/360*Math.PI) * zNear);
     fW = fH*aspectRatio;
 
-    Matrix.frustumM(mProjection, 0, -fW, fW, -fH, fH, zNear, zFar);
+    Mat4.setFrustum(mProjection, -fW, fW, -fH, fH, zNear, zFar);
   }
   
   public float[] getProjectionMatrix() {
@@ -18,19 +18,18 @@ package org.ros.android.renderer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
 import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import org.ros.android.renderer.layer.AnimatedLayer;
 import org.ros.android.renderer.layer.Layer;
 import org.ros.android.renderer.layer.SelectableLayer;
 import org.ros.android.renderer.layer.TfLayer;
-import org.ros.android.renderer.shapes.Color;
+import org.ros.android.rviz_for_android.drawable.MergedShapeList;
 import org.ros.namespace.GraphName;
 import org.ros.rosjava_geometry.FrameTransformTree;
-import org.ros.rosjava_geometry.Transform;
 
 import android.graphics.Point;
 import android.opengl.GLES20;
@@ -52,9 +51,16 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 
 	private Camera camera;
 
-	public VisViewRenderer(FrameTransformTree frameTransformTree, Camera camera) {
+	private RenderScheduler scheduler;
+
+	// Set while drawing if any layer is animating
+	private boolean animating;
+
+	public VisViewRenderer(FrameTransformTree frameTransformTree, Camera camera, RenderScheduler scheduler) {
 		this.frameTransformTree = frameTransformTree;
 		this.camera = camera;
+		this.scheduler = scheduler;
+		camera.getSelectionManager().setRenderRequestListener(scheduler);
 	}
 
 	@Override
@@ -73,24 +79,40 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 		// Set camera location transformation
 		camera.loadIdentityM();
 
-		GLES20.glClearColor(0f, 0f, 0f, 0f);
+		GLES.glClearColor(0f, 0f, 0f, 0f);
 	}
 
 	@Override
 	public void onDrawFrame(GL10 glUnused) {
+		scheduler.beginFrame();
+		camera.getFrameProfiler().beginFrame();
+		GLState.beginFrame();
+		GLResourceManager.beginFrame();
+		MergedShapeList.deleteReleased();
+		camera.getTransformCache().invalidate();
 		camera.apply();
 		camera.loadIdentityM();
+		camera.getSelectionManager().applyPickResult();
+		camera.getSelectionManager().getPickingEngine().beginFrame(camera.getViewMatrix(), camera.getViewport().getProjectionMatrix(), camera.getViewport().getWidth(), camera.getViewport().getHeight());
 
-		if(camera.getSelectionManager().isSelectionDraw())
+		animating = false;
+		if(camera.getSelectionManager().isSelectionDraw()) {
 			selectionDraw(glUnused);
-		else {
-			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+			// The selection pass draws off screen, so the view still has to be drawn
+			scheduler.requestRender();
+		} else {
+			GLES.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 			drawLayers(glUnused);
 		}
 
+		camera.getSelectionManager().getPickingEngine().endFrame();
 		checkErrors(glUnused);
+		camera.getFrameProfiler().endFrame();
+		scheduler.endFrame(animating || camera.isMoving());
 	}
 
+	private final ByteBuffer colorBuf = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+
 	private void selectionDraw(GL10 glUnused) {
 		setFBO(glUnused, true);
 
@@ -98,14 +120,14 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 			return;
 		}
 		synchronized(layers) {
-			for(Layer layer : getLayers()) {
+			for(int i = 0; i < layers.size(); i++) {
+				Layer layer = layers.get(i);
 				if(layer.isEnabled() && (layer instanceof SelectableLayer)) {
 					camera.pushM();
 					if(layer instanceof TfLayer) {
 						GraphName layerFrame = ((TfLayer) layer).getFrame();
 						if(layerFrame != null) {
-							Transform t = Utility.newTransformIfPossible(frameTransformTree, layerFrame, camera.getFixedFrame());
-							camera.applyTransform(t);
+							camera.applyTransform(camera.getTransformCache().getMatrix(layerFrame, camera.getFixedFrame()));
 						}
 					}
 					((SelectableLayer) layer).selectionDraw(glUnused);
@@ -115,14 +137,11 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 		}
 
 		// is THIS your card?
-		ByteBuffer colorBuf = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
 		colorBuf.position(0);
 		Point selected = camera.getSelectionManager().getSelectionCoordinates();
 		selected.set(selected.x, (camera.getViewport().getHeight() - selected.y));
-		GLES20.glReadPixels(selected.x, selected.y, 1, 1, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, colorBuf);
-		colorBuf.position(0);
-		Color selectedColor = new Color((colorBuf.get() & 0xff) / 255f, (colorBuf.get() & 0xff) / 255f, (colorBuf.get() & 0xff) / 255f, 1f);
-		camera.getSelectionManager().selectItemWithColor(selectedColor);
+		GLES.glReadPixels(selected.x, selected.y, 1, 1, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, colorBuf);
+		camera.getSelectionManager().selectItemWithRGB(colorBuf.get(0), colorBuf.get(1), colorBuf.get(2));
 
 		setFBO(glUnused, false);
 	}
@@ -130,63 +149,69 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 	private int[] fb = new int[1];
 	private int[] depthRb = new int[1];
 	private int[] renderTex = new int[1];
+	private GLResourceManager.Resource renderTexResource;
+	private GLResourceManager.Resource depthRbResource;
 	private int fboWidth = -1;
 	private int fboHeight = -1;
 
 	private void genFBO(GL10 glUnused) {
+		// Release the buffers made for the previous surface size
+		if(fb[0] != 0) {
+			GLES.glDeleteFramebuffers(1, fb, 0);
+			GLResourceManager.delete(renderTexResource);
+			GLResourceManager.delete(depthRbResource);
+		}
+
 		fboWidth = camera.getViewport().getWidth();
 		fboHeight = camera.getViewport().getHeight();
 
-		GLES20.glGenFramebuffers(1, fb, 0);
-		GLES20.glGenRenderbuffers(1, depthRb, 0);
-		GLES20.glGenTextures(1, renderTex, 0);
+		GLES.glGenFramebuffers(1, fb, 0);
+		GLES.glGenRenderbuffers(1, depthRb, 0);
+		GLES.glGenTextures(1, renderTex, 0);
 
 		// generate texture
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, renderTex[0]);
+		GLState.bindTexture(renderTex[0]);
 
 		// parameters - we have to make sure we clamp the textures to the edges
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		GLES.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+		GLES.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		GLES.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
 
-		// create it
-		// create an empty intbuffer first
-		int[] buf = new int[fboWidth * fboHeight];
-		IntBuffer texBuffer = ByteBuffer.allocateDirect(buf.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
-
-		// generate the textures
-		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, fboWidth, fboHeight, 0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, texBuffer);
+		// generate the texture, leaving its contents undefined
+		GLES.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, fboWidth, fboHeight, 0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, null);
+		renderTexResource = GLResourceManager.track(GLResourceManager.Type.TEXTURE, renderTex[0], fboWidth * fboHeight * 3, this, null);
 
 		// create render buffer and bind 16-bit depth buffer
-		GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthRb[0]);
-		GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, fboWidth, fboHeight);
+		GLES.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthRb[0]);
+		GLES.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, fboWidth, fboHeight);
+		depthRbResource = GLResourceManager.track(GLResourceManager.Type.RENDERBUFFER, depthRb[0], fboWidth * fboHeight * 2, this, null);
 	}
 
 	private void setFBO(GL10 glUnused, boolean useBuffer) {
 		if(useBuffer) {
 			// Bind the framebuffer
-			GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fb[0]);
+			GLES.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fb[0]);
 	
 			// specify texture as color attachment
-			GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, renderTex[0], 0);
+			GLES.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, renderTex[0], 0);
 			// attach render buffer as depth buffer
-			GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, depthRb[0]);
+			GLES.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, depthRb[0]);
 	
 			// check status
-			int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+			int status = GLES.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
 			if(status != GLES20.GL_FRAMEBUFFER_COMPLETE)
 				Log.e("Selection", "Frame buffer couldn't attach!");
 	
-			GLES20.glClearColor(.0f, .0f, .0f, 1.0f);
-			GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+			GLES.glClearColor(.0f, .0f, .0f, 1.0f);
+			GLES.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 		} else {
-			GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+			GLES.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
 		}
 	}
 
 	private void checkErrors(GL10 glUnused) {
-		int error = GLES20.glGetError();
+		int error = GLES.glGetError();
 		if(error != GLES20.GL_NO_ERROR) {
 			String err;
 			switch(error) {
@@ -204,6 +229,8 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 				break;
 			case GLES20.GL_OUT_OF_MEMORY:
 				err = "Out of memory";
+				GLResourceManager.onOutOfMemory();
+				break;
 			default:
 				err = "Unknown error " + error;
 			}
@@ -214,20 +241,21 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 
 	@Override
 	public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
+		GLState.invalidate();
 		// Set rendering options
-		GLES20.glEnable(GLES20.GL_BLEND);
-		GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-		GLES20.glDisable(GLES20.GL_DITHER);
+		GLES.glEnable(GLES20.GL_BLEND);
+		GLES.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+		GLES.glDisable(GLES20.GL_DITHER);
 
 		// Face culling
-		GLES20.glEnable(GLES20.GL_CULL_FACE);
-		GLES20.glFrontFace(GL10.GL_CCW);
-		GLES20.glCullFace(GLES20.GL_BACK);
+		GLES.glEnable(GLES20.GL_CULL_FACE);
+		GLES.glFrontFace(GL10.GL_CCW);
+		GLES.glCullFace(GLES20.GL_BACK);
 
 		// Depth
-		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-		GLES20.glDepthFunc(GLES20.GL_LEQUAL);
-		GLES20.glDepthMask(true);
+		GLES.glEnable(GLES20.GL_DEPTH_TEST);
+		GLES.glDepthFunc(GLES20.GL_LEQUAL);
+		GLES.glDepthMask(true);
 	}
 
 	private void drawLayers(GL10 glUnused) {
@@ -235,18 +263,24 @@ public class VisViewRenderer implements GLSurfaceView.Renderer {
 			return;
 		}
 		synchronized(layers) {
-			for(Layer layer : getLayers()) {
+			for(int i = 0; i < layers.size(); i++) {
+				Layer layer = layers.get(i);
 				if(layer.isEnabled()) {
 					camera.pushM();
 					if(layer instanceof TfLayer) {
 						GraphName layerFrame = ((TfLayer) layer).getFrame();
 						if(layerFrame != null) {
-							Transform t = Utility.newTransformIfPossible(frameTransformTree, layerFrame, camera.getFixedFrame());
-							camera.applyTransform(t);
+							camera.applyTransform(camera.getTransformCache().getMatrix(layerFrame, camera.getFixedFrame()));
 						}
 					}
+					camera.getRenderStats().beginLayer(layer);
+					long start = camera.getFrameProfiler().beginDraw();
 					layer.draw(glUnused);
+					camera.getFrameProfiler().endDraw(layer, start);
+					camera.getRenderStats().endLayer();
 					camera.popM();
+					if(layer instanceof AnimatedLayer && ((AnimatedLayer) layer).isAnimating())
+						animating = true;
 				}
 			}
 		}
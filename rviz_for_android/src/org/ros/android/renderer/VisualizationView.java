@@ -46,7 +46,7 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 
 	private static final String TF_TOPIC = "tf_throttled";
 
-	private RenderRequestListener renderRequestListener;
+	private RenderScheduler scheduler;
 
 	private FrameTransformTree frameTransformTree;
 
@@ -67,21 +67,17 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 	}
 
 	private void init() {
-		renderRequestListener = new RenderRequestListener() {
-			@Override
-			public void onRenderRequest() {
-				requestRender();
-			}
-		};
+		scheduler = new RenderScheduler(this);
 		frameTransformTree = new org.ros.rosjava_geometry.FrameTransformTree(NameResolver.newRoot());
 		camera = new OrbitCamera(frameTransformTree, frameTracker);
-		renderer = new VisViewRenderer(frameTransformTree, camera);
+		renderer = new VisViewRenderer(frameTransformTree, camera, scheduler);
 		layers = Lists.newArrayList();
 		setEGLConfigChooser(8, 8, 8, 8, 8, 8);
 		setEGLContextClientVersion(2);
 
 		getHolder().setFormat(PixelFormat.TRANSLUCENT);
 		setRenderer(renderer);
+		setRenderMode(RENDERMODE_WHEN_DIRTY);
 	}
 
 	@Override
@@ -93,6 +89,7 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 	public boolean onTouchEvent(MotionEvent event) {
 		for(Layer layer : Lists.reverse(layers)) {
 			if(layer != null && layer.onTouchEvent(this, event)) {
+				scheduler.requestRender();
 				return true;
 			}
 		}
@@ -107,6 +104,10 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 		return camera;
 	}
 
+	public RenderScheduler getRenderScheduler() {
+		return scheduler;
+	}
+
 	/**
 	 * Adds a new layer at the end of the layers collection. The new layer will be drawn last, i.e. on top of all other layers.
 	 * 
@@ -117,11 +118,11 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 		synchronized(layers) {
 			layers.add(layer);
 		}
-		layer.addRenderListener(renderRequestListener);
+		layer.addRenderListener(scheduler);
 		if(connectedNode != null) {
 			layer.onStart(connectedNode, getHandler(), frameTransformTree, camera);
 		}
-		requestRender();
+		scheduler.requestRender();
 	}
 
 	public void removeLayer(Layer layer) {
@@ -129,6 +130,7 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 		synchronized(layers) {
 			layers.remove(layer);
 		}
+		scheduler.requestRender();
 	}
 
 	@Override
@@ -152,6 +154,7 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 					frameTransformTree.update(transform);
 					frameTracker.receivedMessage(transform);
 				}
+				scheduler.requestRender();
 			}
 		}, TF_MESSAGE_QUEUE);
 	}
@@ -169,6 +172,7 @@ public class VisualizationView extends GLSurfaceView implements NodeMain {
 		for(Layer layer : layers) {
 			layer.onShutdown(this, node);
 		}
+		camera.getSelectionManager().shutdown();
 		this.connectedNode = null;
 	}
 
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer.math;
+
+import org.ros.rosjava_geometry.Quaternion;
+import org.ros.rosjava_geometry.Transform;
+import org.ros.rosjava_geometry.Vector3;
+
+/**
+ * Operations on 4x4 matrices stored in float arrays in OpenGL's column major order, in plain Java in place of android.opengl.Matrix. Nothing is allocated:
+ * results are written into arrays owned by the caller and operations which can't be done in place take a scratch array.
+ */
+public final class Mat4 {
+	private Mat4() {
+	}
+
+	public static void setIdentity(float[] m) {
+		for(int i = 0; i < 16; i++)
+			m[i] = (i % 5 == 0) ? 1f : 0f;
+	}
+
+	/**
+	 * m = m * T, where T translates by (x, y, z)
+	 */
+	public static void translate(float[] m, float x, float y, float z) {
+		for(int row = 0; row < 4; row++)
+			m[12 + row] += m[row] * x + m[4 + row] * y + m[8 + row] * z;
+	}
+
+	/**
+	 * m = m * S, where S scales each axis
+	 */
+	public static void scale(float[] m, float sx, float sy, float sz) {
+		for(int row = 0; row < 4; row++) {
+			m[row] *= sx;
+			m[4 + row] *= sy;
+			m[8 + row] *= sz;
+		}
+	}
+
+	/**
+	 * Set m to a view matrix looking from eye at center, with the same result as android.opengl.Matrix#setLookAtM
+	 */
+	public static void setLookAt(float[] m, float eyeX, float eyeY, float eyeZ, float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+		float fx = centerX - eyeX, fy = centerY - eyeY, fz = centerZ - eyeZ;
+		float rlf = 1f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx *= rlf;
+		fy *= rlf;
+		fz *= rlf;
+
+		// s = f x up, normalized
+		float sx = fy * upZ - fz * upY, sy = fz * upX - fx * upZ, sz = fx * upY - fy * upX;
+		float rls = 1f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx *= rls;
+		sy *= rls;
+		sz *= rls;
+
+		// u = s x f
+		float ux = sy * fz - sz * fy, uy = sz * fx - sx * fz, uz = sx * fy - sy * fx;
+
+		m[0] = sx;
+		m[1] = ux;
+		m[2] = -fx;
+		m[3] = 0;
+		m[4] = sy;
+		m[5] = uy;
+		m[6] = -fy;
+		m[7] = 0;
+		m[8] = sz;
+		m[9] = uz;
+		m[10] = -fz;
+		m[11] = 0;
+		m[12] = 0;
+		m[13] = 0;
+		m[14] = 0;
+		m[15] = 1;
+		translate(m, -eyeX, -eyeY, -eyeZ);
+	}
+
+	/**
+	 * Set m to a perspective projection, with the same result as android.opengl.Matrix#frustumM
+	 */
+	public static void setFrustum(float[] m, float left, float right, float bottom, float top, float near, float far) {
+		float rWidth = 1f / (right - left);
+		float rHeight = 1f / (top - bottom);
+		float rDepth = 1f / (near - far);
+		for(int i = 0; i < 16; i++)
+			m[i] = 0;
+		m[0] = 2f * near * rWidth;
+		m[5] = 2f * near * rHeight;
+		m[8] = (right + left) * rWidth;
+		m[9] = (top + bottom) * rHeight;
+		m[10] = (far + near) * rDepth;
+		m[11] = -1f;
+		m[14] = 2f * far * near * rDepth;
+	}
+
+	/**
+	 * Set m to the matrix of a rosjava transform without the intermediate double array of {@link Transform#toMatrix()}. Like toMatrix, a non unit
+	 * quaternion scales as well as rotates.
+	 */
+	public static void setTransform(float[] m, Transform t) {
+		Vector3 p = t.getTranslation();
+		Quaternion q = t.getRotationAndScale();
+		setTransform(m, (float) p.getX(), (float) p.getY(), (float) p.getZ(), (float) q.getX(), (float) q.getY(), (float) q.getZ(), (float) q.getW());
+	}
+
+	public static void setTransform(float[] m, float tx, float ty, float tz, float qx, float qy, float qz, float qw) {
+		float mm = qx * qx + qy * qy + qz * qz + qw * qw;
+		m[0] = mm - 2 * qy * qy - 2 * qz * qz;
+		m[1] = 2 * qx * qy + 2 * qz * qw;
+		m[2] = 2 * qx * qz - 2 * qy * qw;
+		m[3] = 0;
+		m[4] = 2 * qx * qy - 2 * qz * qw;
+		m[5] = mm - 2 * qx * qx - 2 * qz * qz;
+		m[6] = 2 * qy * qz + 2 * qx * qw;
+		m[7] = 0;
+		m[8] = 2 * qx * qz + 2 * qy * qw;
+		m[9] = 2 * qy * qz - 2 * qx * qw;
+		m[10] = mm - 2 * qx * qx - 2 * qy * qy;
+		m[11] = 0;
+		m[12] = tx;
+		m[13] = ty;
+		m[14] = tz;
+		m[15] = 1;
+	}
+
+	/**
+	 * Set m to the rotation of a quaternion, normalizing it first
+	 */
+	public static void setRotation(float[] m, float qx, float qy, float qz, float qw) {
+		float mm = qx * qx + qy * qy + qz * qz + qw * qw;
+		if(mm == 0f) {
+			setIdentity(m);
+			return;
+		}
+		float s = 1f / (float) Math.sqrt(mm);
+		setTransform(m, 0, 0, 0, qx * s, qy * s, qz * s, qw * s);
+	}
+
+	/**
+	 * m = m * rhs
+	 *
+	 * @param scratch
+	 *            16 element array used to hold the product
+	 */
+	public static void multiply(float[] m, float[] rhs, float[] scratch) {
+		multiplyMM(scratch, m, rhs);
+		System.arraycopy(scratch, 0, m, 0, 16);
+	}
+
+	/**
+	 * result = lhs * rhs. The result must not be either operand.
+	 */
+	public static void multiplyMM(float[] result, float[] lhs, float[] rhs) {
+		for(int col = 0; col < 4; col++) {
+			float r0 = rhs[col * 4], r1 = rhs[col * 4 + 1], r2 = rhs[col * 4 + 2], r3 = rhs[col * 4 + 3];
+			for(int row = 0; row < 4; row++)
+				result[col * 4 + row] = lhs[row] * r0 + lhs[4 + row] * r1 + lhs[8 + row] * r2 + lhs[12 + row] * r3;
+		}
+	}
+
+	/**
+	 * result = m * (x, y, z, w), writing four elements of result
+	 */
+	public static void multiplyMV(float[] result, float[] m, float x, float y, float z, float w) {
+		for(int row = 0; row < 4; row++)
+			result[row] = m[row] * x + m[4 + row] * y + m[8 + row] * z + m[12 + row] * w;
+	}
+
+	/**
+	 * Set result to the inverse of an affine matrix, one whose last row is 0, 0, 0, 1. The result must not be m.
+	 *
+	 * @return false if m is singular, in which case result is left unchanged
+	 */
+	public static boolean invertAffine(float[] result, float[] m) {
+		// Cofactors of the upper 3x3
+		float c00 = m[5] * m[10] - m[9] * m[6];
+		float c01 = m[9] * m[2] - m[1] * m[10];
+		float c02 = m[1] * m[6] - m[5] * m[2];
+		float det = m[0] * c00 + m[4] * c01 + m[8] * c02;
+		if(det == 0f)
+			return false;
+		float inv = 1f / det;
+		result[0] = c00 * inv;
+		result[1] = c01 * inv;
+		result[2] = c02 * inv;
+		result[3] = 0;
+		result[4] = (m[8] * m[6] - m[4] * m[10]) * inv;
+		result[5] = (m[0] * m[10] - m[8] * m[2]) * inv;
+		result[6] = (m[4] * m[2] - m[0] * m[6]) * inv;
+		result[7] = 0;
+		result[8] = (m[4] * m[9] - m[8] * m[5]) * inv;
+		result[9] = (m[8] * m[1] - m[0] * m[9]) * inv;
+		result[10] = (m[0] * m[5] - m[4] * m[1]) * inv;
+		result[11] = 0;
+		// The inverse translation is -R^-1 * t
+		result[12] = -(result[0] * m[12] + result[4] * m[13] + result[8] * m[14]);
+		result[13] = -(result[1] * m[12] + result[5] * m[13] + result[9] * m[14]);
+		result[14] = -(result[2] * m[12] + result[6] * m[13] + result[10] * m[14]);
+		result[15] = 1;
+		return true;
+	}
+
+	/**
+	 * Set result to the inverse of any matrix. The result must not be m.
+	 *
+	 * @return false if m is singular, in which case result is left unchanged
+	 */
+	public static boolean invert(float[] result, float[] m) {
+		// 2x2 determinants of the first two and last two columns
+		float s0 = m[0] * m[5] - m[4] * m[1];
+		float s1 = m[0] * m[6] - m[4] * m[2];
+		float s2 = m[0] * m[7] - m[4] * m[3];
+		float s3 = m[1] * m[6] - m[5] * m[2];
+		float s4 = m[1] * m[7] - m[5] * m[3];
+		float s5 = m[2] * m[7] - m[6] * m[3];
+		float c5 = m[10] * m[15] - m[14] * m[11];
+		float c4 = m[9] * m[15] - m[13] * m[11];
+		float c3 = m[9] * m[14] - m[13] * m[10];
+		float c2 = m[8] * m[15] - m[12] * m[11];
+		float c1 = m[8] * m[14] - m[12] * m[10];
+		float c0 = m[8] * m[13] - m[12] * m[9];
+		float det = s0 * c5 - s1 * c4 + s2 * c3 + s3 * c2 - s4 * c1 + s5 * c0;
+		if(det == 0f)
+			return false;
+		float inv = 1f / det;
+		result[0] = (m[5] * c5 - m[6] * c4 + m[7] * c3) * inv;
+		result[1] = (-m[1] * c5 + m[2] * c4 - m[3] * c3) * inv;
+		result[2] = (m[13] * s5 - m[14] * s4 + m[15] * s3) * inv;
+		result[3] = (-m[9] * s5 + m[10] * s4 - m[11] * s3) * inv;
+		result[4] = (-m[4] * c5 + m[6] * c2 - m[7] * c1) * inv;
+		result[5] = (m[0] * c5 - m[2] * c2 + m[3] * c1) * inv;
+		result[6] = (-m[12] * s5 + m[14] * s2 - m[15] * s1) * inv;
+		result[7] = (m[8] * s5 - m[10] * s2 + m[11] * s1) * inv;
+		result[8] = (m[4] * c4 - m[5] * c2 + m[7] * c0) * inv;
+		result[9] = (-m[0] * c4 + m[1] * c2 - m[3] * c0) * inv;
+		result[10] = (m[12] * s4 - m[13] * s2 + m[15] * s0) * inv;
+		result[11] = (-m[8] * s4 + m[9] * s2 - m[11] * s0) * inv;
+		result[12] = (-m[4] * c3 + m[5] * c1 - m[6] * c0) * inv;
+		result[13] = (m[0] * c3 - m[1] * c1 + m[2] * c0) * inv;
+		result[14] = (-m[12] * s3 + m[13] * s1 - m[14] * s0) * inv;
+		result[15] = (m[8] * s3 - m[9] * s1 + m[10] * s0) * inv;
+		return true;
+	}
+
+	/**
+	 * m = m * R, where R rotates by an angle in degrees about an axis. Only the first three columns of m change, so this is done in place.
+	 */
+	public static void rotate(float[] m, float a, float x, float y, float z) {
+		float len = (float) Math.sqrt(x * x + y * y + z * z);
+		if(len == 0f)
+			return;
+		x /= len;
+		y /= len;
+		z /= len;
+		double radians = Math.toRadians(a);
+		float s = (float) Math.sin(radians);
+		float c = (float) Math.cos(radians);
+		float nc = 1f - c;
+
+		// Upper 3x3 of R, column major
+		float r0 = x * x * nc + c, r1 = x * y * nc + z * s, r2 = z * x * nc - y * s;
+		float r4 = x * y * nc - z * s, r5 = y * y * nc + c, r6 = y * z * nc + x * s;
+		float r8 = z * x * nc + y * s, r9 = y * z * nc - x * s, r10 = z * z * nc + c;
+		for(int row = 0; row < 4; row++) {
+			float m0 = m[row], m1 = m[4 + row], m2 = m[8 + row];
+			m[row] = m0 * r0 + m1 * r1 + m2 * r2;
+			m[4 + row] = m0 * r4 + m1 * r5 + m2 * r6;
+			m[8 + row] = m0 * r8 + m1 * r9 + m2 * r10;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer.math;
+
+import org.ros.rosjava_geometry.Vector3;
+
+/**
+ * Operations on 3 element vectors stored in float arrays. Results are written into arrays owned by the caller, so nothing is allocated. Output arrays may
+ * be the same as input arrays.
+ */
+public final class Vec3 {
+	private Vec3() {
+	}
+
+	public static void set(float[] v, float x, float y, float z) {
+		v[0] = x;
+		v[1] = y;
+		v[2] = z;
+	}
+
+	public static void set(float[] v, Vector3 src) {
+		v[0] = (float) src.getX();
+		v[1] = (float) src.getY();
+		v[2] = (float) src.getZ();
+	}
+
+	public static Vector3 toVector3(float[] v) {
+		return new Vector3(v[0], v[1], v[2]);
+	}
+
+	public static void add(float[] out, float[] a, float[] b) {
+		out[0] = a[0] + b[0];
+		out[1] = a[1] + b[1];
+		out[2] = a[2] + b[2];
+	}
+
+	public static void subtract(float[] out, float[] a, float[] b) {
+		out[0] = a[0] - b[0];
+		out[1] = a[1] - b[1];
+		out[2] = a[2] - b[2];
+	}
+
+	public static void scale(float[] out, float[] v, float s) {
+		out[0] = v[0] * s;
+		out[1] = v[1] * s;
+		out[2] = v[2] * s;
+	}
+
+	public static float dot(float[] a, float[] b) {
+		return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+	}
+
+	public static void cross(float[] out, float[] a, float[] b) {
+		float x = a[1] * b[2] - a[2] * b[1];
+		float y = a[2] * b[0] - a[0] * b[2];
+		float z = a[0] * b[1] - a[1] * b[0];
+		out[0] = x;
+		out[1] = y;
+		out[2] = z;
+	}
+
+	public static float length(float[] v) {
+		return (float) Math.sqrt(dot(v, v));
+	}
+
+	public static String toString(float[] v) {
+		return "[" + v[0] + ", " + v[1] + ", " + v[2] + "]";
+	}
+}
@@ -5,14 +5,15 @@ import java.util.Map;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLState;
 import org.ros.android.renderer.SelectionManager;
 import org.ros.android.renderer.layer.InteractiveObject;
 import org.ros.android.renderer.layer.Selectable;
+import org.ros.android.renderer.math.Mat4;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
 import org.ros.rosjava_geometry.Transform;
 
-import android.opengl.Matrix;
 import android.util.Log;
 
 import com.google.common.base.Preconditions;
@@ -34,6 +35,8 @@ public abstract class BaseShape implements Shape, Selectable, BaseShapeInterface
 	protected float[] NORM = new float[9];
 	protected float[] MVP = new float[16];
 	protected float[] MV = new float[16];
+	// Bounds of the vertex data in model coordinates, null if the shape should never be culled
+	protected BoundingBox bounds;
 	public static float[] lightPosition = new float[]{3f, 4f, 5f};
 	public static float[] lightVector = new float[]{0.4242f, 0.5656f, 0.7071f};
 	
@@ -64,10 +67,32 @@ public abstract class BaseShape implements Shape, Selectable, BaseShapeInterface
 			uniformHandles = shader.getUniformHandles();
 		}
 		shader.use(glUnused);
+		GLState.bindArrayBuffer(getArrayBuffer());
 		cam.applyTransform(transform);
 		scale(cam);
 	}
 
+	/**
+	 * @return the vertex buffer object the shape draws from, or 0 if it uses client side arrays. Bound by {@link #draw(GL10)}.
+	 */
+	public int getArrayBuffer() {
+		return 0;
+	}
+
+	/**
+	 * @return the texture the shape draws with, or 0 if it isn't textured
+	 */
+	public int getTexture() {
+		return 0;
+	}
+
+	/**
+	 * @return the program the shape is currently drawn with
+	 */
+	public GLSLProgram getProgram() {
+		return shader;
+	}
+
 	/**
 	 * Scales the coordinate system.
 	 * 
@@ -98,8 +123,28 @@ public abstract class BaseShape implements Shape, Selectable, BaseShapeInterface
 	}
 	
 	protected void calcMVP() {
-		Matrix.multiplyMM(MV, 0, cam.getViewMatrix(), 0, cam.getModelMatrix(), 0);
-		Matrix.multiplyMM(MVP, 0, cam.getViewport().getProjectionMatrix(), 0, MV, 0);
+		Mat4.multiplyMM(MV, cam.getViewMatrix(), cam.getModelMatrix());
+		Mat4.multiplyMM(MVP, cam.getViewport().getProjectionMatrix(), MV);
+	}
+
+	/**
+	 * Calculate the MVP matrix and test the shape's bounds against the view frustum. Called by subclasses in place of {@link #calcMVP()}; a culled shape
+	 * must return from draw without issuing any GL calls.
+	 * 
+	 * @return true if the shape is entirely outside of the view and shouldn't be drawn
+	 */
+	protected boolean cull() {
+		calcMVP();
+		boolean culled = bounds != null && bounds.isOutsideFrustum(MVP);
+		cam.getRenderStats().countShape(culled);
+		if(selectionColor != SelectionManager.backgroundColor)
+			cam.getSelectionManager().getPickingEngine().recordBounds(this, bounds, cam.getModelMatrix());
+		return culled;
+	}
+
+	@Override
+	public BoundingBox getBounds() {
+		return bounds;
 	}
 
 	// This code is optimized for speed, not space
@@ -122,7 +167,7 @@ public abstract class BaseShape implements Shape, Selectable, BaseShapeInterface
 		normTmp[13] = 0f;
 		normTmp[14] = 0f;
 		normTmp[15] = 1f;
-		if(!Matrix.invertM(normTmpB, 0, normTmp, 0))
+		if(!Mat4.invertAffine(normTmpB, normTmp))
 			Log.e("Terrible news", "UNABLE TO INVERT MV MATRIX");
 		NORM[0] = normTmpB[0];
 		NORM[1] = normTmpB[4];
@@ -45,4 +45,9 @@ public interface BaseShapeInterface extends Selectable {
 	
 	public void setInteractiveObject(InteractiveObject io);
 
+	/**
+	 * @return the bounds of the shape in its own coordinates, or null if it has none and should never be culled
+	 */
+	public BoundingBox getBounds();
+
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.renderer.shapes;
+
+import java.nio.FloatBuffer;
+
+/**
+ * An immutable axis aligned bounding box in a shape's own coordinates, used to skip shapes which are entirely outside the view
+ */
+public class BoundingBox {
+	private final float minX, minY, minZ;
+	private final float maxX, maxY, maxZ;
+
+	public BoundingBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	/**
+	 * @param vertices
+	 *            packed x, y, z vertex coordinates
+	 * @return the bounds of the vertices, or null if there are none
+	 */
+	public static BoundingBox fromVertices(float[] vertices) {
+		return fromVertices(vertices, 3);
+	}
+
+	/**
+	 * @param stride
+	 *            number of floats from the start of one vertex to the next, for interleaved data
+	 */
+	public static BoundingBox fromVertices(float[] vertices, int stride) {
+		if(vertices == null || vertices.length < 3)
+			return null;
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for(int i = 0; i + 2 < vertices.length; i += stride) {
+			minX = Math.min(minX, vertices[i]);
+			maxX = Math.max(maxX, vertices[i]);
+			minY = Math.min(minY, vertices[i + 1]);
+			maxY = Math.max(maxY, vertices[i + 1]);
+			minZ = Math.min(minZ, vertices[i + 2]);
+			maxZ = Math.max(maxZ, vertices[i + 2]);
+		}
+		return new BoundingBox(minX, minY, minZ, maxX, maxY, maxZ);
+	}
+
+	/**
+	 * @param vertices
+	 *            packed x, y, z vertex coordinates. The buffer's position is not changed.
+	 */
+	public static BoundingBox fromVertices(FloatBuffer vertices) {
+		float[] tmp = new float[vertices.limit()];
+		FloatBuffer dup = vertices.duplicate();
+		dup.position(0);
+		dup.get(tmp);
+		return fromVertices(tmp);
+	}
+
+	/**
+	 * @return a box enclosing both boxes. Either may be null.
+	 */
+	public static BoundingBox union(BoundingBox a, BoundingBox b) {
+		if(a == null)
+			return b;
+		if(b == null)
+			return a;
+		return new BoundingBox(Math.min(a.minX, b.minX), Math.min(a.minY, b.minY), Math.min(a.minZ, b.minZ), Math.max(a.maxX, b.maxX), Math.max(a.maxY, b.maxY), Math.max(a.maxZ, b.maxZ));
+	}
+
+	/**
+	 * Test the box against the view frustum by transforming its corners to clip space.
+	 *
+	 * @param mvp
+	 *            the column major model view projection matrix the box is drawn with
+	 * @return true if all eight corners are outside the same frustum plane, so nothing inside the box can be visible
+	 */
+	public boolean isOutsideFrustum(float[] mvp) {
+		int outside = 0x3f;
+		for(int i = 0; i < 8 && outside != 0; i++) {
+			float px = (i & 1) == 0 ? minX : maxX;
+			float py = (i & 2) == 0 ? minY : maxY;
+			float pz = (i & 4) == 0 ? minZ : maxZ;
+			float x = mvp[0] * px + mvp[4] * py + mvp[8] * pz + mvp[12];
+			float y = mvp[1] * px + mvp[5] * py + mvp[9] * pz + mvp[13];
+			float z = mvp[2] * px + mvp[6] * py + mvp[10] * pz + mvp[14];
+			float w = mvp[3] * px + mvp[7] * py + mvp[11] * pz + mvp[15];
+			int code = 0;
+			if(x < -w)
+				code |= 1;
+			if(x > w)
+				code |= 2;
+			if(y < -w)
+				code |= 4;
+			if(y > w)
+				code |= 8;
+			if(z < -w)
+				code |= 16;
+			if(z > w)
+				code |= 32;
+			outside &= code;
+		}
+		return outside != 0;
+	}
+
+	public float getMinX() {
+		return minX;
+	}
+
+	public float getMinY() {
+		return minY;
+	}
+
+	public float getMinZ() {
+		return minZ;
+	}
+
+	public float getMaxX() {
+		return maxX;
+	}
+
+	public float getMaxY() {
+		return maxY;
+	}
+
+	public float getMaxZ() {
+		return maxZ;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + minX + ", " + minY + ", " + minZ + "] - [" + maxX + ", " + maxY + ", " + maxZ + "]";
+	}
+}
@@ -5,6 +5,9 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
@@ -28,6 +31,7 @@ public class BufferedTrianglesShape extends BaseShape {
 		packedBuffer = packBuffer(vertices, normals);
 		
 		count = vertices.length / 3;
+		bounds = BoundingBox.fromVertices(vertices);
 		super.setColor(color);
 		super.setTransform(Transform.identity());
 		super.setProgram(GLSLProgram.FlatShaded());
@@ -62,6 +66,16 @@ public class BufferedTrianglesShape extends BaseShape {
 	private static final int POSITION_DATA_SIZE = 3;
 	private static final int NORMAL_DATA_SIZE = 3;
 	private int bufferIdx = -1;
+	private GLResourceManager.Resource buffer;
+	// The packed buffer is kept, so an evicted vertex buffer is simply created again on the next draw
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			bufferPrepared = false;
+			bufferIdx = -1;
+			buffer = null;
+		}
+	};
 	private static final int FLOAT_SIZE = Float.SIZE/8;
 	private static final int STRIDE = (POSITION_DATA_SIZE + NORMAL_DATA_SIZE)*FLOAT_SIZE; 
 	private static final int NORMAL_OFFSET = POSITION_DATA_SIZE*FLOAT_SIZE;
@@ -72,28 +86,30 @@ public class BufferedTrianglesShape extends BaseShape {
 		cam.pushM();
 		if(!bufferPrepared)
 			bufferIdx = createVertexBuffer(glUnused);
+		GLResourceManager.markUsed(buffer);
 		
 		super.draw(glUnused);
+		if(cull()) {
+			cam.popM();
+			return;
+		}
 
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferIdx);
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, STRIDE, POSITION_OFFSET);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, STRIDE, POSITION_OFFSET);
 		
-		GLES20.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
+		GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, NORMAL_DATA_SIZE, GLES20.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
 		
-		calcMVP();
 		calcNorm();
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glUniformMatrix3fv(getUniform(ShaderVal.NORM_MATRIX), 1, false, NORM, 0);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
 		
-		GLES20.glUniform3f(getUniform(ShaderVal.LIGHTVEC), lightVector[0], lightVector[1], lightVector[2]);
+		shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
 		
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
 	
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
 		
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 		cam.popM();
 	}
 	
@@ -102,32 +118,36 @@ public class BufferedTrianglesShape extends BaseShape {
 		cam.pushM();
 		if(!bufferPrepared)
 			bufferIdx = createVertexBuffer(glUnused);
+		GLResourceManager.markUsed(buffer);
 		
 		super.selectionDraw(glUnused);
 
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, bufferIdx);
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, STRIDE, POSITION_OFFSET);
+		GLState.bindArrayBuffer(bufferIdx);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, POSITION_DATA_SIZE, GLES20.GL_FLOAT, false, STRIDE, POSITION_OFFSET);
 		
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
 
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
 	
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
-
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
 		
 		super.selectionDrawCleanup();
 		cam.popM();
 	}
 
+	@Override
+	public int getArrayBuffer() {
+		return bufferIdx;
+	}
+
 	private int createVertexBuffer(GL10 glUnused) {
 		final int[] buffers = new int[1];
-		GLES20.glGenBuffers(1, buffers, 0);
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+		GLES.glGenBuffers(1, buffers, 0);
+		GLState.bindArrayBuffer(buffers[0]);
 		packedBuffer.position(0);
-		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, packedBuffer.capacity()*FLOAT_SIZE, packedBuffer, GLES20.GL_STATIC_DRAW);
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+		GLES.glBufferData(GLES20.GL_ARRAY_BUFFER, packedBuffer.capacity()*FLOAT_SIZE, packedBuffer, GLES20.GL_STATIC_DRAW);
+		buffer = GLResourceManager.track(GLResourceManager.Type.BUFFER, buffers[0], packedBuffer.capacity()*FLOAT_SIZE, this, evictionListener);
 		bufferPrepared = true;
 		return buffers[0];
 	}
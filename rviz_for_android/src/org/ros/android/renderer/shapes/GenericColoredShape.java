@@ -21,6 +21,7 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
@@ -48,6 +49,7 @@ public class GenericColoredShape extends BaseShape {
 		this.colors = Vertices.toFloatBuffer(colors);
 		
 		vertexCount = vertices.length / 3;
+		bounds = BoundingBox.fromVertices(vertices);
 		
 		useVertexColors = true;
 		super.setProgram(GLSLProgram.ColoredVertex());
@@ -60,6 +62,7 @@ public class GenericColoredShape extends BaseShape {
 		this.colors = null;
 		
 		vertexCount = vertices.length / 3;
+		bounds = BoundingBox.fromVertices(vertices);
 		
 		useVertexColors = false;
 		super.setProgram(GLSLProgram.FlatColor());		
@@ -68,20 +71,21 @@ public class GenericColoredShape extends BaseShape {
 	@Override
 	public void draw(GL10 glUnused) {
 		super.draw(glUnused);
-		GLES20.glDisable(GLES20.GL_CULL_FACE);
-		calcMVP();
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
+		if(cull())
+			return;
+		GLES.glDisable(GLES20.GL_CULL_FACE);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
 		
 		if(useVertexColors) {
-			GLES20.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
-			GLES20.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 4, GLES20.GL_FLOAT, false, 0, colors);
+			GLES.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+			GLES.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 4, GLES20.GL_FLOAT, false, 0, colors);
 		} else {
-			GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
+			shader.setUniform(ShaderVal.UNIFORM_COLOR, color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
 		}
 		
-		GLES20.glDrawArrays(drawMode, 0, vertexCount);
-		GLES20.glEnable(GLES20.GL_CULL_FACE);
+		GLES.glDrawArrays(drawMode, 0, vertexCount);
+		GLES.glEnable(GLES20.GL_CULL_FACE);
 	}
 }
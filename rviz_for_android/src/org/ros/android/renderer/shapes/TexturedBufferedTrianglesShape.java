@@ -7,9 +7,11 @@ import java.util.List;
 import java.util.Map;
 
 import javax.microedition.khronos.opengles.GL10;
-import javax.microedition.khronos.opengles.GL11;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
@@ -25,7 +27,7 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 	public static enum TextureSmoothing {Linear, Nearest};
 	private static final Color baseColor = new Color(1f, 1f, 1f, 1f);
 
-	private List<Integer> texIDArray = new ArrayList<Integer>();
+	private List<GLResourceManager.Resource> texResources = new ArrayList<GLResourceManager.Resource>();
 	private Map<String, ETC1Texture> textures;
 	protected int count;
 
@@ -41,6 +43,7 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 		this.textures = new HashMap<String, ETC1Texture>();
 		this.textures.put("diffuse", diffuseTexture);
 		vertexBuffer = packBuffer(vertices,normals,uvs);
+		bounds = BoundingBox.fromVertices(vertices);
 		setTransform(new Transform(new Vector3(0, 0, 0), new Quaternion(0, 0, 0, 1)));
 		super.setProgram(GLSLProgram.TexturedShaded());
 	}
@@ -50,6 +53,7 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 		super.setColor(baseColor);
 		this.textures = textures;
 		vertexBuffer = packBuffer(vertices,normals,uvs);
+		bounds = BoundingBox.fromVertices(vertices);
 		setTransform(new Transform(new Vector3(0, 0, 0), new Quaternion(0, 0, 0, 1)));
 		super.setProgram(GLSLProgram.TexturedShaded());
 	}
@@ -100,24 +104,25 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 			ETC1Texture tex = textures.remove(s);
 			
 			if(tex != null) {
-				// Generate a texture ID, append it to the list
-				GLES20.glGenTextures(1, tmp, 0);
-				texIDArray.add(tmp[0]);
+				// Generate a texture ID
+				GLES.glGenTextures(1, tmp, 0);
 				
 				// Bind and load the texture
-		        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tmp[0]);
-		        GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES, tex.getWidth(), tex.getHeight(), 0, tex.getData().capacity(), tex.getData());
+		        GLState.bindTexture(tmp[0]);
+		        GLES.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES, tex.getWidth(), tex.getHeight(), 0, tex.getData().capacity(), tex.getData());
+		        // The texture data isn't kept, so the texture can't be evicted
+		        texResources.add(GLResourceManager.track(GLResourceManager.Type.TEXTURE, tmp[0], tex.getData().capacity(), this, null));
 		        
 		        // UV mapping parameters
 		        if(smoothing == TextureSmoothing.Linear) {
-		        	GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-					GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		        	GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+					GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 		        } else if(smoothing == TextureSmoothing.Nearest) {
-		    	    GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-		    	    GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		    	    GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		    	    GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 		        }
-			    GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-			    GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+			    GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			    GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
 			}
 		}
 		
@@ -127,15 +132,37 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 	
 	private int createVertexBuffer(GL10 glUnused) {
 		final int[] buffers = new int[1];
-		GLES20.glGenBuffers(1, buffers, 0);
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
-		GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBuffer.capacity()*FLOAT_SIZE, vertexBuffer, GLES20.GL_STATIC_DRAW);
+		GLES.glGenBuffers(1, buffers, 0);
+		GLState.bindArrayBuffer(buffers[0]);
+		GLES.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBuffer.capacity()*FLOAT_SIZE, vertexBuffer, GLES20.GL_STATIC_DRAW);
+		buffer = GLResourceManager.track(GLResourceManager.Type.BUFFER, buffers[0], vertexBuffer.capacity()*FLOAT_SIZE, this, evictionListener);
 		
 		bufferPrepared = true;
 		return buffers[0];
 	}
 	
 	private int bufferIdx;
+	private GLResourceManager.Resource buffer;
+	// The vertex data is kept, so an evicted vertex buffer is simply created again on the next draw
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			bufferPrepared = false;
+			bufferIdx = 0;
+			buffer = null;
+		}
+	};
+	
+	@Override
+	public int getArrayBuffer() {
+		return bufferIdx;
+	}
+	
+	@Override
+	public int getTexture() {
+		return texResources.isEmpty() ? 0 : texResources.get(0).getId();
+	}
+	
 	private static final int VERTEX_OFFSET = 0;
 	private static final int NORMAL_OFFSET = NUM_VERTEX*FLOAT_SIZE;
 	private static final int UV_OFFSET = (NUM_NORMAL+NUM_VERTEX)*FLOAT_SIZE;
@@ -143,45 +170,45 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 	
 	@Override
 	public void draw(GL10 glUnused) {	
-		cam.pushM();
 		if(cleanUp) {
 			clearBuffers(glUnused);
 			return;
 		}	
+		cam.pushM();
 		if(!bufferPrepared)
 			bufferIdx = createVertexBuffer(glUnused);
+		GLResourceManager.markUsed(buffer);
 		if(!texturesLoaded)
 			loadTextures(glUnused);
 		
 		super.draw(glUnused);
-		calcMVP();
+		if(cull()) {
+			cam.popM();
+			return;
+		}
 		// Uniforms
-		GLES20.glUniform3f(getUniform(ShaderVal.LIGHTVEC), lightVector[0], lightVector[1], lightVector[2]);
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
+		shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
 		calcNorm();
-		GLES20.glUniformMatrix3fv(getUniform(ShaderVal.NORM_MATRIX), 1, false, NORM, 0);
+		shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
 		
 		// Attributes
-		GLES20.glEnableVertexAttribArray(ShaderVal.TEXCOORD.loc);
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.TEXCOORD.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
 		
-		GLES20.glBindBuffer(GL11.GL_ARRAY_BUFFER, bufferIdx);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, STRIDE, VERTEX_OFFSET);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
-		GLES20.glVertexAttribPointer(ShaderVal.TEXCOORD.loc, 2, GLES20.GL_FLOAT, false, STRIDE, UV_OFFSET);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, STRIDE, VERTEX_OFFSET);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
+		GLES.glVertexAttribPointer(ShaderVal.TEXCOORD.loc, 2, GLES20.GL_FLOAT, false, STRIDE, UV_OFFSET);
 		
 		// Bind texture(s)
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		for(int i : texIDArray)
-			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, i);
+		for(GLResourceManager.Resource t : texResources)
+			GLState.bindTexture(t.getId());
 		
 		// Draw
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
 		
-		// Unbind the buffer
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 		cam.popM();
 	}
 
@@ -190,23 +217,22 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 		cam.pushM();
 		if(!bufferPrepared)
 			bufferIdx = createVertexBuffer(glUnused);
+		GLResourceManager.markUsed(buffer);
 		if(!texturesLoaded)
 			loadTextures(glUnused);
 		
 		super.selectionDraw(glUnused);
 
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
 		
-		GLES20.glBindBuffer(GL11.GL_ARRAY_BUFFER, bufferIdx);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, STRIDE, VERTEX_OFFSET);
+		GLState.bindArrayBuffer(bufferIdx);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, STRIDE, VERTEX_OFFSET);
 		
 		// Draw
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
 		
-		// Unbind the buffer
-		GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 		cam.popM();
 		super.selectionDrawCleanup();
 	}
@@ -215,14 +241,11 @@ public class TexturedBufferedTrianglesShape extends BaseShape implements Cleanab
 	
 	private void clearBuffers(GL10 glUnused) {
 		if(!cleaned) {
-			int[] tmp = new int[1];
-			tmp[0] = bufferIdx;
-			GLES20.glDeleteBuffers(1,tmp,0);
-			for(int i : texIDArray) {
-				tmp[0] = i;
-				GLES20.glDeleteTextures(1, tmp, 0);
-			}
-			texIDArray.clear();
+			GLResourceManager.delete(buffer);
+			buffer = null;
+			for(GLResourceManager.Resource t : texResources)
+				GLResourceManager.delete(t);
+			texResources.clear();
 			cleaned = true;
 		}
 	}
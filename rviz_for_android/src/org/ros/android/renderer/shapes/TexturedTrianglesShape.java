@@ -9,6 +9,9 @@ import java.util.Map;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
@@ -26,13 +29,27 @@ public class TexturedTrianglesShape extends TrianglesShape implements Cleanable
 	private static final Color baseColor = new Color(1f, 1f, 1f, 1f);
 
 	protected final FloatBuffer uv;
-	private List<Integer> texIDArray = new ArrayList<Integer>();
+	private List<GLResourceManager.Resource> texResources = new ArrayList<GLResourceManager.Resource>();
 	private Map<String, ETC1Texture> textures;
 
 	private boolean texturesLoaded = false;
+	private boolean retainTextures = false;
 	private TextureSmoothing smoothing = TextureSmoothing.Linear;
 
 	private boolean cleanUp = false;
+
+	// Retained textures can be evicted by the resource manager. If one is, all are unloaded and loaded again together on the next draw.
+	private boolean texturesEvicted = false;
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			texResources.remove(r);
+			texturesEvicted = true;
+		}
+	};
+
+	// Texture waiting to replace the first loaded texture, set from any thread and consumed on the GL thread
+	private volatile ETC1Texture replacement;
 	
 	public TexturedTrianglesShape(Camera cam, float[] vertices, float[] normals, float[] uvs, ETC1Texture diffuseTexture) {
 		super(cam, vertices, normals, baseColor);
@@ -62,6 +79,40 @@ public class TexturedTrianglesShape extends TrianglesShape implements Cleanable
 		this.smoothing = s;
 	}
 
+	/**
+	 * Keep the texture data after it's loaded to the GPU, so the textures can be released with {@link #unloadTextures()} and loaded again when the shape is
+	 * next drawn. This must be called before the shape is first drawn.
+	 */
+	public void setRetainTextures(boolean retain) {
+		this.retainTextures = retain;
+	}
+
+	/**
+	 * Delete this shape's GL textures. They are loaded again from the retained data the next time the shape is drawn. Has no effect unless textures are
+	 * retained. Must be called from the GL thread.
+	 */
+	public void unloadTextures() {
+		if(!retainTextures || !texturesLoaded)
+			return;
+		for(GLResourceManager.Resource t : texResources)
+			GLResourceManager.delete(t);
+		texResources.clear();
+		texturesLoaded = false;
+	}
+
+	public boolean isTextureLoaded() {
+		return texturesLoaded;
+	}
+
+	/**
+	 * Replace the contents of the first texture of this shape. The shape and its texture ID are kept, and the new data is uploaded on the next draw. If
+	 * several replacements arrive between draws, only the last is uploaded.
+	 * @param tex The new texture data
+	 */
+	public void replaceTexture(ETC1Texture tex) {
+		this.replacement = tex;
+	}
+
 	@Override
 	public void draw(GL10 glUnused) {		
 		if(cleanUp) {
@@ -70,50 +121,81 @@ public class TexturedTrianglesShape extends TrianglesShape implements Cleanable
 		}
 		
 		cam.pushM();
+		if(texturesEvicted) {
+			texturesEvicted = false;
+			unloadTextures();
+		}
 		if(!texturesLoaded)
 			loadTextures(glUnused);
+		if(replacement != null)
+			uploadReplacement();
 		
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		for(Integer i : texIDArray)
-			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, i);
+		for(GLResourceManager.Resource t : texResources) {
+			GLState.bindTexture(t.getId());
+			GLResourceManager.markUsed(t);
+		}
 		
-		GLES20.glEnableVertexAttribArray(ShaderVal.TEXCOORD.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.TEXCOORD.loc, 2, GLES20.GL_FLOAT, false, 0, uv);
+		// The texture coordinates are a client side array
+		GLState.bindArrayBuffer(0);
+		GLES.glEnableVertexAttribArray(ShaderVal.TEXCOORD.loc);
+		GLES.glVertexAttribPointer(ShaderVal.TEXCOORD.loc, 2, GLES20.GL_FLOAT, false, 0, uv);
 		super.draw(glUnused);
 		
 		cam.popM();
 	}
 
+	@Override
+	public int getTexture() {
+		return texResources.isEmpty() ? 0 : texResources.get(0).getId();
+	}
+
 	private int[] tmp = new int[1];
 	private void loadTextures(GL10 glUnused) {	
 		for(String s : textures.keySet()) {
-			// Remove the texture from the map. Once it's loaded to the GPU, it isn't needed anymore
-			ETC1Texture tex = textures.remove(s);
+			// Remove the texture from the map. Once it's loaded to the GPU, it isn't needed anymore unless it's being retained
+			ETC1Texture tex = retainTextures ? textures.get(s) : textures.remove(s);
 			
 			if(tex != null) {
-				// Generate a texture ID, append it to the list
-				GLES20.glGenTextures(1, tmp, 0);
-				texIDArray.add(tmp[0]);
+				// Generate a texture ID
+				GLES.glGenTextures(1, tmp, 0);
 				
 				// Bind and load the texture
-				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, tmp[0]);
-				GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES, tex.getWidth(), tex.getHeight(), 0, tex.getData().capacity(), tex.getData());
+				GLState.bindTexture(tmp[0]);
+				GLES.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES, tex.getWidth(), tex.getHeight(), 0, tex.getData().capacity(), tex.getData());
+				// Only textures whose data is retained can be loaded again after being evicted
+				texResources.add(GLResourceManager.track(GLResourceManager.Type.TEXTURE, tmp[0], tex.getData().capacity(), this, retainTextures ? evictionListener : null));
 
 		        // UV mapping parameters
 		        if(smoothing == TextureSmoothing.Linear) {
-		        	GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-		        	GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		        	GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		        	GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 		        } else if(smoothing == TextureSmoothing.Nearest) {
-		        	GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-		        	GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		        	GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		        	GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 		        }
-		        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-		        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+		        GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		        GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
 			}
 		}
 		
 		texturesLoaded = true;
-		textures = null;
+		if(!retainTextures)
+			textures = null;
+	}
+	
+	/**
+	 * ETC1 textures can't be partially updated with glCompressedTexSubImage2D, so the whole level is respecified in place
+	 */
+	private void uploadReplacement() {
+		ETC1Texture tex = replacement;
+		replacement = null;
+		if(retainTextures && !textures.isEmpty())
+			textures.put(textures.keySet().iterator().next(), tex);
+		if(texResources.isEmpty())
+			return;
+		GLState.bindTexture(texResources.get(0).getId());
+		GLES.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES, tex.getWidth(), tex.getHeight(), 0, tex.getData().capacity(), tex.getData());
+		GLResourceManager.resize(texResources.get(0), tex.getData().capacity());
 	}
 	
 	public void cleanup() {
@@ -127,11 +209,9 @@ public class TexturedTrianglesShape extends TrianglesShape implements Cleanable
 	private boolean cleaned = false;
 	private void clearBuffers(GL10 glUnused) {
 		if(!cleaned) {
-			for(Integer i : texIDArray) {
-				tmp[0] = i;
-				GLES20.glDeleteTextures(1, tmp, 0); 
-			}
-			texIDArray.clear();
+			for(GLResourceManager.Resource t : texResources)
+				GLResourceManager.delete(t);
+			texResources.clear();
 			cleaned = true;
 		}
 	}
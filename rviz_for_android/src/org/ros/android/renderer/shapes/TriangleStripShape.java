@@ -8,6 +8,7 @@ import java.nio.ShortBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
@@ -35,6 +36,7 @@ public class TriangleStripShape extends BaseShape {
 		this.indices = bb_idx.asShortBuffer();
 		this.indices.put(indices);
 		this.indices.position(0);
+		bounds = BoundingBox.fromVertices(vertices);
 
 		setColor(color);
 		super.setProgram(GLSLProgram.FlatShaded());
@@ -49,6 +51,7 @@ public class TriangleStripShape extends BaseShape {
 		for(int i = 0; i < indicesArray.length; i++)
 			indicesArray[i] = (short) i;
 		this.indices = Vertices.toShortBuffer(indicesArray);
+		bounds = BoundingBox.fromVertices(vertices);
 		
 		setColor(color);
 		super.setProgram(GLSLProgram.FlatShaded());
@@ -58,22 +61,25 @@ public class TriangleStripShape extends BaseShape {
 	public void draw(GL10 glUnused) {
 		cam.pushM();
 		super.draw(glUnused);
+		if(cull()) {
+			cam.popM();
+			return;
+		}
 		
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
 		
-		GLES20.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, normals);
+		GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, normals);
 		
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
 		
-		calcMVP();
 		calcNorm();
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glUniformMatrix3fv(getUniform(ShaderVal.NORM_MATRIX), 1, false, NORM, 0);
-		GLES20.glUniform3f(getUniform(ShaderVal.LIGHTVEC), lightVector[0], lightVector[1], lightVector[2]);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
+		shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
 		
-		GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, indices.limit(), GLES20.GL_UNSIGNED_SHORT, indices);
+		GLES.glDrawElements(GLES20.GL_TRIANGLE_STRIP, indices.limit(), GLES20.GL_UNSIGNED_SHORT, indices);
 		
 		cam.popM();	
 	}
@@ -83,13 +89,13 @@ public class TriangleStripShape extends BaseShape {
 		cam.pushM();
 		super.selectionDraw(glUnused);
 		
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
 
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
 
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, indices.limit(), GLES20.GL_UNSIGNED_SHORT, indices);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		GLES.glDrawElements(GLES20.GL_TRIANGLE_STRIP, indices.limit(), GLES20.GL_UNSIGNED_SHORT, indices);
 		
 		cam.popM();
 		super.selectionDrawCleanup();
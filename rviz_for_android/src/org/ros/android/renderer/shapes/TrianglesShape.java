@@ -6,6 +6,7 @@ import java.nio.ShortBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
@@ -37,6 +38,7 @@ public class TrianglesShape extends BaseShape {
 		useIndices = false;
 
 		count = this.vertices.limit() / 3;
+		bounds = BoundingBox.fromVertices(vertices);
 
 		init(color);
 	}
@@ -49,6 +51,7 @@ public class TrianglesShape extends BaseShape {
 		useIndices = true;
 
 		count = this.indices.limit();
+		bounds = BoundingBox.fromVertices(vertices);
 
 		init(color);
 	}
@@ -62,40 +65,41 @@ public class TrianglesShape extends BaseShape {
 	@Override
 	public void draw(GL10 glUnused) {
 		super.draw(glUnused);
+		if(cull())
+			return;
 
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
 
-		calcMVP();
 		calcNorm();
-		GLES20.glUniformMatrix3fv(getUniform(ShaderVal.NORM_MATRIX), 1, false, NORM, 0);
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glUniform3f(getUniform(ShaderVal.LIGHTVEC), lightVector[0], lightVector[1], lightVector[2]);
+		shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, normals);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, normals);
 
 		if(useIndices)
-			GLES20.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, indices);
+			GLES.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, indices);
 		else
-			GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
+			GLES.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);
 	}
 
 	@Override
 	public void selectionDraw(GL10 glUnused) {
 		super.selectionDraw(glUnused);
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
 
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertices);
 
 		if(useIndices)
-			GLES20.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, indices);
+			GLES.glDrawElements(GLES20.GL_TRIANGLES, count, GLES20.GL_UNSIGNED_SHORT, indices);
 		else
-			GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);	
+			GLES.glDrawArrays(GLES20.GL_TRIANGLES, 0, count);	
 		super.selectionDrawCleanup();
 	}
 	
@@ -37,6 +37,7 @@ import org.ros.android.rviz_for_android.layers.MarkerLayer;
 import org.ros.android.rviz_for_android.layers.ParentableOrbitCameraControlLayer;
 import org.ros.android.rviz_for_android.layers.PointCloud2Layer;
 import org.ros.android.rviz_for_android.layers.PointCloudLayer;
+import org.ros.android.rviz_for_android.layers.ProfilerLayer;
 import org.ros.android.rviz_for_android.layers.RobotModelLayer;
 import org.ros.android.rviz_for_android.layers.TfFrameLayer;
 import org.ros.android.rviz_for_android.prop.LayerWithProperties;
@@ -66,6 +67,7 @@ import android.widget.EditText;
 import android.widget.ExpandableListView;
 import android.widget.ExpandableListView.OnGroupExpandListener;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 public class MainActivity extends RosActivity {
@@ -88,7 +90,8 @@ public class MainActivity extends RosActivity {
 		PointCloud2("Point Cloud2"), 
 		TFLayer("TF"), 
 		Marker("Marker"), 
-		InteractiveMarker("Interactive Marker");
+		InteractiveMarker("Interactive Marker"),
+		Profiler("Profiler");
 
 		private String printName;
 		private int count = 0;
@@ -228,7 +231,7 @@ public class MainActivity extends RosActivity {
 
 		visualizationView = (VisualizationView) findViewById(R.id.visualization);
 
-		camControl = new ParentableOrbitCameraControlLayer(this, visualizationView.getCamera());
+		camControl = new ParentableOrbitCameraControlLayer(this, visualizationView.getCamera(), visualizationView.getRenderScheduler());
 		camControl.setName("Camera");
 		layers.add(camControl);
 
@@ -239,6 +242,7 @@ public class MainActivity extends RosActivity {
 
 		elv = (ExpandableListView) findViewById(R.id.expandableListView1);
 		propAdapter = new PropertyListAdapter(layers, getApplicationContext());
+		propAdapter.setRenderRequestListener(visualizationView.getRenderScheduler());
 		elv.setAdapter(propAdapter);
 		elv.setItemsCanFocus(true);
 		elv.setOnGroupExpandListener(new OnGroupExpandListener() {
@@ -335,6 +339,9 @@ public class MainActivity extends RosActivity {
 		case InteractiveMarker:
 			newLayer = new InteractiveMarkerLayer(cam);
 			break;
+		case Profiler:
+			newLayer = new ProfilerLayer(cam, this, (TextView) findViewById(R.id.profiler_overlay));
+			break;
 		}
 
 		if(newLayer != null) {
@@ -21,8 +21,10 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.BoundingBox;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
 
@@ -198,6 +200,7 @@ public class Arrow extends BaseShape {
 		this.coneSideNormalsBuf = coneSideNormalsBuf;
 		this.coneBottomVerticesBuf = coneBottomVerticesBuf;
 		this.coneBottomNormalsBuf = coneBottomNormalsBuf;
+		bounds = BoundingBox.union(BoundingBox.fromVertices(cylSideVerticesBuf), BoundingBox.fromVertices(coneSideVerticesBuf));
 		super.setProgram(GLSLProgram.FlatShaded());
 		super.setColor(DEFAULT_COLOR);
 	}
@@ -208,38 +211,40 @@ public class Arrow extends BaseShape {
 				
 		super.draw(glUnused);
 		cam.rotateM(90, 0, 1, 0);
-		
-		calcMVP();
+		if(cull()) {
+			cam.popM();
+			return;
+		}
 		calcNorm();
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glUniformMatrix3fv(getUniform(ShaderVal.NORM_MATRIX), 1, false, NORM, 0);
-		GLES20.glUniform3f(getUniform(ShaderVal.LIGHTVEC), lightVector[0], lightVector[1], lightVector[2]);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
+		shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
 
 		// Draw cylinder
 		// Draw sides
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylSideVerticesBuf);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, cylSideNormalsBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, cylStripTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylSideVerticesBuf);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, cylSideNormalsBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, cylStripTriangleCount);
 
 		// Draw bottom
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylBottomVerticesBuf);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, cylBottomNormalsBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, cylFanTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylBottomVerticesBuf);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, cylBottomNormalsBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, cylFanTriangleCount);
 
 		// Draw cone
 		// Draw sides
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneSideVerticesBuf);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, coneSideNormalsBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, coneStripTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneSideVerticesBuf);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, coneSideNormalsBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, coneStripTriangleCount);
 
 		// Draw bottom
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneBottomVerticesBuf);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, coneBottomNormalsBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, coneFanTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneBottomVerticesBuf);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, coneBottomNormalsBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, coneFanTriangleCount);
 		cam.popM();
 	}
 
@@ -249,27 +254,27 @@ public class Arrow extends BaseShape {
 		super.selectionDraw(glUnused);
 		cam.rotateM(90, 0, 1, 0);
 		calcMVP();
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
 
 		// Draw cylinder
 		// Draw sides
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylSideVerticesBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, cylStripTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylSideVerticesBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, cylStripTriangleCount);
 
 		// Draw bottom
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylBottomVerticesBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, cylFanTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, cylBottomVerticesBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, cylFanTriangleCount);
 
 		// Draw cone
 		// Draw sides
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneSideVerticesBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, coneStripTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneSideVerticesBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, coneStripTriangleCount);
 
 		// Draw bottom
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneBottomVerticesBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, coneFanTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, coneBottomVerticesBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, coneFanTriangleCount);
 		cam.popM();
 		
 		super.selectionDrawCleanup();
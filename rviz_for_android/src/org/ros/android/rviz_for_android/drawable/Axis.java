@@ -22,8 +22,10 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.BoundingBox;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
 
 import android.opengl.GLES20;
@@ -55,6 +57,7 @@ public class Axis extends BaseShape {
 		vertexBuffer = Vertices.toFloatBuffer(VERTICES);
 		colorBuffer = Vertices.toFloatBuffer(COLORS);
 		indexBuffer = Vertices.toByteBuffer(INDEX);
+		bounds = BoundingBox.fromVertices(VERTICES);
 	}
 	
 	public void setScale(float scale) {
@@ -70,16 +73,18 @@ public class Axis extends BaseShape {
 	public void draw(GL10 glUnused) {
 		cam.pushM();
 		super.draw(glUnused);
+		if(cull()) {
+			cam.popM();
+			return;
+		}
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
-		GLES20.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 4, GLES20.GL_FLOAT, false, 0, colorBuffer);
-		
-		calcMVP();
-		GLES20.glUniformMatrix4fv(uniformHandles[ShaderVal.MVP_MATRIX.loc], 1, false, MVP, 0);
-		GLES20.glDrawElements(GLES20.GL_LINES, 18, GLES20.GL_UNSIGNED_BYTE, indexBuffer);
+		GLES.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+		GLES.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 4, GLES20.GL_FLOAT, false, 0, colorBuffer);
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		GLES.glDrawElements(GLES20.GL_LINES, 18, GLES20.GL_UNSIGNED_BYTE, indexBuffer);
 		cam.popM();
 	}
 	
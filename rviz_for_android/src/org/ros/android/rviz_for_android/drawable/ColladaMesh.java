@@ -26,6 +26,7 @@ import org.ros.android.renderer.Camera;
 import org.ros.android.renderer.layer.InteractiveObject;
 import org.ros.android.renderer.shapes.BaseShape;
 import org.ros.android.renderer.shapes.BaseShapeInterface;
+import org.ros.android.renderer.shapes.BoundingBox;
 import org.ros.android.renderer.shapes.Cleanable;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.rviz_for_android.drawable.loader.ColladaLoader;
@@ -70,10 +71,14 @@ public class ColladaMesh implements BaseShapeInterface, UrdfDrawable, Cleanable
 
 	protected List<BaseShape> geometries;
 	protected Camera cam;
+	// Union of the geometries' bounds. Each geometry is also culled on its own when drawn.
+	private BoundingBox bounds;
 
 	protected ColladaMesh(Camera cam, List<BaseShape> geometries) {
 		this.cam = cam;
 		this.geometries = geometries;
+		for(BaseShape g : geometries)
+			bounds = BoundingBox.union(bounds, g.getBounds());
 	}
 
 	private float[] scale = new float[] { 1f, 1f, 1f };
@@ -188,6 +193,11 @@ public class ColladaMesh implements BaseShapeInterface, UrdfDrawable, Cleanable
 		// TODO Auto-generated method stub
 	}
 
+	@Override
+	public BoundingBox getBounds() {
+		return bounds;
+	}
+
 	@Override
 	public boolean isSelected() {
 		// TODO Auto-generated method stub
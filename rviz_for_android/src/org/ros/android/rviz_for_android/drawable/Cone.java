@@ -21,8 +21,10 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.BoundingBox;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
 import org.ros.android.rviz_for_android.urdf.UrdfDrawable;
@@ -34,6 +36,8 @@ import android.util.FloatMath;
 public class Cone extends BaseShape implements UrdfDrawable {
 	private static final Color DEFAULT_COLOR = new Color(0.6f, 0.25f, 0.72f, 1f);
 	private static final float TWO_PI = (float) (2 * Math.PI);
+	// Bounds of the unit shape, which is scaled by radius and length when drawn
+	private static final BoundingBox UNIT_BOUNDS = new BoundingBox(-1f, -1f, -.5f, 1f, 1f, .5f);
 	private static int stripTriangleCount;
 	private static int fanTriangleCount;
 
@@ -105,6 +109,7 @@ public class Cone extends BaseShape implements UrdfDrawable {
 
 	public Cone(Camera cam) {
 		super(cam);
+		bounds = UNIT_BOUNDS;
 		super.setProgram(GLSLProgram.FlatShaded());
 		super.setColor(DEFAULT_COLOR);
 	}
@@ -125,25 +130,28 @@ public class Cone extends BaseShape implements UrdfDrawable {
 		super.draw(glUnused);
 
 		cam.scaleM(this.radius, this.radius, this.length);
-		calcMVP();
+		if(cull()) {
+			cam.popM();
+			return;
+		}
 		calcNorm();
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-		GLES20.glUniformMatrix3fv(getUniform(ShaderVal.NORM_MATRIX), 1, false, NORM, 0);
-		GLES20.glUniform3f(getUniform(ShaderVal.LIGHTVEC), lightVector[0], lightVector[1], lightVector[2]);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+		shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
+		shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-		GLES20.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
 
 		// Draw sides
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, sideVerticesBuf);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, sideNormalsBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, stripTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, sideVerticesBuf);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, sideNormalsBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, stripTriangleCount);
 
 		// Draw bottom
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, bottomVerticesBuf);
-		GLES20.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, bottomNormalsBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, fanTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, bottomVerticesBuf);
+		GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_FLOAT, false, 0, bottomNormalsBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, fanTriangleCount);
 
 		cam.popM();
 	}
@@ -155,18 +163,18 @@ public class Cone extends BaseShape implements UrdfDrawable {
 
 		cam.scaleM(this.radius, this.radius, this.length);
 
-		GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-		GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
 
-		GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
 
 		// Draw sides
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, sideVerticesBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, stripTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, sideVerticesBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, stripTriangleCount);
 
 		// Draw bottom
-		GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, bottomVerticesBuf);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, fanTriangleCount);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, bottomVerticesBuf);
+		GLES.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, fanTriangleCount);
 
 		cam.popM();
 		super.selectionDrawCleanup();
@@ -31,7 +31,7 @@ import org.ros.rosjava_geometry.Transform;
 public class Cube extends BufferedTrianglesShape implements UrdfDrawable, Selectable {
 	private static final Color baseColor = new Color(.5f,.5f,0f,1f);
 	
-	private static final float cubeVertices[] = {
+	static final float cubeVertices[] = {
 		 -0.5f, -0.5f,  0.5f,	//[0]
 		 0.5f, -0.5f,  0.5f,	//[1]
 		 -0.5f,  0.5f,  0.5f,	//[2]
@@ -93,7 +93,7 @@ public class Cube extends BufferedTrianglesShape implements UrdfDrawable, Select
 	    
 	};
 
-	private static final float cubeNormals[] = {
+	static final float cubeNormals[] = {
 		0f,0f,1f,0f,0f,1f,0f,0f,1f,
 		0f,0f,1f,0f,0f,1f,0f,0f,1f,
 		0f,1f,0f,0f,1f,0f,0f,1f,0f,
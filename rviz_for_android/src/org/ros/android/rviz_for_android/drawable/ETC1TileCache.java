@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.opengl.ETC1;
+import android.opengl.ETC1Util.ETC1Texture;
+import android.util.Log;
+
+/**
+ * Persistent cache of compressed tiles, keyed by a hash of the data the tile was made from. Each tile is stored as a PKM file (a 16 byte header holding the
+ * format, width and height, followed by the ETC1 payload) and is memory mapped on a hit, so no conversion or compression is needed.
+ * <p>
+ * The total size of the cache is capped. Files are evicted least recently used first, using their modification time to carry recency across restarts.
+ */
+public class ETC1TileCache {
+	private static final String SUFFIX = ".pkm";
+
+	private final File dir;
+	private final long maxBytes;
+	private long totalBytes = 0;
+
+	// Access ordered, eldest first
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(64, 0.75f, true);
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * @param dir
+	 *            directory holding the cache, created if needed
+	 * @param maxBytes
+	 *            maximum total size of the cached files
+	 */
+	public ETC1TileCache(File dir, long maxBytes) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		dir.mkdirs();
+
+		File[] files = dir.listFiles();
+		if(files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				@Override
+				public int compare(File a, File b) {
+					long diff = a.lastModified() - b.lastModified();
+					return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+				}
+			});
+			for(File f : files) {
+				if(f.getName().endsWith(SUFFIX)) {
+					index.put(f.getName(), f.length());
+					totalBytes += f.length();
+				} else {
+					f.delete();
+				}
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * @return the cached tile with the given key mapped from disk, or null if it isn't cached
+	 */
+	public synchronized ETC1Texture get(String key) {
+		String name = key + SUFFIX;
+		if(index.get(name) == null) {
+			misses++;
+			return null;
+		}
+
+		File f = new File(dir, name);
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(f, "r");
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocateDirect(ETC1.ETC_PKM_HEADER_SIZE).order(ByteOrder.nativeOrder());
+			channel.read(header, 0);
+			header.position(0);
+			if(!ETC1.isValid(header))
+				throw new IOException("Invalid PKM header");
+			int width = ETC1.getWidth(header);
+			int height = ETC1.getHeight(header);
+			int size = ETC1.getEncodedDataSize(width, height);
+			if(channel.size() < ETC1.ETC_PKM_HEADER_SIZE + size)
+				throw new IOException("Truncated tile");
+
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, ETC1.ETC_PKM_HEADER_SIZE, size);
+			data.order(ByteOrder.nativeOrder());
+			f.setLastModified(System.currentTimeMillis());
+			hits++;
+			return new ETC1Texture(width, height, data);
+		} catch(IOException e) {
+			Log.e("Map", "Unable to read cached tile " + name + ": " + e.getMessage());
+			remove(name);
+			misses++;
+			return null;
+		} finally {
+			close(raf);
+		}
+	}
+
+	/**
+	 * Store a tile, evicting the least recently used tiles if the cache grows too large
+	 */
+	public synchronized void put(String key, ETC1Texture tex) {
+		String name = key + SUFFIX;
+		if(index.get(name) != null)
+			return;
+
+		File tmp = new File(dir, name + ".tmp");
+		FileOutputStream out = null;
+		try {
+			ByteBuffer header = ByteBuffer.allocateDirect(ETC1.ETC_PKM_HEADER_SIZE).order(ByteOrder.nativeOrder());
+			ETC1.formatHeader(header, tex.getWidth(), tex.getHeight());
+			header.position(0);
+			ByteBuffer data = tex.getData().duplicate();
+			data.position(0);
+
+			out = new FileOutputStream(tmp);
+			FileChannel channel = out.getChannel();
+			while(header.hasRemaining())
+				channel.write(header);
+			while(data.hasRemaining())
+				channel.write(data);
+			out.close();
+			out = null;
+
+			File f = new File(dir, name);
+			if(!tmp.renameTo(f))
+				throw new IOException("Unable to rename " + tmp);
+			index.put(name, f.length());
+			totalBytes += f.length();
+			evict();
+		} catch(IOException e) {
+			Log.e("Map", "Unable to cache tile " + name + ": " + e.getMessage());
+			tmp.delete();
+		} finally {
+			close(out);
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while(totalBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			new File(dir, eldest.getKey()).delete();
+			totalBytes -= eldest.getValue();
+			it.remove();
+		}
+	}
+
+	private void remove(String name) {
+		Long size = index.remove(name);
+		if(size != null)
+			totalBytes -= size;
+		new File(dir, name).delete();
+	}
+
+	private static void close(java.io.Closeable c) {
+		if(c != null) {
+			try {
+				c.close();
+			} catch(IOException e) {
+			}
+		}
+	}
+
+	public synchronized int getHitCount() {
+		return hits;
+	}
+
+	public synchronized int getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getSize() {
+		return totalBytes;
+	}
+}
@@ -22,6 +22,9 @@ import java.util.Map;
 
 import javax.microedition.khronos.opengles.GL10;
 
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLState;
+
 import android.opengl.GLES20;
 import android.util.Log;
 
@@ -61,12 +64,16 @@ public class GLSLProgram {
 				maxUniformLocation = Math.max(s.loc, maxUniformLocation);
 	}
 	private int[] uniformHandles = new int[maxUniformLocation + 1];
+	// Last values set through setUniform and setUniformMatrix, which are kept by the program between uses
+	private float[][] uniformValues = new float[maxUniformLocation + 1][16];
+	private boolean[] uniformSet = new boolean[maxUniformLocation + 1];
 	private Map<ShaderVal, String> shaderValNames = new EnumMap<ShaderVal, String>(ShaderVal.class);
 	// Static factory methods. These create/return singleton instances
 	private static final GLSLProgram FlatColorInstance = MakeFlatColor();
 	private static final GLSLProgram FlatShadedInstance = MakeFlatShaded();
 	private static final GLSLProgram ColoredVertexInstance = MakeColoredVertex();
 	private static final GLSLProgram TexturedShadedInstance = MakeTexturedShaded();
+	private static final GLSLProgram ShadedColoredVertexInstance = MakeShadedColoredVertex();
 
 	public static GLSLProgram FlatColor() {
 		return FlatColorInstance;
@@ -84,6 +91,10 @@ public class GLSLProgram {
 		return TexturedShadedInstance;
 	}
 
+	public static GLSLProgram ShadedColoredVertex() {
+		return ShadedColoredVertexInstance;
+	}
+
 	private static GLSLProgram MakeFlatColor() {
 		String vertexShader = "uniform mat4 u_MVPMatrix;\n" + "uniform vec4 u_Color;\n" + "attribute vec4 a_Position;\n" + "varying vec4 v_Color;\n" + "void main()\n" + "{\n" + "   v_Color = u_Color;\n" + "   gl_PointSize = 3.0;\n" + "   gl_Position = u_MVPMatrix * a_Position;\n" + "}\n";
 		String fragmentShader = "precision mediump float;\n" + "varying vec4 v_Color;\n" + "void main()\n" + "{\n" + "   gl_FragColor = v_Color;\n" + "}";
@@ -124,6 +135,24 @@ public class GLSLProgram {
 		return retval;
 	}
 
+	// Lit like FlatShaded, with a color per vertex tinted by the uniform color
+	private static GLSLProgram MakeShadedColoredVertex() {
+		String vertexShader = "uniform mat4 u_MVPMatrix;\n uniform vec4 u_Color;\n uniform vec3 u_lightVector;\n uniform mat3 u_NormMatrix;\n attribute vec4 a_Position;\n" + "attribute vec3 a_Normal;\n" + "attribute vec4 a_Color;\n" + "varying vec4 v_Color;\n" + "void main()\n" + "{\n" + "   vec3 modelViewNormal = normalize(u_NormMatrix * a_Normal);\n" + "   float diffuse = max(dot(modelViewNormal, u_lightVector), 0.4);\n" + "   vec4 color = a_Color * u_Color;\n" + "   v_Color = vec4(diffuse*color.xyz, color[3]);\n" + "   gl_Position = u_MVPMatrix * a_Position;\n" + "}";
+		String fragmentShader = "precision mediump float;\n" + "varying vec4 v_Color;\n" + "void main()\n" + "{\n" + "   gl_FragColor = v_Color;\n" + "}";
+
+		GLSLProgram retval = new GLSLProgram(vertexShader, fragmentShader);
+		// Attributes
+		retval.setAttributeName(ShaderVal.POSITION, "a_Position");
+		retval.setAttributeName(ShaderVal.NORMAL, "a_Normal");
+		retval.setAttributeName(ShaderVal.ATTRIB_COLOR, "a_Color");
+		// Uniforms
+		retval.setAttributeName(ShaderVal.UNIFORM_COLOR, "u_Color");
+		retval.setAttributeName(ShaderVal.MVP_MATRIX, "u_MVPMatrix");
+		retval.setAttributeName(ShaderVal.LIGHTVEC, "u_lightVector");
+		retval.setAttributeName(ShaderVal.NORM_MATRIX, "u_NormMatrix");
+		return retval;
+	}
+
 	private static GLSLProgram MakeTexturedShaded() {
 		String vertexShader = "attribute vec2 a_texCoord;\n" + "attribute vec4 a_Position;\n" + "attribute vec3 a_Normal;\n" + "uniform vec4 u_Color;\n" + "uniform mat4 u_MVPMatrix;\n" + "uniform mat3 u_NormMatrix;\n" + "uniform vec3 u_lightVector;\n" + "varying vec2 v_texCoord;\n" + "varying float v_diffuse;\n" + "varying vec4 v_Color;\n" + "void main()\n" + "{\n" + "		v_texCoord = a_texCoord;\n" + "		v_Color = u_Color;\n" + "		vec3 modelViewNormal = normalize(u_NormMatrix * a_Normal);\n" + "		v_diffuse = min(max(dot(modelViewNormal, u_lightVector), 0.45),1.0);\n" + "		gl_Position = u_MVPMatrix * a_Position;\n" + "}";
 		String fragmentShader = "precision mediump float;\n" + "uniform sampler2D u_texture;\n" + "varying vec2 v_texCoord;\n" + "varying float v_diffuse;\n" + "varying vec4 v_Color;\n" + "void main()\n" + "{\n" + "		vec4 color = texture2D(u_texture, v_texCoord);\n" + "		gl_FragColor = v_Color*vec4(v_diffuse*color.xyz, color[3]);\n" + "}";
@@ -151,7 +180,7 @@ public class GLSLProgram {
 	}
 
 	public boolean compile(GL10 glUnused) {
-		programID = GLES20.glCreateProgram();
+		programID = GLES.glCreateProgram();
 
 		// Check that attributes are in place
 		if(shaderValNames.isEmpty())
@@ -166,25 +195,25 @@ public class GLSLProgram {
 			return false;
 		}
 
-		GLES20.glAttachShader(programID, vShaderHandle);
-		GLES20.glAttachShader(programID, fShaderHandle);
+		GLES.glAttachShader(programID, vShaderHandle);
+		GLES.glAttachShader(programID, fShaderHandle);
 
 		// Bind all attributes. This gives each attribute the same handle in all shaders
 		for(ShaderVal s : shaderValNames.keySet()) {
 			if(!s.isUniform) {
-				GLES20.glBindAttribLocation(programID, s.loc, shaderValNames.get(s));
+				GLES.glBindAttribLocation(programID, s.loc, shaderValNames.get(s));
 				Log.i("GLSL", "Bound attribute " + shaderValNames.get(s) + " to index " + s.loc);
 			}
 		}
 
 		// Link program
 		int[] linkStatus = new int[1];
-		GLES20.glLinkProgram(programID);
-		GLES20.glGetProgramiv(programID, GLES20.GL_LINK_STATUS, linkStatus, 0);
+		GLES.glLinkProgram(programID);
+		GLES.glGetProgramiv(programID, GLES20.GL_LINK_STATUS, linkStatus, 0);
 
 		if(linkStatus[0] != GLES20.GL_TRUE) {
 			Log.e("GLSL", "Unable to link program:");
-			Log.e("GLSL", GLES20.glGetProgramInfoLog(programID));
+			Log.e("GLSL", GLES.glGetProgramInfoLog(programID));
 			cleanup(glUnused);
 			return false;
 		} else {
@@ -194,23 +223,131 @@ public class GLSLProgram {
 		// Fetch all attribute and shader locations
 		for(ShaderVal s : shaderValNames.keySet()) {
 			if(s.isUniform) {
-				uniformHandles[s.loc] = GLES20.glGetUniformLocation(programID, shaderValNames.get(s));
+				uniformHandles[s.loc] = GLES.glGetUniformLocation(programID, shaderValNames.get(s));
 				Log.i("GLSL", "Fetched uniform " + shaderValNames.get(s) + " = " + uniformHandles[s.loc]);
 			}
 		}
 
 		Log.d("GLSL", "Shader ID " + programID + " compiled successfully!");
 
+		Arrays.fill(uniformSet, false);
 		compiled = true;
 		return true;
 	}
 
+	/**
+	 * @return the GL name of the program, or 0 if it hasn't been compiled
+	 */
+	public int getProgramID() {
+		return programID;
+	}
+
 	public boolean isCompiled() {
 		return compiled;
 	}
 
 	public void use(GL10 glUnused) {
-		GLES20.glUseProgram(programID);
+		GLState.useProgram(programID);
+	}
+
+	/**
+	 * Set a float uniform of this program, skipping the GL call if the program already holds the value. The program must be in use.
+	 */
+	public void setUniform(ShaderVal s, float x) {
+		float[] v = uniformValues[s.loc];
+		boolean same = uniformSet[s.loc] && v[0] == x;
+		GLState.countUniform(same);
+		if(same)
+			return;
+		GLES.glUniform1f(uniformHandles[s.loc], x);
+		v[0] = x;
+		uniformSet[s.loc] = true;
+	}
+
+	/**
+	 * Set an int uniform of this program, skipping the GL call if the program already holds the value. The program must be in use.
+	 */
+	public void setUniform(ShaderVal s, int x) {
+		float[] v = uniformValues[s.loc];
+		boolean same = uniformSet[s.loc] && v[0] == x;
+		GLState.countUniform(same);
+		if(same)
+			return;
+		GLES.glUniform1i(uniformHandles[s.loc], x);
+		v[0] = x;
+		uniformSet[s.loc] = true;
+	}
+
+	/**
+	 * Set a mat4 uniform of this program, skipping the GL call if the program already holds the value. The program must be in use.
+	 */
+	public void setUniformMatrix(ShaderVal s, float[] m) {
+		boolean same = holdsMatrix(s, m, 16);
+		GLState.countUniform(same);
+		if(same)
+			return;
+		GLES.glUniformMatrix4fv(uniformHandles[s.loc], 1, false, m, 0);
+		keepMatrix(s, m, 16);
+	}
+
+	/**
+	 * Set a mat3 uniform of this program, skipping the GL call if the program already holds the value. The program must be in use.
+	 */
+	public void setUniformMatrix3(ShaderVal s, float[] m) {
+		boolean same = holdsMatrix(s, m, 9);
+		GLState.countUniform(same);
+		if(same)
+			return;
+		GLES.glUniformMatrix3fv(uniformHandles[s.loc], 1, false, m, 0);
+		keepMatrix(s, m, 9);
+	}
+
+	private boolean holdsMatrix(ShaderVal s, float[] m, int length) {
+		if(!uniformSet[s.loc])
+			return false;
+		float[] v = uniformValues[s.loc];
+		for(int i = 0; i < length; i++)
+			if(v[i] != m[i])
+				return false;
+		return true;
+	}
+
+	private void keepMatrix(ShaderVal s, float[] m, int length) {
+		System.arraycopy(m, 0, uniformValues[s.loc], 0, length);
+		uniformSet[s.loc] = true;
+	}
+
+	/**
+	 * Set a vec3 uniform of this program, skipping the GL call if the program already holds the value. The program must be in use.
+	 */
+	public void setUniform(ShaderVal s, float x, float y, float z) {
+		float[] v = uniformValues[s.loc];
+		boolean same = uniformSet[s.loc] && v[0] == x && v[1] == y && v[2] == z;
+		GLState.countUniform(same);
+		if(same)
+			return;
+		GLES.glUniform3f(uniformHandles[s.loc], x, y, z);
+		v[0] = x;
+		v[1] = y;
+		v[2] = z;
+		uniformSet[s.loc] = true;
+	}
+
+	/**
+	 * Set a vec4 uniform of this program, skipping the GL call if the program already holds the value. The program must be in use.
+	 */
+	public void setUniform(ShaderVal s, float x, float y, float z, float w) {
+		float[] v = uniformValues[s.loc];
+		boolean same = uniformSet[s.loc] && v[0] == x && v[1] == y && v[2] == z && v[3] == w;
+		GLState.countUniform(same);
+		if(same)
+			return;
+		GLES.glUniform4f(uniformHandles[s.loc], x, y, z, w);
+		v[0] = x;
+		v[1] = y;
+		v[2] = z;
+		v[3] = w;
+		uniformSet[s.loc] = true;
 	}
 
 	public void setAttributeName(ShaderVal val, String name) {
@@ -223,16 +360,16 @@ public class GLSLProgram {
 
 	/* load a Vertex or Fragment shader */
 	private int loadShader(GL10 glUnused, String source, int shaderType) {
-		int shader = GLES20.glCreateShader(shaderType);
+		int shader = GLES.glCreateShader(shaderType);
 		if(shader != 0) {
-			GLES20.glShaderSource(shader, source);
-			GLES20.glCompileShader(shader);
+			GLES.glShaderSource(shader, source);
+			GLES.glCompileShader(shader);
 			int[] compiled = new int[1];
-			GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+			GLES.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
 			if(compiled[0] == 0) {
 				Log.e("GLSL", "Could not compile shader " + shaderType + ":");
-				Log.e("GLSL", GLES20.glGetShaderInfoLog(shader));
-				GLES20.glDeleteShader(shader);
+				Log.e("GLSL", GLES.glGetShaderInfoLog(shader));
+				GLES.glDeleteShader(shader);
 				shader = 0;
 				throw new RuntimeException("Unable to compile shader!");
 			}
@@ -243,11 +380,11 @@ public class GLSLProgram {
 
 	public void cleanup(GL10 glUnused) {
 		if(programID > 0)
-			GLES20.glDeleteProgram(programID);
+			GLES.glDeleteProgram(programID);
 		if(vShaderHandle > 0)
-			GLES20.glDeleteShader(vShaderHandle);
+			GLES.glDeleteShader(vShaderHandle);
 		if(fShaderHandle > 0)
-			GLES20.glDeleteShader(fShaderHandle);
+			GLES.glDeleteShader(fShaderHandle);
 
 		fShaderHandle = 0;
 		vShaderHandle = 0;
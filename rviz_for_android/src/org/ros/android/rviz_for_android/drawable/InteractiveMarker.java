@@ -98,7 +98,7 @@ public class InteractiveMarker implements Cleanable {
 	public void draw(GL10 glUnused) {
 		cam.pushM();
 		cam.scaleM(scale, scale, scale);
-		cam.applyTransform(Utility.newTransformIfPossible(ftt, frame, cam.getFixedFrame()));
+		cam.applyTransform(cam.getTransformCache().getMatrix(frame, cam.getFixedFrame()));
 
 		for(InteractiveMarkerControl control : controls)
 			control.draw(glUnused);
@@ -109,7 +109,7 @@ public class InteractiveMarker implements Cleanable {
 	public void selectionDraw(GL10 glUnused) {
 		cam.pushM();
 		cam.scaleM(scale, scale, scale);
-		cam.applyTransform(Utility.newTransformIfPossible(ftt, frame, cam.getFixedFrame()));
+		cam.applyTransform(cam.getTransformCache().getMatrix(frame, cam.getFixedFrame()));
 
 		for(InteractiveMarkerControl control : controls)
 			control.selectionDraw(glUnused);
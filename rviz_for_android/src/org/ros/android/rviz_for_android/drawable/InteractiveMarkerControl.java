@@ -24,6 +24,7 @@ import javax.microedition.khronos.opengles.GL10;
 import org.ros.android.renderer.Camera;
 import org.ros.android.renderer.Utility;
 import org.ros.android.renderer.layer.InteractiveObject;
+import org.ros.android.renderer.math.Mat4;
 import org.ros.android.renderer.shapes.BaseShape;
 import org.ros.android.renderer.shapes.BaseShapeInterface;
 import org.ros.android.renderer.shapes.Cleanable;
@@ -36,7 +37,6 @@ import org.ros.rosjava_geometry.Transform;
 import org.ros.rosjava_geometry.Vector3;
 
 import visualization_msgs.InteractiveMarkerFeedback;
-import android.opengl.Matrix;
 import android.util.Log;
 
 /**
@@ -205,8 +205,8 @@ public class InteractiveMarkerControl implements InteractiveObject, Cleanable {
 
 	private void captureScreenPosition() {
 		System.arraycopy(cam.getModelMatrix(), 0, M, 0, 16);
-		Matrix.multiplyMM(MV, 0, cam.getViewMatrix(), 0, cam.getModelMatrix(), 0);
-		Matrix.multiplyMM(MVP, 0, cam.getViewport().getProjectionMatrix(), 0, MV, 0);
+		Mat4.multiplyMM(MV, cam.getViewMatrix(), cam.getModelMatrix());
+		Mat4.multiplyMM(MVP, cam.getViewport().getProjectionMatrix(), MV);
 	}
 
 	/**
@@ -286,16 +286,10 @@ public class InteractiveMarkerControl implements InteractiveObject, Cleanable {
 	private static final Vector3 ORIGIN = Vector3.zero();
 	private static final Vector3 XAXIS = Vector3.xAxis();
 	private float[] resultVec = new float[4];
-	private float[] positionVec = new float[4];
 	private float x3d, y3d, w3d;
 
 	private double[] getScreenPosition(Vector3 position) {
-		positionVec[0] = (float) position.getX();
-		positionVec[1] = (float) position.getY();
-		positionVec[2] = (float) position.getZ();
-		positionVec[3] = 1f;
-
-		Matrix.multiplyMV(resultVec, 0, MVP, 0, positionVec, 0);
+		Mat4.multiplyMV(resultVec, MVP, (float) position.getX(), (float) position.getY(), (float) position.getZ(), 1f);
 		x3d = resultVec[0];
 		y3d = resultVec[1];
 		w3d = resultVec[2];
@@ -345,8 +339,11 @@ public class InteractiveMarkerControl implements InteractiveObject, Cleanable {
 		return name;
 	}
 
+	private final float[] cameraLocation = new float[3];
+
 	private Vector3 getCameraVector(Vector3 position) {
-		return new Vector3(cam.getCamera().getX() * 2 - position.getX(), cam.getCamera().getY() * 2 - position.getY(), cam.getCamera().getZ() * 2 - position.getZ());
+		cam.getCameraLocation(cameraLocation);
+		return new Vector3(cameraLocation[0] * 2 - position.getX(), cameraLocation[1] * 2 - position.getY(), cameraLocation[2] * 2 - position.getZ());
 	}
 
 	@Override
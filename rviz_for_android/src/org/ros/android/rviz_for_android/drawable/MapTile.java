@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.shapes.Cleanable;
+
+/**
+ * A tile of a {@link MapTilePyramid} which can release its GL textures while keeping the data needed to load them again
+ */
+public interface MapTile extends Cleanable {
+	public void draw(GL10 glUnused);
+
+	/**
+	 * Delete the tile's GL textures. They are loaded again the next time the tile is drawn. Must be called from the GL thread.
+	 */
+	public void unloadTextures();
+}
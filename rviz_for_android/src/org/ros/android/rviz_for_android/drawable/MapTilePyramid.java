@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.shapes.TexturedTrianglesShape;
+import org.ros.rosjava_geometry.Quaternion;
+import org.ros.rosjava_geometry.Transform;
+import org.ros.rosjava_geometry.Vector3;
+
+import android.opengl.ETC1Util.ETC1Texture;
+import android.util.Log;
+
+/**
+ * A quadtree of map tiles. Level zero holds the full resolution tiles and each level above it is downsampled by two, so tile (level, row, col) covers tiles
+ * (level-1, 2*row..2*row+1, 2*col..2*col+1). Levels are built bottom up and can be drawn as soon as level zero is ready.
+ * <p>
+ * Each frame the tree is walked from the coarsest built level. Tiles outside the view frustum are skipped and a tile is refined into its children while its
+ * texels would cover more than one pixel. Tile textures are loaded when first drawn and unloaded least recently drawn first whenever the loaded textures
+ * exceed the memory budget. If the tiles of a single view don't fit in the budget, coarser levels are used until they do.
+ */
+public class MapTilePyramid {
+	private static final float MAX_TEXEL_PIXELS = 1f;
+
+	private final Camera cam;
+	private final int tileSize;
+	private final float resolution;
+	private final int tileBytes;
+
+	private final MapTile[][][] levels;
+	// Levels below this have been built, written after the level so readers on the GL thread see complete levels
+	private volatile int levelsReady = 0;
+
+	private volatile long budgetBytes;
+	private int lodBias = 0;
+
+	// Tiles with textures on the GPU and the frame each was last drawn, least recently drawn first
+	private final LinkedHashMap<MapTile, Integer> loaded = new LinkedHashMap<MapTile, Integer>(64, 0.75f, true);
+	private int frame = 0;
+	private int frameBytes;
+
+	private final float[] MV = new float[16];
+	private final float[] MVP = new float[16];
+	private final float[] clip = new float[4];
+	private float pixelScale;
+
+	/**
+	 * @param resolution
+	 *            map resolution in meters per cell
+	 * @param rows
+	 *            number of full resolution tile rows
+	 * @param cols
+	 *            number of full resolution tile columns
+	 * @param tileBytes
+	 *            GPU memory used by the texture of one tile
+	 * @param budgetBytes
+	 *            maximum size of loaded tile textures
+	 */
+	public MapTilePyramid(Camera cam, int tileSize, float resolution, int rows, int cols, int tileBytes, long budgetBytes) {
+		this.cam = cam;
+		this.tileSize = tileSize;
+		this.resolution = resolution;
+		this.tileBytes = tileBytes;
+		this.budgetBytes = budgetBytes;
+
+		int count = 1;
+		while(rows > 1 || cols > 1) {
+			rows = (rows + 1) / 2;
+			cols = (cols + 1) / 2;
+			count++;
+		}
+		levels = new MapTile[count][][];
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/**
+	 * @return the number of tile rows at a level
+	 */
+	public static int getRows(int baseRows, int level) {
+		for(int i = 0; i < level; i++)
+			baseRows = (baseRows + 1) / 2;
+		return baseRows;
+	}
+
+	/**
+	 * Create a compressed tile positioned and scaled for its place in the pyramid
+	 */
+	public Plane createTile(int level, int row, int col, ETC1Texture tex) {
+		float size = getTileSize(level);
+		Plane tile = new Plane(cam, tex);
+		tile.setTransform(getTileTransform(level, row, col));
+		tile.setScale(size, size);
+		tile.setTextureSmoothing(TexturedTrianglesShape.TextureSmoothing.Nearest);
+		tile.setRetainTextures(true);
+		return tile;
+	}
+
+	/**
+	 * Create a palette colored tile positioned and scaled for its place in the pyramid
+	 */
+	public PaletteTile createTile(int level, int row, int col, ByteBuffer cells, OccupancyPalette palette) {
+		float size = getTileSize(level);
+		PaletteTile tile = new PaletteTile(cam, palette, tileSize, cells);
+		tile.setTransform(getTileTransform(level, row, col));
+		tile.setScale(size, size);
+		return tile;
+	}
+
+	private Transform getTileTransform(int level, int row, int col) {
+		float size = getTileSize(level);
+		return new Transform(new Vector3(size * col, size * row, 0), Quaternion.identity());
+	}
+
+	/**
+	 * @return the width of a tile at a level in meters
+	 */
+	public float getTileSize(int level) {
+		return resolution * tileSize * (1 << level);
+	}
+
+	/**
+	 * Add the next level of the pyramid. Levels must be added in order starting from level zero.
+	 */
+	public void addLevel(MapTile[][] tiles) {
+		levels[levelsReady] = tiles;
+		levelsReady = levelsReady + 1;
+	}
+
+	/**
+	 * @return the number of levels which have been built
+	 */
+	public int getReadyLevelCount() {
+		return levelsReady;
+	}
+
+	/**
+	 * @return the tiles of a level, or null if it hasn't been built
+	 */
+	public MapTile[][] getLevel(int level) {
+		return (level < levelsReady) ? levels[level] : null;
+	}
+
+	/**
+	 * @return every tile in the pyramid
+	 */
+	public List<MapTile> getTiles() {
+		List<MapTile> retval = new ArrayList<MapTile>();
+		int ready = levelsReady;
+		for(int k = 0; k < ready; k++)
+			for(MapTile[] pRow : levels[k])
+				for(MapTile p : pRow)
+					if(p != null)
+						retval.add(p);
+		return retval;
+	}
+
+	public void setMemoryBudget(long bytes) {
+		this.budgetBytes = bytes;
+	}
+
+	public void draw(GL10 glUnused) {
+		int ready = levelsReady;
+		if(ready == 0)
+			return;
+
+		Mat4.multiplyMM(MV, cam.getViewMatrix(), cam.getModelMatrix());
+		Mat4.multiplyMM(MVP, cam.getViewport().getProjectionMatrix(), MV);
+		pixelScale = cam.getViewport().getProjectionMatrix()[5] * cam.getViewport().getHeight() / 2f;
+
+		frame++;
+		frameBytes = 0;
+		MapTile[][] roots = levels[ready - 1];
+		for(int row = 0; row < roots.length; row++)
+			for(int col = 0; col < roots[row].length; col++)
+				drawTile(glUnused, ready - 1, row, col);
+
+		evict();
+	}
+
+	private void drawTile(GL10 glUnused, int level, int row, int col) {
+		MapTile tile = levels[level][row][col];
+		if(tile == null)
+			return;
+
+		float size = getTileSize(level);
+		float x0 = size * col;
+		float y0 = size * row;
+
+		// Transform the corners to clip space, skipping the tile if they are all outside one frustum plane
+		int outside = 0x3f;
+		float wMin = Float.POSITIVE_INFINITY;
+		for(int i = 0; i < 4; i++) {
+			Mat4.multiplyMV(clip, MVP, x0 + ((i & 1) == 0 ? 0 : size), y0 + ((i & 2) == 0 ? 0 : size), 0, 1);
+			float x = clip[0], y = clip[1], z = clip[2], w = clip[3];
+			int code = 0;
+			if(x < -w)
+				code |= 1;
+			if(x > w)
+				code |= 2;
+			if(y < -w)
+				code |= 4;
+			if(y > w)
+				code |= 8;
+			if(z < -w)
+				code |= 16;
+			if(z > w)
+				code |= 32;
+			outside &= code;
+			wMin = Math.min(wMin, w);
+		}
+		if(outside != 0)
+			return;
+
+		// Refine while a texel at the nearest corner covers more than a pixel
+		if(level > lodBias && (wMin <= 0 || resolution * (1 << level) * pixelScale / wMin > MAX_TEXEL_PIXELS)) {
+			MapTile[][] children = levels[level - 1];
+			for(int r = 2 * row; r <= 2 * row + 1 && r < children.length; r++)
+				for(int c = 2 * col; c <= 2 * col + 1 && c < children[r].length; c++)
+					drawTile(glUnused, level - 1, r, c);
+			return;
+		}
+
+		tile.draw(glUnused);
+		loaded.put(tile, frame);
+		frameBytes += tileBytes;
+	}
+
+	/**
+	 * Unload textures which weren't drawn this frame until the loaded textures fit in the budget, and adjust the level bias if this frame alone didn't fit
+	 */
+	private void evict() {
+		long budget = budgetBytes;
+		long loadedBytes = (long) loaded.size() * tileBytes;
+		Iterator<Map.Entry<MapTile, Integer>> it = loaded.entrySet().iterator();
+		while(loadedBytes > budget && it.hasNext()) {
+			Map.Entry<MapTile, Integer> e = it.next();
+			if(e.getValue() == frame)
+				break;
+			e.getKey().unloadTextures();
+			it.remove();
+			loadedBytes -= tileBytes;
+		}
+
+		if(frameBytes > budget && lodBias < levelsReady - 1) {
+			lodBias++;
+			Log.d("Map", "Tiles in view exceed the texture budget, using level " + lodBias + " or coarser");
+		} else if(lodBias > 0 && frameBytes * 4 <= budget / 2) {
+			lodBias--;
+		}
+	}
+
+	public int getLoadedTileCount() {
+		return loaded.size();
+	}
+}
@@ -149,17 +149,13 @@ public class Marker implements Cleanable {
 			break;
 		case visualization_msgs.Marker.CUBE_LIST:
 			markerDrawType = DrawType.LIST;
-			shape = new Cube(cam);
 			initArray(msg);
-			if(!useIndividualShapeArrayColors)
-				shape.setColor(color);
+			shape = MergedShapeList.newCubeList(cam, shapeArrayPositions, useIndividualShapeArrayColors ? shapeArrayColors : null, color, scale);
 			break;
 		case visualization_msgs.Marker.SPHERE_LIST:
 			markerDrawType = DrawType.LIST;
-			shape = new Sphere(cam, 0.5f);
 			initArray(msg);
-			if(!useIndividualShapeArrayColors)
-				shape.setColor(color);
+			shape = MergedShapeList.newSphereList(cam, shapeArrayPositions, useIndividualShapeArrayColors ? shapeArrayColors : null, color, scale);
 			break;
 		case visualization_msgs.Marker.LINE_LIST:
 			markerDrawType = DrawType.PRIMITIVE;
@@ -222,7 +218,7 @@ public class Marker implements Cleanable {
 		if(markerDrawType != DrawType.ERROR) {
 			shapeTransform = Utility.correctTransform(Transform.fromPoseMessage(msg.getPose()));
 			shape.setTransform(shapeTransform);
-			shape.setColor(color);
+			shape.setColor(getDrawColor());
 		}
 	}
 
@@ -248,6 +244,11 @@ public class Marker implements Cleanable {
 		return vertices;
 	}
 
+	// List markers have their colors baked into their vertices, so the shape color only tints them
+	private Color getDrawColor() {
+		return (markerDrawType == DrawType.LIST) ? COLOR_WHITE : color;
+	}
+
 	private float[] initArrayColors() {
 		float[] colors = new float[shapeArraySize * 4];
 		int idx = 0;
@@ -270,9 +271,11 @@ public class Marker implements Cleanable {
 		cam.pushM();
 
 		if(frame != null)
-			cam.applyTransform(Utility.newTransformIfPossible(ftt, cam.getFixedFrame(), frame));
+			cam.applyTransform(cam.getTransformCache().getMatrix(cam.getFixedFrame(), frame));
 
-		cam.scaleM(scale[0], scale[1], scale[2]);
+		// List markers have the scale baked into their geometry
+		if(markerDrawType != DrawType.LIST)
+			cam.scaleM(scale[0], scale[1], scale[2]);
 
 		if(isViewFacing) {
 			Matrix.multiplyMM(modelview, 0, cam.getViewMatrix(), 0, cam.getModelMatrix(), 0);
@@ -287,20 +290,9 @@ public class Marker implements Cleanable {
 			else
 				shape.setColor(COLOR_WHITE);
 			shape.setTransform(shapeTransform);
-			shape.draw(glUnused);
-		} else if(markerDrawType == DrawType.LIST) {
-			cam.applyTransform(shapeTransform);
-			for(int i = 0; i < shapeArraySize; i++) {
-				cam.pushM();
-				Point p = shapeArrayPositions.get(i);
-				cam.translateM((float) p.getX(), (float) p.getY(), (float) p.getZ());
-				if(useIndividualShapeArrayColors)
-					shape.setColor(shapeArrayColors.get(i));
-				shape.draw(glUnused);
-				cam.popM();
-			}
+			cam.getDrawQueue().submit(glUnused, shape);
 		} else {
-			shape.draw(glUnused);
+			cam.getDrawQueue().submit(glUnused, shape);
 		}
 		cam.popM();
 	}
@@ -312,9 +304,11 @@ public class Marker implements Cleanable {
 		cam.pushM();
 
 		if(frame != null)
-			cam.applyTransform(Utility.newTransformIfPossible(ftt, cam.getFixedFrame(), frame));
+			cam.applyTransform(cam.getTransformCache().getMatrix(cam.getFixedFrame(), frame));
 
-		cam.scaleM(scale[0], scale[1], scale[2]);
+		// List markers have the scale baked into their geometry
+		if(markerDrawType != DrawType.LIST)
+			cam.scaleM(scale[0], scale[1], scale[2]);
 
 		if(isViewFacing) {
 			// Based on math from http://www.opengl.org/discussion_boards/showthread.php/152761-Q-how-to-draw-a-disk-(gluDisk)-always-facing-the-user
@@ -329,21 +323,16 @@ public class Marker implements Cleanable {
 				shape.setColor(COLOR_WHITE);
 			shape.setTransform(shapeTransform);
 			shape.selectionDraw(glUnused);
-		} else if(markerDrawType == DrawType.LIST) {
-			cam.applyTransform(shapeTransform);
-			for(int i = 0; i < shapeArraySize; i++) {
-				cam.pushM();
-				Point p = shapeArrayPositions.get(i);
-				cam.translateM((float) p.getX(), (float) p.getY(), (float) p.getZ());
-				shape.selectionDraw(glUnused);
-				cam.popM();
-			}
 		} else {
 			shape.selectionDraw(glUnused);
 		}
 		cam.popM();
 	}
 
+	public boolean hasLifetime() {
+		return duration != 0;
+	}
+
 	public boolean isExpired() {
 		if(duration == 0)
 			return false;
@@ -405,10 +394,16 @@ public class Marker implements Cleanable {
 		}
 	}
 
+	/**
+	 * Unregister the marker's shape from selection and free the GL resources owned by this marker. Called when the marker is replaced or removed; the marker
+	 * must not be drawn afterwards.
+	 */
 	@Override
 	public void cleanup() {
 		if(shape != null)
 			shape.removeSelectable();
+		if(shape instanceof MergedShapeList)
+			((MergedShapeList) shape).cleanup();
 	}
 
 	/**
@@ -422,7 +417,7 @@ public class Marker implements Cleanable {
 		if(selected) {
 			shape.setColor(SelectionManager.selectedColor);
 		} else {
-			shape.setColor(color);
+			shape.setColor(getDrawColor());
 		}
 	}
 
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import geometry_msgs.Point;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.DirectBufferPool;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
+import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.BoundingBox;
+import org.ros.android.renderer.shapes.Cleanable;
+import org.ros.android.renderer.shapes.Color;
+import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Many copies of a unit shape, each at its own position and with its own color, baked into a single vertex buffer so the whole list is drawn with a few
+ * draw calls. Used for cube and sphere list markers. Each copy is indexed, so vertices shared by its triangles are stored once. Indices are 16 bit, so the
+ * list is drawn in batches of at most 65536 vertices which all share one index buffer.
+ * <p>
+ * The geometry is built when the list is created and uploaded on the first draw. It is built again from the list's points if the buffers are evicted.
+ */
+public class MergedShapeList extends BaseShape implements Cleanable {
+	private static final Color WHITE = new Color(1f, 1f, 1f, 1f);
+
+	// Interleaved vertex layout: float x, y, z, byte normal x, y, z, padding, unsigned byte r, g, b, a
+	private static final int POSITION_OFFSET = 0;
+	private static final int NORMAL_OFFSET = 12;
+	private static final int COLOR_OFFSET = 16;
+	private static final int STRIDE = 20;
+
+	private static final int MAX_BATCH_VERTICES = 65536;
+	// Lists beyond this are truncated, so a single marker can't exhaust the GPU memory budget
+	private static final int MAX_VERTICES = 2000000;
+
+	/**
+	 * A shape of size one centered on the origin, as an indexed triangle list
+	 */
+	private static class UnitShape {
+		final float[] vertices;
+		final byte[] normals;
+		final short[] indices;
+		final BoundingBox bounds;
+
+		UnitShape(float[] vertices, float[] normals, short[] indices) {
+			this.vertices = vertices;
+			this.normals = new byte[normals.length];
+			for(int i = 0; i < normals.length; i++)
+				this.normals[i] = (byte) Math.round(normals[i] * 127f);
+			this.indices = indices;
+			bounds = BoundingBox.fromVertices(vertices);
+		}
+
+		int getVertexCount() {
+			return vertices.length / 3;
+		}
+	}
+
+	// Lists with more spheres than these limits use coarser spheres to keep the buffer size reasonable
+	private static final int DETAILED_SPHERE_LIMIT = 1000;
+	private static final int COARSE_SPHERE_LIMIT = 10000;
+	private static final UnitShape CUBE = indexTriangles(Cube.cubeVertices, Cube.cubeNormals);
+	private static final UnitShape DETAILED_SPHERE = makeSphere(12, 16);
+	private static final UnitShape COARSE_SPHERE = makeSphere(6, 8);
+	private static final UnitShape MINIMAL_SPHERE = makeSphere(4, 6);
+
+	// Lists which have been cleaned up, waiting for the GL thread to delete their buffers
+	private static final Queue<MergedShapeList> released = new ConcurrentLinkedQueue<MergedShapeList>();
+
+	private final UnitShape unit;
+	private final List<Point> points;
+	private final List<Color> colors;
+	private final Color color;
+	private final float[] scale;
+	private final int shapeCount;
+	private final int batchShapes;
+
+	private ByteBuffer data;
+	private int vbo = 0;
+	private int ibo = 0;
+	private GLResourceManager.Resource vboResource;
+	private GLResourceManager.Resource iboResource;
+	private volatile boolean cleanUp = false;
+
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			if(r == vboResource) {
+				vboResource = null;
+				vbo = 0;
+			} else if(r == iboResource) {
+				iboResource = null;
+				ibo = 0;
+			}
+		}
+	};
+
+	/**
+	 * @param scale
+	 *            size of each cube
+	 * @param colors
+	 *            a color for each point, or null to give every cube the same color
+	 */
+	public static MergedShapeList newCubeList(Camera cam, List<Point> points, List<Color> colors, Color color, float[] scale) {
+		return new MergedShapeList(cam, CUBE, points, colors, color, scale);
+	}
+
+	/**
+	 * @param scale
+	 *            diameter of each sphere along each axis
+	 * @param colors
+	 *            a color for each point, or null to give every sphere the same color
+	 */
+	public static MergedShapeList newSphereList(Camera cam, List<Point> points, List<Color> colors, Color color, float[] scale) {
+		UnitShape sphere;
+		if(points.size() > COARSE_SPHERE_LIMIT)
+			sphere = MINIMAL_SPHERE;
+		else if(points.size() > DETAILED_SPHERE_LIMIT)
+			sphere = COARSE_SPHERE;
+		else
+			sphere = DETAILED_SPHERE;
+		return new MergedShapeList(cam, sphere, points, colors, color, scale);
+	}
+
+	private MergedShapeList(Camera cam, UnitShape unit, List<Point> points, List<Color> colors, Color color, float[] scale) {
+		super(cam);
+		super.setProgram(GLSLProgram.ShadedColoredVertex());
+		super.setColor(WHITE);
+
+		this.unit = unit;
+		this.points = points;
+		this.colors = colors;
+		this.color = color;
+		this.scale = scale.clone();
+
+		int unitCount = unit.getVertexCount();
+		if(points.size() > MAX_VERTICES / unitCount) {
+			shapeCount = MAX_VERTICES / unitCount;
+			Log.w("MergedShapeList", "Only drawing " + shapeCount + " of " + points.size() + " shapes in the list");
+		} else {
+			shapeCount = points.size();
+		}
+		batchShapes = MAX_BATCH_VERTICES / unitCount;
+
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for(int p = 0; p < shapeCount; p++) {
+			Point pt = points.get(p);
+			minX = Math.min(minX, (float) pt.getX());
+			minY = Math.min(minY, (float) pt.getY());
+			minZ = Math.min(minZ, (float) pt.getZ());
+			maxX = Math.max(maxX, (float) pt.getX());
+			maxY = Math.max(maxY, (float) pt.getY());
+			maxZ = Math.max(maxZ, (float) pt.getZ());
+		}
+		if(shapeCount > 0) {
+			BoundingBox b = unit.bounds;
+			bounds = new BoundingBox(minX + b.getMinX() * scale[0], minY + b.getMinY() * scale[1], minZ + b.getMinZ() * scale[2], maxX + b.getMaxX() * scale[0], maxY + b.getMaxY() * scale[1], maxZ + b.getMaxZ() * scale[2]);
+			data = buildVertices();
+		}
+	}
+
+	private ByteBuffer buildVertices() {
+		int unitCount = unit.getVertexCount();
+		float[] v = unit.vertices;
+		byte[] n = unit.normals;
+		ByteBuffer buf = DirectBufferPool.acquire(shapeCount * unitCount * STRIDE);
+		for(int p = 0; p < shapeCount; p++) {
+			Point pt = points.get(p);
+			float px = (float) pt.getX();
+			float py = (float) pt.getY();
+			float pz = (float) pt.getZ();
+
+			Color c = (colors == null) ? color : colors.get(p);
+			byte r = toByte(c.getRed()), g = toByte(c.getGreen()), b = toByte(c.getBlue()), a = toByte(c.getAlpha());
+
+			for(int i = 0; i < unitCount; i++) {
+				buf.putFloat(px + v[i * 3] * scale[0]);
+				buf.putFloat(py + v[i * 3 + 1] * scale[1]);
+				buf.putFloat(pz + v[i * 3 + 2] * scale[2]);
+				buf.put(n[i * 3]);
+				buf.put(n[i * 3 + 1]);
+				buf.put(n[i * 3 + 2]);
+				buf.put((byte) 0);
+				buf.put(r);
+				buf.put(g);
+				buf.put(b);
+				buf.put(a);
+			}
+		}
+		buf.flip();
+		return buf;
+	}
+
+	// The indices of one batch, relative to the first vertex of the batch
+	private ByteBuffer buildIndices() {
+		int count = Math.min(batchShapes, shapeCount);
+		int unitCount = unit.getVertexCount();
+		short[] idx = unit.indices;
+		ByteBuffer buf = DirectBufferPool.acquire(count * idx.length * 2);
+		for(int p = 0; p < count; p++)
+			for(int i = 0; i < idx.length; i++)
+				buf.putShort((short) (p * unitCount + idx[i]));
+		buf.flip();
+		return buf;
+	}
+
+	private static byte toByte(float f) {
+		return (byte) Math.round(Math.min(Math.max(f, 0f), 1f) * 255f);
+	}
+
+	/**
+	 * Index a triangle list, merging vertices which have the same position and normal
+	 */
+	private static UnitShape indexTriangles(float[] vertices, float[] normals) {
+		int count = vertices.length / 3;
+		float[] uniqueVertices = new float[vertices.length];
+		float[] uniqueNormals = new float[normals.length];
+		short[] indices = new short[count];
+		int unique = 0;
+		for(int i = 0; i < count; i++) {
+			int match = 0;
+			while(match < unique && !sameVertex(vertices, normals, i, uniqueVertices, uniqueNormals, match))
+				match++;
+			if(match == unique) {
+				System.arraycopy(vertices, i * 3, uniqueVertices, unique * 3, 3);
+				System.arraycopy(normals, i * 3, uniqueNormals, unique * 3, 3);
+				unique++;
+			}
+			indices[i] = (short) match;
+		}
+		float[] v = new float[unique * 3];
+		float[] n = new float[unique * 3];
+		System.arraycopy(uniqueVertices, 0, v, 0, v.length);
+		System.arraycopy(uniqueNormals, 0, n, 0, n.length);
+		return new UnitShape(v, n, indices);
+	}
+
+	private static boolean sameVertex(float[] v0, float[] n0, int i, float[] v1, float[] n1, int j) {
+		for(int d = 0; d < 3; d++)
+			if(v0[i * 3 + d] != v1[j * 3 + d] || n0[i * 3 + d] != n1[j * 3 + d])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Build a sphere of diameter one as a grid of stacks + 1 rings of slices + 1 vertices
+	 */
+	private static UnitShape makeSphere(int stacks, int slices) {
+		float[] vertices = new float[(stacks + 1) * (slices + 1) * 3];
+		float[] normals = new float[vertices.length];
+		for(int i = 0; i <= stacks; i++) {
+			double phi = Math.PI * ((double) i / stacks - 0.5);
+			for(int j = 0; j <= slices; j++) {
+				double theta = 2 * Math.PI * j / slices;
+				int v = (i * (slices + 1) + j) * 3;
+				normals[v] = (float) (Math.cos(phi) * Math.cos(theta));
+				normals[v + 1] = (float) Math.sin(phi);
+				normals[v + 2] = (float) (Math.cos(phi) * Math.sin(theta));
+				for(int d = 0; d < 3; d++)
+					vertices[v + d] = normals[v + d] * 0.5f;
+			}
+		}
+
+		short[] indices = new short[stacks * slices * 6];
+		int idx = 0;
+		for(int i = 0; i < stacks; i++) {
+			for(int j = 0; j < slices; j++) {
+				int a = i * (slices + 1) + j;
+				int b = a + slices + 1;
+				int c = b + 1;
+				int d = a + 1;
+				idx = addTriangle(indices, idx, normals, a, b, c);
+				idx = addTriangle(indices, idx, normals, a, c, d);
+			}
+		}
+		return new UnitShape(vertices, normals, indices);
+	}
+
+	// Add a triangle of unit sphere points, wound counter clockwise when seen from outside
+	private static int addTriangle(short[] indices, int idx, float[] points, int a, int b, int c) {
+		float ux = points[b * 3] - points[a * 3], uy = points[b * 3 + 1] - points[a * 3 + 1], uz = points[b * 3 + 2] - points[a * 3 + 2];
+		float vx = points[c * 3] - points[a * 3], vy = points[c * 3 + 1] - points[a * 3 + 1], vz = points[c * 3 + 2] - points[a * 3 + 2];
+		float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+		float cx = points[a * 3] + points[b * 3] + points[c * 3];
+		float cy = points[a * 3 + 1] + points[b * 3 + 1] + points[c * 3 + 1];
+		float cz = points[a * 3 + 2] + points[b * 3 + 2] + points[c * 3 + 2];
+		boolean outward = (nx * cx + ny * cy + nz * cz >= 0);
+		indices[idx++] = (short) a;
+		indices[idx++] = (short) (outward ? b : c);
+		indices[idx++] = (short) (outward ? c : b);
+		return idx;
+	}
+
+	@Override
+	public int getArrayBuffer() {
+		return vbo;
+	}
+
+	@Override
+	public void draw(GL10 glUnused) {
+		if(cleanUp || shapeCount == 0)
+			return;
+
+		uploadIfNeeded();
+		GLResourceManager.markUsed(vboResource);
+		GLResourceManager.markUsed(iboResource);
+
+		cam.pushM();
+		super.draw(glUnused);
+		if(cull()) {
+			cam.popM();
+			return;
+		}
+
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+
+		// The selection pass draws with the flat color program, which has no normals or vertex colors
+		boolean selecting = (shader == GLSLProgram.FlatColor());
+		if(!selecting) {
+			calcNorm();
+			shader.setUniformMatrix3(ShaderVal.NORM_MATRIX, NORM);
+			shader.setUniform(ShaderVal.LIGHTVEC, lightVector[0], lightVector[1], lightVector[2]);
+			GLES.glEnableVertexAttribArray(ShaderVal.NORMAL.loc);
+			GLES.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+		}
+
+		// Every batch uses the same indices, with the attribute pointers moved to the batch's first vertex
+		GLES.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		int batchBytes = batchShapes * unit.getVertexCount() * STRIDE;
+		for(int first = 0; first < shapeCount; first += batchShapes) {
+			int base = (first / batchShapes) * batchBytes;
+			GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, STRIDE, base + POSITION_OFFSET);
+			if(!selecting) {
+				GLES.glVertexAttribPointer(ShaderVal.NORMAL.loc, 3, GLES20.GL_BYTE, true, STRIDE, base + NORMAL_OFFSET);
+				GLES.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 4, GLES20.GL_UNSIGNED_BYTE, true, STRIDE, base + COLOR_OFFSET);
+			}
+			int count = Math.min(batchShapes, shapeCount - first);
+			GLES.glDrawElements(GLES20.GL_TRIANGLES, count * unit.indices.length, GLES20.GL_UNSIGNED_SHORT, 0);
+		}
+		// Other shapes draw indices from client memory
+		GLES.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		if(!selecting) {
+			GLES.glDisableVertexAttribArray(ShaderVal.NORMAL.loc);
+			GLES.glDisableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+		}
+		cam.popM();
+	}
+
+	// Upload the vertex and index buffers if they haven't been uploaded yet or have been evicted
+	private void uploadIfNeeded() {
+		int[] tmp = null;
+		if(vbo == 0) {
+			if(data == null)
+				data = buildVertices();
+			tmp = new int[1];
+			GLES.glGenBuffers(1, tmp, 0);
+			vbo = tmp[0];
+			int bytes = data.remaining();
+			GLState.bindArrayBuffer(vbo);
+			GLES.glBufferData(GLES20.GL_ARRAY_BUFFER, bytes, data, GLES20.GL_STATIC_DRAW);
+			vboResource = GLResourceManager.track(GLResourceManager.Type.BUFFER, vbo, bytes, this, evictionListener);
+			DirectBufferPool.release(data);
+			data = null;
+		}
+		if(ibo == 0) {
+			ByteBuffer indices = buildIndices();
+			if(tmp == null)
+				tmp = new int[1];
+			GLES.glGenBuffers(1, tmp, 0);
+			ibo = tmp[0];
+			int bytes = indices.remaining();
+			GLES.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, ibo);
+			GLES.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, bytes, indices, GLES20.GL_STATIC_DRAW);
+			GLES.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+			iboResource = GLResourceManager.track(GLResourceManager.Type.BUFFER, ibo, bytes, this, evictionListener);
+			DirectBufferPool.release(indices);
+		}
+	}
+
+	@Override
+	public void selectionDraw(GL10 glUnused) {
+		super.selectionDraw(glUnused);
+		super.selectionDrawCleanup();
+	}
+
+	@Override
+	public void cleanup() {
+		if(!cleanUp) {
+			cleanUp = true;
+			released.add(this);
+		}
+	}
+
+	/**
+	 * Delete the buffers of lists which have been cleaned up. Called by the renderer once a frame, so lists are freed even when none are drawn. Must be
+	 * called from the GL thread.
+	 */
+	public static void deleteReleased() {
+		MergedShapeList list;
+		while((list = released.poll()) != null) {
+			GLResourceManager.delete(list.vboResource);
+			GLResourceManager.delete(list.iboResource);
+			list.vboResource = null;
+			list.iboResource = null;
+			list.vbo = 0;
+			list.ibo = 0;
+			DirectBufferPool.release(list.data);
+			list.data = null;
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ros.android.renderer.DirectBufferPool;
+
+import android.opengl.ETC1;
+import android.opengl.ETC1Util.ETC1Texture;
+
+/**
+ * Converts occupancy grid data into square ETC1 compressed tiles. Each cell is mapped through a 256 entry lookup table indexed by its occupancy byte into
+ * RGB565, and each tile is split into bands which are converted and compressed in parallel on a pool sized to the number of cores. ETC1 encodes 4x4 blocks
+ * independently, so every band is compressed directly into its slice of the tile's compressed data.
+ * <p>
+ * Tile (row, col) covers map columns starting at col*tileSize and map rows ending at (row+1)*tileSize-1, flipped so the highest map row is at the top of the
+ * tile. Any part of a tile outside the map is black.
+ */
+public class OccupancyGridConverter {
+	private static final short BLACK = 0;
+	// A multiple of the 4 pixel ETC1 block height
+	private static final int ROWS_PER_TASK = 64;
+
+	/**
+	 * Receives each tile as soon as it has been compressed. Called from a worker thread.
+	 */
+	public interface TileListener {
+		public void onTileReady(int row, int col, ETC1Texture tex);
+	}
+
+	private final int tileSize;
+	private final short[] lut = new short[256];
+	private ExecutorService pool;
+	private volatile ETC1TileCache cache;
+
+	// Change whenever the lookup table or tile layout changes so stale cached tiles are never used
+	private static final int CACHE_VERSION = 1;
+
+	public OccupancyGridConverter(int tileSize) {
+		this.tileSize = tileSize;
+
+		// Occupied cells are black, free cells are white, and everything else (including unknown) is gray
+		for(int i = 0; i < 256; i++) {
+			byte occupancy = (byte) i;
+			int gray;
+			if(occupancy == 100)
+				gray = 0;
+			else if(occupancy == 0)
+				gray = 255;
+			else
+				gray = 127;
+			lut[i] = toRgb565(gray, gray, gray);
+		}
+	}
+
+	public static short toRgb565(int r, int g, int b) {
+		return (short) (((r >> 3) << 11) | ((g >> 2) << 5) | (b >> 3));
+	}
+
+	/**
+	 * Convert and compress every tile of an occupancy grid. Blocks until all tiles have been delivered to the listener.
+	 *
+	 * @param data
+	 *            occupancy data, one byte per cell in row major order, indexed from zero
+	 * @param width
+	 *            map width in cells
+	 * @param height
+	 *            map height in cells
+	 * @param rows
+	 *            number of tile rows
+	 * @param cols
+	 *            number of tile columns
+	 */
+	public void encode(ByteBuffer data, int width, int height, int rows, int cols, TileListener listener) {
+		boolean[][] all = new boolean[rows][cols];
+		for(boolean[] row : all)
+			Arrays.fill(row, true);
+		encode(data, width, height, all, listener);
+	}
+
+	/**
+	 * Convert and compress only the selected tiles of an occupancy grid.
+	 *
+	 * @param selected
+	 *            [row][col] array with an entry for every tile, true for each tile to encode
+	 * @see #encode(ByteBuffer, int, int, int, int, TileListener)
+	 */
+	public void encode(final ByteBuffer data, final int width, final int height, boolean[][] selected, final TileListener listener) {
+		int rows = selected.length;
+		int cols = (rows > 0) ? selected[0].length : 0;
+		final ETC1TileCache tileCache = cache;
+		final String[][] keys = new String[rows][cols];
+		final boolean[][] misses = new boolean[rows][cols];
+
+		// Look up every selected tile in the cache first, only the misses are converted and compressed
+		List<Callable<Void>> lookups = new ArrayList<Callable<Void>>();
+		for(int r = 0; r < rows; r++) {
+			for(int c = 0; c < cols; c++) {
+				if(!selected[r][c])
+					continue;
+				if(tileCache == null) {
+					misses[r][c] = true;
+					continue;
+				}
+				final int row = r;
+				final int col = c;
+				lookups.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						keys[row][col] = tileKey(data, width, height, row, col);
+						ETC1Texture tex = tileCache.get(keys[row][col]);
+						if(tex != null)
+							listener.onTileReady(row, col, tex);
+						else
+							misses[row][col] = true;
+						return null;
+					}
+				});
+			}
+		}
+		invokeAll(lookups);
+
+		ByteBuffer[][] pixels = new ByteBuffer[rows][cols];
+		for(int r = 0; r < rows; r++)
+			for(int c = 0; c < cols; c++)
+				if(misses[r][c])
+					pixels[r][c] = DirectBufferPool.acquire(tileSize * tileSize * 2);
+		run(data, width, height, pixels, keys, listener);
+	}
+
+	/**
+	 * Cache tiles produced by {@link #encode(ByteBuffer, int, int, boolean[][], TileListener)} and reuse them whenever a tile is made from identical cells.
+	 *
+	 * @param cache
+	 *            cache to use, or null to disable caching
+	 */
+	public void setCache(ETC1TileCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return a hash of everything which determines the contents of a tile
+	 */
+	private String tileKey(ByteBuffer data, int width, int height, int row, int col) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		int u0 = col * tileSize;
+		int v0 = row * tileSize;
+		int validCols = Math.max(0, Math.min(tileSize, width - u0));
+		int validRows = Math.max(0, Math.min(tileSize, height - v0));
+
+		ByteBuffer header = ByteBuffer.allocate(16);
+		header.putInt(CACHE_VERSION).putInt(tileSize).putInt(validCols).putInt(validRows);
+		digest.update(header.array());
+		ByteBuffer cells = data.duplicate();
+		for(int v = v0; v < v0 + validRows; v++) {
+			cells.limit(v * width + u0 + validCols).position(v * width + u0);
+			digest.update(cells);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for(byte b : digest.digest())
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return sb.toString();
+	}
+
+	/**
+	 * Copy the cells of one tile without converting them, for tiles which are colored on the GPU. Unlike the compressed tiles, the rows are in map order,
+	 * bottom row first.
+	 *
+	 * @param fill
+	 *            value for any part of the tile outside the map
+	 * @return tileSize*tileSize bytes from {@link DirectBufferPool}
+	 */
+	public ByteBuffer copyTile(ByteBuffer data, int width, int height, int row, int col, byte fill) {
+		ByteBuffer tile = DirectBufferPool.acquire(tileSize * tileSize);
+		ByteBuffer src = data.duplicate();
+		int u0 = col * tileSize;
+		int count = Math.max(0, Math.min(tileSize, width - u0));
+		for(int ty = 0; ty < tileSize; ty++) {
+			int v = row * tileSize + ty;
+			tile.position(ty * tileSize);
+			if(v < height && count > 0) {
+				src.limit(v * width + u0 + count).position(v * width + u0);
+				tile.put(src);
+			}
+			while(tile.position() < (ty + 1) * tileSize)
+				tile.put(fill);
+		}
+		tile.position(0);
+		return tile;
+	}
+
+	/**
+	 * Compress tiles which are already RGB565. The tile buffers are released to {@link DirectBufferPool} once compressed.
+	 *
+	 * @param pixels
+	 *            [row][col] array of native order RGB565 buffers, each tileSize*tileSize pixels. Null entries are skipped.
+	 */
+	public void encode(ByteBuffer[][] pixels, TileListener listener) {
+		run(null, 0, 0, pixels, null, listener);
+	}
+
+	/**
+	 * Convert tiles to RGB565 without compressing them, in the same bands and on the same pool as the encode methods. The tile buffers are kept by the
+	 * caller. Used to measure the conversion on its own, since ETC1 compression is only available on a device.
+	 *
+	 * @param pixels
+	 *            [row][col] array of native order buffers of tileSize*tileSize*2 bytes which receive the tiles. Null entries are skipped.
+	 */
+	void convert(ByteBuffer data, int width, int height, ByteBuffer[][] pixels) {
+		run(data, width, height, pixels, null, null);
+	}
+
+	// Converts (if data isn't null) and compresses tiles in bands. Without a listener tiles are only converted.
+	private void run(final ByteBuffer data, final int width, final int height, final ByteBuffer[][] pixels, final String[][] keys, final TileListener listener) {
+		final ETC1TileCache tileCache = cache;
+		final int bandsPerTile = (tileSize + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int r = 0; r < pixels.length; r++) {
+			for(int c = 0; c < pixels[r].length; c++) {
+				if(pixels[r][c] == null)
+					continue;
+				final int row = r;
+				final int col = c;
+				final ByteBuffer compressed = (listener == null) ? null : ByteBuffer.allocateDirect(ETC1.getEncodedDataSize(tileSize, tileSize)).order(
+						ByteOrder.nativeOrder());
+				final AtomicInteger remaining = new AtomicInteger(bandsPerTile);
+				for(int y = 0; y < tileSize; y += ROWS_PER_TASK) {
+					final int first = y;
+					final int last = Math.min(y + ROWS_PER_TASK, tileSize);
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							if(data != null)
+								convertBand(data, width, height, row, col, first, last, pixels[row][col]);
+							if(listener == null)
+								return null;
+							compressBand(pixels[row][col], first, last, compressed);
+							if(remaining.decrementAndGet() == 0) {
+								DirectBufferPool.release(pixels[row][col]);
+								ETC1Texture tex = new ETC1Texture(tileSize, tileSize, compressed);
+								if(tileCache != null && keys != null && keys[row][col] != null)
+									tileCache.put(keys[row][col], tex);
+								listener.onTileReady(row, col, tex);
+							}
+							return null;
+						}
+					});
+				}
+			}
+		}
+		invokeAll(tasks);
+	}
+
+	private void invokeAll(List<Callable<Void>> tasks) {
+		if(tasks.isEmpty())
+			return;
+		try {
+			for(Future<Void> f : getPool().invokeAll(tasks))
+				f.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Convert tile rows [first, last) of one tile
+	 */
+	private void convertBand(ByteBuffer data, int width, int height, int row, int col, int first, int last, ByteBuffer tile) {
+		final short[] line = new short[tileSize];
+		final boolean hasArray = data.hasArray();
+		final byte[] array = hasArray ? data.array() : null;
+		final int arrayOffset = hasArray ? data.arrayOffset() : 0;
+		final int u0 = col * tileSize;
+		final ShortBuffer out = tile.asShortBuffer();
+
+		for(int ty = first; ty < last; ty++) {
+			int v = (row + 1) * tileSize - 1 - ty;
+			int count = (v < height) ? Math.max(0, Math.min(tileSize, width - u0)) : 0;
+			int readPos = v * width + u0;
+			if(hasArray) {
+				readPos += arrayOffset;
+				for(int tx = 0; tx < count; tx++)
+					line[tx] = lut[array[readPos + tx] & 0xff];
+			} else {
+				for(int tx = 0; tx < count; tx++)
+					line[tx] = lut[data.get(readPos + tx) & 0xff];
+			}
+			for(int tx = count; tx < tileSize; tx++)
+				line[tx] = BLACK;
+
+			out.position(ty * tileSize);
+			out.put(line);
+		}
+	}
+
+	/**
+	 * Compress tile rows [first, last) into the matching block rows of the tile's compressed data
+	 */
+	private void compressBand(ByteBuffer tile, int first, int last, ByteBuffer compressed) {
+		ByteBuffer in = tile.duplicate();
+		in.limit(last * tileSize * 2).position(first * tileSize * 2);
+		ByteBuffer out = compressed.duplicate();
+		out.limit(ETC1.getEncodedDataSize(tileSize, last)).position(ETC1.getEncodedDataSize(tileSize, first));
+		ETC1.encodeImage(in.slice(), tileSize, last - first, 2, 2 * tileSize, out.slice());
+	}
+
+	private synchronized ExecutorService getPool() {
+		if(pool == null)
+			pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		return pool;
+	}
+
+	public synchronized void shutdown() {
+		if(pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
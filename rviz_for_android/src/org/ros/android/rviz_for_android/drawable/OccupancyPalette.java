@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
+import org.ros.android.renderer.Utility;
+import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+/**
+ * A 256 entry color palette for occupancy data, indexed by the unsigned value of each cell, along with the shader which colors {@link PaletteTile}s by
+ * looking their cells up in it. Changing the color scheme only replaces the 1 KB palette texture, the tiles themselves are untouched.
+ */
+public class OccupancyPalette {
+	public static enum Scheme {
+		Map, Costmap, Raw
+	};
+
+	/**
+	 * Cell value used for parts of a tile outside the map. It is transparent in every scheme.
+	 */
+	public static final byte OUTSIDE = (byte) 0x80;
+
+	private final GLSLProgram program;
+	private final ByteBuffer colors = ByteBuffer.allocateDirect(256 * 4).order(ByteOrder.nativeOrder());
+	private volatile boolean changed = true;
+	private int texture = 0;
+	private GLResourceManager.Resource resource;
+
+	// Only the layer's pyramid knows when the palette is needed, so an evicted palette is simply uploaded again by the next bind
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			synchronized(OccupancyPalette.this) {
+				if(r == resource) {
+					resource = null;
+					texture = 0;
+				}
+			}
+		}
+	};
+
+	public OccupancyPalette(Context context) {
+		this(Utility.assetToString(context, "OccupancyPalette.vsh"), Utility.assetToString(context, "OccupancyPalette.fsh"));
+	}
+
+	/**
+	 * Create the palette from the shader sources rather than the application's assets, so it can be used without a Context
+	 */
+	OccupancyPalette(String vertexShader, String fragmentShader) {
+		program = new GLSLProgram(vertexShader, fragmentShader);
+		program.setAttributeName(ShaderVal.POSITION, "a_Position");
+		program.setAttributeName(ShaderVal.TEXCOORD, "a_texCoord");
+		program.setAttributeName(ShaderVal.MVP_MATRIX, "u_MVPMatrix");
+		program.setAttributeName(ShaderVal.TEXTURE, "u_cells");
+		program.setAttributeName(ShaderVal.EXTRA, "u_palette");
+		setScheme(Scheme.Map);
+	}
+
+	public GLSLProgram getProgram() {
+		return program;
+	}
+
+	public synchronized void setScheme(Scheme scheme) {
+		for(int i = 0; i < 256; i++) {
+			byte value = (byte) i;
+			int rgba;
+			if(value == OUTSIDE)
+				rgba = 0;
+			else if(scheme == Scheme.Map)
+				rgba = mapColor(value);
+			else if(scheme == Scheme.Costmap)
+				rgba = costmapColor(value);
+			else
+				rgba = rgba(i, i, i, 255);
+			colors.putInt(i * 4, rgba);
+		}
+		changed = true;
+	}
+
+	/**
+	 * The same colors as the compressed tiles: occupied cells are black, free cells are white and everything else is gray
+	 */
+	private static int mapColor(byte value) {
+		if(value == 100)
+			return rgba(0, 0, 0, 255);
+		if(value == 0)
+			return rgba(255, 255, 255, 255);
+		return rgba(127, 127, 127, 255);
+	}
+
+	/**
+	 * Free space is transparent so the costmap can be overlaid on a map. Costs ramp from blue to red, inscribed obstacles are cyan and lethal obstacles are
+	 * magenta.
+	 */
+	private static int costmapColor(byte value) {
+		if(value == 0)
+			return 0;
+		if(value == -1)
+			return rgba(112, 137, 134, 96);
+		if(value == 100)
+			return rgba(255, 0, 255, 255);
+		if(value == 99)
+			return rgba(0, 255, 255, 255);
+		if(value > 0 && value < 99) {
+			int red = 255 * value / 98;
+			return rgba(red, 0, 255 - red, 192);
+		}
+		return rgba(0, 255, 0, 255);
+	}
+
+	private static int rgba(int r, int g, int b, int a) {
+		// Written in native order, so build the int to match the byte order RGBA in memory
+		if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)
+			return (a << 24) | (b << 16) | (g << 8) | r;
+		return (r << 24) | (g << 16) | (b << 8) | a;
+	}
+
+	/**
+	 * Bind the palette texture to a texture unit, uploading it first if the scheme has changed. Must be called from the GL thread.
+	 */
+	public synchronized void bind(int unit) {
+		if(texture == 0) {
+			int[] tmp = new int[1];
+			GLES.glGenTextures(1, tmp, 0);
+			texture = tmp[0];
+			resource = GLResourceManager.track(GLResourceManager.Type.TEXTURE, texture, 256 * 4, this, evictionListener);
+			GLState.bindTexture(unit, texture);
+			GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+			GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+			GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+			GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+			changed = true;
+		} else {
+			GLState.bindTexture(unit, texture);
+		}
+		if(changed) {
+			colors.position(0);
+			GLES.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 256, 1, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, colors);
+			changed = false;
+		}
+		GLResourceManager.markUsed(resource);
+	}
+
+	/**
+	 * Delete the palette texture. It is created again by the next {@link #bind(int)}. Must be called from the GL thread.
+	 */
+	public synchronized void cleanup() {
+		GLResourceManager.delete(resource);
+		resource = null;
+		texture = 0;
+		changed = true;
+	}
+}
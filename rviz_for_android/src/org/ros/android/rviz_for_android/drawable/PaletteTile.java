@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
+import org.ros.android.renderer.DirectBufferPool;
+import org.ros.android.renderer.Vertices;
+import org.ros.android.renderer.shapes.Color;
+import org.ros.android.renderer.shapes.TrianglesShape;
+import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
+
+import android.opengl.GLES20;
+
+/**
+ * A square map tile which uploads its raw occupancy bytes as a single channel luminance texture and is colored in the fragment shader by an
+ * {@link OccupancyPalette}. This uses a quarter of the memory of an RGBA texture, needs no per cell work on the CPU and supports transparency, which ETC1
+ * compressed tiles can't.
+ */
+public class PaletteTile extends TrianglesShape implements MapTile {
+	private static final Color baseColor = new Color(1f, 1f, 1f, 1f);
+
+	private final FloatBuffer uv;
+	private final OccupancyPalette palette;
+	private final int size;
+
+	// Cells in row major order, bottom row first. Kept so the texture can be loaded again after being unloaded.
+	private ByteBuffer cells;
+	private final AtomicReference<ByteBuffer> replacement = new AtomicReference<ByteBuffer>();
+
+	private GLResourceManager.Resource texture;
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			texture = null;
+		}
+	};
+	private boolean cleanUp = false;
+	private final int[] tmp = new int[1];
+
+	private float xScale = 1f;
+	private float yScale = 1f;
+
+	/**
+	 * @param cells
+	 *            size*size occupancy bytes from {@link DirectBufferPool}, owned by the tile from now on
+	 */
+	public PaletteTile(Camera cam, OccupancyPalette palette, int size, ByteBuffer cells) {
+		super(cam, Plane.planeV, Plane.planeN, baseColor);
+		this.uv = Vertices.toFloatBuffer(Plane.planeUV);
+		this.palette = palette;
+		this.size = size;
+		this.cells = cells;
+		super.setProgram(palette.getProgram());
+	}
+
+	public void setScale(float xScale, float yScale) {
+		this.xScale = xScale;
+		this.yScale = yScale;
+	}
+
+	/**
+	 * Replace the cells of this tile. The new cells are uploaded into the existing texture on the next draw.
+	 *
+	 * @param cells
+	 *            size*size occupancy bytes from {@link DirectBufferPool}, owned by the tile from now on
+	 */
+	public void replaceCells(ByteBuffer cells) {
+		DirectBufferPool.release(replacement.getAndSet(cells));
+	}
+
+	@Override
+	public void draw(GL10 glUnused) {
+		if(cleanUp) {
+			unloadTextures();
+			DirectBufferPool.release(cells);
+			DirectBufferPool.release(replacement.getAndSet(null));
+			cells = null;
+			return;
+		}
+
+		ByteBuffer newCells = replacement.getAndSet(null);
+		if(newCells != null) {
+			DirectBufferPool.release(cells);
+			cells = newCells;
+			if(texture != null) {
+				cells.position(0);
+				GLState.bindTexture(texture.getId());
+				GLES.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, size, size, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, cells);
+			}
+		}
+
+		cam.pushM();
+		if(!shader.isCompiled()) {
+			shader.compile(glUnused);
+			uniformHandles = shader.getUniformHandles();
+		}
+		shader.use(glUnused);
+		shader.setUniform(ShaderVal.TEXTURE, 0);
+		shader.setUniform(ShaderVal.EXTRA, 1);
+
+		palette.bind(1);
+		if(texture == null)
+			loadTexture();
+		GLState.bindTexture(texture.getId());
+		GLResourceManager.markUsed(texture);
+
+		// The texture coordinates are a client side array
+		GLState.bindArrayBuffer(0);
+		GLES.glEnableVertexAttribArray(ShaderVal.TEXCOORD.loc);
+		GLES.glVertexAttribPointer(ShaderVal.TEXCOORD.loc, 2, GLES20.GL_FLOAT, false, 0, uv);
+
+		// Double sided, like Plane
+		GLES.glDisable(GLES20.GL_CULL_FACE);
+		super.draw(glUnused);
+		GLES.glEnable(GLES20.GL_CULL_FACE);
+
+		cam.popM();
+	}
+
+	@Override
+	public int getTexture() {
+		return (texture == null) ? 0 : texture.getId();
+	}
+
+	private void loadTexture() {
+		GLES.glGenTextures(1, tmp, 0);
+		GLState.bindTexture(tmp[0]);
+		GLES.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+		cells.position(0);
+		GLES.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, size, size, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, cells);
+		// The cells are kept, so an evicted texture is loaded again on the next draw
+		texture = GLResourceManager.track(GLResourceManager.Type.TEXTURE, tmp[0], size * size, this, evictionListener);
+
+		// Cell values are indices, so they must never be interpolated
+		GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+		GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+		GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		GLES.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+	}
+
+	@Override
+	protected void scale(Camera cam) {
+		cam.scaleM(xScale, yScale, 1f);
+	}
+
+	@Override
+	public void unloadTextures() {
+		if(texture != null) {
+			GLResourceManager.delete(texture);
+			texture = null;
+		}
+	}
+
+	@Override
+	public void cleanup() {
+		cleanUp = true;
+	}
+}
@@ -19,13 +19,15 @@ package org.ros.android.rviz_for_android.drawable;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.shapes.TexturedTrianglesShape;
 
 import android.opengl.ETC1Util.ETC1Texture;
+import android.opengl.GLES20;
 
-public class Plane extends TexturedTrianglesShape {
+public class Plane extends TexturedTrianglesShape implements MapTile {
 
-	private static final float planeV[] = {
+	static final float planeV[] = {
 		0f,1f,0f,
 		0f,0f,0f,
 		1f,0f,0f,
@@ -35,7 +37,7 @@ public class Plane extends TexturedTrianglesShape {
 		1f,1f,0f
 	};
 	
-	private static final float planeN[] = {
+	static final float planeN[] = {
 		0f,0f,1f,
 		0f,0f,1f,	
 		0f,0f,1f,
@@ -45,7 +47,7 @@ public class Plane extends TexturedTrianglesShape {
 		0f,0f,1f
 	};
 	
-	private static final float planeUV[] = {
+	static final float planeUV[] = {
 		0f,0f,
 		0f,1f,
 		1f,1f,
@@ -69,9 +71,9 @@ public class Plane extends TexturedTrianglesShape {
 	@Override
 	public void draw(GL10 gl) {
 		// Disable backface culling to make the plane double sided
-		gl.glDisable(GL10.GL_CULL_FACE);
+		GLES.glDisable(GLES20.GL_CULL_FACE);
 		super.draw(gl);
-		gl.glEnable(GL10.GL_CULL_FACE);
+		GLES.glEnable(GLES20.GL_CULL_FACE);
 	}
 
 	@Override
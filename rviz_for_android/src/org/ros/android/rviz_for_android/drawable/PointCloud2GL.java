@@ -17,56 +17,139 @@
 package org.ros.android.rviz_for_android.drawable;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLState;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.DirectBufferPool;
 import org.ros.android.renderer.Utility;
-import org.ros.android.renderer.Vertices;
+import org.ros.android.renderer.Viewport;
 import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.Cleanable;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
+import org.ros.android.rviz_for_android.drawable.PointFieldLayout.FieldAccessor;
+import org.ros.rosjava_geometry.Transform;
+
+import org.jboss.netty.buffer.ChannelBuffer;
 
 import sensor_msgs.PointField;
 import android.content.Context;
 import android.opengl.GLES20;
 import android.util.Log;
 
-public class PointCloud2GL extends BaseShape {
+/**
+ * Draws a PointCloud2 message directly from its packed binary representation. Incoming messages are written into a back buffer by the subscriber thread and
+ * swapped to the GL thread, which uploads them to a vertex buffer object once per message. Frames without new data draw straight from the resident VBO.
+ * <p>
+ * If a decay time is set, previous clouds are kept in a {@link PointCloudSegmentRing} and drawn at the pose their frame had when they arrived. If spatial
+ * indexing is enabled, each cloud is reordered into a {@link PointCloudOctree} before upload and only the parts inside the view frustum are drawn.
+ * <p>
+ * Fields are bound as vertex attributes of their own datatype, and packed rgb fields are unpacked by a separate shader variant, so unfiltered clouds are
+ * uploaded exactly as they arrived.
+ */
+public class PointCloud2GL extends BaseShape implements Cleanable {
 
-	private GLSLProgram program;
+	/**
+	 * A CPU side copy of a single point cloud message along with the layout needed to interpret it
+	 */
+	private static class CloudBuffer {
+		private ByteBuffer data;
+		private PointFieldLayout layout = EMPTY_LAYOUT;
+		private int pointCount = 0;
+		private long stamp;
+		private Transform pose;
+		private PointCloudOctree octree;
+		// Tag of the segment the message is uploaded into, made with the copy so the upload doesn't allocate
+		private SegmentInfo info;
+
+		private void ensureCapacity(int bytes, ByteOrder order) {
+			if(data == null || data.capacity() < bytes) {
+				Log.i("PointCloud2", "Acquiring a new " + bytes + " byte buffer");
+				DirectBufferPool.release(data);
+				data = DirectBufferPool.acquire(bytes);
+			}
+			data.clear();
+			data.order(order);
+		}
 
-	private ByteBuffer data;
+		private int getStride() {
+			return layout.getPointStep();
+		}
+	}
 
-	private boolean drawCloud = false;
+	/**
+	 * Everything needed to draw a segment of the ring
+	 */
+	private static class SegmentInfo {
+		private final PointFieldLayout layout;
+		private final PointCloudOctree octree;
+
+		private SegmentInfo(PointFieldLayout layout, PointCloudOctree octree) {
+			this.layout = layout;
+			this.octree = octree;
+		}
+	}
 
-	private int xOffset = -1;
-	private int yOffset = -1;
-	private int zOffset = -1;
+	private GLSLProgram program;
+	// Variant which unpacks rgb fields on the GPU, used when the selected channel is a packed color
+	private GLSLProgram rgbProgram;
+
+	private boolean drawCloud = false;
 
 	private float minVal = 0f;
 	private float maxVal = 1f;
 
-	private int arrayOffset = 0;
 	private int currentChannel = 0;
-	private int drawOffset = 0;
 	private volatile boolean flatColorMode = true;
-	private int stride = 0;
-	private int pointCount = 0;
 	private List<String> channelNames = new ArrayList<String>();
 
-	private Object dataSync = new Object();
+	private static final PointFieldLayout EMPTY_LAYOUT = PointFieldLayout.compile(new ArrayList<PointField>(), 0);
+
+	// Downsampling, only used by the thread calling setData
+	private volatile float voxelSize = 0f;
+	private final VoxelGridFilter voxelFilter = new VoxelGridFilter();
 
-	private static final List<PointField> DEFAULT_LIST = new ArrayList<PointField>();
-	private List<PointField> fields = DEFAULT_LIST;
+	// Spatial indexing, only used by the thread calling setData. Downsampled clouds are staged in the spare buffer before indexing.
+	private volatile boolean spatialIndex = false;
+	private final PointCloudOctree.Builder octreeBuilder = new PointCloudOctree.Builder();
+	private final CloudBuffer spare = new CloudBuffer();
+
+	// Triple buffering: the subscriber fills back, the most recent complete message waits in pending, and the GL thread owns front
+	private CloudBuffer back = new CloudBuffer();
+	private CloudBuffer pending = new CloudBuffer();
+	private CloudBuffer front = new CloudBuffer();
+	private boolean pendingIsNew = false;
+	private final Object swapSync = new Object();
+
+	// Guards the front buffer, which is shared between the GL thread and range computation
+	private final Object dataSync = new Object();
+
+	// Vertex buffer objects of the newest cloud and any clouds still within the decay time, only touched on the GL thread
+	private final PointCloudSegmentRing segments = new PointCloudSegmentRing();
+	// Reference pose and the matrices derived from it, only touched on the GL thread
+	private final float[] referencePose = new float[16];
+	private final float[] inverseReference = new float[16];
+	private final float[] relativePose = new float[16];
+	private boolean hasReference = false;
+	private boolean cleanUp = false;
 
 	public PointCloud2GL(Camera cam, Context context) {
-		super(cam);
-		String vsh = Utility.assetToString(context, "PointCloud2Shader.vsh");
-		String fsh = Utility.assetToString(context, "PointCloud2Shader.fsh");
+		this(cam, Utility.assetToString(context, "PointCloud2Shader.vsh"), Utility.assetToString(context, "PointCloud2RgbShader.vsh"), Utility.assetToString(
+				context, "PointCloud2Shader.fsh"));
+	}
 
+	/**
+	 * Create the shape from the shader sources rather than the application's assets, so it can be drawn without a Context
+	 */
+	PointCloud2GL(Camera cam, String vsh, String rgbVsh, String fsh) {
+		super(cam);
 		program = new GLSLProgram(vsh, fsh);
 		program.setAttributeName(ShaderVal.AX, "aX");
 		program.setAttributeName(ShaderVal.AY, "aY");
@@ -78,6 +161,13 @@ public class PointCloud2GL extends BaseShape {
 		program.setAttributeName(ShaderVal.EXTRA, "uColorMode");
 		program.setAttributeName(ShaderVal.EXTRA_2, "uMinVal");
 		program.setAttributeName(ShaderVal.EXTRA_3, "uMaxVal");
+
+		rgbProgram = new GLSLProgram(rgbVsh, fsh);
+		rgbProgram.setAttributeName(ShaderVal.AX, "aX");
+		rgbProgram.setAttributeName(ShaderVal.AY, "aY");
+		rgbProgram.setAttributeName(ShaderVal.AZ, "aZ");
+		rgbProgram.setAttributeName(ShaderVal.ATTRIB_COLOR, "aColor");
+		rgbProgram.setAttributeName(ShaderVal.MVP_MATRIX, "uMvp");
 		super.setProgram(program);
 	}
 
@@ -88,11 +178,10 @@ public class PointCloud2GL extends BaseShape {
 	}
 
 	public void setChannelColorMode(int channel) {
-		if(channel >= 0 && channel < fields.size()) {
+		if(channel >= 0 && channel < channelNames.size()) {
 			Log.i("PointCloud2", "Color mode set to channel " + channel);
 			currentChannel = channel;
 			flatColorMode = false;
-			drawOffset = arrayOffset + fields.get(channel).getOffset();
 		} else {
 			currentChannel = 0;
 		}
@@ -102,43 +191,124 @@ public class PointCloud2GL extends BaseShape {
 		return channelNames;
 	}
 
+	/**
+	 * Set the voxel grid leaf size used to downsample incoming clouds. A size of zero disables downsampling.
+	 * 
+	 * @param leafSize
+	 *            voxel edge length in meters
+	 */
+	public void setVoxelSize(float leafSize) {
+		voxelSize = Math.max(leafSize, 0f);
+	}
+
+	/**
+	 * Enable or disable building an octree for each incoming cloud. Indexed clouds are drawn with frustum culling and distance based level of detail.
+	 * 
+	 * @param enabled
+	 */
+	public void setSpatialIndex(boolean enabled) {
+		spatialIndex = enabled;
+	}
+
+	/**
+	 * Set how long received clouds remain visible. A decay time of zero only draws the most recent cloud.
+	 * 
+	 * @param seconds
+	 */
+	public void setDecayTime(float seconds) {
+		segments.setDecayTime(seconds);
+	}
+
+	public boolean isDecaying() {
+		return segments.isDecaying();
+	}
+
+	/**
+	 * @return true if older clouds are still visible and will disappear as they expire
+	 */
+	public boolean hasExpiringSegments() {
+		return segments.hasExpiringSegments();
+	}
+
+	/**
+	 * Set the current transform from the cloud frame to the fixed frame. While decaying, older clouds are drawn relative to this pose so they stay fixed in the
+	 * world as their frame moves.
+	 * 
+	 * @param pose
+	 *            column major matrix, copied, or null if unknown. Must be called from the GL thread.
+	 */
+	public void setReferencePose(float[] pose) {
+		hasReference = (pose != null);
+		if(pose != null)
+			System.arraycopy(pose, 0, referencePose, 0, 16);
+	}
+
 	public synchronized void setData(sensor_msgs.PointCloud2 msg) {
-		drawCloud = false;
-		channelNames.clear();
-		this.fields = msg.getFields();
-		this.stride = msg.getPointStep();
-		pointCount = (msg.getData().capacity() / stride);
+		setData(msg, null);
+	}
 
-		Log.d("PointCloud", "Updated data with " + pointCount + " points. Data byte capacity is " + msg.getData().capacity() + " with offset " + msg.getData().arrayOffset());
-		arrayOffset = msg.getData().arrayOffset();
-		
-		synchronized(dataSync) {
-			if(data == null || data.capacity() < msg.getData().array().length) {
-				data = null;
-				data = Vertices.toByteBuffer(msg.getData().array());
-			} else {
-				data.position(0);
-				data.put(msg.getData().array());
-			}
-		}
+	/**
+	 * Copy the contents of a point cloud message into the back buffer and hand it off to the GL thread. If a voxel size is set, only one point per voxel,
+	 * at the centroid of the voxel's points, is written to the back buffer. The draw lock is never held while copying.
+	 * 
+	 * @param msg
+	 * @param arrivalPose
+	 *            transform from the message frame to the fixed frame at the time the message arrived, or null if unknown
+	 */
+	public void setData(sensor_msgs.PointCloud2 msg, Transform arrivalPose) {
+		setData(msg.getData(), PointFieldLayout.compile(msg.getFields(), msg.getPointStep()), arrivalPose);
+	}
 
-		for(PointField pf : fields) {
-			channelNames.add(pf.getName());
-			String name = pf.getName().toLowerCase();
-			if(name.equals("x"))
-				xOffset = arrayOffset + pf.getOffset();
-			else if(name.equals("y"))
-				yOffset = arrayOffset + pf.getOffset();
-			else if(name.equals("z"))
-				zOffset = arrayOffset + pf.getOffset();
+	/**
+	 * Copy a point cloud payload laid out as described by layout, as {@link #setData(sensor_msgs.PointCloud2, Transform)} does for a message
+	 */
+	synchronized void setData(ChannelBuffer msgData, PointFieldLayout layout, Transform arrivalPose) {
+		ByteBuffer src = DirectBufferPool.view(msgData);
+		int byteCount = src.remaining();
+		int pointCount = layout.pointCount(byteCount);
+
+		back.layout = layout;
+		float leafSize = voxelSize;
+		boolean filter = (leafSize > 0f && layout.hasFloatXYZ());
+		boolean index = (spatialIndex && layout.hasFloatXYZ());
+		if(filter || index)
+			back.ensureCapacity(byteCount, src.order());
+		if(filter && index) {
+			spare.ensureCapacity(byteCount, src.order());
+			int kept = voxelFilter.filter(src, layout, pointCount, leafSize, spare.data);
+			back.octree = octreeBuilder.build(spare.data, layout, kept, back.data);
+			back.pointCount = back.octree.getPointCount();
+		} else if(index) {
+			back.octree = octreeBuilder.build(src, layout, pointCount, back.data);
+			back.pointCount = back.octree.getPointCount();
+		} else if(filter) {
+			back.octree = null;
+			back.pointCount = voxelFilter.filter(src, layout, pointCount, leafSize, back.data);
+		} else {
+			// Unfiltered clouds are a single bulk copy straight from the message buffer
+			back.octree = null;
+			back.data = DirectBufferPool.ingest(msgData, back.data);
+			back.pointCount = pointCount;
 		}
-		
-		if(currentChannel >= fields.size()) {
+		back.data.position(0);
+		back.stamp = System.nanoTime();
+		back.pose = arrivalPose;
+		back.info = new SegmentInfo(layout, back.octree);
+
+		channelNames.clear();
+		channelNames.addAll(layout.getFieldNames());
+
+		if(currentChannel >= layout.getFieldCount()) {
 			currentChannel = 0;
 		}
 
-		data.position(0);
-		drawCloud = (pointCount > 0);
+		// Publish the filled buffer and take the stale pending buffer as the next back buffer
+		synchronized(swapSync) {
+			CloudBuffer tmp = pending;
+			pending = back;
+			back = tmp;
+			pendingIsNew = true;
+		}
 	}
 
 	/**
@@ -147,59 +317,19 @@ public class PointCloud2GL extends BaseShape {
 	 * @return two element float array [min, max]
 	 */
 	public float[] computeRange() {
-		if(fields == null || currentChannel < 0 || currentChannel >= fields.size())
-			return new float[] { 0f, 1f };
-
-		byte datatype = fields.get(currentChannel).getDatatype();
-		int offset = fields.get(currentChannel).getOffset();
-
-		double max = Float.NEGATIVE_INFINITY;
-		double min = Float.POSITIVE_INFINITY;
-		double val = 0;
+		float[] range = new float[] { 0f, 1f };
 
 		// Iterate through the data and find the range of the selected channel
 		synchronized(dataSync) {
-			for(int i = 0; i < pointCount; i++) {
-				int readPos = arrayOffset + offset + (i * stride);
-
-				switch(datatype) {
-				case PointField.FLOAT32:
-					val = data.getFloat(readPos);
-					break;
-				case PointField.FLOAT64:
-					val = data.getDouble(readPos);
-					break;
-				case PointField.INT8:
-					val = data.get(readPos);
-					break;
-				case PointField.INT16:
-					val = data.getInt(readPos) & 0x00ffff;
-					break;
-				case PointField.INT32:
-					val = data.getInt(readPos);
-					break;
-				case PointField.UINT8:
-					val = data.get(readPos) & 0xff;
-					break;
-				case PointField.UINT16:
-					val = data.getChar(readPos);
-					break;
-				case PointField.UINT32:
-					val = data.getInt(readPos) & 0xffffffffL;
-					break;
-				default:
-					val = 0;
-				}
-
-				max = Math.max(val, max);
-				min = Math.min(val, min);
-			}
+			PointFieldLayout layout = front.layout;
+			if(front.data == null || currentChannel < 0 || currentChannel >= layout.getFieldCount())
+				return range;
+			layout.getField(currentChannel).range(front.data, front.pointCount, range);
 		}
 
-		minVal = (float) min;
-		maxVal = (float) max;
-		Log.d("PointCloud2", "Computed data range: " + minVal + " -> " + maxVal);
-		return new float[] { (float) min, (float) max };
+		minVal = range[0];
+		maxVal = range[1];
+		return range;
 	}
 
 	public void setRange(float min, float max) {
@@ -207,41 +337,147 @@ public class PointCloud2GL extends BaseShape {
 		maxVal = max;
 	}
 
+	/**
+	 * If a new message has arrived since the last frame, swap it to the front and upload it into the segment ring. The old buffer contents are orphaned so the
+	 * driver doesn't need to wait for previous draw calls to complete before accepting the new data.
+	 */
+	private void uploadIfNew() {
+		synchronized(dataSync) {
+			synchronized(swapSync) {
+				if(!pendingIsNew)
+					return;
+				CloudBuffer tmp = front;
+				front = pending;
+				pending = tmp;
+				pendingIsNew = false;
+			}
+
+			int bytes = front.pointCount * front.getStride();
+			segments.push(front.data, bytes, front.pointCount, front.stamp, front.pose, front.info);
+			drawCloud = true;
+		}
+	}
+
 	@Override
 	public void draw(GL10 glUnused) {
+		if(cleanUp) {
+			clearBuffers();
+			return;
+		}
+
+		uploadIfNew();
+
 		if(drawCloud) {
-			synchronized(dataSync) {
-				super.draw(glUnused);
-
-				calcMVP();
-				GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-
-				GLES20.glEnableVertexAttribArray(ShaderVal.AX.loc);
-				data.position(xOffset);
-				GLES20.glVertexAttribPointer(ShaderVal.AX.loc, 1, GLES20.GL_FLOAT, false, stride, data);
-
-				GLES20.glEnableVertexAttribArray(ShaderVal.AY.loc);
-				data.position(yOffset);
-				GLES20.glVertexAttribPointer(ShaderVal.AY.loc, 1, GLES20.GL_FLOAT, false, stride, data);
-
-				GLES20.glEnableVertexAttribArray(ShaderVal.AZ.loc);
-				data.position(zOffset);
-				GLES20.glVertexAttribPointer(ShaderVal.AZ.loc, 1, GLES20.GL_FLOAT, false, stride, data);
-
-				if(flatColorMode) {
-					GLES20.glUniform1i(getUniform(ShaderVal.EXTRA), 1);
-					GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-				} else {
-					GLES20.glUniform1i(getUniform(ShaderVal.EXTRA), 0);
-					GLES20.glEnableVertexAttribArray(ShaderVal.A_EXTRA.loc);
-					data.position(drawOffset);
-					GLES20.glVertexAttribPointer(ShaderVal.A_EXTRA.loc, 1, GLES20.GL_FLOAT, false, stride, data);
-					GLES20.glUniform1f(getUniform(ShaderVal.EXTRA_2), minVal);
-					GLES20.glUniform1f(getUniform(ShaderVal.EXTRA_3), maxVal);
+			boolean packedColor = selectedIsPackedColor();
+			super.setProgram(packedColor ? rgbProgram : program);
+			super.draw(glUnused);
+
+			if(!packedColor) {
+				shader.setUniform(ShaderVal.EXTRA_2, minVal);
+				shader.setUniform(ShaderVal.EXTRA_3, maxVal);
+			}
+
+			// While decaying, segments are drawn relative to the current pose of the cloud frame
+			boolean decaying = segments.isDecaying() && hasReference && Mat4.invertAffine(inverseReference, referencePose);
+			long now = System.nanoTime();
+			segments.expire(now);
+
+			for(int i = 0; i < segments.size(); i++) {
+				int seg = segments.segment(i);
+				if(!segments.isLive(seg, now))
+					continue;
+				SegmentInfo info = (SegmentInfo) segments.getTag(seg);
+				if(segments.getPointCount(seg) <= 0 || !info.layout.hasGpuXYZ())
+					continue;
+
+				boolean relative = decaying && segments.getRelativePose(seg, inverseReference, relativePose);
+				if(relative) {
+					cam.pushM();
+					cam.applyTransform(relativePose);
 				}
+				drawSegment(seg, info, packedColor);
+				if(relative)
+					cam.popM();
+			}
+
+			GLES.glDisableVertexAttribArray(ShaderVal.A_EXTRA.loc);
+			GLES.glDisableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+			GLState.bindArrayBuffer(0);
+		}
+	}
+
+	/**
+	 * @return true if channel coloring is selected and the selected field of the newest cloud is a packed rgb color
+	 */
+	private boolean selectedIsPackedColor() {
+		int newest = segments.getNewest();
+		if(flatColorMode || newest < 0)
+			return false;
+		PointFieldLayout layout = ((SegmentInfo) segments.getTag(newest)).layout;
+		return currentChannel < layout.getFieldCount() && layout.getField(currentChannel).isPackedColor();
+	}
+
+	/**
+	 * Draw a single segment straight from the message payload. Each field is read as a vertex attribute of its own datatype, so no conversion is needed on
+	 * the CPU.
+	 */
+	private void drawSegment(int seg, SegmentInfo info, boolean packedColor) {
+		PointFieldLayout layout = info.layout;
+		int stride = layout.getPointStep();
+		FieldAccessor x = layout.getX();
+		FieldAccessor y = layout.getY();
+		FieldAccessor z = layout.getZ();
+
+		calcMVP();
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+
+		segments.bind(seg);
 
-				GLES20.glDrawArrays(GLES20.GL_POINTS, 0, pointCount);
+		GLES.glEnableVertexAttribArray(ShaderVal.AX.loc);
+		GLES.glVertexAttribPointer(ShaderVal.AX.loc, 1, x.getGlType(), false, stride, x.getOffset());
+
+		GLES.glEnableVertexAttribArray(ShaderVal.AY.loc);
+		GLES.glVertexAttribPointer(ShaderVal.AY.loc, 1, y.getGlType(), false, stride, y.getOffset());
+
+		GLES.glEnableVertexAttribArray(ShaderVal.AZ.loc);
+		GLES.glVertexAttribPointer(ShaderVal.AZ.loc, 1, z.getGlType(), false, stride, z.getOffset());
+
+		// Segments which don't contain a usable selected channel are drawn in the flat color
+		FieldAccessor channel = (!flatColorMode && currentChannel < layout.getFieldCount()) ? layout.getField(currentChannel) : null;
+		if(packedColor) {
+			if(channel != null && channel.isPackedColor()) {
+				GLES.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+				GLES.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 4, GLES20.GL_UNSIGNED_BYTE, true, stride, channel.getOffset());
+			} else {
+				// The shader swaps the byte order of the color, so the constant is given in b, g, r order
+				GLES.glDisableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+				GLES.glVertexAttrib4f(ShaderVal.ATTRIB_COLOR.loc, getColor().getBlue(), getColor().getGreen(), getColor().getRed(), getColor().getAlpha());
 			}
+		} else if(channel == null || !channel.isGpuReadable() || channel.isPackedColor()) {
+			shader.setUniform(ShaderVal.EXTRA, 1);
+			shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+			GLES.glDisableVertexAttribArray(ShaderVal.A_EXTRA.loc);
+		} else {
+			shader.setUniform(ShaderVal.EXTRA, 0);
+			GLES.glEnableVertexAttribArray(ShaderVal.A_EXTRA.loc);
+			GLES.glVertexAttribPointer(ShaderVal.A_EXTRA.loc, 1, channel.getGlType(), false, stride, channel.getOffset());
+		}
+
+		if(info.octree != null) {
+			Viewport viewport = cam.getViewport();
+			info.octree.draw(MVP, viewport.getProjectionMatrix()[5], viewport.getHeight());
+		} else {
+			GLES.glDrawArrays(GLES20.GL_POINTS, 0, segments.getPointCount(seg));
 		}
 	}
+
+	@Override
+	public void cleanup() {
+		cleanUp = true;
+	}
+
+	private void clearBuffers() {
+		segments.clear();
+		drawCloud = false;
+	}
 }
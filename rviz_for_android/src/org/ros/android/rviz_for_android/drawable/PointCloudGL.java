@@ -5,9 +5,9 @@
  * Willow Garage licenses this file to you under the Apache License,
  * Version 2.0 (the "License"); you may not use this file except in
  * compliance with the License.  You may obtain a copy of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
@@ -16,6 +16,7 @@
  */
 package org.ros.android.rviz_for_android.drawable;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,28 +24,64 @@ import java.util.List;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
-import org.ros.android.renderer.Utility;
-import org.ros.android.renderer.Vertices;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLState;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.android.renderer.DirectBufferPool;
 import org.ros.android.renderer.shapes.BaseShape;
+import org.ros.android.renderer.shapes.Cleanable;
 import org.ros.android.rviz_for_android.drawable.GLSLProgram.ShaderVal;
 import org.ros.android.rviz_for_android.drawable.PCShaders.ColorMode;
+import org.ros.rosjava_geometry.Transform;
 
+import geometry_msgs.Point32;
 import sensor_msgs.ChannelFloat32;
 import android.opengl.GLES20;
 import android.util.Log;
 
-public class PointCloudGL extends BaseShape {
-	// Point cloud data	
-	private FloatBuffer selectedChannelBuffer;
-	private static final float[][] DEFAULT_CHANNELS = new float[0][0];
-	private float[][] channels = DEFAULT_CHANNELS;
-	private float[] channelMin;
-	private float[] channelMax;
-	
+/**
+ * Draws a PointCloud message. Each cloud is packed as all of its positions followed by each of its channels and uploaded to a vertex buffer object in a
+ * {@link PointCloudSegmentRing}, so a decay time can keep previous clouds on screen without copying them again. Every channel is uploaded, so changing the
+ * selected channel only changes an attribute offset. CPU side buffers are pooled and reused between messages.
+ */
+public class PointCloudGL extends BaseShape implements Cleanable {
+
+	/**
+	 * A packed CPU side copy of a single cloud: 3*pointCount position floats followed by pointCount floats for each channel
+	 */
+	private static class CloudBuffer {
+		private ByteBuffer bytes;
+		private FloatBuffer data;
+		private int pointCount = 0;
+		private int channelCount = 0;
+		private long stamp;
+		private Transform pose;
+		// Range of each channel, computed while packing
+		private float[] channelMin = new float[0];
+		private float[] channelMax = new float[0];
+
+		private void ensureCapacity(int floats) {
+			if(data == null || data.capacity() < floats) {
+				Log.i("PointCloud", "Acquiring a new buffer!");
+				DirectBufferPool.release(bytes);
+				bytes = DirectBufferPool.acquire(floats * Float.SIZE / 8);
+				data = bytes.asFloatBuffer();
+			}
+			data.clear();
+		}
+
+		private void ensureRanges(int channels) {
+			if(channelMin.length < channels) {
+				channelMin = new float[channels];
+				channelMax = new float[channels];
+			}
+		}
+	}
+
 	private float minRange = 0f;
 	private float maxRange = 1f;
 	private boolean autoRange = true;
-	
+
 	public void setAutoRanging(boolean ar) {
 		autoRange = ar;
 	}
@@ -54,123 +91,291 @@ public class PointCloudGL extends BaseShape {
 		minRange = min;
 		maxRange = max;
 	}
-	
+
 	private int channelSelected = 0;
+	private int channelCount = 0;
 	private List<String> channelNames = new ArrayList<String>();
-	private FloatBuffer points;
-	private int cloudSize;
 	private volatile boolean drawCloud = false;
 	private ColorMode mode = ColorMode.FLAT_COLOR;
-	
+
+	// Triple buffering between the subscriber thread and the GL thread, as in PointCloud2GL
+	private CloudBuffer back = new CloudBuffer();
+	private CloudBuffer pending = new CloudBuffer();
+	private CloudBuffer front = new CloudBuffer();
+	private boolean pendingIsNew = false;
+	private final Object swapSync = new Object();
+
+	private final PointCloudSegmentRing segments = new PointCloudSegmentRing();
+	// Reference pose and the matrices derived from it, only touched on the GL thread
+	private final float[] referencePose = new float[16];
+	private final float[] inverseReference = new float[16];
+	private final float[] relativePose = new float[16];
+	private boolean hasReference = false;
+	private boolean cleanUp = false;
+
 	public PointCloudGL(Camera cam) {
 		super(cam);
 		super.setProgram(PCShaders.getProgram(mode));
 	}
-	
+
 	@Override
 	public void draw(GL10 glUnused) {
+		if(cleanUp) {
+			segments.clear();
+			drawCloud = false;
+			return;
+		}
+
+		uploadIfNew();
+
 		if(drawCloud) {
 			super.draw(glUnused);
-			
-			calcMVP();
-			
+
 			if(mode == ColorMode.CHANNEL) {
-				GLES20.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
-				GLES20.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 1, GLES20.GL_FLOAT, false, 0, selectedChannelBuffer);
-				if(autoRange) {
-					GLES20.glUniform1f(getUniform(ShaderVal.EXTRA), channelMin[channelSelected]);
-					GLES20.glUniform1f(getUniform(ShaderVal.EXTRA_2), channelMax[channelSelected]);
+				// Auto ranging uses the range of the newest cloud
+				if(autoRange && channelSelected < front.channelCount) {
+					GLES.glUniform1f(getUniform(ShaderVal.EXTRA), front.channelMin[channelSelected]);
+					GLES.glUniform1f(getUniform(ShaderVal.EXTRA_2), front.channelMax[channelSelected]);
 				} else {
-					GLES20.glUniform1f(getUniform(ShaderVal.EXTRA), minRange);
-					GLES20.glUniform1f(getUniform(ShaderVal.EXTRA_2), maxRange);
+					GLES.glUniform1f(getUniform(ShaderVal.EXTRA), minRange);
+					GLES.glUniform1f(getUniform(ShaderVal.EXTRA_2), maxRange);
+				}
+			} else {
+				shader.setUniform(ShaderVal.UNIFORM_COLOR, getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
+				GLES.glUniform1i(getUniform(ShaderVal.EXTRA), mode.extraInfo);
+			}
+
+			// While decaying, segments are drawn relative to the current pose of the cloud frame
+			boolean decaying = segments.isDecaying() && hasReference && Mat4.invertAffine(inverseReference, referencePose);
+			long now = System.nanoTime();
+			segments.expire(now);
+
+			for(int i = 0; i < segments.size(); i++) {
+				int seg = segments.segment(i);
+				if(!segments.isLive(seg, now) || segments.getPointCount(seg) <= 0)
+					continue;
+
+				boolean relative = decaying && segments.getRelativePose(seg, inverseReference, relativePose);
+				if(relative) {
+					cam.pushM();
+					cam.applyTransform(relativePose);
 				}
+				drawSegment(seg);
+				if(relative)
+					cam.popM();
+			}
+
+			GLState.bindArrayBuffer(0);
+		}
+	}
+
+	private void drawSegment(int seg) {
+		int count = segments.getPointCount(seg);
+		int segmentChannels = (Integer) segments.getTag(seg);
+
+		calcMVP();
+		shader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
+
+		segments.bind(seg);
+		if(mode == ColorMode.CHANNEL) {
+			// Segments without the selected channel are drawn at the bottom of the color range
+			if(channelSelected < segmentChannels) {
+				GLES.glEnableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
+				GLES.glVertexAttribPointer(ShaderVal.ATTRIB_COLOR.loc, 1, GLES20.GL_FLOAT, false, 0, (3 + channelSelected) * count * Float.SIZE / 8);
 			} else {
-				GLES20.glUniform4f(getUniform(ShaderVal.UNIFORM_COLOR), getColor().getRed(), getColor().getGreen(), getColor().getBlue(), getColor().getAlpha());
-				GLES20.glUniform1i(getUniform(ShaderVal.EXTRA), mode.extraInfo);
+				GLES.glDisableVertexAttribArray(ShaderVal.ATTRIB_COLOR.loc);
 			}
-			
-			GLES20.glUniformMatrix4fv(getUniform(ShaderVal.MVP_MATRIX), 1, false, MVP, 0);
-			GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-			GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, points);
-			GLES20.glDrawArrays(GLES20.GL_POINTS, 0, cloudSize);
 		}
+
+		GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+		GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, 0);
+		GLES.glDrawArrays(GLES20.GL_POINTS, 0, count);
+	}
+
+	/**
+	 * If a new cloud has arrived since the last frame, swap it to the front and upload it into the segment ring
+	 */
+	private void uploadIfNew() {
+		synchronized(swapSync) {
+			if(!pendingIsNew)
+				return;
+			CloudBuffer tmp = front;
+			front = pending;
+			pending = tmp;
+			pendingIsNew = false;
+		}
+		int floats = (3 + front.channelCount) * front.pointCount;
+		segments.push(front.data, floats * Float.SIZE / 8, front.pointCount, front.stamp, front.pose, front.channelCount);
+		drawCloud = true;
 	}
 
 	public void setData(float[] points, List<sensor_msgs.ChannelFloat32> channels) {
-		drawCloud = false;
+		setData(points, channels, null);
+	}
+
+	/**
+	 * Pack a cloud into the back buffer and hand it off to the GL thread.
+	 *
+	 * @param points
+	 *            packed x, y, z positions
+	 * @param channels
+	 * @param arrivalPose
+	 *            transform from the cloud frame to the fixed frame at the time the cloud arrived, or null if unknown
+	 */
+	public synchronized void setData(float[] points, List<sensor_msgs.ChannelFloat32> channels, Transform arrivalPose) {
 		if(points == null || points.length == 0) {
 			return;
 		}
-		
+		int pointCount = points.length / 3;
+		back.ensureCapacity((3 + channelCount(channels)) * pointCount);
+		back.data.put(points, 0, pointCount * 3);
+		packChannels(channels, pointCount, arrivalPose);
+	}
+
+	/**
+	 * Pack a PointCloud message into the back buffer and hand it off to the GL thread. Positions are written straight from the message points, so no
+	 * intermediate arrays are created.
+	 *
+	 * @param msg
+	 * @param arrivalPose
+	 *            transform from the cloud frame to the fixed frame at the time the cloud arrived, or null if unknown
+	 */
+	public synchronized void setData(sensor_msgs.PointCloud msg, Transform arrivalPose) {
+		List<Point32> points = msg.getPoints();
+		int pointCount = points.size();
+		if(pointCount == 0)
+			return;
+		back.ensureCapacity((3 + channelCount(msg.getChannels())) * pointCount);
+		FloatBuffer data = back.data;
+		for(Point32 p : points) {
+			data.put(p.getX());
+			data.put(p.getY());
+			data.put(p.getZ());
+		}
+		packChannels(msg.getChannels(), pointCount, arrivalPose);
+	}
+
+	private static int channelCount(List<ChannelFloat32> channels) {
+		return (channels == null) ? 0 : channels.size();
+	}
+
+	/**
+	 * Append each channel to the back buffer after its positions, computing the channel ranges in the same pass, then publish the back buffer
+	 */
+	private void packChannels(List<ChannelFloat32> channels, int pointCount, Transform arrivalPose) {
 		// Determine which channels of data are available
-		if(channels != null && channels.size() > 0) {
+		int newChannelCount = channelCount(channels);
+		back.ensureRanges(newChannelCount);
+		if(newChannelCount > 0) {
 			channelNames.clear();
-			channelMin = new float[channels.size()];
-			channelMax = new float[channels.size()];
-			this.channels = new float[channels.size()][points.length/3];
+			FloatBuffer data = back.data;
 			int idx = 0;
 			for(ChannelFloat32 cf : channels) {
 				channelNames.add(cf.getName());
-				this.channels[idx] = cf.getValues();
-				channelMin[idx] = Utility.arrayMin(this.channels[idx]);
-				channelMax[idx] = Utility.arrayMax(this.channels[idx]);
+				float[] values = cf.getValues();
+				int n = Math.min(values.length, pointCount);
+				float min = Float.POSITIVE_INFINITY;
+				float max = Float.NEGATIVE_INFINITY;
+				for(int i = 0; i < n; i++) {
+					float val = values[i];
+					if(val < min)
+						min = val;
+					if(val > max)
+						max = val;
+					data.put(val);
+				}
+				for(int i = n; i < pointCount; i++)
+					data.put(0f);
+				back.channelMin[idx] = min;
+				back.channelMax[idx] = max;
 				idx++;
 			}
-			selectedChannelBuffer = moveToBuffer(this.channels[channelSelected], selectedChannelBuffer);
 		} else {
 			// If no channels are available
-			this.channels = DEFAULT_CHANNELS;
 			mode = ColorMode.FLAT_COLOR;
 			channelSelected = 0;
 		}
-		
-		if(channelSelected > this.channels.length) {
+		channelCount = newChannelCount;
+
+		if(channelSelected >= channelCount) {
 			mode = ColorMode.FLAT_COLOR;
 			channelSelected = 0;
 		}
-		
-		this.points = moveToBuffer(points, this.points);
-		cloudSize = points.length / 3;
-		drawCloud = (cloudSize > 0);
-	}
-	
-	private FloatBuffer moveToBuffer(float[] points, FloatBuffer buffer) {
-		if(buffer == null || points.length > buffer.capacity()) {
-			Log.i("PointCloud","Allocating a new buffer!");
-			buffer = null;
-			buffer = Vertices.toFloatBuffer(points);
-		} else {
-			buffer.position(0);
-			buffer.put(points);
-			buffer.position(0);
+
+		back.data.position(0);
+		back.pointCount = pointCount;
+		back.channelCount = newChannelCount;
+		back.stamp = System.nanoTime();
+		back.pose = arrivalPose;
+
+		synchronized(swapSync) {
+			CloudBuffer tmp = pending;
+			pending = back;
+			back = tmp;
+			pendingIsNew = true;
 		}
-		return buffer;
 	}
-	
+
 	public void setChannelSelection(int selected) {
 		channelSelected = selected;
-		selectedChannelBuffer = Vertices.toFloatBuffer(channels[channelSelected]);
 	}
-	
+
 	public void setColorMode(int selected) {
 		this.mode = ColorMode.values()[selected];
 		if(PCShaders.getProgram(mode) != null)
 			super.setProgram(PCShaders.getProgram(mode));
-		
-		if(channelSelected > channels.length)
+
+		if(channelSelected >= channelCount)
 			channelSelected = 0;
-		
-		if(mode == ColorMode.CHANNEL && channels.length == 0) {
+
+		if(mode == ColorMode.CHANNEL && channelCount == 0) {
 			this.mode = ColorMode.FLAT_COLOR;
 			super.setProgram(PCShaders.getProgram(mode));
 		}
 	}
-	
+
+	/**
+	 * Set how long received clouds remain visible. A decay time of zero only draws the most recent cloud.
+	 *
+	 * @param seconds
+	 */
+	public void setDecayTime(float seconds) {
+		segments.setDecayTime(seconds);
+	}
+
+	public boolean isDecaying() {
+		return segments.isDecaying();
+	}
+
+	/**
+	 * @return true if older clouds are still visible and will disappear as they expire
+	 */
+	public boolean hasExpiringSegments() {
+		return segments.hasExpiringSegments();
+	}
+
+	/**
+	 * Set the current transform from the cloud frame to the fixed frame, used to place decaying clouds.
+	 *
+	 * @param pose
+	 *            column major matrix, copied, or null if unknown. Must be called from the GL thread.
+	 */
+	public void setReferencePose(float[] pose) {
+		hasReference = (pose != null);
+		if(pose != null)
+			System.arraycopy(pose, 0, referencePose, 0, 16);
+	}
+
 	public ColorMode getColorMode() {
 		return mode;
 	}
-	
+
 	public List<String> getChannelNames() {
 		return channelNames;
 	}
+
+	@Override
+	public void cleanup() {
+		cleanUp = true;
+	}
 }
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import org.ros.android.renderer.GLES;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import android.opengl.GLES20;
+
+/**
+ * An octree over a packed point cloud. Building the tree reorders the point records so that every node covers a contiguous range of points, and the points
+ * within each leaf are shuffled so any prefix of a leaf is a uniform subsample of it. Drawing walks the tree, skips nodes outside the view frustum and draws
+ * each visible leaf as a single ranged draw call with a point count scaled by its projected size on screen.
+ * <p>
+ * Trees are immutable once built. Use a {@link Builder} to create them, which reuses its scratch memory between clouds.
+ */
+public class PointCloudOctree {
+	private static final int LEAF_SIZE = 4096;
+	private static final int MAX_DEPTH = 12;
+	// Leaves are never drawn with fewer points than this
+	private static final int MIN_LOD_POINTS = 64;
+	// Points drawn per square pixel of a leaf's projected bounding sphere
+	private static final float POINTS_PER_PIXEL = 1f;
+
+	// Node storage. Children of a node are stored consecutively starting at firstChild.
+	private final float[] bounds; // minX, minY, minZ, maxX, maxY, maxZ per node
+	private final int[] start;
+	private final int[] count;
+	private final int[] firstChild;
+	private final int[] childCount;
+	private final int nodeCount;
+	private final int pointCount;
+
+	// Traversal scratch, only used on the GL thread
+	private final float[] planes = new float[24];
+	private int[] stack = new int[64];
+	private int drawCalls = 0;
+
+	private PointCloudOctree(Builder b) {
+		nodeCount = b.nodeCount;
+		pointCount = b.validPoints;
+		bounds = new float[nodeCount * 6];
+		start = new int[nodeCount];
+		count = new int[nodeCount];
+		firstChild = new int[nodeCount];
+		childCount = new int[nodeCount];
+		System.arraycopy(b.bounds, 0, bounds, 0, bounds.length);
+		System.arraycopy(b.start, 0, start, 0, nodeCount);
+		System.arraycopy(b.count, 0, count, 0, nodeCount);
+		System.arraycopy(b.firstChild, 0, firstChild, 0, nodeCount);
+		System.arraycopy(b.childCount, 0, childCount, 0, nodeCount);
+	}
+
+	/**
+	 * @return the number of points stored in the tree. Points with NaN coordinates are not included.
+	 */
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * @return the number of draw calls issued by the most recent call to {@link #draw(float[], float, int)}
+	 */
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**
+	 * Draw the visible parts of the tree from the currently bound vertex buffer. Vertex attributes must already be set up.
+	 *
+	 * @param mvp
+	 *            model-view-projection matrix of the cloud
+	 * @param projectionScale
+	 *            element [5] of the projection matrix, the focal length in normalized device units
+	 * @param viewportHeight
+	 *            height of the viewport in pixels
+	 */
+	public void draw(float[] mvp, float projectionScale, int viewportHeight) {
+		drawCalls = 0;
+		if(nodeCount == 0)
+			return;
+		extractPlanes(mvp);
+		final float pixelScale = projectionScale * viewportHeight * 0.5f;
+
+		// The stack holds node indices, negated for nodes already known to be fully inside the frustum
+		int top = 0;
+		stack[top++] = 1;
+		while(top > 0) {
+			int entry = stack[--top];
+			boolean inside = entry < 0;
+			int node = Math.abs(entry) - 1;
+
+			if(!inside) {
+				int cull = classify(node);
+				if(cull < 0)
+					continue;
+				inside = (cull > 0);
+			}
+
+			if(childCount[node] == 0) {
+				int n = lodCount(node, mvp, pixelScale);
+				GLES.glDrawArrays(GLES20.GL_POINTS, start[node], n);
+				drawCalls++;
+			} else {
+				if(stack.length < top + 8) {
+					int[] bigger = new int[stack.length * 2];
+					System.arraycopy(stack, 0, bigger, 0, top);
+					stack = bigger;
+				}
+				for(int c = 0; c < childCount[node]; c++) {
+					int child = firstChild[node] + c + 1;
+					stack[top++] = inside ? -child : child;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Scale the number of points drawn for a leaf by the area of its bounding sphere projected to the screen
+	 */
+	private int lodCount(int node, float[] m, float pixelScale) {
+		int b = node * 6;
+		float cx = (bounds[b] + bounds[b + 3]) * 0.5f;
+		float cy = (bounds[b + 1] + bounds[b + 4]) * 0.5f;
+		float cz = (bounds[b + 2] + bounds[b + 5]) * 0.5f;
+		float dx = bounds[b + 3] - bounds[b];
+		float dy = bounds[b + 4] - bounds[b + 1];
+		float dz = bounds[b + 5] - bounds[b + 2];
+		float radius = 0.5f * (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+		// Clip space w of the node center is its distance along the view axis
+		float w = m[3] * cx + m[7] * cy + m[11] * cz + m[15];
+		if(w <= radius)
+			return count[node];
+
+		float pixels = radius * pixelScale / w;
+		int target = (int) (pixels * pixels * POINTS_PER_PIXEL);
+		return Math.min(count[node], Math.max(target, MIN_LOD_POINTS));
+	}
+
+	/**
+	 * Extract the six frustum planes from a column major model-view-projection matrix. Planes are expressed in the model coordinates of the cloud.
+	 */
+	private void extractPlanes(float[] m) {
+		for(int i = 0; i < 3; i++) {
+			for(int s = 0; s < 2; s++) {
+				int p = (i * 2 + s) * 4;
+				float sign = (s == 0) ? 1f : -1f;
+				planes[p] = m[3] + sign * m[i];
+				planes[p + 1] = m[7] + sign * m[4 + i];
+				planes[p + 2] = m[11] + sign * m[8 + i];
+				planes[p + 3] = m[15] + sign * m[12 + i];
+			}
+		}
+	}
+
+	/**
+	 * @return -1 if the node is outside the frustum, 1 if it is entirely inside, and 0 if it intersects the frustum boundary
+	 */
+	private int classify(int node) {
+		int b = node * 6;
+		int result = 1;
+		for(int p = 0; p < 24; p += 4) {
+			float a = planes[p], bb = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+			// Corner furthest along the plane normal
+			float px = a > 0 ? bounds[b + 3] : bounds[b];
+			float py = bb > 0 ? bounds[b + 4] : bounds[b + 1];
+			float pz = c > 0 ? bounds[b + 5] : bounds[b + 2];
+			if(a * px + bb * py + c * pz + d < 0)
+				return -1;
+			// Corner nearest along the plane normal
+			float nx = a > 0 ? bounds[b] : bounds[b + 3];
+			float ny = bb > 0 ? bounds[b + 1] : bounds[b + 4];
+			float nz = c > 0 ? bounds[b + 2] : bounds[b + 5];
+			if(a * nx + bb * ny + c * nz + d < 0)
+				result = 0;
+		}
+		return result;
+	}
+
+	/**
+	 * Builds octrees, reusing its scratch arrays between clouds. Not thread safe.
+	 */
+	public static class Builder {
+		private final Random random = new Random(0);
+
+		private float[] xs = new float[0];
+		private float[] ys = new float[0];
+		private float[] zs = new float[0];
+		private int[] order = new int[0];
+		private int[] scratch = new int[0];
+		private int validPoints;
+
+		private float[] bounds = new float[6 * 64];
+		private int[] start = new int[64];
+		private int[] count = new int[64];
+		private int[] firstChild = new int[64];
+		private int[] childCount = new int[64];
+		private int nodeCount;
+
+		/**
+		 * Build a tree over a packed cloud, writing the reordered point records to dst.
+		 *
+		 * @param src
+		 *            message data, indexed from zero
+		 * @param layout
+		 *            layout of src, must have FLOAT32 x, y, and z fields
+		 * @param pointCount
+		 *            number of points in src
+		 * @param dst
+		 *            destination buffer, must have at least pointCount*pointStep bytes remaining
+		 * @return the tree. Its point count is the number of records written to dst.
+		 */
+		public PointCloudOctree build(ByteBuffer src, PointFieldLayout layout, int pointCount, ByteBuffer dst) {
+			if(!layout.hasFloatXYZ())
+				throw new IllegalArgumentException("Point layout must contain FLOAT32 x, y, and z fields!");
+
+			prepareScratch(pointCount);
+			layout.getX().extract(src, pointCount, xs, 0);
+			layout.getY().extract(src, pointCount, ys, 0);
+			layout.getZ().extract(src, pointCount, zs, 0);
+
+			// Gather valid points and the root bounds
+			float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+			validPoints = 0;
+			for(int i = 0; i < pointCount; i++) {
+				float x = xs[i], y = ys[i], z = zs[i];
+				if(x != x || y != y || z != z)
+					continue;
+				order[validPoints++] = i;
+				if(x < minX)
+					minX = x;
+				if(x > maxX)
+					maxX = x;
+				if(y < minY)
+					minY = y;
+				if(y > maxY)
+					maxY = y;
+				if(z < minZ)
+					minZ = z;
+				if(z > maxZ)
+					maxZ = z;
+			}
+
+			nodeCount = 0;
+			if(validPoints > 0) {
+				// Use a cube so children are cubes as well
+				float size = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+				int root = addNode(minX, minY, minZ, minX + size, minY + size, minZ + size, 0, validPoints);
+				subdivide(root, 0);
+			}
+
+			// Write the point records in tree order
+			int stride = layout.getPointStep();
+			boolean hasArray = src.hasArray();
+			ByteBuffer record = hasArray ? null : src.duplicate();
+			for(int i = 0; i < validPoints; i++) {
+				int base = order[i] * stride;
+				if(hasArray) {
+					dst.put(src.array(), src.arrayOffset() + base, stride);
+				} else {
+					record.limit(base + stride).position(base);
+					dst.put(record);
+				}
+			}
+
+			return new PointCloudOctree(this);
+		}
+
+		private void subdivide(int node, int depth) {
+			int lo = start[node];
+			int n = count[node];
+			if(n <= LEAF_SIZE || depth >= MAX_DEPTH) {
+				shuffle(lo, n);
+				return;
+			}
+
+			int b = node * 6;
+			float minX = bounds[b], minY = bounds[b + 1], minZ = bounds[b + 2];
+			float maxX = bounds[b + 3], maxY = bounds[b + 4], maxZ = bounds[b + 5];
+			float cx = (minX + maxX) * 0.5f, cy = (minY + maxY) * 0.5f, cz = (minZ + maxZ) * 0.5f;
+
+			// Counting sort of the node's points into octants
+			int[] octantCount = new int[8];
+			for(int i = lo; i < lo + n; i++)
+				octantCount[octant(order[i], cx, cy, cz)]++;
+			int[] octantStart = new int[8];
+			for(int o = 1; o < 8; o++)
+				octantStart[o] = octantStart[o - 1] + octantCount[o - 1];
+			int[] fill = octantStart.clone();
+			for(int i = lo; i < lo + n; i++) {
+				int idx = order[i];
+				scratch[lo + fill[octant(idx, cx, cy, cz)]++] = idx;
+			}
+			System.arraycopy(scratch, lo, order, lo, n);
+
+			// Allocate the non-empty children consecutively, then recurse into each
+			int first = nodeCount;
+			int children = 0;
+			for(int o = 0; o < 8; o++) {
+				if(octantCount[o] == 0)
+					continue;
+				float x0 = (o & 1) == 0 ? minX : cx, x1 = (o & 1) == 0 ? cx : maxX;
+				float y0 = (o & 2) == 0 ? minY : cy, y1 = (o & 2) == 0 ? cy : maxY;
+				float z0 = (o & 4) == 0 ? minZ : cz, z1 = (o & 4) == 0 ? cz : maxZ;
+				addNode(x0, y0, z0, x1, y1, z1, lo + octantStart[o], octantCount[o]);
+				children++;
+			}
+			firstChild[node] = first;
+			childCount[node] = children;
+			for(int c = 0; c < children; c++)
+				subdivide(first + c, depth + 1);
+		}
+
+		private int octant(int idx, float cx, float cy, float cz) {
+			return (xs[idx] >= cx ? 1 : 0) | (ys[idx] >= cy ? 2 : 0) | (zs[idx] >= cz ? 4 : 0);
+		}
+
+		private void shuffle(int lo, int n) {
+			for(int i = n - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = order[lo + i];
+				order[lo + i] = order[lo + j];
+				order[lo + j] = tmp;
+			}
+		}
+
+		private int addNode(float x0, float y0, float z0, float x1, float y1, float z1, int first, int n) {
+			if(nodeCount == start.length) {
+				int size = start.length * 2;
+				float[] newBounds = new float[size * 6];
+				System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+				bounds = newBounds;
+				start = grow(start, size);
+				count = grow(count, size);
+				firstChild = grow(firstChild, size);
+				childCount = grow(childCount, size);
+			}
+			int node = nodeCount++;
+			int b = node * 6;
+			bounds[b] = x0;
+			bounds[b + 1] = y0;
+			bounds[b + 2] = z0;
+			bounds[b + 3] = x1;
+			bounds[b + 4] = y1;
+			bounds[b + 5] = z1;
+			start[node] = first;
+			count[node] = n;
+			firstChild[node] = 0;
+			childCount[node] = 0;
+			return node;
+		}
+
+		private static int[] grow(int[] arr, int size) {
+			int[] bigger = new int[size];
+			System.arraycopy(arr, 0, bigger, 0, arr.length);
+			return bigger;
+		}
+
+		private void prepareScratch(int pointCount) {
+			if(xs.length < pointCount) {
+				xs = new float[pointCount];
+				ys = new float[pointCount];
+				zs = new float[pointCount];
+				order = new int[pointCount];
+				scratch = new int[pointCount];
+			}
+		}
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.GLState;
+import org.ros.android.renderer.math.Mat4;
+import org.ros.rosjava_geometry.Transform;
+
+import android.opengl.GLES20;
+
+/**
+ * A ring of vertex buffer objects used to accumulate point clouds over a decay time. Each received cloud is uploaded once into a segment of its own, along
+ * with the time it arrived and the pose of its frame at arrival. Drawing a segment is a single bind and draw call, no data is re-copied on the CPU.
+ * <p>
+ * Segments older than the decay time are dropped from the tail of the ring and their buffers kept as spares to hold the next clouds, up to one spare per
+ * slot of the ring, so a ring whose number of live segments wavers doesn't create and delete buffers. The ring grows with the number of segments live at once. Segments are tracked by {@link GLResourceManager}, and an evicted segment is dropped
+ * until a newer cloud replaces it. When the decay time is zero only a single segment is used and every new cloud replaces the previous one. All methods
+ * except {@link #setDecayTime(float)} must be called from the GL thread.
+ */
+public class PointCloudSegmentRing {
+	private static final int INITIAL_CAPACITY = 4;
+
+	private int[] vbo = new int[INITIAL_CAPACITY];
+	private int[] vboCapacity = new int[INITIAL_CAPACITY];
+	private GLResourceManager.Resource[] vboResource = new GLResourceManager.Resource[INITIAL_CAPACITY];
+	private long[] stamp = new long[INITIAL_CAPACITY];
+	private int[] pointCount = new int[INITIAL_CAPACITY];
+	// Arrival poses as column major matrices, allocated once per slot
+	private float[][] pose = new float[INITIAL_CAPACITY][16];
+	private boolean[] hasPose = new boolean[INITIAL_CAPACITY];
+	private Object[] tag = new Object[INITIAL_CAPACITY];
+
+	// Index of the newest segment and the number of segments currently holding data
+	private int head = -1;
+	private int size = 0;
+
+	// Buffers of expired segments, reused by the next pushes, the most recently expired last
+	private int[] spareVbo = new int[INITIAL_CAPACITY];
+	private int[] spareCapacity = new int[INITIAL_CAPACITY];
+	private GLResourceManager.Resource[] spareResource = new GLResourceManager.Resource[INITIAL_CAPACITY];
+	private int spareCount = 0;
+
+	private final int[] genBuffer = new int[1];
+
+	private volatile long decayNanos = 0;
+
+	private final GLResourceManager.EvictionListener evictionListener = new GLResourceManager.EvictionListener() {
+		@Override
+		public void onEvicted(GLResourceManager.Resource r) {
+			for(int i = 0; i < spareCount; i++) {
+				if(spareResource[i] == r) {
+					removeSpare(i);
+					return;
+				}
+			}
+			for(int i = 0; i < vbo.length; i++) {
+				if(vboResource[i] == r) {
+					vbo[i] = 0;
+					vboCapacity[i] = 0;
+					vboResource[i] = null;
+					pointCount[i] = 0;
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param seconds
+	 *            how long a cloud remains visible after a newer one has arrived. Zero shows only the most recent cloud.
+	 */
+	public void setDecayTime(float seconds) {
+		decayNanos = (long) (Math.max(seconds, 0f) * 1e9);
+	}
+
+	public boolean isDecaying() {
+		return decayNanos > 0;
+	}
+
+	/**
+	 * @return true if any segment other than the newest is still visible, so the drawn cloud will change as it expires
+	 */
+	public boolean hasExpiringSegments() {
+		return isDecaying() && size > 1;
+	}
+
+	/**
+	 * Upload a cloud into a new segment after dropping expired segments. The buffer of an expired segment is reused if there is one.
+	 *
+	 * @param data
+	 *            vertex data, read from position zero
+	 * @param bytes
+	 *            number of bytes of data to upload
+	 * @param points
+	 *            number of points described by data
+	 * @param arrivalTime
+	 *            time the cloud arrived, from {@link System#nanoTime()}
+	 * @param arrivalPose
+	 *            transform from the cloud's frame to the fixed frame at arrival, or null if unknown
+	 * @param segmentTag
+	 *            owner defined data describing the layout of the segment
+	 * @return the index of the segment written to
+	 */
+	public int push(Buffer data, int bytes, int points, long arrivalTime, Transform arrivalPose, Object segmentTag) {
+		// Without decay the newest segment is dropped too, so its buffer is reused for the new cloud
+		expire(arrivalTime, !isDecaying());
+		if(size == vbo.length)
+			grow();
+
+		int seg = (head + 1) % vbo.length;
+		head = seg;
+		size++;
+
+		if(spareCount > 0) {
+			int spare = spareCount - 1;
+			vbo[seg] = spareVbo[spare];
+			vboCapacity[seg] = spareCapacity[spare];
+			vboResource[seg] = spareResource[spare];
+			removeSpare(spare);
+		} else {
+			GLES.glGenBuffers(1, genBuffer, 0);
+			vbo[seg] = genBuffer[0];
+			vboCapacity[seg] = 0;
+			vboResource[seg] = GLResourceManager.track(GLResourceManager.Type.BUFFER, vbo[seg], 0, this, evictionListener);
+		}
+
+		data.position(0);
+		GLState.bindArrayBuffer(vbo[seg]);
+		if(bytes > vboCapacity[seg]) {
+			GLES.glBufferData(GLES20.GL_ARRAY_BUFFER, bytes, data, GLES20.GL_STREAM_DRAW);
+			vboCapacity[seg] = bytes;
+			GLResourceManager.resize(vboResource[seg], bytes);
+		} else {
+			GLES.glBufferData(GLES20.GL_ARRAY_BUFFER, vboCapacity[seg], null, GLES20.GL_STREAM_DRAW);
+			GLES.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes, data);
+			GLResourceManager.markUsed(vboResource[seg]);
+		}
+		GLState.bindArrayBuffer(0);
+
+		stamp[seg] = arrivalTime;
+		pointCount[seg] = points;
+		hasPose[seg] = (arrivalPose != null);
+		if(arrivalPose != null)
+			Mat4.setTransform(pose[seg], arrivalPose);
+		tag[seg] = segmentTag;
+		return seg;
+	}
+
+	/**
+	 * Drop segments which are older than the decay time at time now, oldest first. The newest segment is kept.
+	 */
+	public void expire(long now) {
+		expire(now, false);
+	}
+
+	private void expire(long now, boolean dropNewest) {
+		long decay = decayNanos;
+		while(size > 0) {
+			int oldest = segment(0);
+			if(oldest == head && !dropNewest)
+				break;
+			if(oldest != head && decay > 0 && now - stamp[oldest] <= decay)
+				break;
+			release(oldest);
+			size--;
+		}
+		if(size == 0)
+			head = -1;
+	}
+
+	// Keep the segment's buffer as a spare, or delete it if there is a spare for every slot
+	private void release(int seg) {
+		if(vbo[seg] != 0) {
+			if(spareCount < spareVbo.length) {
+				spareVbo[spareCount] = vbo[seg];
+				spareCapacity[spareCount] = vboCapacity[seg];
+				spareResource[spareCount] = vboResource[seg];
+				spareCount++;
+			} else {
+				GLResourceManager.delete(vboResource[seg]);
+			}
+		}
+		vbo[seg] = 0;
+		vboCapacity[seg] = 0;
+		vboResource[seg] = null;
+		pointCount[seg] = 0;
+		hasPose[seg] = false;
+		tag[seg] = null;
+	}
+
+	// Fill the gap left by a spare with the last one
+	private void removeSpare(int i) {
+		spareCount--;
+		spareVbo[i] = spareVbo[spareCount];
+		spareCapacity[i] = spareCapacity[spareCount];
+		spareResource[i] = spareResource[spareCount];
+		spareVbo[spareCount] = 0;
+		spareCapacity[spareCount] = 0;
+		spareResource[spareCount] = null;
+	}
+
+	// Double the capacity, unrolling the segments so the oldest is at index zero
+	private void grow() {
+		int capacity = vbo.length * 2;
+		int[] newVbo = new int[capacity];
+		int[] newVboCapacity = new int[capacity];
+		GLResourceManager.Resource[] newVboResource = new GLResourceManager.Resource[capacity];
+		long[] newStamp = new long[capacity];
+		int[] newPointCount = new int[capacity];
+		float[][] newPose = new float[capacity][];
+		boolean[] newHasPose = new boolean[capacity];
+		Object[] newTag = new Object[capacity];
+		for(int i = 0; i < size; i++) {
+			int seg = segment(i);
+			newVbo[i] = vbo[seg];
+			newVboCapacity[i] = vboCapacity[seg];
+			newVboResource[i] = vboResource[seg];
+			newStamp[i] = stamp[seg];
+			newPointCount[i] = pointCount[seg];
+			newPose[i] = pose[seg];
+			newHasPose[i] = hasPose[seg];
+			newTag[i] = tag[seg];
+		}
+		// Only called when every slot is in use, so the upper half is all new
+		for(int i = size; i < capacity; i++)
+			newPose[i] = new float[16];
+		vbo = newVbo;
+		vboCapacity = newVboCapacity;
+		vboResource = newVboResource;
+		stamp = newStamp;
+		pointCount = newPointCount;
+		pose = newPose;
+		hasPose = newHasPose;
+		tag = newTag;
+		head = size - 1;
+		spareVbo = Arrays.copyOf(spareVbo, capacity);
+		spareCapacity = Arrays.copyOf(spareCapacity, capacity);
+		spareResource = Arrays.copyOf(spareResource, capacity);
+	}
+
+	/**
+	 * @return the number of segments holding data. Segments which expired since the last push or {@link #expire(long)} are included.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i
+	 *            age order of the segment, zero is the oldest and size()-1 the newest
+	 * @return the segment index of the i-th oldest segment
+	 */
+	public int segment(int i) {
+		return (head - (size - 1) + i + vbo.length) % vbo.length;
+	}
+
+	/**
+	 * @return true if the segment should be drawn at time now. The newest segment never expires. Evicted segments are never live.
+	 */
+	public boolean isLive(int seg, long now) {
+		if(vbo[seg] == 0)
+			return false;
+		if(seg == head)
+			return size > 0;
+		return isDecaying() && (now - stamp[seg]) <= decayNanos;
+	}
+
+	public int getNewest() {
+		return head;
+	}
+
+	/**
+	 * Bind the segment's vertex buffer as the array buffer
+	 */
+	public void bind(int seg) {
+		GLResourceManager.markUsed(vboResource[seg]);
+		GLState.bindArrayBuffer(vbo[seg]);
+	}
+
+	public int getPointCount(int seg) {
+		return pointCount[seg];
+	}
+
+	/**
+	 * Set result to the segment's arrival pose relative to a reference, reference * pose, without allocating
+	 *
+	 * @return false if the segment's arrival pose is unknown, in which case result is left unchanged
+	 */
+	public boolean getRelativePose(int seg, float[] reference, float[] result) {
+		if(!hasPose[seg])
+			return false;
+		Mat4.multiplyMM(result, reference, pose[seg]);
+		return true;
+	}
+
+	public Object getTag(int seg) {
+		return tag[seg];
+	}
+
+	/**
+	 * Delete all vertex buffers held by the ring
+	 */
+	public void clear() {
+		for(int i = 0; i < vbo.length; i++) {
+			GLResourceManager.delete(vboResource[i]);
+			vboResource[i] = null;
+			vbo[i] = 0;
+			vboCapacity[i] = 0;
+			pointCount[i] = 0;
+			hasPose[i] = false;
+			tag[i] = null;
+		}
+		while(spareCount > 0) {
+			GLResourceManager.delete(spareResource[spareCount - 1]);
+			removeSpare(spareCount - 1);
+		}
+		head = -1;
+		size = 0;
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import sensor_msgs.PointField;
+import android.opengl.GLES20;
+
+/**
+ * A compiled description of a PointCloud2 point layout. Each field is given an accessor for its datatype and offset, which decodes every point of a cloud
+ * in a tight loop. Layouts are immutable and cached by their point step and fields, including each field's count, so clouds from the same
+ * sensor share a single instance.
+ */
+public final class PointFieldLayout {
+
+	/**
+	 * Reads a single field of every point in a packed buffer as a float. Indices passed to accessors are point indices, not byte indices. The datatype
+	 * is fixed for the accessor, so the switch on it in each loop is invariant and the JIT compiler hoists it out of the loop.
+	 */
+	public static final class FieldAccessor {
+		protected final String name;
+		protected final byte datatype;
+		protected final int offset;
+		protected final int stride;
+
+		private FieldAccessor(String name, byte datatype, int offset, int stride) {
+			this.name = name;
+			this.datatype = datatype;
+			this.offset = offset;
+			this.stride = stride;
+		}
+
+		// The value of a field of a datatype at a byte position of data. Unknown datatypes read as zero.
+		private static float read(ByteBuffer data, int pos, byte datatype) {
+			switch(datatype) {
+			case PointField.FLOAT32:
+				return data.getFloat(pos);
+			case PointField.FLOAT64:
+				return (float) data.getDouble(pos);
+			case PointField.INT8:
+				return data.get(pos);
+			case PointField.UINT8:
+				return data.get(pos) & 0xff;
+			case PointField.INT16:
+				return data.getShort(pos);
+			case PointField.UINT16:
+				return data.getChar(pos);
+			case PointField.INT32:
+				return data.getInt(pos);
+			case PointField.UINT32:
+				return data.getInt(pos) & 0xffffffffL;
+			default:
+				return 0f;
+			}
+		}
+
+		/**
+		 * @param data
+		 *            packed point data, indexed from zero
+		 * @param point
+		 *            index of the point to read
+		 * @return the value of this field for the point
+		 */
+		public float get(ByteBuffer data, int point) {
+			return read(data, offset + point * stride, datatype);
+		}
+
+		/**
+		 * Copy this field of the first pointCount points into out starting at outOffset.
+		 */
+		public void extract(ByteBuffer data, int pointCount, float[] out, int outOffset) {
+			byte type = datatype;
+			int readPos = offset;
+			for(int i = 0; i < pointCount; i++, readPos += stride)
+				out[outOffset + i] = read(data, readPos, type);
+		}
+
+		/**
+		 * Copy this field of the first pointCount points into out at its current position. The position of out is advanced by pointCount.
+		 */
+		public void extract(ByteBuffer data, int pointCount, FloatBuffer out) {
+			byte type = datatype;
+			int readPos = offset;
+			for(int i = 0; i < pointCount; i++, readPos += stride)
+				out.put(read(data, readPos, type));
+		}
+
+		/**
+		 * Compute the range of this field over the first pointCount points. NaN values are ignored.
+		 *
+		 * @param minMax
+		 *            two element array which receives [min, max]
+		 * @return false if there are no points or every value is NaN, in which case minMax is left unchanged
+		 */
+		public boolean range(ByteBuffer data, int pointCount, float[] minMax) {
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			byte type = datatype;
+			int readPos = offset;
+			for(int i = 0; i < pointCount; i++, readPos += stride) {
+				float val = read(data, readPos, type);
+				if(val < min)
+					min = val;
+				if(val > max)
+					max = val;
+			}
+			if(min > max)
+				return false;
+			minMax[0] = min;
+			minMax[1] = max;
+			return true;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public byte getDatatype() {
+			return datatype;
+		}
+
+		/**
+		 * @return the byte offset of this field within a point
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the GL vertex attribute type which reads this field directly from the packed data, or zero if OpenGL ES can't read the datatype
+		 */
+		public int getGlType() {
+			switch(datatype) {
+			case PointField.FLOAT32:
+				return GLES20.GL_FLOAT;
+			case PointField.INT8:
+				return GLES20.GL_BYTE;
+			case PointField.UINT8:
+				return GLES20.GL_UNSIGNED_BYTE;
+			case PointField.INT16:
+				return GLES20.GL_SHORT;
+			case PointField.UINT16:
+				return GLES20.GL_UNSIGNED_SHORT;
+			default:
+				return 0;
+			}
+		}
+
+		public boolean isGpuReadable() {
+			return getGlType() != 0;
+		}
+
+		/**
+		 * @return true if this field is an rgb or rgba color packed into four bytes
+		 */
+		public boolean isPackedColor() {
+			String lower = name.toLowerCase();
+			boolean fourBytes = (datatype == PointField.FLOAT32 || datatype == PointField.UINT32 || datatype == PointField.INT32);
+			return fourBytes && (lower.equals("rgb") || lower.equals("rgba"));
+		}
+	}
+
+	// Compiled layout cache, most recently used first. Sensors rarely change layout, so a handful of entries is plenty and a linear scan is cheaper
+	// than building a key for every message.
+	private static final int CACHE_SIZE = 8;
+	private static final List<PointFieldLayout> cache = new ArrayList<PointFieldLayout>(CACHE_SIZE);
+
+	/**
+	 * Get the compiled layout for a list of point fields, compiling and caching it if it hasn't been seen before. Looking up a cached layout doesn't
+	 * allocate.
+	 *
+	 * @param fields
+	 *            the fields of a PointCloud2 message
+	 * @param pointStep
+	 *            the size in bytes of a single point
+	 * @return the compiled layout
+	 */
+	public static PointFieldLayout compile(List<PointField> fields, int pointStep) {
+		synchronized(cache) {
+			for(int i = 0; i < cache.size(); i++) {
+				PointFieldLayout layout = cache.get(i);
+				if(layout.matches(fields, pointStep)) {
+					if(i > 0) {
+						cache.remove(i);
+						cache.add(0, layout);
+					}
+					return layout;
+				}
+			}
+
+			int n = fields.size();
+			String[] names = new String[n];
+			int[] offsets = new int[n];
+			byte[] datatypes = new byte[n];
+			int[] counts = new int[n];
+			for(int i = 0; i < n; i++) {
+				PointField pf = fields.get(i);
+				names[i] = pf.getName();
+				offsets[i] = pf.getOffset();
+				datatypes[i] = pf.getDatatype();
+				counts[i] = pf.getCount();
+			}
+			PointFieldLayout layout = new PointFieldLayout(names, offsets, datatypes, counts, pointStep);
+			if(cache.size() == CACHE_SIZE)
+				cache.remove(CACHE_SIZE - 1);
+			cache.add(0, layout);
+			return layout;
+		}
+	}
+
+	/**
+	 * Compile a layout from field descriptions, for points which don't come from a PointCloud2 message. The layout isn't cached.
+	 */
+	public static PointFieldLayout compile(String[] names, int[] offsets, byte[] datatypes, int[] counts, int pointStep) {
+		return new PointFieldLayout(names.clone(), offsets.clone(), datatypes.clone(), counts.clone(), pointStep);
+	}
+
+	private final int pointStep;
+	private final String[] fieldNames;
+	private final int[] offsets;
+	private final byte[] datatypes;
+	private final int[] counts;
+	private final List<FieldAccessor> accessors;
+	private final List<String> names;
+	private final FieldAccessor x;
+	private final FieldAccessor y;
+	private final FieldAccessor z;
+	private final FieldAccessor intensity;
+	private final FieldAccessor rgb;
+
+	private PointFieldLayout(String[] fieldNames, int[] offsets, byte[] datatypes, int[] counts, int pointStep) {
+		this.pointStep = pointStep;
+		this.fieldNames = fieldNames;
+		this.offsets = offsets;
+		this.datatypes = datatypes;
+		this.counts = counts;
+		List<FieldAccessor> accessors = new ArrayList<FieldAccessor>(fieldNames.length);
+		FieldAccessor x = null, y = null, z = null, intensity = null, rgb = null;
+		for(int i = 0; i < fieldNames.length; i++) {
+			FieldAccessor fa = new FieldAccessor(fieldNames[i], datatypes[i], offsets[i], pointStep);
+			accessors.add(fa);
+
+			String name = fieldNames[i].toLowerCase();
+			if(name.equals("x"))
+				x = fa;
+			else if(name.equals("y"))
+				y = fa;
+			else if(name.equals("z"))
+				z = fa;
+			else if(name.equals("intensity"))
+				intensity = fa;
+			else if(name.equals("rgb") || name.equals("rgba"))
+				rgb = fa;
+		}
+		this.accessors = Collections.unmodifiableList(accessors);
+		this.names = Collections.unmodifiableList(Arrays.asList(fieldNames));
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.intensity = intensity;
+		this.rgb = rgb;
+	}
+
+	/**
+	 * @return true if this layout was compiled from the same point step and fields, compared by name, offset, datatype and count
+	 */
+	private boolean matches(List<PointField> fields, int pointStep) {
+		if(pointStep != this.pointStep || fields.size() != fieldNames.length)
+			return false;
+		for(int i = 0; i < fieldNames.length; i++) {
+			PointField pf = fields.get(i);
+			if(pf.getOffset() != offsets[i] || pf.getDatatype() != datatypes[i] || pf.getCount() != counts[i] || !pf.getName().equals(fieldNames[i]))
+				return false;
+		}
+		return true;
+	}
+
+	public int getPointStep() {
+		return pointStep;
+	}
+
+	public int getFieldCount() {
+		return accessors.size();
+	}
+
+	public FieldAccessor getField(int idx) {
+		return accessors.get(idx);
+	}
+
+	public List<String> getFieldNames() {
+		return names;
+	}
+
+	/**
+	 * @return true if the layout contains x, y, and z fields stored as FLOAT32
+	 */
+	public boolean hasFloatXYZ() {
+		return x != null && y != null && z != null && x.datatype == PointField.FLOAT32 && y.datatype == PointField.FLOAT32 && z.datatype == PointField.FLOAT32;
+	}
+
+	/**
+	 * @return true if the layout contains x, y, and z fields in datatypes which can be read directly as vertex attributes
+	 */
+	public boolean hasGpuXYZ() {
+		return x != null && y != null && z != null && x.isGpuReadable() && y.isGpuReadable() && z.isGpuReadable();
+	}
+
+	/**
+	 * @return the number of complete points in a buffer of the given size
+	 */
+	public int pointCount(int byteCount) {
+		return (pointStep > 0) ? (byteCount / pointStep) : 0;
+	}
+
+	public FieldAccessor getX() {
+		return x;
+	}
+
+	public FieldAccessor getY() {
+		return y;
+	}
+
+	public FieldAccessor getZ() {
+		return z;
+	}
+
+	public FieldAccessor getIntensity() {
+		return intensity;
+	}
+
+	public FieldAccessor getRgb() {
+		return rgb;
+	}
+}
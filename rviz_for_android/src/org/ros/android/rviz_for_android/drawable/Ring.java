@@ -19,6 +19,7 @@ package org.ros.android.rviz_for_android.drawable;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.renderer.shapes.TriangleStripShape;
 
@@ -92,9 +93,9 @@ public class Ring extends TriangleStripShape {
 
 	@Override
 	public void draw(GL10 glUnused) {
-		GLES20.glDisable(GLES20.GL_CULL_FACE);
+		GLES.glDisable(GLES20.GL_CULL_FACE);
 		super.draw(glUnused);
-		GLES20.glEnable(GLES20.GL_CULL_FACE);
+		GLES.glEnable(GLES20.GL_CULL_FACE);
 	}
 
 }
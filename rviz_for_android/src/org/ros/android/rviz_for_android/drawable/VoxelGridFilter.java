@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.drawable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decimates a packed point cloud to one point per cubic voxel of a given leaf size, placed at the centroid of the voxel's points. The other fields of the
+ * output point, such as color, are copied from the first point which fell in the voxel. Coordinates are extracted in bulk through a compiled
+ * {@link PointFieldLayout}, so no intermediate per-point objects are created. Instances reuse their internal tables between calls and are not thread
+ * safe.
+ */
+public class VoxelGridFilter {
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final int KEY_BITS = 21;
+	private static final int KEY_MASK = (1 << KEY_BITS) - 1;
+	private static final int KEY_BIAS = 1 << (KEY_BITS - 1);
+
+	private long[] occupied = new long[0];
+	// Output point index of each occupied slot
+	private int[] slotPoint = new int[0];
+	private int mask = 0;
+
+	// Coordinate sums and point counts of each output point
+	private float[] sumX = new float[0];
+	private float[] sumY = new float[0];
+	private float[] sumZ = new float[0];
+	private int[] counts = new int[0];
+
+	// Scratch coordinate arrays, extracted in bulk before hashing
+	private float[] xs = new float[0];
+	private float[] ys = new float[0];
+	private float[] zs = new float[0];
+
+	/**
+	 * Filter a packed point cloud.
+	 *
+	 * @param src
+	 *            message data. Indices are relative to the start of this buffer
+	 * @param layout
+	 *            compiled layout of src, must have FLOAT32 x, y, and z fields
+	 * @param pointCount
+	 *            number of points in src
+	 * @param leafSize
+	 *            voxel edge length in meters, must be greater than zero
+	 * @param dst
+	 *            destination buffer, must have at least pointCount*pointStep bytes remaining
+	 * @return the number of points written to dst
+	 */
+	public int filter(ByteBuffer src, PointFieldLayout layout, int pointCount, float leafSize, ByteBuffer dst) {
+		if(leafSize <= 0f)
+			throw new IllegalArgumentException("Leaf size must be greater than zero!");
+		if(!layout.hasFloatXYZ())
+			throw new IllegalArgumentException("Point layout must contain FLOAT32 x, y, and z fields!");
+
+		prepareTable(pointCount);
+		prepareScratch(pointCount);
+		layout.getX().extract(src, pointCount, xs, 0);
+		layout.getY().extract(src, pointCount, ys, 0);
+		layout.getZ().extract(src, pointCount, zs, 0);
+
+		final float inverseLeaf = 1f / leafSize;
+		final int stride = layout.getPointStep();
+		final boolean hasArray = src.hasArray();
+		final ByteBuffer record = hasArray ? null : src.duplicate();
+		final int dstStart = dst.position();
+
+		int kept = 0;
+		for(int i = 0; i < pointCount; i++) {
+			float x = xs[i];
+			float y = ys[i];
+			float z = zs[i];
+
+			// Skip invalid points, organized clouds use NaN for missing returns
+			if(x != x || y != y || z != z)
+				continue;
+
+			long key = voxelKey(x * inverseLeaf, y * inverseLeaf, z * inverseLeaf);
+			int point = insert(key, kept);
+			sumX[point] += x;
+			sumY[point] += y;
+			sumZ[point] += z;
+			counts[point]++;
+			if(point == kept) {
+				int base = i * stride;
+				if(hasArray) {
+					dst.put(src.array(), src.arrayOffset() + base, stride);
+				} else {
+					record.limit(base + stride).position(base);
+					dst.put(record);
+				}
+				kept++;
+			}
+		}
+
+		// Move each output point to the centroid of its voxel
+		final int xOffset = layout.getX().getOffset();
+		final int yOffset = layout.getY().getOffset();
+		final int zOffset = layout.getZ().getOffset();
+		for(int i = 0; i < kept; i++) {
+			int base = dstStart + i * stride;
+			float n = counts[i];
+			dst.putFloat(base + xOffset, sumX[i] / n);
+			dst.putFloat(base + yOffset, sumY[i] / n);
+			dst.putFloat(base + zOffset, sumZ[i] / n);
+		}
+		return kept;
+	}
+
+	private void prepareScratch(int pointCount) {
+		if(xs.length < pointCount) {
+			xs = new float[pointCount];
+			ys = new float[pointCount];
+			zs = new float[pointCount];
+			sumX = new float[pointCount];
+			sumY = new float[pointCount];
+			sumZ = new float[pointCount];
+			counts = new int[pointCount];
+		} else {
+			Arrays.fill(sumX, 0, pointCount, 0f);
+			Arrays.fill(sumY, 0, pointCount, 0f);
+			Arrays.fill(sumZ, 0, pointCount, 0f);
+			Arrays.fill(counts, 0, pointCount, 0);
+		}
+	}
+
+	private static long voxelKey(float x, float y, float z) {
+		long ix = ((int) Math.floor(x) + KEY_BIAS) & KEY_MASK;
+		long iy = ((int) Math.floor(y) + KEY_BIAS) & KEY_MASK;
+		long iz = ((int) Math.floor(z) + KEY_BIAS) & KEY_MASK;
+		return (ix << (2 * KEY_BITS)) | (iy << KEY_BITS) | iz;
+	}
+
+	/**
+	 * Size the open addressing table to keep the load factor under one half and clear it
+	 */
+	private void prepareTable(int pointCount) {
+		int capacity = Integer.highestOneBit(Math.max(pointCount, 8) * 2 - 1) << 1;
+		if(occupied.length < capacity) {
+			occupied = new long[capacity];
+			slotPoint = new int[capacity];
+			mask = capacity - 1;
+		}
+		Arrays.fill(occupied, EMPTY);
+	}
+
+	/**
+	 * @param nextPoint
+	 *            the output point index to give the key if it isn't already present in the table
+	 * @return the output point index of the key
+	 */
+	private int insert(long key, int nextPoint) {
+		int slot = mix(key) & mask;
+		while(true) {
+			long existing = occupied[slot];
+			if(existing == EMPTY) {
+				occupied[slot] = key;
+				slotPoint[slot] = nextPoint;
+				return nextPoint;
+			} else if(existing == key) {
+				return slotPoint[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private static int mix(long key) {
+		key ^= (key >>> 33);
+		key *= 0xff51afd7ed558ccdL;
+		key ^= (key >>> 33);
+		return (int) key;
+	}
+}
@@ -17,6 +17,7 @@
 package org.ros.android.rviz_for_android.layers;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.FrameProfiler.Metric;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.renderer.layer.SubscriberLayer;
 import org.ros.message.MessageListener;
@@ -37,7 +38,10 @@ public abstract class EditableSubscriberLayer<T extends org.ros.internal.message
 		@Override
 		public void onNewMessage(T msg) {
 			messageCount ++;
+			long start = System.nanoTime();
 			onMessageReceived(msg);
+			camera.getFrameProfiler().record(EditableSubscriberLayer.this, Metric.MESSAGE, System.nanoTime() - start);
+			requestRender();
 		}
 	};
 	
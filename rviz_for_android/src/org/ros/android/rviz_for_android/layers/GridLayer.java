@@ -23,6 +23,8 @@ import java.nio.ShortBuffer;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.GLES;
+import org.ros.android.renderer.GLState;
 import org.ros.android.renderer.Vertices;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.renderer.layer.DefaultLayer;
@@ -115,7 +117,6 @@ public class GridLayer extends DefaultLayer implements LayerWithProperties, TfLa
 		
 		initGrid();
 		gridShader = GLSLProgram.FlatColor();
-		uniformHandles = gridShader.getUniformHandles();
 	}
 
 	@Override
@@ -192,7 +193,6 @@ public class GridLayer extends DefaultLayer implements LayerWithProperties, TfLa
 
 	Color drawColor = new Color(1f, 1f, 1f, 1f);
 	
-	private int[] uniformHandles;
 	private float[] MVP = new float[16];
 	
 	private void calcMVP() {
@@ -202,25 +202,24 @@ public class GridLayer extends DefaultLayer implements LayerWithProperties, TfLa
 	
 	@Override
 	public void draw(GL10 glUnused) {
-		if(!gridShader.isCompiled()) {
+		if(!gridShader.isCompiled())
 			gridShader.compile(glUnused);
-			uniformHandles = gridShader.getUniformHandles();
-		}
 			
 		if(prop.getValue() && ready) {
 			camera.pushM();
 			camera.translateM(xOffset, yOffset, zOffset);
 			calcMVP();
 			gridShader.use(glUnused);
+			GLState.bindArrayBuffer(0);
 			
-			GLES20.glUniform4f(uniformHandles[ShaderVal.UNIFORM_COLOR.loc], drawColor.getRed(), drawColor.getGreen(), drawColor.getBlue(), drawColor.getAlpha());
+			gridShader.setUniform(ShaderVal.UNIFORM_COLOR, drawColor.getRed(), drawColor.getGreen(), drawColor.getBlue(), drawColor.getAlpha());
 			
-			GLES20.glUniformMatrix4fv(uniformHandles[ShaderVal.MVP_MATRIX.loc], 1, false, MVP,0);
+			gridShader.setUniformMatrix(ShaderVal.MVP_MATRIX, MVP);
 			
-			GLES20.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
-			GLES20.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vbb);
+			GLES.glEnableVertexAttribArray(ShaderVal.POSITION.loc);
+			GLES.glVertexAttribPointer(ShaderVal.POSITION.loc, 3, GLES20.GL_FLOAT, false, 0, vbb);
 			
-			GLES20.glDrawElements(GLES20.GL_LINES, 2*nLines, GLES20.GL_UNSIGNED_SHORT, ibb);
+			GLES.glDrawElements(GLES20.GL_LINES, 2*nLines, GLES20.GL_UNSIGNED_SHORT, ibb);
 			camera.popM();
 		}
 	}
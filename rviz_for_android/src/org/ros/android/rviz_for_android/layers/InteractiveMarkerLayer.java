@@ -23,6 +23,7 @@ import java.util.Set;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.DrawQueue;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.renderer.layer.DefaultLayer;
 import org.ros.android.renderer.layer.Selectable;
@@ -143,6 +144,7 @@ public class InteractiveMarkerLayer extends DefaultLayer implements LayerWithPro
 						Log.e("InteractiveMarker", "Didn't have a marker with name " + p.getName());
 					}
 				}
+				requestRender();
 			}
 
 			@Override
@@ -152,6 +154,7 @@ public class InteractiveMarkerLayer extends DefaultLayer implements LayerWithPro
 					for(visualization_msgs.InteractiveMarker im : msg.getMarkers())
 						markers.put(im.getName(), new InteractiveMarker(im, camera, ftt, pubCallback));
 				}
+				requestRender();
 			}
 
 			@Override
@@ -160,6 +163,7 @@ public class InteractiveMarkerLayer extends DefaultLayer implements LayerWithPro
 					markers.clear();
 					camera.getSelectionManager().clearSelection();
 				}
+				requestRender();
 			}
 		});
 		prop.addSubProperty(propTopic);
@@ -168,8 +172,12 @@ public class InteractiveMarkerLayer extends DefaultLayer implements LayerWithPro
 	@Override
 	public void draw(GL10 glUnused) {
 		synchronized(lockObject) {
+			// Like plain markers, the shapes of every control are drawn sorted by GL state
+			DrawQueue queue = camera.getDrawQueue();
+			queue.begin();
 			for(InteractiveMarker marker : markers.values())
 				marker.draw(glUnused);
+			queue.flush(glUnused);
 		}
 	}
 
@@ -18,31 +18,43 @@ package org.ros.android.rviz_for_android.layers;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.opengles.GL10;
 
 import nav_msgs.OccupancyGrid;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.DirectBufferPool;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.renderer.layer.TfLayer;
-import org.ros.android.renderer.shapes.TexturedTrianglesShape;
 import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
+import org.ros.android.rviz_for_android.drawable.ETC1TileCache;
+import org.ros.android.rviz_for_android.drawable.MapTile;
+import org.ros.android.rviz_for_android.drawable.MapTilePyramid;
+import org.ros.android.rviz_for_android.drawable.OccupancyGridConverter;
+import org.ros.android.rviz_for_android.drawable.OccupancyGridConverter.TileListener;
+import org.ros.android.rviz_for_android.drawable.OccupancyPalette;
+import org.ros.android.rviz_for_android.drawable.PaletteTile;
 import org.ros.android.rviz_for_android.drawable.Plane;
+import org.ros.android.rviz_for_android.prop.BoolProperty;
+import org.ros.android.rviz_for_android.prop.IntProperty;
 import org.ros.android.rviz_for_android.prop.LayerWithProperties;
+import org.ros.android.rviz_for_android.prop.ListProperty;
 import org.ros.android.rviz_for_android.prop.Property;
+import org.ros.android.rviz_for_android.prop.Property.PropertyUpdateListener;
 import org.ros.android.rviz_for_android.prop.ReadOnlyProperty.StatusColor;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.Node;
 import org.ros.rosjava_geometry.FrameTransformTree;
-import org.ros.rosjava_geometry.Quaternion;
-import org.ros.rosjava_geometry.Transform;
-import org.ros.rosjava_geometry.Vector3;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -58,13 +70,30 @@ public class MapLayer extends EditableStatusSubscriberLayer<nav_msgs.OccupancyGr
 
 	private static int MAX_TEXTURE_WIDTH = 1024;
 	private static int MAX_TEXTURE_HEIGHT = 1024;
+	private static final long TILE_CACHE_BYTES = 64L * 1024 * 1024;
+	private static final int DEFAULT_TEXTURE_BUDGET_MB = 64;
+	private static final String[] COLOR_SCHEMES = new String[] { "Map", "Costmap", "Raw" };
 
 	private int wTileCount;
 	private int hTileCount;
-	private float wTileScale;
-	private float hTileScale;
 
-	private Plane[][] tiles;
+	private volatile MapTilePyramid pyramid;
+	private volatile long textureBudget = DEFAULT_TEXTURE_BUDGET_MB * 1024L * 1024L;
+	// Tiles which have been replaced and need their textures deleted on the GL thread
+	private final List<MapTile> retiredTiles = new ArrayList<MapTile>();
+
+	// Palette colored tiles are built instead of compressed tiles when enabled
+	private final OccupancyPalette palette;
+	private volatile boolean usePaletteShader = false;
+	private boolean paletteTiles = false;
+
+	// Copy of the cells shown by the current tiles, used to find the tiles changed by a new message
+	private ByteBuffer mapCells;
+	private int mapWidth = -1;
+	private int mapHeight = -1;
+	private float mapResolution;
+	// Downsampled cells for each level of the pyramid above level zero
+	private ByteBuffer[] levelCells = new ByteBuffer[0];
 
 	private volatile boolean isReady = false;
 
@@ -73,10 +102,54 @@ public class MapLayer extends EditableStatusSubscriberLayer<nav_msgs.OccupancyGr
 	private OccupancyGrid mostRecent;
 
 	private FrameTransformTree frameTransformTree;
-	
+
+	// Maps are tiled and encoded on a worker thread so the current tiles stay visible meanwhile. Only the most recent unprocessed message is kept.
+	private final ExecutorService worker = Executors.newSingleThreadExecutor();
+	private final AtomicReference<OccupancyGrid> nextMap = new AtomicReference<OccupancyGrid>();
+	private final Runnable processMap = new Runnable() {
+		@Override
+		public void run() {
+			OccupancyGrid msg = nextMap.getAndSet(null);
+			if(msg != null)
+				updateMap(msg);
+		}
+	};
+
 	public MapLayer(Camera cam, GraphName topicName, Context context) {
 		super(topicName, nav_msgs.OccupancyGrid._TYPE, cam);
 		this.context = context;
+		tileCache = new ETC1TileCache(context.getDir("map_tiles", Context.MODE_PRIVATE), TILE_CACHE_BYTES);
+		converter.setCache(tileCache);
+
+		prop.addSubProperty(new IntProperty("Texture Memory (MB)", DEFAULT_TEXTURE_BUDGET_MB, new PropertyUpdateListener<Integer>() {
+			@Override
+			public void onPropertyChanged(Integer newval) {
+				textureBudget = newval * 1024L * 1024L;
+				MapTilePyramid current = pyramid;
+				if(current != null)
+					current.setMemoryBudget(textureBudget);
+			}
+		}).setValidRange(4, 1024));
+
+		palette = new OccupancyPalette(context);
+		final ListProperty propColorScheme = new ListProperty("Color Scheme", 0, new PropertyUpdateListener<Integer>() {
+			@Override
+			public void onPropertyChanged(Integer newval) {
+				palette.setScheme(OccupancyPalette.Scheme.values()[newval]);
+				requestRender();
+			}
+		}).setList(COLOR_SCHEMES);
+		propColorScheme.setVisible(false);
+		prop.addSubProperty(new BoolProperty("Palette Shader", false, new PropertyUpdateListener<Boolean>() {
+			@Override
+			public void onPropertyChanged(Boolean newval) {
+				usePaletteShader = newval;
+				propColorScheme.setVisible(newval);
+				if(mostRecent != null && nextMap.getAndSet(mostRecent) == null)
+					worker.execute(processMap);
+			}
+		}));
+		prop.addSubProperty(propColorScheme);
 	}
 
 	@Override
@@ -91,136 +164,369 @@ public class MapLayer extends EditableStatusSubscriberLayer<nav_msgs.OccupancyGr
 	@Override
 	protected void onMessageReceived(OccupancyGrid msg) {
 		super.onMessageReceived(msg);
-		
-		statusController.setFrameChecking(false);
-		statusController.setStatus("Map loading...", StatusColor.OK);
+
 		mostRecent = msg;
-		isReady = false;
-		generateMapTiles(msg);
-		isReady = true;
-		updateStatus(frameTransformTree, camera);
+		if(nextMap.getAndSet(msg) == null)
+			worker.execute(processMap);
 	}
-	
-	private void updateStatus(FrameTransformTree frameTransformTree, Camera camera) {
-		if(!isReady) {
-			statusController.setStatus("No map exists!", StatusColor.ERROR);
+
+	private synchronized void updateMap(OccupancyGrid msg) {
+		if(canUpdateInPlace(msg)) {
+			updateChangedTiles(msg);
 		} else {
-			statusController.setFrameChecking(true);
+			if(!isReady) {
+				statusController.setFrameChecking(false);
+				statusController.setStatus("Map loading...", StatusColor.OK);
+			}
+			generateMapTiles(msg);
+			isReady = true;
 		}
+		updateStatus(frameTransformTree, camera);
+		buildLevels();
 	}
 
-	private Bitmap mapImage;
-	private Bitmap tileImage;
-	private Canvas canvas;
-
-	private void generateMapTiles(OccupancyGrid msg) {
-		int u = msg.getInfo().getWidth();
-		int v = msg.getInfo().getHeight();
-		float density = msg.getInfo().getResolution();
-
-		wTileCount = (u / MAX_TEXTURE_WIDTH) + 1;
-		hTileCount = (v / MAX_TEXTURE_HEIGHT) + 1;
+	/**
+	 * Apply a partial update to the current map, such as the block carried by a map_msgs/OccupancyGridUpdate message. The block is copied into the stored
+	 * map cells and only the tiles overlapping it are re-encoded and uploaded, without comparing the rest of the map.
+	 *
+	 * @param x
+	 *            column of the first updated cell
+	 * @param y
+	 *            row of the first updated cell
+	 * @param width
+	 *            width of the updated block in cells
+	 * @param height
+	 *            height of the updated block in cells
+	 * @param data
+	 *            width*height cells in row major order, indexed from zero
+	 */
+	public synchronized void applyUpdate(int x, int y, int width, int height, ByteBuffer data) {
+		if(mapCells == null || pyramid == null)
+			return;
+		int first = Math.max(x, 0);
+		int last = Math.min(x + width, mapWidth);
+		if(first >= last)
+			return;
+
+		boolean[][] dirty = new boolean[hTileCount][wTileCount];
+		ByteBuffer src = data.duplicate();
+		ByteBuffer dst = mapCells.duplicate();
+		for(int row = 0; row < height; row++) {
+			int v = y + row;
+			if(v < 0 || v >= mapHeight)
+				continue;
+			src.limit(row * width + (last - x)).position(row * width + (first - x));
+			dst.limit(v * mapWidth + last).position(v * mapWidth + first);
+			dst.put(src);
+			for(int col = first / MAX_TEXTURE_WIDTH; col <= (last - 1) / MAX_TEXTURE_WIDTH; col++)
+				dirty[v / MAX_TEXTURE_HEIGHT][col] = true;
+		}
+		reencodeTiles(dirty);
+	}
 
-		wTileScale = density * MAX_TEXTURE_WIDTH;
-		hTileScale = density * MAX_TEXTURE_HEIGHT;
+	private boolean canUpdateInPlace(OccupancyGrid msg) {
+		return pyramid != null && mapCells != null && !testLayerName() && paletteTiles == usePaletteShader && msg.getInfo().getWidth() == mapWidth && msg.getInfo().getHeight() == mapHeight
+				&& msg.getInfo().getResolution() == mapResolution;
+	}
 
-		Log.d("Map", "Tile grid is " + wTileCount + " x " + hTileCount + " with " + wTileScale + " x " + hTileScale + " tiles.");
+	/**
+	 * Compare a new map against the cells shown by the current tiles and re-encode only the tiles which differ
+	 */
+	private void updateChangedTiles(OccupancyGrid msg) {
+		ByteBuffer cells = DirectBufferPool.view(msg.getData());
+		boolean[][] dirty = new boolean[hTileCount][wTileCount];
+		for(int v = 0; v < mapHeight; v++) {
+			int row = v / MAX_TEXTURE_HEIGHT;
+			for(int col = 0; col < wTileCount; col++) {
+				int u0 = col * MAX_TEXTURE_WIDTH;
+				int count = Math.min(MAX_TEXTURE_WIDTH, mapWidth - u0);
+				if(!dirty[row][col] && count > 0 && !rangeEquals(mapCells, cells, v * mapWidth + u0, count))
+					dirty[row][col] = true;
+			}
+		}
+		mapCells = DirectBufferPool.ingest(msg.getData(), mapCells);
+		reencodeTiles(dirty);
+	}
 
-		tiles = new Plane[hTileCount][wTileCount];
+	private static boolean rangeEquals(ByteBuffer a, ByteBuffer b, int start, int count) {
+		int end = start + count;
+		int i = start;
+		for(; i + 8 <= end; i += 8)
+			if(a.getLong(i) != b.getLong(i))
+				return false;
+		for(; i < end; i++)
+			if(a.get(i) != b.get(i))
+				return false;
+		return true;
+	}
 
-		initTextures(u, v, msg.getData().array());
+	/**
+	 * Rebuild the selected full resolution tiles from the stored map cells, then the tiles covering them at each built level of the pyramid. Each tile keeps
+	 * its GL texture and receives its new contents as soon as they're ready.
+	 */
+	private void reencodeTiles(boolean[][] dirty) {
+		MapTilePyramid current = pyramid;
+		for(int level = 0; level < current.getReadyLevelCount(); level++) {
+			if(level > 0) {
+				dirty = parentTiles(dirty, MapTilePyramid.getRows(hTileCount, level), MapTilePyramid.getRows(wTileCount, level));
+				downsampleTiles(level, dirty);
+			}
+			makeTiles(current, level, getCells(level), getLevelWidth(level), getLevelHeight(level), dirty, current.getLevel(level), true);
+		}
+	}
 
-		for(int col = 0; col < wTileCount; col++) {
-			for(int row = 0; row < hTileCount; row++) {
-				tiles[row][col] = new Plane(super.camera, getTileTexture(row, col));
-				Transform tileTransform = new Transform(new Vector3(wTileScale * col, hTileScale * row, 0), Quaternion.identity());
-				tiles[row][col].setTransform(tileTransform);
-				tiles[row][col].setScale(wTileScale, hTileScale);
-				tiles[row][col].setTextureSmoothing(TexturedTrianglesShape.TextureSmoothing.Nearest);
+	/**
+	 * Create or update the selected tiles of one level of a pyramid, either compressed or palette colored depending on the kind of tiles the pyramid holds
+	 *
+	 * @param replace
+	 *            true to give new contents to the existing tiles, false to create new tiles
+	 */
+	private void makeTiles(final MapTilePyramid target, final int level, ByteBuffer cells, int width, int height, boolean[][] selected, final MapTile[][] tiles,
+			final boolean replace) {
+		if(paletteTiles) {
+			for(int row = 0; row < selected.length; row++) {
+				for(int col = 0; col < selected[row].length; col++) {
+					if(!selected[row][col])
+						continue;
+					ByteBuffer tileCells = converter.copyTile(cells, width, height, row, col, OccupancyPalette.OUTSIDE);
+					if(replace)
+						((PaletteTile) tiles[row][col]).replaceCells(tileCells);
+					else
+						tiles[row][col] = target.createTile(level, row, col, tileCells, palette);
+				}
 			}
+		} else {
+			converter.encode(cells, width, height, selected, new TileListener() {
+				@Override
+				public void onTileReady(int row, int col, ETC1Texture tex) {
+					if(replace)
+						((Plane) tiles[row][col]).replaceTexture(tex);
+					else
+						tiles[row][col] = target.createTile(level, row, col, tex);
+					if(replace)
+						requestRender();
+				}
+			});
 		}
+		if(replace)
+			requestRender();
 	}
 
-	private static final int BLACK = Color.argb(255, 0, 0, 0);
-	private static final Paint paint = new Paint();
+	private static boolean[][] allTiles(int rows, int cols) {
+		boolean[][] retval = new boolean[rows][cols];
+		for(boolean[] row : retval)
+			Arrays.fill(row, true);
+		return retval;
+	}
+
+	private static boolean[][] parentTiles(boolean[][] children, int rows, int cols) {
+		boolean[][] retval = new boolean[rows][cols];
+		for(int row = 0; row < children.length; row++)
+			for(int col = 0; col < children[row].length; col++)
+				if(children[row][col])
+					retval[row / 2][col / 2] = true;
+		return retval;
+	}
 
 	/**
-	 * Currently this uses ETC1 compressed textures with black for any unused portions of the tile. Transparency isn't supported by ETC1 compression, which is the only compression mode guaranteed to work on all Android devices with OpenGL ES 2.0 support
+	 * Build the levels of the pyramid above level zero. Stops early if a newer map is waiting, the remaining levels are built after it's handled.
 	 */
-	private ETC1Texture getTileTexture(int row, int col) {
-		// Fill the tile with black (background color)
-		canvas.clipRect(0, 0, canvas.getWidth(), canvas.getHeight());
-		canvas.drawColor(BLACK);
-
-		// Copy the section of the map image into the tile
-		int top = mapImage.getHeight() - Math.min((row + 1) * MAX_TEXTURE_HEIGHT, mapImage.getHeight());
-		int bottom = mapImage.getHeight() - row * MAX_TEXTURE_HEIGHT;
-		int left = col * MAX_TEXTURE_WIDTH;
-		int right = Math.min(left + MAX_TEXTURE_WIDTH, mapImage.getWidth());
+	private void buildLevels() {
+		final MapTilePyramid current = pyramid;
+		if(current == null || mapWidth < 0)
+			return;
+		for(int level = current.getReadyLevelCount(); level < current.getLevelCount(); level++) {
+			if(nextMap.get() != null)
+				return;
+
+			int rows = MapTilePyramid.getRows(hTileCount, level);
+			int cols = MapTilePyramid.getRows(wTileCount, level);
+			int width = getLevelWidth(level);
+			int height = getLevelHeight(level);
+			if(levelCells[level] == null || levelCells[level].capacity() < width * height) {
+				DirectBufferPool.release(levelCells[level]);
+				levelCells[level] = DirectBufferPool.acquire(width * height);
+			}
+			downsample(getCells(level - 1), getLevelWidth(level - 1), getLevelHeight(level - 1), levelCells[level], width, 0, 0, width, height);
 
-		Rect src = new Rect(left, top, right, bottom);
-		Rect dst = new Rect(0, 0, src.width(), src.height());
-		dst.offset(0, MAX_TEXTURE_HEIGHT - dst.height());
+			MapTile[][] tiles = new MapTile[rows][cols];
+			makeTiles(current, level, levelCells[level], width, height, allTiles(rows, cols), tiles, false);
+			current.addLevel(tiles);
+		}
+		requestRender();
+	}
 
-		canvas.drawBitmap(mapImage, src, dst, paint);
+	private ByteBuffer getCells(int level) {
+		return (level == 0) ? mapCells : levelCells[level];
+	}
 
-		// Compress the tile
-		return compressBitmap(tileImage);
+	private int getLevelWidth(int level) {
+		return (mapWidth + (1 << level) - 1) >> level;
 	}
 
-	private ETC1Texture compressBitmap(Bitmap uncompressedBitmap) {
-		// Copy the bitmap to a byte buffer
-		ByteBuffer uncompressedBytes = ByteBuffer.allocateDirect(uncompressedBitmap.getByteCount()).order(ByteOrder.nativeOrder());
-		uncompressedBitmap.copyPixelsToBuffer(uncompressedBytes);
-		uncompressedBytes.position(0);
+	private int getLevelHeight(int level) {
+		return (mapHeight + (1 << level) - 1) >> level;
+	}
 
-		int width = uncompressedBitmap.getWidth();
-		int height = uncompressedBitmap.getHeight();
+	/**
+	 * Recompute the downsampled cells covered by the selected tiles of a level
+	 */
+	private void downsampleTiles(int level, boolean[][] selected) {
+		int width = getLevelWidth(level);
+		int height = getLevelHeight(level);
+		for(int row = 0; row < selected.length; row++) {
+			for(int col = 0; col < selected[row].length; col++) {
+				if(selected[row][col]) {
+					int u0 = col * MAX_TEXTURE_WIDTH;
+					int v0 = row * MAX_TEXTURE_HEIGHT;
+					downsample(getCells(level - 1), getLevelWidth(level - 1), getLevelHeight(level - 1), levelCells[level], width, u0, v0,
+							Math.min(u0 + MAX_TEXTURE_WIDTH, width), Math.min(v0 + MAX_TEXTURE_HEIGHT, height));
+				}
+			}
+		}
+	}
 
-		// Compress the texture
-		int encodedSize = ETC1.getEncodedDataSize(width, height);
-		ByteBuffer compressed = ByteBuffer.allocateDirect(encodedSize).order(ByteOrder.nativeOrder());
-		ETC1.encodeImage(uncompressedBytes, width, height, 2, 2 * width, compressed);
+	/**
+	 * Halve the resolution of the cells in [u0, u1) x [v0, v1) of dst from src. Occupied cells take priority over free cells, which take priority over
+	 * unknown cells, so walls and explored space remain visible when zoomed out.
+	 */
+	private static void downsample(ByteBuffer src, int srcWidth, int srcHeight, ByteBuffer dst, int dstWidth, int u0, int v0, int u1, int v1) {
+		for(int v = v0; v < v1; v++) {
+			for(int u = u0; u < u1; u++) {
+				byte best = src.get(2 * v * srcWidth + 2 * u);
+				for(int i = 1; i < 4; i++) {
+					int su = 2 * u + (i & 1);
+					int sv = 2 * v + (i >> 1);
+					if(su < srcWidth && sv < srcHeight) {
+						byte b = src.get(sv * srcWidth + su);
+						if(priority(b) > priority(best))
+							best = b;
+					}
+				}
+				dst.put(v * dstWidth + u, best);
+			}
+		}
+	}
 
-		ETC1Texture retval = new ETC1Texture(width, height, compressed);
+	private static int priority(byte occupancy) {
+		if(occupancy == 100)
+			return 2;
+		if(occupancy == 0)
+			return 1;
+		return 0;
+	}
 
-		return retval;
+	private void updateStatus(FrameTransformTree frameTransformTree, Camera camera) {
+		if(!isReady) {
+			statusController.setStatus("No map exists!", StatusColor.ERROR);
+		} else {
+			statusController.setFrameChecking(true);
+		}
 	}
 
-	private void initTextures(int width, int height, byte[] data) {
-		if(mapImage != null)
-			mapImage.recycle();
-		if(tileImage != null)
-			tileImage.recycle();
+	private final OccupancyGridConverter converter = new OccupancyGridConverter(MAX_TEXTURE_WIDTH);
+	private final ETC1TileCache tileCache;
+
+	/**
+	 * Build a complete new set of tiles. The previous tiles are drawn until every new tile is ready and are then retired.
+	 * <p>
+	 * Tiles use ETC1 compressed textures with black for any unused portions of the tile. Transparency isn't supported by ETC1 compression, which is the only
+	 * compression mode guaranteed to work on all Android devices with OpenGL ES 2.0 support.
+	 */
+	private void generateMapTiles(OccupancyGrid msg) {
+		int u = msg.getInfo().getWidth();
+		int v = msg.getInfo().getHeight();
+		float density = msg.getInfo().getResolution();
+
+		wTileCount = (u / MAX_TEXTURE_WIDTH) + 1;
+		hTileCount = (v / MAX_TEXTURE_HEIGHT) + 1;
 
-		// Map image must be stored using 2 bytes/pixel because of compression constraints
-		mapImage = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-		tileImage = Bitmap.createBitmap(MAX_TEXTURE_WIDTH, MAX_TEXTURE_HEIGHT, Bitmap.Config.RGB_565);
-		canvas = new android.graphics.Canvas(tileImage);
+		// The hidden image isn't occupancy data, so it's always compressed
+		paletteTiles = usePaletteShader && !testLayerName();
+		int tileBytes = paletteTiles ? MAX_TEXTURE_WIDTH * MAX_TEXTURE_HEIGHT : ETC1.getEncodedDataSize(MAX_TEXTURE_WIDTH, MAX_TEXTURE_HEIGHT);
+		final MapTilePyramid next = new MapTilePyramid(camera, MAX_TEXTURE_WIDTH, density, hTileCount, wTileCount, tileBytes, textureBudget);
+		Log.d("Map", "Tile grid is " + wTileCount + " x " + hTileCount + " with " + next.getTileSize(0) + " m tiles and " + next.getLevelCount() + " levels.");
 
-		// Copy the message data into a bitmap, flipping vertically
+		final MapTile[][] building = new MapTile[hTileCount][wTileCount];
 		if(!testLayerName()) {
-			for(int u = 0; u < width; u++) {
-				for(int v = 0; v < height; v++) {
-					int color = data[v * width + u];
-					if(color == 100)
-						color = 0;
-					else if(color == 0)
-						color = 255;
-					else
-						color = 127;
-
-					mapImage.setPixel(u, height - v - 1, Color.argb(255, color, color, color));
+			makeTiles(next, 0, DirectBufferPool.view(msg.getData()), u, v, allTiles(hTileCount, wTileCount), building, false);
+			mapCells = DirectBufferPool.ingest(msg.getData(), mapCells);
+			mapWidth = u;
+			mapHeight = v;
+			mapResolution = density;
+			for(ByteBuffer cells : levelCells)
+				DirectBufferPool.release(cells);
+			levelCells = new ByteBuffer[next.getLevelCount()];
+		} else {
+			converter.encode(loadHiddenTiles(), new TileListener() {
+				@Override
+				public void onTileReady(int row, int col, ETC1Texture tex) {
+					building[row][col] = next.createTile(0, row, col, tex);
 				}
+			});
+			mapWidth = -1;
+			mapHeight = -1;
+		}
+
+		next.addLevel(building);
+		MapTilePyramid previous = pyramid;
+		pyramid = next;
+		if(previous != null)
+			retireTiles(previous.getTiles());
+		requestRender();
+	}
+
+	private void retireTiles(List<MapTile> retired) {
+		synchronized(retiredTiles) {
+			for(MapTile p : retired) {
+				p.cleanup();
+				retiredTiles.add(p);
 			}
-		} else {
-			AssetManager am = context.getAssets();
-			try {
-				mapImage = BitmapFactory.decodeStream(am.open("hidden.dat"));
-			} catch(IOException e) {
-				e.printStackTrace();
+		}
+	}
+
+	private static final int BLACK = Color.argb(255, 0, 0, 0);
+	private static final Paint paint = new Paint();
+
+	/**
+	 * Cut the hidden image into RGB565 tiles, in the same layout the converter produces for map data
+	 */
+	private ByteBuffer[][] loadHiddenTiles() {
+		Bitmap mapImage;
+		try {
+			mapImage = BitmapFactory.decodeStream(context.getAssets().open("hidden.dat"));
+		} catch(IOException e) {
+			e.printStackTrace();
+			mapImage = Bitmap.createBitmap(1, 1, Bitmap.Config.RGB_565);
+		}
+		Bitmap tileImage = Bitmap.createBitmap(MAX_TEXTURE_WIDTH, MAX_TEXTURE_HEIGHT, Bitmap.Config.RGB_565);
+		Canvas canvas = new Canvas(tileImage);
+
+		ByteBuffer[][] retval = new ByteBuffer[hTileCount][wTileCount];
+		for(int row = 0; row < hTileCount; row++) {
+			for(int col = 0; col < wTileCount; col++) {
+				// Fill the tile with black (background color)
+				canvas.drawColor(BLACK);
+
+				// Copy the section of the image into the tile
+				int top = mapImage.getHeight() - Math.min((row + 1) * MAX_TEXTURE_HEIGHT, mapImage.getHeight());
+				int bottom = mapImage.getHeight() - row * MAX_TEXTURE_HEIGHT;
+				int left = col * MAX_TEXTURE_WIDTH;
+				int right = Math.min(left + MAX_TEXTURE_WIDTH, mapImage.getWidth());
+				if(bottom > top && right > left) {
+					Rect src = new Rect(left, top, right, bottom);
+					Rect dst = new Rect(0, 0, src.width(), src.height());
+					dst.offset(0, MAX_TEXTURE_HEIGHT - dst.height());
+					canvas.drawBitmap(mapImage, src, dst, paint);
+				}
+
+				retval[row][col] = DirectBufferPool.acquire(tileImage.getByteCount());
+				tileImage.copyPixelsToBuffer(retval[row][col]);
 			}
 		}
+		mapImage.recycle();
+		tileImage.recycle();
+		return retval;
 	}
 
 	/**
@@ -232,12 +538,16 @@ public class MapLayer extends EditableStatusSubscriberLayer<nav_msgs.OccupancyGr
 
 	@Override
 	public void draw(GL10 glUnused) {
-		if(isReady) {
+		// Drawing a cleaned up plane deletes its texture
+		synchronized(retiredTiles) {
+			for(MapTile p : retiredTiles)
+				p.draw(glUnused);
+			retiredTiles.clear();
+		}
+		MapTilePyramid current = pyramid;
+		if(isReady && current != null) {
 			super.draw(glUnused);
-			for(Plane[] pRow : tiles) {
-				for(Plane p : pRow)
-					p.draw(glUnused);
-			}
+			current.draw(glUnused);
 		}
 	}
 
@@ -249,11 +559,8 @@ public class MapLayer extends EditableStatusSubscriberLayer<nav_msgs.OccupancyGr
 	@Override
 	public void setName(String name) {
 		super.setName(name);
-		if(testLayerName()) {
-			isReady = false;
-			generateMapTiles(mostRecent);
-			isReady = true;
-		}
+		if(testLayerName() && mostRecent != null && nextMap.getAndSet(mostRecent) == null)
+			worker.execute(processMap);
 	}
 
 	@Override
@@ -264,11 +571,21 @@ public class MapLayer extends EditableStatusSubscriberLayer<nav_msgs.OccupancyGr
 	@Override
 	public void onShutdown(VisualizationView view, Node node) {
 		super.onShutdown(view, node);
-		if(tiles != null) {
-			for(Plane[] pRow : tiles)
-				for(Plane p : pRow)
-					p.cleanup();
+		nextMap.set(null);
+		worker.shutdown();
+		converter.shutdown();
+		MapTilePyramid current = pyramid;
+		if(current != null) {
+			for(MapTile p : current.getTiles())
+				p.cleanup();
 		}
+		// The layer won't be drawn again, so delete the palette texture on the GL thread directly
+		view.queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				palette.cleanup();
+			}
+		});
 	}
 
 	@Override
@@ -24,6 +24,8 @@ import java.util.Map;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.DrawQueue;
+import org.ros.android.renderer.layer.AnimatedLayer;
 import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
 import org.ros.android.rviz_for_android.drawable.Marker;
 import org.ros.android.rviz_for_android.prop.ButtonProperty;
@@ -41,7 +43,7 @@ import android.content.DialogInterface;
 import android.os.Handler;
 import android.util.Log;
 
-public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msgs.Marker> implements LayerWithProperties {
+public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msgs.Marker> implements LayerWithProperties, AnimatedLayer {
 
 	// List of all received namespaces and all namespaces to draw
 	private List<String> namespaceList = new LinkedList<String>();
@@ -54,6 +56,8 @@ public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msg
 	private long nextPruneTime;
 	private static final long PRUNE_PERIOD = 300; // Milliseconds
 	private Object lockObj = new Object();
+	// True if a drawn marker has a lifetime, so frames must keep coming to remove it when it expires
+	private boolean expiringMarkers = false;
 	private final ServerConnection serverConnection;
 
 	public MarkerLayer(Camera cam, GraphName topicName) {
@@ -82,12 +86,17 @@ public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msg
 					enabledNamespaces.add(ns);
 					namespaceList.add(ns);
 				}
-				markers.get(ns).put(id, new Marker(msg, super.camera, ftt));
+				Marker old = markers.get(ns).put(id, new Marker(msg, super.camera, ftt));
+				if(old != null)
+					old.cleanup();
 				break;
 			case visualization_msgs.Marker.DELETE:
 				Log.i("MarkerLayer", "Deleting marker " + ns + ":" + id);
-				if(markers.containsKey(ns))
-					markers.get(ns).remove(id);
+				if(markers.containsKey(ns)) {
+					Marker removed = markers.get(ns).remove(id);
+					if(removed != null)
+						removed.cleanup();
+				}
 				break;
 			default:
 				Log.e("MarkerLayer", "Received a message with unknown action " + msg.getAction());
@@ -99,9 +108,16 @@ public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msg
 	@Override
 	public void draw(GL10 glUnused) {
 		synchronized(lockObj) {
+			expiringMarkers = false;
+			// Markers are drawn sorted by GL state rather than in map order
+			DrawQueue queue = camera.getDrawQueue();
+			queue.begin();
 			for(String namespace : enabledNamespaces)
-				for(Marker marker : markers.get(namespace).values())
+				for(Marker marker : markers.get(namespace).values()) {
 					marker.draw(glUnused);
+					expiringMarkers |= marker.hasLifetime();
+				}
+			queue.flush(glUnused);
 			
 			if(System.currentTimeMillis() >= nextPruneTime)
 				pruneMarkers();
@@ -125,15 +141,21 @@ public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msg
 				}
 			}
 			for(Integer i : removeIds) {
-				hm.remove(i);
+				hm.remove(i).cleanup();
 			}
 		}
 
 		if(!error && super.messageCount > 0)
 			super.statusController.setFrameChecking(true);
 
-		nextPruneTime += PRUNE_PERIOD;
+		// Frames aren't drawn at a fixed rate, so schedule from now rather than catching up on missed periods
+		nextPruneTime = System.currentTimeMillis() + PRUNE_PERIOD;
+
+	}
 
+	@Override
+	public boolean isAnimating() {
+		return expiringMarkers;
 	}
 
 	@Override
@@ -176,6 +198,7 @@ public class MarkerLayer extends EditableStatusSubscriberLayer<visualization_msg
 					else
 						enabledNamespaces.remove(namespaceList.get(which));
 				}
+				requestRender();
 			}
 		};
 
@@ -102,7 +102,7 @@ public class OrbitCameraControlLayer extends DefaultLayer {
 
 					@Override
 					public boolean onSingleTapUp(MotionEvent e) {
-						cam.getSelectionManager().beginSelectionDraw((int) e.getX(), (int) e.getY());
+						cam.getSelectionManager().select((int) e.getX(), (int) e.getY());
 						return super.onSingleTapUp(e);
 					}
 				});
@@ -21,10 +21,13 @@ import java.util.Set;
 
 import org.ros.android.renderer.Camera;
 import org.ros.android.renderer.Camera.AvailableFixedFrameListener;
+import org.ros.android.renderer.GLResourceManager;
 import org.ros.android.renderer.OrbitCamera;
+import org.ros.android.renderer.RenderScheduler;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
 import org.ros.android.rviz_for_android.prop.GraphNameProperty;
+import org.ros.android.rviz_for_android.prop.IntProperty;
 import org.ros.android.rviz_for_android.prop.LayerWithProperties;
 import org.ros.android.rviz_for_android.prop.Property;
 import org.ros.android.rviz_for_android.prop.Property.PropertyUpdateListener;
@@ -43,10 +46,22 @@ public class ParentableOrbitCameraControlLayer extends OrbitCameraControlLayer i
 	private GraphNameProperty fixedFrameSelector;
 	private OrbitCamera cam;
 	
-	public ParentableOrbitCameraControlLayer(Context context, Camera cam) {
+	public ParentableOrbitCameraControlLayer(Context context, Camera cam, final RenderScheduler scheduler) {
 		super(context, cam);
 		fixedFrameSelector = new GraphNameProperty("Fixed", null, cam, null);
 		prop.addSubProperty(fixedFrameSelector);
+		prop.addSubProperty(new IntProperty("Max Frame Rate", scheduler.getMaxFrameRate(), new PropertyUpdateListener<Integer>() {
+			@Override
+			public void onPropertyChanged(Integer newval) {
+				scheduler.setMaxFrameRate(newval);
+			}
+		}).setValidRange(1, 60));
+		prop.addSubProperty(new IntProperty("GPU Memory (MB)", (int) (GLResourceManager.getBudget() / (1024 * 1024)), new PropertyUpdateListener<Integer>() {
+			@Override
+			public void onPropertyChanged(Integer newval) {
+				GLResourceManager.setBudget(newval * 1024L * 1024L);
+			}
+		}).setValidRange(16, 1024));
 	}
 
 	@Override
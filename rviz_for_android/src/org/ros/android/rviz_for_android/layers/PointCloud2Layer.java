@@ -17,13 +17,20 @@
 
 package org.ros.android.rviz_for_android.layers;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.VisualizationView;
+import org.ros.android.renderer.layer.AnimatedLayer;
 import org.ros.android.renderer.layer.TfLayer;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
 import org.ros.android.rviz_for_android.drawable.PointCloud2GL;
+import org.ros.android.rviz_for_android.prop.BoolProperty;
 import org.ros.android.rviz_for_android.prop.ButtonProperty;
 import org.ros.android.rviz_for_android.prop.ColorProperty;
 import org.ros.android.rviz_for_android.prop.FloatProperty;
@@ -32,14 +39,36 @@ import org.ros.android.rviz_for_android.prop.ListProperty;
 import org.ros.android.rviz_for_android.prop.Property;
 import org.ros.android.rviz_for_android.prop.Property.PropertyUpdateListener;
 import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.rosjava_geometry.FrameTransform;
+import org.ros.rosjava_geometry.FrameTransformTree;
+import org.ros.rosjava_geometry.Transform;
 
 import sensor_msgs.PointCloud2;
 import android.content.Context;
+import android.os.Handler;
 
-public class PointCloud2Layer extends EditableStatusSubscriberLayer<sensor_msgs.PointCloud2> implements TfLayer, LayerWithProperties {
+public class PointCloud2Layer extends EditableStatusSubscriberLayer<sensor_msgs.PointCloud2> implements TfLayer, LayerWithProperties, AnimatedLayer {
 	private static final String[] COLOR_MODES = new String[]{"Flat Color", "Channel"};
 	private ListProperty propChannelSelect;
 	private PointCloud2GL pc;
+	private FrameTransformTree frameTransformTree;
+
+	// Incoming clouds are downsampled and copied on a worker thread. Only the most recent unprocessed message is kept.
+	private final ExecutorService worker = Executors.newSingleThreadExecutor();
+	private final AtomicReference<PointCloud2> nextCloud = new AtomicReference<PointCloud2>();
+	private final Runnable processCloud = new Runnable() {
+		@Override
+		public void run() {
+			PointCloud2 msg = nextCloud.getAndSet(null);
+			if(msg != null) {
+				pc.setData(msg, getFixedFramePose(GraphName.of(msg.getHeader().getFrameId())));
+				propChannelSelect.setList(pc.getChannelNames());
+				requestRender();
+			}
+		}
+	};
 	
 	public PointCloud2Layer(GraphName topicName, Camera cam, Context context) {
 		super(topicName, sensor_msgs.PointCloud2._TYPE, cam);
@@ -63,6 +92,30 @@ public class PointCloud2Layer extends EditableStatusSubscriberLayer<sensor_msgs.
 					pc.setFlatColorMode(newval);
 			}
 		});
+		// Voxel grid downsampling leaf size, zero disables downsampling
+		final FloatProperty propVoxelSize = new FloatProperty("Voxel Size", 0f, new PropertyUpdateListener<Float>() {
+			@Override
+			public void onPropertyChanged(Float newval) {
+				if(pc != null)
+					pc.setVoxelSize(newval);
+			}
+		}).setValidRange(0f, Float.POSITIVE_INFINITY);
+		// Time in seconds to keep previous clouds visible, zero only shows the latest cloud
+		final FloatProperty propDecayTime = new FloatProperty("Decay Time", 0f, new PropertyUpdateListener<Float>() {
+			@Override
+			public void onPropertyChanged(Float newval) {
+				if(pc != null)
+					pc.setDecayTime(newval);
+			}
+		}).setValidRange(0f, Float.POSITIVE_INFINITY);
+		// Octree indexing for frustum culling and level of detail on large clouds
+		final BoolProperty propSpatialIndex = new BoolProperty("Spatial Index", false, new PropertyUpdateListener<Boolean>() {
+			@Override
+			public void onPropertyChanged(Boolean newval) {
+				if(pc != null)
+					pc.setSpatialIndex(newval);
+			}
+		});
 		// Channel coloring range bounds
 		final FloatProperty propMinRange = new FloatProperty("Min", 0f, null);
 		final FloatProperty propMaxRange = new FloatProperty("Max", 1f, null);
@@ -114,6 +167,9 @@ public class PointCloud2Layer extends EditableStatusSubscriberLayer<sensor_msgs.
 			}
 		});		
 
+		prop.addSubProperty(propVoxelSize);
+		prop.addSubProperty(propDecayTime);
+		prop.addSubProperty(propSpatialIndex);
 		prop.addSubProperty(propColorMode);
 		prop.addSubProperty(propChannelSelect);
 		prop.addSubProperty(propColorSelect);
@@ -130,12 +186,36 @@ public class PointCloud2Layer extends EditableStatusSubscriberLayer<sensor_msgs.
 		propMaxRange.setVisible(isChannelColor);
 	}
 	
+	@Override
+	public void onStart(ConnectedNode connectedNode, Handler handler, FrameTransformTree frameTransformTree, Camera camera) {
+		super.onStart(connectedNode, handler, frameTransformTree, camera);
+		this.frameTransformTree = frameTransformTree;
+	}
+
 	@Override
 	public void draw(GL10 glUnused) {
 		super.draw(glUnused);
+		if(pc.isDecaying() && frame != null)
+			pc.setReferencePose(camera.getTransformCache().getMatrix(frame, camera.getFixedFrame()));
 		pc.draw(glUnused);
 	}
 
+	@Override
+	public boolean isAnimating() {
+		// Older clouds disappear as they expire, even if no new cloud arrives
+		return pc.hasExpiringSegments();
+	}
+
+	/**
+	 * @return the current transform from source to the fixed frame, or null if it isn't available
+	 */
+	private Transform getFixedFramePose(GraphName source) {
+		if(frameTransformTree == null || source == null)
+			return null;
+		FrameTransform ft = frameTransformTree.transform(source, camera.getFixedFrame());
+		return (ft == null) ? null : ft.getTransform();
+	}
+
 	@Override
 	public GraphName getFrame() {
 		return frame;
@@ -154,8 +234,16 @@ public class PointCloud2Layer extends EditableStatusSubscriberLayer<sensor_msgs.
 	@Override
 	public void onMessageReceived(PointCloud2 msg) {
 		super.onMessageReceived(msg);
-		pc.setData(msg);
-		propChannelSelect.setList(pc.getChannelNames());
+		if(nextCloud.getAndSet(msg) == null)
+			worker.execute(processCloud);
+	}
+
+	@Override
+	public void onShutdown(VisualizationView view, Node node) {
+		super.onShutdown(view, node);
+		nextCloud.set(null);
+		worker.shutdown();
+		pc.cleanup();
 	}
 
 	@Override
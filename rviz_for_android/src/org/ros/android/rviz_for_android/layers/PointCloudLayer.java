@@ -16,11 +16,11 @@
  */
 package org.ros.android.rviz_for_android.layers;
 
-import geometry_msgs.Point32;
-
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.VisualizationView;
+import org.ros.android.renderer.layer.AnimatedLayer;
 import org.ros.android.renderer.layer.TfLayer;
 import org.ros.android.renderer.shapes.Color;
 import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
@@ -36,13 +36,20 @@ import org.ros.android.rviz_for_android.prop.Property.PropertyUpdateListener;
 import org.ros.android.rviz_for_android.prop.StringProperty;
 import org.ros.android.rviz_for_android.prop.StringProperty.StringPropertyValidator;
 import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
+import org.ros.rosjava_geometry.FrameTransform;
+import org.ros.rosjava_geometry.FrameTransformTree;
+import org.ros.rosjava_geometry.Transform;
 
 import sensor_msgs.PointCloud;
+import android.os.Handler;
 
-public class PointCloudLayer extends EditableStatusSubscriberLayer<sensor_msgs.PointCloud> implements LayerWithProperties, TfLayer {
+public class PointCloudLayer extends EditableStatusSubscriberLayer<sensor_msgs.PointCloud> implements LayerWithProperties, TfLayer, AnimatedLayer {
 
 	private int pointCount = -1;
 	private PointCloudGL pc;
+	private FrameTransformTree frameTransformTree;
 
 	public PointCloudLayer(Camera cam, GraphName topicName) {
 		super(topicName, sensor_msgs.PointCloud._TYPE, cam);
@@ -108,6 +115,14 @@ public class PointCloudLayer extends EditableStatusSubscriberLayer<sensor_msgs.P
 		});
 		propEnableAutorange.setVisible(false);
 		
+		// Time in seconds to keep previous clouds visible, zero only shows the latest cloud
+		final FloatProperty propDecayTime = new FloatProperty("Decay Time", 0f, new PropertyUpdateListener<Float>() {
+			@Override
+			public void onPropertyChanged(Float newval) {
+				pc.setDecayTime(newval);
+			}
+		}).setValidRange(0f, Float.POSITIVE_INFINITY);
+		
 		// Color mode selection property
 		ListProperty propColorMode = new ListProperty("Color Mode", 0, new PropertyUpdateListener<Integer>() {
 			@Override
@@ -132,6 +147,7 @@ public class PointCloudLayer extends EditableStatusSubscriberLayer<sensor_msgs.P
 		propMinRange.setVisible(!propEnableAutorange.getValue());
 		propMaxRange.setVisible(!propEnableAutorange.getValue());
 		
+		prop.addSubProperty(propDecayTime);
 		prop.addSubProperty(propColorMode);
 		prop.addSubProperty(propChannels);
 		prop.addSubProperty(propFlatColor);
@@ -142,10 +158,34 @@ public class PointCloudLayer extends EditableStatusSubscriberLayer<sensor_msgs.P
 		pc.setColor(propFlatColor.getValue());
 	}
 
+	@Override
+	public void onStart(ConnectedNode connectedNode, Handler handler, FrameTransformTree frameTransformTree, Camera camera) {
+		super.onStart(connectedNode, handler, frameTransformTree, camera);
+		this.frameTransformTree = frameTransformTree;
+	}
+
 	@Override
 	public void draw(GL10 glUnused) {
+		if(pc.isDecaying() && frame != null)
+			pc.setReferencePose(camera.getTransformCache().getMatrix(frame, camera.getFixedFrame()));
 		pc.draw(glUnused);
 	}
+
+	@Override
+	public boolean isAnimating() {
+		// Older clouds disappear as they expire, even if no new cloud arrives
+		return pc.hasExpiringSegments();
+	}
+
+	/**
+	 * @return the current transform from source to the fixed frame, or null if it isn't available
+	 */
+	private Transform getFixedFramePose(GraphName source) {
+		if(frameTransformTree == null || source == null)
+			return null;
+		FrameTransform ft = frameTransformTree.transform(source, camera.getFixedFrame());
+		return (ft == null) ? null : ft.getTransform();
+	}
 	
 	@Override
 	public Property<?> getProperties() {
@@ -172,17 +212,16 @@ public class PointCloudLayer extends EditableStatusSubscriberLayer<sensor_msgs.P
 		super.onMessageReceived(msg);
 		
 		pointCount = msg.getPoints().size();
-		float[] vertices = new float[pointCount * 3];
-		int i = 0;
-		for(Point32 p : msg.getPoints()) {
-			vertices[i++] = p.getX();
-			vertices[i++] = p.getY();
-			vertices[i++] = p.getZ();
-		}
-		pc.setData(vertices, msg.getChannels());
+		pc.setData(msg, getFixedFramePose(frame));
 		prop.<ListProperty> getProperty("Channels").setList(pc.getChannelNames());
 	}
 
+	@Override
+	public void onShutdown(VisualizationView view, Node node) {
+		super.onShutdown(view, node);
+		pc.cleanup();
+	}
+
 	@Override
 	public AvailableLayerType getType() {
 		return AvailableLayerType.PointCloud;
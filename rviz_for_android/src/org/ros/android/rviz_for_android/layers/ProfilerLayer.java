@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2012, Willow Garage, Inc.
+ * All rights reserved.
+ *
+ * Willow Garage licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.ros.android.rviz_for_android.layers;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import javax.microedition.khronos.opengles.GL10;
+
+import org.ros.android.renderer.Camera;
+import org.ros.android.renderer.FrameProfiler;
+import org.ros.android.renderer.GLResourceManager;
+import org.ros.android.renderer.VisualizationView;
+import org.ros.android.renderer.layer.AnimatedLayer;
+import org.ros.android.renderer.layer.DefaultLayer;
+import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
+import org.ros.android.rviz_for_android.prop.BoolProperty;
+import org.ros.android.rviz_for_android.prop.ButtonProperty;
+import org.ros.android.rviz_for_android.prop.LayerWithProperties;
+import org.ros.android.rviz_for_android.prop.Property;
+import org.ros.android.rviz_for_android.prop.Property.PropertyUpdateListener;
+import org.ros.android.rviz_for_android.prop.ReadOnlyProperty;
+import org.ros.node.Node;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Shows the frame rate, the p50, p95 and p99 draw and message handling times of each layer, the shapes each layer drew and culled and the GL state
+ * changes of the last frame in an overlay, and exports them as CSV so devices can be compared.
+ */
+public class ProfilerLayer extends DefaultLayer implements LayerWithProperties, AnimatedLayer {
+
+	private static final long OVERLAY_UPDATE_NANOS = 1000000000L;
+
+	private final Context context;
+	private final TextView overlay;
+	private final BoolProperty prop;
+	private final BoolProperty propContinuous;
+	private final ReadOnlyProperty propExported;
+
+	private long lastOverlayUpdate = 0;
+
+	public ProfilerLayer(final Camera cam, Context context, TextView overlay) {
+		super(cam);
+		this.context = context;
+		this.overlay = overlay;
+
+		prop = new BoolProperty("enabled", true, new PropertyUpdateListener<Boolean>() {
+			@Override
+			public void onPropertyChanged(Boolean newval) {
+				setOverlayVisible(newval);
+				if(!newval)
+					camera.getFrameProfiler().setGpuSampling(false);
+			}
+		});
+		propContinuous = new BoolProperty("Continuous Redraw", false, new PropertyUpdateListener<Boolean>() {
+			@Override
+			public void onPropertyChanged(Boolean newval) {
+				requestRender();
+			}
+		});
+		// glFinish stalls the pipeline, so GPU timing is only on when asked for
+		BoolProperty propGpu = new BoolProperty("GPU Timing", false, new PropertyUpdateListener<Boolean>() {
+			@Override
+			public void onPropertyChanged(Boolean newval) {
+				camera.getFrameProfiler().setGpuSampling(newval && prop.getValue());
+			}
+		});
+		ButtonProperty propReset = new ButtonProperty("Samples", "Reset", new PropertyUpdateListener<String>() {
+			@Override
+			public void onPropertyChanged(String newval) {
+				camera.getFrameProfiler().reset();
+			}
+		});
+		ButtonProperty propExport = new ButtonProperty("Export", "Write CSV", new PropertyUpdateListener<String>() {
+			@Override
+			public void onPropertyChanged(String newval) {
+				exportCsv();
+			}
+		});
+		propExported = new ReadOnlyProperty("Exported", "None", null);
+
+		prop.addSubProperty(propContinuous);
+		prop.addSubProperty(propGpu);
+		prop.addSubProperty(propReset);
+		prop.addSubProperty(propExport);
+		prop.addSubProperty(propExported);
+
+		setOverlayVisible(true);
+	}
+
+	@Override
+	public void draw(GL10 glUnused) {
+		long now = System.nanoTime();
+		if(now - lastOverlayUpdate < OVERLAY_UPDATE_NANOS)
+			return;
+		lastOverlayUpdate = now;
+
+		List<String> lines = camera.getFrameProfiler().getReport();
+		StringBuilder sb = new StringBuilder(String.format(Locale.US, "%-24s %6s %6s %6s", "", "p50", "p95", "p99"));
+		for(String line : lines)
+			sb.append('\n').append(line);
+		sb.append(String.format(Locale.US, "\n%-24s %d / %d MB", "GPU memory", GLResourceManager.getResidentBytes() >> 20, GLResourceManager.getBudget() >> 20));
+		final String text = sb.toString();
+		overlay.post(new Runnable() {
+			@Override
+			public void run() {
+				overlay.setText(text);
+			}
+		});
+	}
+
+	private void exportCsv() {
+		File dir = context.getExternalFilesDir(null);
+		if(dir == null)
+			dir = context.getFilesDir();
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+		File file = new File(dir, "profile-" + android.os.Build.MODEL.replace(' ', '_') + "-" + stamp + ".csv");
+		Writer out = null;
+		try {
+			out = new FileWriter(file);
+			camera.getFrameProfiler().writeCsv(out);
+			propExported.setValue(file.getName());
+			Log.i("Profiler", "Wrote frame timings to " + file.getAbsolutePath());
+		} catch(IOException e) {
+			propExported.setValue("Failed");
+			Log.e("Profiler", "Unable to write " + file.getAbsolutePath(), e);
+		} finally {
+			if(out != null) {
+				try {
+					out.close();
+				} catch(IOException e) {
+				}
+			}
+		}
+	}
+
+	private void setOverlayVisible(final boolean visible) {
+		overlay.post(new Runnable() {
+			@Override
+			public void run() {
+				overlay.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+			}
+		});
+	}
+
+	@Override
+	public boolean isAnimating() {
+		// Frame rates are only meaningful while frames are drawn continuously
+		return propContinuous.getValue();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return prop.getValue();
+	}
+
+	@Override
+	public void onShutdown(VisualizationView view, Node node) {
+		camera.getFrameProfiler().setGpuSampling(false);
+		setOverlayVisible(false);
+		super.onShutdown(view, node);
+	}
+
+	@Override
+	public Property<?> getProperties() {
+		return prop;
+	}
+
+	@Override
+	public AvailableLayerType getType() {
+		return AvailableLayerType.Profiler;
+	}
+}
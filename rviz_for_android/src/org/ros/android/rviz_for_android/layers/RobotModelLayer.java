@@ -25,7 +25,6 @@ import java.util.Set;
 import javax.microedition.khronos.opengles.GL10;
 
 import org.ros.android.renderer.Camera;
-import org.ros.android.renderer.Utility;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.renderer.layer.DefaultLayer;
 import org.ros.android.renderer.layer.Selectable;
@@ -152,7 +151,7 @@ public class RobotModelLayer extends DefaultLayer implements LayerWithProperties
 
 			cam.pushM();
 			// Transform to the URDF link's frame
-			cam.applyTransform(Utility.newTransformIfPossible(ftt, ul.getName(), cam.getFixedFrame()));
+			cam.applyTransform(cam.getTransformCache().getMatrix(ul.getName(), cam.getFixedFrame()));
 
 			// Draw the shape
 			if(drawVis && vis != null) {
@@ -292,6 +291,7 @@ public class RobotModelLayer extends DefaultLayer implements LayerWithProperties
 		protected void onPostExecute(Void result) {
 			super.onPostExecute(result);
 			readyToDraw = true;
+			requestRender();
 		}
 
 		@Override
@@ -378,7 +378,7 @@ public class RobotModelLayer extends DefaultLayer implements LayerWithProperties
 
 			cam.pushM();
 			// Transform to the URDF link's frame
-			cam.applyTransform(Utility.newTransformIfPossible(ftt, ul.getName(), cam.getFixedFrame()));
+			cam.applyTransform(cam.getTransformCache().getMatrix(ul.getName(), cam.getFixedFrame()));
 
 			// Draw the shape
 			if(drawVis && vis != null) {
@@ -25,7 +25,6 @@ import javax.microedition.khronos.opengles.GL10;
 import org.ros.android.renderer.AvailableFrameTracker;
 import org.ros.android.renderer.AvailableFrameTracker.FrameAddedListener;
 import org.ros.android.renderer.Camera;
-import org.ros.android.renderer.Utility;
 import org.ros.android.renderer.VisualizationView;
 import org.ros.android.renderer.layer.DefaultLayer;
 import org.ros.android.rviz_for_android.MainActivity.AvailableLayerType;
@@ -45,7 +44,6 @@ public class TfFrameLayer extends DefaultLayer implements LayerWithProperties {
 
 	private Axis axis;
 	private FrameAddedListener listener;
-	private FrameTransformTree ftt;
 	private Set<GraphName> frames = Collections.newSetFromMap(new ConcurrentHashMap<GraphName, Boolean>());
 	private BoolProperty prop;
 	private float scale = 1f;
@@ -67,7 +65,7 @@ public class TfFrameLayer extends DefaultLayer implements LayerWithProperties {
 	public void draw(GL10 glUnused) {
 		for(GraphName g : frames) {
 			camera.pushM();
-			camera.applyTransform(Utility.newTransformIfPossible(ftt, g, camera.getFixedFrame()));
+			camera.applyTransform(camera.getTransformCache().getMatrix(g, camera.getFixedFrame()));
 			camera.scaleM(scale, scale, scale);
 			axis.draw(glUnused);
 			camera.popM();
@@ -76,7 +74,6 @@ public class TfFrameLayer extends DefaultLayer implements LayerWithProperties {
 
 	@Override
 	public void onStart(ConnectedNode connectedNode, Handler handler, FrameTransformTree frameTransformTree, Camera camera) {
-		ftt = frameTransformTree;
 		listener = new AvailableFrameTracker.FrameAddedListener() {
 			@Override
 			public void informFrameAdded(Set<String> newFrames) {
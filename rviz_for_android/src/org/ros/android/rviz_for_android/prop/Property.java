@@ -98,6 +98,8 @@ public abstract class Property<T> {
 			if(pul != null)
 				pul.onPropertyChanged(newvalue);
 		}
+		if(propAdapter != null)
+			propAdapter.propertyChanged();
 	}
 
 	/**
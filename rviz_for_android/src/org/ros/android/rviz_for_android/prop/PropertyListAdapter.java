@@ -20,6 +20,8 @@ package org.ros.android.rviz_for_android.prop;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.ros.android.renderer.RenderRequestListener;
+
 import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -35,6 +37,7 @@ public class PropertyListAdapter extends BaseExpandableListAdapter {
 	private List<LayerWithProperties> layers;
 	private List<ArrayList<Property<?>>> props = new ArrayList<ArrayList<Property<?>>>();
 	private LayoutInflater inflater;
+	private RenderRequestListener renderRequestListener;
 		
 	public PropertyListAdapter(List<LayerWithProperties> layers, Context context) {
 		super();
@@ -49,11 +52,26 @@ public class PropertyListAdapter extends BaseExpandableListAdapter {
 			LayerWithProperties lwp = layers.get(i);
 			props.add(i, new ArrayList<Property<?>>(lwp.getProperties().getPropertyCollection()));
 		}
+		for(LayerWithProperties lwp : layers)
+			lwp.getProperties().registerPropListAdapter(this);
 		for(ArrayList<Property<?>> alp : props)
 			for(Property<?> p : alp)
 				p.registerPropListAdapter(this);
 	}
 
+	/**
+	 * @param listener
+	 *            informed whenever a property value changes, since the view has to be drawn again to show the change
+	 */
+	public void setRenderRequestListener(RenderRequestListener listener) {
+		this.renderRequestListener = listener;
+	}
+
+	void propertyChanged() {
+		if(renderRequestListener != null)
+			renderRequestListener.onRenderRequest();
+	}
+
 	public Object getChild(int groupPosition, int childPosition) {
 		return props.get(groupPosition).get(childPosition);
 	}